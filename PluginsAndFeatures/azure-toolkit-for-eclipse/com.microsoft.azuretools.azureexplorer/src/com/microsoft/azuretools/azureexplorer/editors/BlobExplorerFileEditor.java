@@ -19,11 +19,8 @@
  */
 package com.microsoft.azuretools.azureexplorer.editors;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketTimeoutException;
@@ -44,7 +41,7 @@ import org.eclipse.jface.viewers.DoubleClickEvent;
 import org.eclipse.jface.viewers.IDoubleClickListener;
 import org.eclipse.jface.viewers.ILabelProviderListener;
 import org.eclipse.jface.viewers.ISelectionChangedListener;
-import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.ILazyContentProvider;
 import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.jface.viewers.ITableLabelProvider;
 import org.eclipse.jface.viewers.SelectionChangedEvent;
@@ -88,6 +85,7 @@ import com.microsoft.tooling.msservices.model.storage.BlobContainer;
 import com.microsoft.tooling.msservices.model.storage.BlobDirectory;
 import com.microsoft.tooling.msservices.model.storage.BlobFile;
 import com.microsoft.tooling.msservices.model.storage.BlobItem;
+import com.microsoft.tooling.msservices.model.storage.StorageItemPage;
 import com.microsoft.tooling.msservices.serviceexplorer.NodeActionEvent;
 import com.microsoft.tooling.msservices.serviceexplorer.NodeActionListener;
 
@@ -101,6 +99,10 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
 	private static final String REFRESH = "Refresh";
 	private static final String UPLOAD_BLOB = "Upload Blob";
 	private static final String DELETE_SELECTED_BLOB = "Delete Selected Blob";
+
+	// Blobs are listed one page at a time, the next page is loaded when the table asks for the last rows
+	private static final int BLOB_PAGE_SIZE = 500;
+	private static final int LOAD_MORE_THRESHOLD_ROWS = 50;
 	
     private Text queryTextField;
     private Button queryButton;
@@ -120,6 +122,9 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
 
     private LinkedList<BlobDirectory> directoryQueue = new LinkedList<BlobDirectory>();
     private java.util.List<BlobItem> blobItems = new ArrayList<BlobItem>();
+    private String blobItemsContinuationToken;
+    private boolean isLoadingBlobItemsPage;
+    private int blobListingGeneration;
     private FileEditorVirtualNode<EditorPart> fileEditorVirtualNode;
 
     @Override
@@ -340,7 +345,7 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
 
 
     private Table createTable(Composite parent) {
-        blobListTable = new Table(parent, SWT.BORDER | SWT.FULL_SELECTION);
+        blobListTable = new Table(parent, SWT.BORDER | SWT.FULL_SELECTION | SWT.VIRTUAL);
 
         blobListTable.setHeaderVisible(true);
         blobListTable.setLinesVisible(true);
@@ -402,6 +407,9 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
     public void fillGrid() {
         setUIState(true);
 
+        final String namePrefix = queryTextField.getText();
+        final int generation = ++blobListingGeneration;
+
         DefaultLoader.getIdeHelper().runInBackground(null, "Loading blobs...", false, true, "Loading blobs...", new Runnable() {
             @Override
             public void run() {
@@ -410,27 +418,25 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
                         directoryQueue.addLast(StorageClientSDKManager.getManager().getRootDirectory(connectionString, blobContainer));
                     }
 
-                    blobItems = StorageClientSDKManager.getManager().getBlobItems(connectionString, directoryQueue.peekLast());
+                    final StorageItemPage<BlobItem> page = StorageClientSDKManager.getManager().getBlobItemsPage(
+                            connectionString, directoryQueue.peekLast(), namePrefix, BLOB_PAGE_SIZE, null);
 
                     DefaultLoader.getIdeHelper().invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            if (!queryTextField.getText().isEmpty()) {
-                                for (int i = blobItems.size() - 1; i >= 0; i--) {
-                                    BlobItem blobItem = blobItems.get(i);
-
-                                    if (blobItem instanceof BlobFile && !blobItem.getName().startsWith(queryTextField.getText())) {
-                                        blobItems.remove(i);
-                                    }
-                                }
+                            if (generation != blobListingGeneration || blobListTable.isDisposed()) {
+                                return;
                             }
 
+                            blobItems = new ArrayList<BlobItem>(page.getItems());
+                            blobItemsContinuationToken = page.getContinuationToken();
+                            isLoadingBlobItemsPage = false;
+
                             pathLabel.setText(directoryQueue.peekLast().getPath());
                             tableViewer.setInput(blobItems);
+                            tableViewer.setItemCount(blobItems.size());
                             tableViewer.refresh();
                             setUIState(false);
-//
-//                            blobListTable.clearSelection();
                         }
                     });
                 } catch (AzureCmdException ex) {
@@ -440,6 +446,55 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
         });
     }
 
+    private void loadNextBlobItemsPage() {
+        final BlobDirectory blobDirectory = directoryQueue.peekLast();
+        final String continuationToken = blobItemsContinuationToken;
+
+        if (isLoadingBlobItemsPage || continuationToken == null || blobDirectory == null) {
+            return;
+        }
+
+        isLoadingBlobItemsPage = true;
+
+        final String namePrefix = queryTextField.getText();
+        final int generation = blobListingGeneration;
+
+        DefaultLoader.getIdeHelper().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final StorageItemPage<BlobItem> page = StorageClientSDKManager.getManager().getBlobItemsPage(
+                            connectionString, blobDirectory, namePrefix, BLOB_PAGE_SIZE, continuationToken);
+
+                    DefaultLoader.getIdeHelper().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != blobListingGeneration || blobListTable.isDisposed()) {
+                                return;
+                            }
+
+                            blobItems.addAll(page.getItems());
+                            blobItemsContinuationToken = page.getContinuationToken();
+                            isLoadingBlobItemsPage = false;
+                            tableViewer.setItemCount(blobItems.size());
+                        }
+                    });
+                } catch (AzureCmdException ex) {
+                    DefaultLoader.getIdeHelper().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == blobListingGeneration) {
+                                isLoadingBlobItemsPage = false;
+                            }
+                        }
+                    });
+
+                    DefaultLoader.getUIHelper().showException("Error querying blob list.", ex, "Error querying blobs", false, true);
+                }
+            }
+        });
+    }
+
     private void setUIState(boolean loading) {
         if (loading) {
             blobListTable.setEnabled(false);
@@ -567,59 +622,50 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
                             }
                         }
 
-                        final BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(targetFile), 65536) {
-                            private long runningCount = 0;
-
+                        final CallableSingleArg<Void, Long> progressCallback = new CallableSingleArg<Void, Long>() {
                             @Override
-                            public synchronized void write(@NotNull byte[] bytes, int i, int i1) throws IOException {
-                                super.write(bytes, i, i1);
-
-                                runningCount += i1;
-
-                                double progress = (double) runningCount / fileSelection.getSize();
+                            public Void call(Long downloadedBytes) throws Exception {
+                                double progress = fileSelection.getSize() == 0 ? 1 : (double) downloadedBytes / fileSelection.getSize();
                                 monitor.worked((int) (100 * progress));
                                 monitor.subTask(String.format("%s%% downloaded", (int) (progress * 100)));
+                                return null;
                             }
                         };
 
-                        try {
 //                            Future<?> future = DefaultLoader.getIdeHelper().executeOnPooledThread(new Runnable() {
 //                                @Override
 //                                public void run() {
-                            try {
-                                StorageClientSDKManager.getManager().downloadBlobFileContent(connectionString, fileSelection, bufferedOutputStream);
-
-                                if (open && targetFile.exists()) {
-                                    try {
-                                        final Process p;
-                                        Runtime runtime = Runtime.getRuntime();
-                                        p = runtime.exec(
-                                                new String[]{"open", "-R", targetFile.getName()},
-                                                null,
-                                                targetFile.getParentFile());
-
-                                        InputStream errorStream = p.getErrorStream();
-                                        String errResponse = new String(IOUtils.readFully(errorStream, -1, true));
-
-                                        if (p.waitFor() != 0) {
-                                            throw new Exception(errResponse);
-                                        }
-                                    } catch (Exception e) {
-                                        monitor.setTaskName("Error opening file");
-                                        monitor.subTask(e.getMessage());
+                        try {
+                            StorageClientSDKManager.getManager().downloadBlobFileContent(connectionString, fileSelection, targetFile, progressCallback);
+
+                            if (open && targetFile.exists()) {
+                                try {
+                                    final Process p;
+                                    Runtime runtime = Runtime.getRuntime();
+                                    p = runtime.exec(
+                                            new String[]{"open", "-R", targetFile.getName()},
+                                            null,
+                                            targetFile.getParentFile());
+
+                                    InputStream errorStream = p.getErrorStream();
+                                    String errResponse = new String(IOUtils.readFully(errorStream, -1, true));
+
+                                    if (p.waitFor() != 0) {
+                                        throw new Exception(errResponse);
                                     }
-//                                            Desktop.getDesktop().open(targetFile);
+                                } catch (Exception e) {
+                                    monitor.setTaskName("Error opening file");
+                                    monitor.subTask(e.getMessage());
                                 }
-                            } catch (AzureCmdException e) {
-                                Throwable connectionFault = e.getCause().getCause();
-
-                                monitor.setTaskName("Error downloading Blob");
-                                monitor.subTask((connectionFault instanceof SocketTimeoutException) ? "Connection timed out" : connectionFault.getMessage());
-                                return Status.CANCEL_STATUS;
-                            } 
-                        } finally {
-                            bufferedOutputStream.close();
-                        }
+//                                            Desktop.getDesktop().open(targetFile);
+                            }
+                        } catch (AzureCmdException e) {
+                            Throwable connectionFault = e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause();
+
+                            monitor.setTaskName("Error downloading Blob");
+                            monitor.subTask((connectionFault instanceof SocketTimeoutException) ? "Connection timed out" : connectionFault.getMessage());
+                            return Status.CANCEL_STATUS;
+                        } 
                     } catch (IOException e) {
                         DefaultLoader.getUIHelper().showException("Error downloading Blob", e, "Error downloading Blob", false, true);
                         return Status.CANCEL_STATUS;
@@ -665,7 +711,10 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
                 monitor.beginTask("Uploading blob...", IProgressMonitor.UNKNOWN);
                 try {
                     final BlobDirectory blobDirectory = directoryQueue.peekLast();
-                    final BufferedInputStream bufferedInputStream = new BufferedInputStream(new FileInputStream(selectedFile));
+                    // the blocks are read by the upload workers, so check the file can be opened before starting
+                    if (!selectedFile.canRead()) {
+                        throw new FileNotFoundException(selectedFile.getPath() + " (cannot be read)");
+                    }
                     monitor.subTask("0% uploaded");
                     try {
                         final CallableSingleArg<Void, Long> callable = new CallableSingleArg<Void, Long>() {
@@ -684,17 +733,11 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
                                     connectionString,
                                     blobContainer,
                                     path,
-                                    bufferedInputStream,
+                                    selectedFile,
                                     callable,
-                                    1024 * 1024,
-                                    selectedFile.length());
+                                    1024 * 1024);
                         } catch (AzureCmdException e) {
                             e.printStackTrace();
-                        } finally {
-                            try {
-                                bufferedInputStream.close();
-                            } catch (IOException ignored) {
-                            }
                         }
 //                        while (!future.isDone()) {
 //                            Thread.sleep(500);
@@ -702,7 +745,6 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
 
                         if (monitor.isCanceled()) {
 //                                future.cancel(true);
-                            bufferedInputStream.close();
 
                             for (BlobItem blobItem : StorageClientSDKManager.getManager().getBlobItems(connectionString, blobDirectory)) {
                                 if (blobItem instanceof BlobFile && blobItem.getPath().equals(path)) {
@@ -717,7 +759,8 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
                             directoryQueue.addLast(StorageClientSDKManager.getManager().getRootDirectory(connectionString, blobContainer));
 
                             for (String pathDir : path.split("/")) {
-                                for (BlobItem blobItem : StorageClientSDKManager.getManager().getBlobItems(connectionString, directoryQueue.getLast())) {
+                                for (BlobItem blobItem : StorageClientSDKManager.getManager().getBlobItemsPage(connectionString,
+                                        directoryQueue.getLast(), pathDir, StorageClientSDKManager.MAX_BLOB_LIST_PAGE_SIZE, null).getItems()) {
                                     if (blobItem instanceof BlobDirectory && blobItem.getName().equals(pathDir)) {
                                         directoryQueue.addLast((BlobDirectory) blobItem);
                                     }
@@ -766,7 +809,7 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
     public void setFocus() {
     }
 
-    private class BlobListContentProvider implements IStructuredContentProvider {
+    private class BlobListContentProvider implements ILazyContentProvider {
         @Override
         public void dispose() {
         }
@@ -776,8 +819,14 @@ public class BlobExplorerFileEditor extends EditorPart implements TelemetryPrope
         }
 
         @Override
-        public Object[] getElements(Object o) {
-            return blobItems.toArray();
+        public void updateElement(int index) {
+            if (index < blobItems.size()) {
+                tableViewer.replace(blobItems.get(index), index);
+            }
+
+            if (index >= blobItems.size() - LOAD_MORE_THRESHOLD_ROWS) {
+                loadNextBlobItemsPage();
+            }
         }
     }
 
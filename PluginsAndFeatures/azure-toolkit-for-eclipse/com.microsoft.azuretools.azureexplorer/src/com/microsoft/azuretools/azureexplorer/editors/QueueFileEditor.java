@@ -20,6 +20,7 @@
 package com.microsoft.azuretools.azureexplorer.editors;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -42,6 +43,7 @@ import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.layout.RowLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
@@ -71,15 +73,22 @@ public class QueueFileEditor extends EditorPart {
 	private static final String ADD = "Add";
 	private static final String CLEAR_QUEUE = "Clear queue";
 
+	private static final String PEEK_LIMIT_NOTE = String.format(
+			"Only the first %d messages can be browsed without dequeuing them",
+			StorageClientSDKManager.MAX_QUEUE_MESSAGE_PEEK);
+
     private ClientStorageAccount storageAccount;
+    private String connectionString;
     private Queue queue;
     private Button dequeueMessageButton;
     private Button refreshButton;
     private Button addMessageButton;
     private Button clearQueueButton;
+    private Label peekLimitLabel;
     private Table queueTable;
     private TableViewer tableViewer;
-    private List<QueueMessage> queueMessages;
+    private List<QueueMessage> queueMessages = new ArrayList<QueueMessage>();
+    private int queueBrowseGeneration;
     
     private FileEditorVirtualNode<EditorPart> fileEditorVirtualNode;
 
@@ -93,11 +102,12 @@ public class QueueFileEditor extends EditorPart {
 
     @Override
     public void init(IEditorSite site, IEditorInput input) throws PartInitException {
-/*        setSite(site);
+        setSite(site);
         setInput(input);
-        storageAccount = ((StorageEditorInput) input).getStorageAccount();
+//        storageAccount = ((StorageEditorInput) input).getStorageAccount();
+        connectionString = ((StorageEditorInput) input).getConnectionString();
         queue = (Queue) ((StorageEditorInput) input).getItem();
-        setPartName(queue.getName() + " [Queue]");*/
+        setPartName(queue.getName() + " [Queue]");
     	fileEditorVirtualNode = createVirtualNode("");
     }
 
@@ -226,6 +236,9 @@ public class QueueFileEditor extends EditorPart {
         clearQueueButton.setImage(Activator.getImageDescriptor("icons/clearqueue.png").createImage());
         clearQueueButton.setToolTipText("Clear queue");
 
+        peekLimitLabel = new Label(container, SWT.NONE);
+        peekLimitLabel.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+
         refreshButton.addSelectionListener(new SelectionAdapter() {
             @Override
             public void widgetSelected(SelectionEvent e) {
@@ -312,14 +325,29 @@ public class QueueFileEditor extends EditorPart {
     }
 
     public void fillGrid() {
+        final int generation = ++queueBrowseGeneration;
+
         DefaultLoader.getIdeHelper().runInBackground(null, "Loading queue messages", false, true, "Loading queue messages", new Runnable() {
             public void run() {
-                /*try {
-                    queueMessages = StorageClientSDKManager.getManager().getQueueMessages(storageAccount, queue);
+                try {
+                    final List<QueueMessage> messages = StorageClientSDKManager.getManager().getQueueMessages(
+                            connectionString, queue);
 
                     DefaultLoader.getIdeHelper().invokeLater(new Runnable() {
                         @Override
                         public void run() {
+                            if (generation != queueBrowseGeneration || queueTable.isDisposed()) {
+                                return;
+                            }
+
+                            queueMessages = new ArrayList<QueueMessage>(messages);
+
+                            // A full peek means the messages behind it are there but can't be shown
+                            peekLimitLabel.setText(queueMessages.size() >= StorageClientSDKManager.MAX_QUEUE_MESSAGE_PEEK
+                                    ? PEEK_LIMIT_NOTE
+                                    : "");
+                            peekLimitLabel.getParent().layout();
+
                             clearQueueButton.setEnabled(queueMessages.size() != 0);
                             dequeueMessageButton.setEnabled(queueMessages.size() != 0);
                             tableViewer.setInput(queueMessages);
@@ -328,7 +356,7 @@ public class QueueFileEditor extends EditorPart {
 
                 } catch (AzureCmdException e) {
                     DefaultLoader.getUIHelper().showException("Error getting queue messages", e, "Service Explorer", false, true);
-                }*/
+                }
             }
         });
     }
@@ -22,16 +22,14 @@ package com.microsoft.azuretools.azureexplorer.editors;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.viewers.ILabelProviderListener;
-import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.ILazyContentProvider;
 import org.eclipse.jface.viewers.ITableLabelProvider;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.Viewer;
@@ -60,6 +58,7 @@ import com.microsoft.azuretools.core.utils.PluginUtil;
 import com.microsoft.azuretools.azurecommons.helpers.AzureCmdException;
 import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientSDKManager;
 import com.microsoft.tooling.msservices.model.storage.ClientStorageAccount;
+import com.microsoft.tooling.msservices.model.storage.StorageItemPage;
 import com.microsoft.tooling.msservices.model.storage.Table;
 import com.microsoft.tooling.msservices.model.storage.TableEntity;
 import com.microsoft.tooling.msservices.serviceexplorer.NodeActionEvent;
@@ -74,7 +73,12 @@ public class TableFileEditor extends EditorPart {
 	private static final String DELETE = "Delete";
 	private static final String REFRESH = "Refresh";
 
+	// Entities are queried one page at a time, the next page is loaded when the table asks for the last rows
+	private static final int TABLE_PAGE_SIZE = 200;
+	private static final int LOAD_MORE_THRESHOLD_ROWS = 50;
+
     private ClientStorageAccount storageAccount;
+    private String connectionString;
     private Table table;
     private Button refreshButton;
 //    private Button newEntityButton;
@@ -84,9 +88,11 @@ public class TableFileEditor extends EditorPart {
 //    private Button queryDesignerButton;
     private org.eclipse.swt.widgets.Table entitiesTable;
     private TableViewer tableViewer;
-    private List<TableEntity> tableEntities;
-    private Map<String, List<String>> columnData;
-    private List<String> data;
+    private List<TableEntity> tableEntities = new ArrayList<TableEntity>();
+    private List<String> data = new ArrayList<String>();
+    private String tableEntitiesContinuationToken;
+    private boolean isLoadingTableEntitiesPage;
+    private int tableQueryGeneration;
     
     private FileEditorVirtualNode<EditorPart> fileEditorVirtualNode;
 
@@ -103,6 +109,7 @@ public class TableFileEditor extends EditorPart {
         setSite(site);
         setInput(input);
 //        storageAccount = ((StorageEditorInput) input).getStorageAccount();
+        connectionString = ((StorageEditorInput) input).getConnectionString();
         table = (Table) ((StorageEditorInput) input).getItem();
         setPartName(table.getName() + " [Table]");
         fileEditorVirtualNode = createVirtualNode(table.getName());
@@ -252,74 +259,133 @@ public class TableFileEditor extends EditorPart {
 
     public void fillGrid() {
         final String queryText = queryTextField.getText();
+        final int generation = ++tableQueryGeneration;
 
         DefaultLoader.getIdeHelper().runInBackground(null, "Loading entities", false, true, "Loading entities", new Runnable() {
             public void run() {
-                /*try {
-                    tableEntities = StorageClientSDKManager.getManager().getTableEntities(storageAccount, table, queryText);
+                try {
+                    final StorageItemPage<TableEntity> page = StorageClientSDKManager.getManager().getTableEntitiesPage(
+                            connectionString, table, queryText, TABLE_PAGE_SIZE, null);
+
+                    DefaultLoader.getIdeHelper().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != tableQueryGeneration || entitiesTable.isDisposed()) {
+                                return;
+                            }
 
-                    refreshGrid();
+                            tableEntitiesContinuationToken = page.getContinuationToken();
+                            isLoadingTableEntitiesPage = false;
+                            tableEntities = new ArrayList<TableEntity>();
+                            resetColumns();
+                            addTableEntities(page.getItems());
+                        }
+                    });
                 } catch (AzureCmdException e) {
                     DefaultLoader.getUIHelper().showException("Error querying entities", e, "Service Explorer", false, true);
-                }*/
+                }
             }
         });
     }
 
-    private void refreshGrid() {
-        DefaultLoader.getIdeHelper().invokeLater(new Runnable() {
+    private void loadNextTableEntitiesPage() {
+        final String continuationToken = tableEntitiesContinuationToken;
+
+        if (isLoadingTableEntitiesPage || continuationToken == null) {
+            return;
+        }
+
+        isLoadingTableEntitiesPage = true;
+
+        final String queryText = queryTextField.getText();
+        final int generation = tableQueryGeneration;
+
+        DefaultLoader.getIdeHelper().executeOnPooledThread(new Runnable() {
             @Override
             public void run() {
-                columnData = new LinkedHashMap<String, List<String>>();
-                data = new ArrayList<String>();
-                data.add(PARTITION_KEY);
-                data.add(ROW_KEY);
-                data.add(TIMESTAMP);
-                columnData.put(PARTITION_KEY, new ArrayList<String>());
-                columnData.put(ROW_KEY, new ArrayList<String>());
-                columnData.put(TIMESTAMP, new ArrayList<String>());
-
-                for (TableEntity tableEntity : tableEntities) {
-                    columnData.get(PARTITION_KEY).add(tableEntity.getPartitionKey());
-                    columnData.get(ROW_KEY).add(tableEntity.getRowKey());
-                    columnData.get(TIMESTAMP).add(new SimpleDateFormat().format(tableEntity.getTimestamp().getTime()));
-
-                    for (String entityColumn : tableEntity.getProperties().keySet()) {
-                        if (!data.contains(entityColumn)) {
-                            data.add(entityColumn);
+                try {
+                    final StorageItemPage<TableEntity> page = StorageClientSDKManager.getManager().getTableEntitiesPage(
+                            connectionString, table, queryText, TABLE_PAGE_SIZE, continuationToken);
+
+                    DefaultLoader.getIdeHelper().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != tableQueryGeneration || entitiesTable.isDisposed()) {
+                                return;
+                            }
+
+                            tableEntitiesContinuationToken = page.getContinuationToken();
+                            isLoadingTableEntitiesPage = false;
+                            addTableEntities(page.getItems());
                         }
-                        if (!columnData.keySet().contains(entityColumn)) {
-                            columnData.put(entityColumn, new ArrayList<String>());
+                    });
+                } catch (AzureCmdException e) {
+                    DefaultLoader.getIdeHelper().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == tableQueryGeneration) {
+                                isLoadingTableEntitiesPage = false;
+                            }
                         }
-                    }
+                    });
 
+                    DefaultLoader.getUIHelper().showException("Error querying entities", e, "Service Explorer", false, true);
                 }
+            }
+        });
+    }
 
-                for (TableEntity tableEntity : tableEntities) {
-                    for (String column : columnData.keySet()) {
-                        if (!column.equals(PARTITION_KEY) && !column.equals(ROW_KEY) && !column.equals(TIMESTAMP)) {
-                            columnData.get(column).add(tableEntity.getProperties().containsKey(column)
-                                    ? getFormattedProperty(tableEntity.getProperties().get(column))
-                                    : "");
-                        }
-                    }
-                }
-                entitiesTable.setRedraw(false);
-                while (entitiesTable.getColumnCount() > 0 ) {
-                    entitiesTable.getColumns()[0].dispose();
-                }
-                for (String columnName : data) {
-                    TableColumn tableColumn = new TableColumn(entitiesTable, SWT.FILL);
-                    tableColumn.setText(columnName);
-                    tableColumn.setWidth(100);
-                }
-                entitiesTable.setRedraw(true);
+    private void refreshGrid() {
+        DefaultLoader.getIdeHelper().invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                List<TableEntity> entities = tableEntities;
 
-                tableViewer.setInput(tableEntities);
+                tableEntities = new ArrayList<TableEntity>();
+                resetColumns();
+                addTableEntities(entities);
             }
         });
     }
 
+    private void resetColumns() {
+        entitiesTable.setRedraw(false);
+        while (entitiesTable.getColumnCount() > 0) {
+            entitiesTable.getColumns()[0].dispose();
+        }
+        data = new ArrayList<String>();
+        addColumn(PARTITION_KEY);
+        addColumn(ROW_KEY);
+        addColumn(TIMESTAMP);
+        entitiesTable.setRedraw(true);
+    }
+
+    private void addColumn(String columnName) {
+        if (!data.contains(columnName)) {
+            data.add(columnName);
+
+            TableColumn tableColumn = new TableColumn(entitiesTable, SWT.FILL);
+            tableColumn.setText(columnName);
+            tableColumn.setWidth(100);
+        }
+    }
+
+    private void addTableEntities(List<TableEntity> entities) {
+        // columns are discovered page by page, rows shown earlier are simply empty in the new columns
+        entitiesTable.setRedraw(false);
+        for (TableEntity tableEntity : entities) {
+            for (String entityColumn : tableEntity.getProperties().keySet()) {
+                addColumn(entityColumn);
+            }
+        }
+        entitiesTable.setRedraw(true);
+
+        tableEntities.addAll(entities);
+        tableViewer.setInput(tableEntities);
+        tableViewer.setItemCount(tableEntities.size());
+        tableViewer.refresh();
+    }
+
     private void deleteSelection() {
         final TableEntity[] selectedEntities = getSelectedEntities();
 
@@ -416,7 +482,7 @@ public class TableFileEditor extends EditorPart {
     }
 
     private void createTable(Composite parent) {
-        entitiesTable = new org.eclipse.swt.widgets.Table(parent, SWT.MULTI | SWT.BORDER | SWT.FULL_SELECTION);
+        entitiesTable = new org.eclipse.swt.widgets.Table(parent, SWT.MULTI | SWT.BORDER | SWT.FULL_SELECTION | SWT.VIRTUAL);
 
         entitiesTable.setHeaderVisible(true);
         entitiesTable.setLinesVisible(true);
@@ -440,7 +506,7 @@ public class TableFileEditor extends EditorPart {
 
     }
 
-    private class TableContentProvider implements IStructuredContentProvider {
+    private class TableContentProvider implements ILazyContentProvider {
         public void dispose() {
 
         }
@@ -449,8 +515,14 @@ public class TableFileEditor extends EditorPart {
 
         }
 
-        public Object[] getElements(Object o) {
-            return tableEntities.toArray();
+        public void updateElement(int index) {
+            if (index < tableEntities.size()) {
+                tableViewer.replace(tableEntities.get(index), index);
+            }
+
+            if (index >= tableEntities.size() - LOAD_MORE_THRESHOLD_ROWS) {
+                loadNextTableEntitiesPage();
+            }
         }
     }
 
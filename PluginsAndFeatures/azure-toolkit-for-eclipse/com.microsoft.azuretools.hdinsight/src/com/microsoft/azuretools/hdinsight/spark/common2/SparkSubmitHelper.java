@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -50,6 +51,8 @@ import com.microsoft.azure.hdinsight.sdk.common.HttpResponse;
 import com.microsoft.azure.hdinsight.sdk.storage.HDStorageAccount;
 import com.microsoft.azure.hdinsight.sdk.storage.IHDIStorageAccount;
 import com.microsoft.azure.hdinsight.sdk.storage.StorageAccountTypeEnum;
+import com.microsoft.azure.hdinsight.spark.common.LivyBatchWatcher;
+import com.microsoft.azure.hdinsight.spark.common.SparkArtifactCache;
 import com.microsoft.azure.hdinsight.spark.common.SparkBatchSubmission;
 import com.microsoft.azure.hdinsight.spark.common.SparkJobLog;
 import com.microsoft.azure.hdinsight.spark.common.SparkSubmitResponse;
@@ -130,6 +133,10 @@ public class SparkSubmitHelper {
 
 	public void printRunningLogStreamingly(/* Project project, */ int id, IClusterDetail clusterDetail,
 			Map<String, String> postEventProperty) throws IOException {
+		final String livyConnectionUrl = clusterDetail.getConnectionUrl() + "/livy/batches";
+		final LivyBatchWatcher watcher = LivyBatchWatcher.getInstance();
+		watcher.watch(livyConnectionUrl, id);
+
 		try {
 			boolean isFailedJob = false;
 			boolean isKilledJob = false;
@@ -147,16 +154,15 @@ public class SparkSubmitHelper {
 				}
 
 				from_index = printoutJobLog(/* project, */id, from_index, clusterDetail);
-				HttpResponse statusHttpResponse = SparkBatchSubmission.getInstance()
-						.getBatchSparkJobStatus(clusterDetail.getConnectionUrl() + "/livy/batches", id);
 
-				SparkSubmitResponse status = new Gson().fromJson(statusHttpResponse.getMessage(),
-						new TypeToken<SparkSubmitResponse>() {
-						}.getType());
+				// The job status is polled by the shared watcher together with other jobs of the cluster,
+				// whose request errors are thrown here once the polling keeps failing
+				watcher.checkPollFailures(livyConnectionUrl);
+				SparkSubmitResponse status = watcher.getLatestState(livyConnectionUrl, id).orElse(null);
 
 				// only the lines of the log are same between two http requests,
 				// we try to get the job status
-				if (from_index == pre_index) {
+				if (from_index == pre_index && status != null) {
 					String finalStatus = status.getState().toLowerCase();
 					if (finalStatus.equals("error") || finalStatus.equals("success") || finalStatus.equals("dead")) {
 						if (finalStatus.equals("error") || finalStatus.equals("dead")) {
@@ -174,7 +180,7 @@ public class SparkSubmitHelper {
 					}
 				}
 
-				Thread.sleep(getIntervalTime(times));
+				watcher.awaitStateChange(livyConnectionUrl, id, getIntervalTime(times), TimeUnit.MILLISECONDS);
 				times++;
 			}
 
@@ -217,6 +223,8 @@ public class SparkSubmitHelper {
 			}
 			AppInsightsClient.create(Messages.SparkSubmissionButtonClickEvent,
 					Activator.getDefault().getBundle().getVersion().toString(), postEventProperty);
+		} finally {
+			watcher.unwatch(livyConnectionUrl, id);
 		}
 	}
 
@@ -224,35 +232,33 @@ public class SparkSubmitHelper {
 			String defaultContainerName, String uploadFolderPath) throws Exception {
 		final File file = new File(localFile);
 		if (storageAccount.getAccountType() == StorageAccountTypeEnum.BLOB) {
-			try (FileInputStream fileInputStream = new FileInputStream(file)) {
-				try (BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream)) {
-					final CallableSingleArg<Void, Long> callable = new CallableSingleArg<Void, Long>() {
-						@Override
-						public Void call(Long uploadedBytes) throws Exception {
-							double progress = ((double) uploadedBytes) / file.length();
-							return null;
-						}
-					};
+			final CallableSingleArg<Void, Long> callable = new CallableSingleArg<Void, Long>() {
+				@Override
+				public Void call(Long uploadedBytes) throws Exception {
+					double progress = ((double) uploadedBytes) / file.length();
+					return null;
+				}
+			};
 
-					HDStorageAccount blobStorageAccount = (HDStorageAccount) storageAccount;
-					BlobContainer defaultContainer = getSparkClusterDefaultContainer(blobStorageAccount,
-							defaultContainerName);
-					String path = String.format("SparkSubmission/%s/%s", uploadFolderPath, file.getName());
-					String uploadedPath = String.format("wasb://%s@%s/%s", defaultContainerName,
-							blobStorageAccount.getFullStorageBlobName(), path);
+			HDStorageAccount blobStorageAccount = (HDStorageAccount) storageAccount;
+			BlobContainer defaultContainer = getSparkClusterDefaultContainer(blobStorageAccount,
+					defaultContainerName);
+			String path = String.format("SparkSubmission/%s/%s", uploadFolderPath, file.getName());
 
-					HDInsightUtil.showInfoOnSubmissionMessageWindow(
-							String.format("Info : Begin uploading file %s to Azure Blob Storage Account %s ...",
-									localFile, uploadedPath));
+			HDInsightUtil.showInfoOnSubmissionMessageWindow(
+					String.format("Info : Begin uploading file %s to Azure Blob Storage Account %s ...",
+							localFile, String.format("wasb://%s@%s/%s", defaultContainerName,
+									blobStorageAccount.getFullStorageBlobName(), path)));
 
-					StorageClientSDKManager.getManager().uploadBlobFileContent(blobStorageAccount.getConnectionString(),
-							defaultContainer, path, bufferedInputStream, callable, 1024 * 1024, file.length());
+			// The same artifact content uploaded before is reused
+			String artifactPath = SparkArtifactCache.getInstance().uploadToBlobIfChanged(file, blobStorageAccount,
+					defaultContainer, path, callable);
+			String uploadedPath = String.format("wasb://%s@%s/%s", defaultContainerName,
+					blobStorageAccount.getFullStorageBlobName(), artifactPath);
 
-					HDInsightUtil.showInfoOnSubmissionMessageWindow(
-							String.format("Info : Submit file to azure blob '%s' successfully.", uploadedPath));
-					return uploadedPath;
-				}
-			}
+			HDInsightUtil.showInfoOnSubmissionMessageWindow(
+					String.format("Info : Submit file to azure blob '%s' successfully.", uploadedPath));
+			return uploadedPath;
 		} else if (storageAccount.getAccountType() == StorageAccountTypeEnum.ADLS) {
 			String uploadPath = String.format("adl://%s.azuredatalakestore.net/%s/%s", storageAccount.getName(),
 					storageAccount.getDefaultContainerOrRootPath(), "SparkSubmission");
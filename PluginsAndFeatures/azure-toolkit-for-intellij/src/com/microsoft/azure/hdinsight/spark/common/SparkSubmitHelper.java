@@ -49,6 +49,7 @@ import com.microsoft.tooling.msservices.model.storage.ClientStorageAccount;
 import java.io.*;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -111,6 +112,10 @@ public class SparkSubmitHelper {
     }
 
     public void printRunningLogStreamingly(Project project, int id, IClusterDetail clusterDetail, Map<String, String> postEventProperty) throws IOException {
+        final String livyConnectionUrl = getLivyConnectionURL(clusterDetail);
+        final LivyBatchWatcher watcher = LivyBatchWatcher.getInstance();
+        watcher.watch(livyConnectionUrl, id);
+
         try {
             boolean isFailedJob = false;
             boolean isKilledJob = false;
@@ -127,13 +132,14 @@ public class SparkSubmitHelper {
                 }
 
                 from_index = printoutJobLog(project, id, from_index, clusterDetail);
-                HttpResponse statusHttpResponse = SparkBatchSubmission.getInstance().getBatchSparkJobStatus(getLivyConnectionURL(clusterDetail), id);
 
-                SparkSubmitResponse status = new Gson().fromJson(statusHttpResponse.getMessage(), new TypeToken<SparkSubmitResponse>() {
-                }.getType());
+                // The job status is polled by the shared watcher together with other jobs of the cluster,
+                // whose request errors are thrown here once the polling keeps failing
+                watcher.checkPollFailures(livyConnectionUrl);
+                SparkSubmitResponse status = watcher.getLatestState(livyConnectionUrl, id).orElse(null);
 
                 // only the lines of the log are same between two http requests, we try to get the job status
-                if (from_index == pre_index) {
+                if (from_index == pre_index && status != null) {
                     String finalStatus = status.getState().toLowerCase();
                     if (finalStatus.equals("error") || finalStatus.equals("success") || finalStatus.equals("dead")) {
                         if (finalStatus.equals("error") || finalStatus.equals("dead")) {
@@ -150,7 +156,7 @@ public class SparkSubmitHelper {
                     }
                 }
 
-                Thread.sleep(getIntervalTime(times));
+                watcher.awaitStateChange(livyConnectionUrl, id, getIntervalTime(times), TimeUnit.MILLISECONDS);
                 times++;
             }
 
@@ -189,6 +195,8 @@ public class SparkSubmitHelper {
                 postEventProperty.put("IsKilled", "true");
                 AppInsightsClient.create(HDInsightBundle.message("SparkSubmissionButtonClickEvent"), null, postEventProperty);
             }
+        } finally {
+            watcher.unwatch(livyConnectionUrl, id);
         }
     }
 
@@ -238,37 +246,29 @@ public class SparkSubmitHelper {
             throws Exception {
         final File file = new File(localFile);
         if(storageAccount.getAccountType() == StorageAccountTypeEnum.BLOB) {
-            try (FileInputStream fileInputStream = new FileInputStream(file)) {
-                try (BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream)) {
-                    final CallableSingleArg<Void, Long> callable = new CallableSingleArg<Void, Long>() {
-                        @Override
-                        public Void call(Long uploadedBytes) throws Exception {
-                            double progress = ((double) uploadedBytes) / file.length();
-                            return null;
-                        }
-                    };
-
-                    HDStorageAccount blobStorageAccount = (HDStorageAccount) storageAccount;
-                    BlobContainer defaultContainer = getSparkClusterDefaultContainer(blobStorageAccount, defaultContainerName);
-                    String path = String.format("SparkSubmission/%s/%s", uploadFolderPath, file.getName());
-                    String uploadedPath = String.format("wasb://%s@%s/%s", defaultContainerName, blobStorageAccount.getFullStorageBlobName(), path);
-
-                    HDInsightUtil.showInfoOnSubmissionMessageWindow(project,
-                            String.format("Info : Begin uploading file %s to Azure Blob Storage Account %s ...", localFile, uploadedPath));
-
-                    StorageClientSDKManager.getManager().uploadBlobFileContent(
-                            blobStorageAccount.getConnectionString(),
-                            defaultContainer,
-                            path,
-                            bufferedInputStream,
-                            callable,
-                            1024 * 1024,
-                            file.length());
-
-                    HDInsightUtil.showInfoOnSubmissionMessageWindow(project, String.format("Info : Submit file to azure blob '%s' successfully.", uploadedPath));
-                    return uploadedPath;
+            final CallableSingleArg<Void, Long> callable = new CallableSingleArg<Void, Long>() {
+                @Override
+                public Void call(Long uploadedBytes) throws Exception {
+                    double progress = ((double) uploadedBytes) / file.length();
+                    return null;
                 }
-            }
+            };
+
+            HDStorageAccount blobStorageAccount = (HDStorageAccount) storageAccount;
+            BlobContainer defaultContainer = getSparkClusterDefaultContainer(blobStorageAccount, defaultContainerName);
+            String path = String.format("SparkSubmission/%s/%s", uploadFolderPath, file.getName());
+
+            HDInsightUtil.showInfoOnSubmissionMessageWindow(project,
+                    String.format("Info : Begin uploading file %s to Azure Blob Storage Account %s ...", localFile,
+                            String.format("wasb://%s@%s/%s", defaultContainerName, blobStorageAccount.getFullStorageBlobName(), path)));
+
+            // The same artifact content uploaded before is reused
+            String artifactPath = SparkArtifactCache.getInstance().uploadToBlobIfChanged(
+                    file, blobStorageAccount, defaultContainer, path, callable);
+            String uploadedPath = String.format("wasb://%s@%s/%s", defaultContainerName, blobStorageAccount.getFullStorageBlobName(), artifactPath);
+
+            HDInsightUtil.showInfoOnSubmissionMessageWindow(project, String.format("Info : Submit file to azure blob '%s' successfully.", uploadedPath));
+            return uploadedPath;
         } else if(storageAccount.getAccountType() == StorageAccountTypeEnum.ADLS) {
             String uploadPath = String.format("adl://%s.azuredatalakestore.net%s%s", storageAccount.getName(), storageAccount.getDefaultContainerOrRootPath(), "SparkSubmission");
             HDInsightUtil.showInfoOnSubmissionMessageWindow(project,
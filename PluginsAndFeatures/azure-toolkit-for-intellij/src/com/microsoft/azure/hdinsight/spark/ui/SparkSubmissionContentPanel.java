@@ -276,6 +276,7 @@ public class SparkSubmissionContentPanel extends JPanel{
             public void actionPerformed(ActionEvent e) {
                 Cursor cursor = getCursor();
                 setCursor(new Cursor(Cursor.WAIT_CURSOR));
+                ClusterManagerEx.getInstance().invalidateClusterDetails();
                 List<IClusterDetail> clusterDetails = ClusterManagerEx.getInstance().getClusterDetails(submitModel.getProject());
                 setCursor(cursor);
                 submitModel.setClusterComboBoxModel(clusterDetails);
@@ -43,11 +43,14 @@ import com.microsoft.intellij.helpers.UIHelperImpl;
 import com.microsoft.intellij.util.PluginUtil;
 import com.microsoft.tooling.msservices.components.DefaultLoader;
 import com.microsoft.tooling.msservices.helpers.CallableSingleArg;
+import com.microsoft.tooling.msservices.helpers.azure.sdk.BlobBulkTransfer;
+import com.microsoft.tooling.msservices.helpers.azure.sdk.BlobMetadataIndex;
 import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientSDKManager;
 import com.microsoft.tooling.msservices.model.storage.BlobContainer;
 import com.microsoft.tooling.msservices.model.storage.BlobDirectory;
 import com.microsoft.tooling.msservices.model.storage.BlobFile;
 import com.microsoft.tooling.msservices.model.storage.BlobItem;
+import com.microsoft.tooling.msservices.model.storage.StorageItemPage;
 import com.microsoft.tooling.msservices.serviceexplorer.NodeActionEvent;
 import com.microsoft.tooling.msservices.serviceexplorer.NodeActionListener;
 import org.jetbrains.annotations.NotNull;
@@ -55,6 +58,8 @@ import org.jetbrains.annotations.Nullable;
 import sun.misc.IOUtils;
 
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.DefaultTableModel;
@@ -73,6 +78,7 @@ import java.util.*;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
 
@@ -82,7 +88,16 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
     static final String SAVE_AS = "Save As";
     static final String DELETE = "Delete";
     static final String UPLOAD = "Upload";
+    static final String UPLOAD_FOLDER = "Upload Folder";
+    static final String DOWNLOAD_FOLDER = "Download Folder";
     static final String QUERY = "Query";
+    static final String REFRESH = "Refresh";
+
+    // Blobs are listed one page at a time, the next page is loaded when the last rows get visible
+    private static final int BLOB_PAGE_SIZE = 500;
+    private static final int LOAD_MORE_THRESHOLD_ROWS = 50;
+    // A query with wildcards searches the local blob index instead of listing a name prefix
+    private static final int SEARCH_RESULT_LIMIT = 5000;
 
     private JPanel mainPanel;
     private JTextField queryTextField;
@@ -102,7 +117,10 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
     private Project project;
 
     private LinkedList<BlobDirectory> directoryQueue = new LinkedList<BlobDirectory>();
-    private List<BlobItem> blobItems;
+    private List<BlobItem> blobItems = new ArrayList<BlobItem>();
+    private String blobItemsContinuationToken;
+    private boolean isLoadingBlobItemsPage;
+    private int blobListingGeneration;
 
     private ISubscriptionSelectionListener subscriptionListener;
     private FileEditorVirtualNode fileEditorVirtualNode;
@@ -207,6 +225,21 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
         sorter.setSortKeys(sortKeys);
         sorter.sort();
 
+        JViewport blobListViewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, blobListTable);
+        if (blobListViewport != null) {
+            blobListViewport.addChangeListener(new ChangeListener() {
+                @Override
+                public void stateChanged(ChangeEvent changeEvent) {
+                    Rectangle visibleRect = blobListTable.getVisibleRect();
+                    int lastVisibleRow = blobListTable.rowAtPoint(new Point(0, visibleRect.y + visibleRect.height - 1));
+
+                    if (lastVisibleRow < 0 || lastVisibleRow >= blobListTable.getRowCount() - LOAD_MORE_THRESHOLD_ROWS) {
+                        loadNextBlobItemsPage();
+                    }
+                }
+            });
+        }
+
         backButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent actionEvent) {
@@ -243,6 +276,9 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
                         if (fileSelection != null) {
                             JPopupMenu popup = createTablePopUp();
                             popup.show(me.getComponent(), me.getX(), me.getY());
+                        } else if (getFolderSelection() != null) {
+                            JPopupMenu popup = createFolderPopUp();
+                            popup.show(me.getComponent(), me.getX(), me.getY());
                         }
                     }
                 }
@@ -273,7 +309,13 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
             }
         };
 
-        refreshButton.addActionListener(queryAction);
+        refreshButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                fileEditorVirtualNode.getNodeActionByName(REFRESH).fireNodeActionEvent();
+            }
+        });
+
         queryButton.addActionListener(queryAction);
 
         deleteButton.addActionListener(new ActionListener() {
@@ -308,8 +350,15 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
     }
 
     public void fillGrid() {
+        fillGrid(false);
+    }
+
+    private void fillGrid(final boolean refreshIndex) {
         setUIState(true);
 
+        final String namePrefix = queryTextField.getText();
+        final int generation = ++blobListingGeneration;
+
         ProgressManager.getInstance().run(new Task.Backgroundable(project, "Loading blobs...", false) {
             @Override
             public void run(@NotNull ProgressIndicator progressIndicator) {
@@ -320,52 +369,40 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
                         directoryQueue.addLast(StorageClientSDKManager.getManager().getRootDirectory(connectionString, blobContainer));
                     }
 
-                    blobItems = StorageClientSDKManager.getManager().getBlobItems(connectionString, directoryQueue.peekLast());
+                    if (refreshIndex) {
+                        refreshBlobIndex(directoryQueue.peekLast());
+                    }
 
-                    if (!queryTextField.getText().isEmpty()) {
-                        for (int i = blobItems.size() - 1; i >= 0; i--) {
-                            BlobItem blobItem = blobItems.get(i);
+                    final StorageItemPage<BlobItem> page;
 
-                            if (blobItem instanceof BlobFile && !blobItem.getName().startsWith(queryTextField.getText())) {
-                                blobItems.remove(i);
-                            }
-                        }
+                    if (namePrefix.contains("*") || namePrefix.contains("?")) {
+                        BlobDirectory blobDirectory = directoryQueue.peekLast();
+                        List<BlobFile> blobFiles = StorageClientSDKManager.getManager().searchBlobFiles(connectionString,
+                                blobDirectory,
+                                new BlobMetadataIndex.Query().glob(blobDirectory.getPath() + namePrefix).limit(SEARCH_RESULT_LIMIT));
+
+                        page = new StorageItemPage<BlobItem>(new ArrayList<BlobItem>(blobFiles), null);
+                    } else {
+                        page = StorageClientSDKManager.getManager().getBlobItemsPage(
+                                connectionString, directoryQueue.peekLast(), namePrefix, BLOB_PAGE_SIZE, null);
                     }
 
                     ApplicationManager.getApplication().invokeLater(new Runnable() {
                         @Override
                         public void run() {
+                            if (generation != blobListingGeneration) {
+                                return;
+                            }
 
                             pathLabel.setText(directoryQueue.peekLast().getPath());
                             DefaultTableModel model = (DefaultTableModel) blobListTable.getModel();
 
-                            while (model.getRowCount() > 0) {
-                                model.removeRow(0);
-                            }
+                            model.setRowCount(0);
 
-                            for (BlobItem blobItem : blobItems) {
-                                if (blobItem instanceof BlobDirectory) {
-                                    model.addRow(new Object[]{
-                                            UIHelperImpl.loadIcon("storagefolder.png"),
-                                            blobItem.getName(),
-                                            "",
-                                            "",
-                                            "",
-                                            blobItem.getUri()
-                                    });
-                                } else {
-                                    BlobFile blobFile = (BlobFile) blobItem;
-
-                                    model.addRow(new String[]{
-                                            "",
-                                            blobFile.getName(),
-                                            UIHelperImpl.readableFileSize(blobFile.getSize()),
-                                            new SimpleDateFormat().format(blobFile.getLastModified().getTime()),
-                                            blobFile.getContentType(),
-                                            blobFile.getUri()
-                                    });
-                                }
-                            }
+                            blobItems = new ArrayList<BlobItem>();
+                            blobItemsContinuationToken = page.getContinuationToken();
+                            isLoadingBlobItemsPage = false;
+                            addBlobItemRows(page.getItems());
 
                             setUIState(false);
 
@@ -380,6 +417,87 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
         });
     }
 
+    private void loadNextBlobItemsPage() {
+        final BlobDirectory blobDirectory = directoryQueue.peekLast();
+        final String continuationToken = blobItemsContinuationToken;
+
+        if (isLoadingBlobItemsPage || continuationToken == null || blobDirectory == null) {
+            return;
+        }
+
+        isLoadingBlobItemsPage = true;
+
+        final String namePrefix = queryTextField.getText();
+        final int generation = blobListingGeneration;
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Loading more blobs...", false) {
+            @Override
+            public void run(@NotNull ProgressIndicator progressIndicator) {
+                try {
+                    progressIndicator.setIndeterminate(true);
+
+                    final StorageItemPage<BlobItem> page = StorageClientSDKManager.getManager().getBlobItemsPage(
+                            connectionString, blobDirectory, namePrefix, BLOB_PAGE_SIZE, continuationToken);
+
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != blobListingGeneration) {
+                                return;
+                            }
+
+                            blobItemsContinuationToken = page.getContinuationToken();
+                            isLoadingBlobItemsPage = false;
+                            addBlobItemRows(page.getItems());
+                        }
+                    });
+                } catch (AzureCmdException ex) {
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == blobListingGeneration) {
+                                isLoadingBlobItemsPage = false;
+                            }
+                        }
+                    });
+
+                    String msg = "An error occurred while attempting to query blob list." + "\n" + String.format(message("webappExpMsg"), ex.getMessage());
+                    PluginUtil.displayErrorDialogAndLog(message("errTtl"), msg, ex);
+                }
+            }
+        });
+    }
+
+    private void addBlobItemRows(List<BlobItem> items) {
+        DefaultTableModel model = (DefaultTableModel) blobListTable.getModel();
+
+        for (BlobItem blobItem : items) {
+            blobItems.add(blobItem);
+
+            if (blobItem instanceof BlobDirectory) {
+                model.addRow(new Object[]{
+                        UIHelperImpl.loadIcon("storagefolder.png"),
+                        blobItem.getName(),
+                        "",
+                        "",
+                        "",
+                        blobItem.getUri()
+                });
+            } else {
+                BlobFile blobFile = (BlobFile) blobItem;
+
+                model.addRow(new String[]{
+                        "",
+                        blobFile.getName(),
+                        UIHelperImpl.readableFileSize(blobFile.getSize()),
+                        new SimpleDateFormat().format(blobFile.getLastModified().getTime()),
+                        blobFile.getContentType(),
+                        blobFile.getUri()
+                });
+            }
+        }
+    }
+
     private void setUIState(boolean loading) {
         if (loading) {
             blobListTable.setEnabled(false);
@@ -490,6 +608,20 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
             }
         });
 
+        node.addAction(UPLOAD_FOLDER, new NodeActionListener() {
+            @Override
+            protected void actionPerformed(NodeActionEvent e) {
+                uploadFolder();
+            }
+        });
+
+        node.addAction(DOWNLOAD_FOLDER, new NodeActionListener() {
+            @Override
+            protected void actionPerformed(NodeActionEvent e) {
+                downloadSelectedFolder();
+            }
+        });
+
         node.addAction(QUERY, new NodeActionListener() {
             @Override
             protected void actionPerformed(NodeActionEvent e) {
@@ -497,6 +629,13 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
             }
         });
 
+        node.addAction(REFRESH, new NodeActionListener() {
+            @Override
+            protected void actionPerformed(NodeActionEvent e) {
+                fillGrid(true);
+            }
+        });
+
         return node;
     }
 
@@ -506,6 +645,16 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
         menu.add(fileEditorVirtualNode.createJMenuItem(SAVE_AS));
         menu.add(fileEditorVirtualNode.createJMenuItem(COPY_URL));
         menu.add(fileEditorVirtualNode.createJMenuItem(DELETE));
+        menu.addSeparator();
+        menu.add(fileEditorVirtualNode.createJMenuItem(UPLOAD_FOLDER));
+
+        return menu;
+    }
+
+    private JPopupMenu createFolderPopUp() {
+        final JPopupMenu menu = new JPopupMenu();
+        menu.add(fileEditorVirtualNode.createJMenuItem(DOWNLOAD_FOLDER));
+        menu.add(fileEditorVirtualNode.createJMenuItem(UPLOAD_FOLDER));
 
         return menu;
     }
@@ -514,6 +663,8 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
         final BlobFile blobItem = getFileSelection();
 
         if (blobItem != null) {
+            final BlobDirectory blobDirectory = directoryQueue.peekLast();
+
             if (JOptionPane.showConfirmDialog(mainPanel, "Are you sure you want to delete this blob?", "Delete Blob", JOptionPane.YES_NO_OPTION, JOptionPane.INFORMATION_MESSAGE) == JOptionPane.OK_OPTION) {
                 setUIState(true);
 
@@ -523,6 +674,7 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
                         progressIndicator.setIndeterminate(true);
                         try {
                             StorageClientSDKManager.getManager().deleteBlobFile(connectionString, blobItem);
+                            refreshBlobIndex(blobDirectory);
 
                             if (blobItems.size() <= 1) {
                                 directoryQueue.clear();
@@ -595,68 +747,59 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
                             }
                         }
 
-                        final BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(targetFile), 65536) {
-                            private long runningCount = 0;
-
+                        final CallableSingleArg<Void, Long> progressCallback = new CallableSingleArg<Void, Long>() {
                             @Override
-                            public synchronized void write(@NotNull byte[] bytes, int i, int i1) throws IOException {
-                                super.write(bytes, i, i1);
-
-                                runningCount += i1;
-
-                                double progress = (double) runningCount / fileSelection.getSize();
+                            public Void call(Long downloadedBytes) throws Exception {
+                                double progress = fileSelection.getSize() == 0 ? 1 : (double) downloadedBytes / fileSelection.getSize();
                                 progressIndicator.setFraction(progress);
                                 progressIndicator.setText2(String.format("%s%% downloaded", (int) (progress * 100)));
+                                return null;
                             }
                         };
 
-                        try {
-                            Future<?> future = ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    try {
-                                        StorageClientSDKManager.getManager().downloadBlobFileContent(connectionString, fileSelection, bufferedOutputStream);
+                        Future<?> future = ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    StorageClientSDKManager.getManager().downloadBlobFileContent(connectionString, fileSelection, targetFile, progressCallback);
 
-                                        if (open && targetFile.exists()) {
-                                            Desktop.getDesktop().open(targetFile);
-                                        }
-                                    } catch (AzureCmdException e) {
-                                        Throwable connectionFault = e.getCause().getCause();
-
-                                        progressIndicator.setText("Error downloading Blob");
-                                        progressIndicator.setText2((connectionFault instanceof SocketTimeoutException) ? "Connection timed out" : connectionFault.getMessage());
-                                    } catch (IOException ex) {
-                                        try {
-                                            final Process p;
-                                            Runtime runtime = Runtime.getRuntime();
-                                            p = runtime.exec(
-                                                    new String[]{"open", "-R", targetFile.getName()},
-                                                    null,
-                                                    targetFile.getParentFile());
-
-                                            InputStream errorStream = p.getErrorStream();
-                                            String errResponse = new String(IOUtils.readFully(errorStream, -1, true));
-
-                                            if (p.waitFor() != 0) {
-                                                throw new Exception(errResponse);
-                                            }
-                                        } catch (Exception e) {
-                                            progressIndicator.setText("Error openning file");
-                                            progressIndicator.setText2(ex.getMessage());
+                                    if (open && targetFile.exists()) {
+                                        Desktop.getDesktop().open(targetFile);
+                                    }
+                                } catch (AzureCmdException e) {
+                                    Throwable connectionFault = e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause();
+
+                                    progressIndicator.setText("Error downloading Blob");
+                                    progressIndicator.setText2((connectionFault instanceof SocketTimeoutException) ? "Connection timed out" : connectionFault.getMessage());
+                                } catch (IOException ex) {
+                                    try {
+                                        final Process p;
+                                        Runtime runtime = Runtime.getRuntime();
+                                        p = runtime.exec(
+                                                new String[]{"open", "-R", targetFile.getName()},
+                                                null,
+                                                targetFile.getParentFile());
+
+                                        InputStream errorStream = p.getErrorStream();
+                                        String errResponse = new String(IOUtils.readFully(errorStream, -1, true));
+
+                                        if (p.waitFor() != 0) {
+                                            throw new Exception(errResponse);
                                         }
+                                    } catch (Exception e) {
+                                        progressIndicator.setText("Error openning file");
+                                        progressIndicator.setText2(ex.getMessage());
                                     }
                                 }
-                            });
+                            }
+                        });
 
-                            while (!future.isDone()) {
-                                progressIndicator.checkCanceled();
+                        while (!future.isDone()) {
+                            progressIndicator.checkCanceled();
 
-                                if (progressIndicator.isCanceled()) {
-                                    future.cancel(true);
-                                }
+                            if (progressIndicator.isCanceled()) {
+                                future.cancel(true);
                             }
-                        } finally {
-                            bufferedOutputStream.close();
                         }
                     } catch (IOException e) {
                         PluginUtil.displayErrorDialogAndLog(message("errTtl"), "An error occurred while attempting to download Blob.", e);
@@ -666,6 +809,132 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
         }
     }
 
+    private void downloadSelectedFolder() {
+        final BlobDirectory folderSelection = getFolderSelection();
+
+        if (folderSelection == null) {
+            return;
+        }
+
+        JFileChooser jFileChooser = new JFileChooser();
+        jFileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        jFileChooser.setDialogTitle(DOWNLOAD_FOLDER);
+
+        if (jFileChooser.showSaveDialog(this.mainPanel) == JFileChooser.APPROVE_OPTION) {
+            final File targetDirectory = new File(jFileChooser.getSelectedFile(), folderSelection.getName());
+
+            runBulkTransfer("Downloading folder...", new Callable<BlobBulkTransfer.Handle>() {
+                @Override
+                public BlobBulkTransfer.Handle call() throws AzureCmdException {
+                    return StorageClientSDKManager.getManager().downloadDirectory(
+                            connectionString, folderSelection, targetDirectory, null);
+                }
+            }, null);
+        }
+    }
+
+    private void uploadFolder() {
+        final BlobDirectory blobDirectory = directoryQueue.peekLast();
+
+        if (blobDirectory == null) {
+            return;
+        }
+
+        JFileChooser jFileChooser = new JFileChooser();
+        jFileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        jFileChooser.setDialogTitle(UPLOAD_FOLDER);
+
+        if (jFileChooser.showOpenDialog(this.mainPanel) == JFileChooser.APPROVE_OPTION) {
+            final File localDirectory = jFileChooser.getSelectedFile();
+            final String blobPrefix = blobDirectory.getPath() + localDirectory.getName() + "/";
+
+            runBulkTransfer("Uploading folder...", new Callable<BlobBulkTransfer.Handle>() {
+                @Override
+                public BlobBulkTransfer.Handle call() throws AzureCmdException {
+                    return StorageClientSDKManager.getManager().uploadDirectory(
+                            connectionString, blobContainer, localDirectory, blobPrefix, null);
+                }
+            }, blobDirectory);
+        }
+    }
+
+    /**
+     * @param changedDirectory the directory the transfer uploads to, shown again when done, or null for a download
+     */
+    private void runBulkTransfer(final String title, final Callable<BlobBulkTransfer.Handle> startTransfer,
+                                 @Nullable final BlobDirectory changedDirectory) {
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, title, true) {
+            @Override
+            public void run(@NotNull final ProgressIndicator progressIndicator) {
+                progressIndicator.setIndeterminate(true);
+                progressIndicator.setText(title);
+                progressIndicator.setText2("Comparing files...");
+
+                BlobBulkTransfer.Handle handle;
+
+                try {
+                    handle = startTransfer.call();
+                } catch (Exception e) {
+                    PluginUtil.displayErrorDialogAndLog(message("errTtl"), "An error occurred while attempting to plan the transfer.", e);
+                    return;
+                }
+
+                progressIndicator.setIndeterminate(false);
+
+                try {
+                    while (!handle.await(500, TimeUnit.MILLISECONDS)) {
+                        if (progressIndicator.isCanceled()) {
+                            handle.cancel();
+                        }
+
+                        progressIndicator.setFraction(handle.getFraction());
+                        progressIndicator.setText2(String.format("%d of %d files transferred, %d already up to date",
+                                handle.getCompletedFiles(), handle.getTotalFiles(), handle.getSkippedFiles()));
+                    }
+                } catch (InterruptedException e) {
+                    handle.cancel();
+                    Thread.currentThread().interrupt();
+                }
+
+                Map<BlobBulkTransfer.Item, Throwable> failures = handle.getFailures();
+
+                if (!failures.isEmpty()) {
+                    Map.Entry<BlobBulkTransfer.Item, Throwable> failure = failures.entrySet().iterator().next();
+                    String msg = String.format("%d of %d files failed to transfer, the first one is %s.",
+                            failures.size(), handle.getTotalFiles(), failure.getKey().getRelativePath());
+
+                    PluginUtil.displayErrorDialogAndLog(message("errTtl"), msg,
+                            new AzureCmdException(msg, failure.getValue()));
+                }
+
+                if (changedDirectory != null) {
+                    refreshBlobIndex(changedDirectory);
+
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            fillGrid();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // The wildcard queries search the local blob index, so it is brought up to date as soon as the blobs change.
+    // Lists the directory again, only call it from a background thread.
+    private void refreshBlobIndex(@Nullable BlobDirectory blobDirectory) {
+        if (blobDirectory == null) {
+            return;
+        }
+
+        try {
+            StorageClientSDKManager.getManager().refreshBlobMetadataIndex(connectionString, blobDirectory);
+        } catch (AzureCmdException ex) {
+            DefaultLoader.getUIHelper().logError("An error occurred while attempting to index the blobs.", ex);
+        }
+    }
+
     private void uploadFile() {
         final UploadBlobFileForm form = new UploadBlobFileForm(project);
         form.setUploadSelected(new Runnable() {
@@ -697,7 +966,10 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
                 try {
                     final BlobDirectory blobDirectory = directoryQueue.peekLast();
 
-                    final BufferedInputStream bufferedInputStream = new BufferedInputStream(new FileInputStream(selectedFile));
+                    // the blocks are read by the upload workers, so check the file can be opened before starting
+                    if (!selectedFile.canRead()) {
+                        throw new FileNotFoundException(selectedFile.getPath() + " (cannot be read)");
+                    }
 
                     progressIndicator.setIndeterminate(false);
                     progressIndicator.setText("Uploading blob...");
@@ -719,21 +991,13 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
                         Future<Void> future = ApplicationManager.getApplication().executeOnPooledThread(new Callable<Void>() {
                             @Override
                             public Void call() throws AzureCmdException {
-                                try {
-                                    StorageClientSDKManager.getManager().uploadBlobFileContent(
-                                            connectionString,
-                                            blobContainer,
-                                            path,
-                                            bufferedInputStream,
-                                            callable,
-                                            1024 * 1024,
-                                            selectedFile.length());
-                                } finally {
-                                    try {
-                                        bufferedInputStream.close();
-                                    } catch (IOException ignored) {
-                                    }
-                                }
+                                StorageClientSDKManager.getManager().uploadBlobFileContent(
+                                        connectionString,
+                                        blobContainer,
+                                        path,
+                                        selectedFile,
+                                        callable,
+                                        1024 * 1024);
 
                                 return null;
                             }
@@ -745,7 +1009,6 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
 
                             if (progressIndicator.isCanceled()) {
                                 future.cancel(true);
-                                bufferedInputStream.close();
 
                                 for (BlobItem blobItem : StorageClientSDKManager.getManager().getBlobItems(connectionString, blobDirectory)) {
                                     if (blobItem instanceof BlobFile && blobItem.getPath().equals(path)) {
@@ -760,7 +1023,8 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
                             directoryQueue.addLast(StorageClientSDKManager.getManager().getRootDirectory(connectionString, blobContainer));
 
                             for (String pathDir : path.split("/")) {
-                                for (BlobItem blobItem : StorageClientSDKManager.getManager().getBlobItems(connectionString, directoryQueue.getLast())) {
+                                for (BlobItem blobItem : StorageClientSDKManager.getManager().getBlobItemsPage(connectionString,
+                                        directoryQueue.getLast(), pathDir, StorageClientSDKManager.MAX_BLOB_LIST_PAGE_SIZE, null).getItems()) {
                                     if (blobItem instanceof BlobDirectory && blobItem.getName().equals(pathDir)) {
                                         directoryQueue.addLast((BlobDirectory) blobItem);
                                     }
@@ -771,6 +1035,8 @@ public class BlobExplorerFileEditor implements FileEditor, TelemetryProperties {
                             PluginUtil.displayErrorDialogAndLog(message("errTtl"), msg, e);
                         }
 
+                        refreshBlobIndex(directoryQueue.peekLast());
+
                         ApplicationManager.getApplication().invokeLater(new Runnable() {
                             @Override
                             public void run() {
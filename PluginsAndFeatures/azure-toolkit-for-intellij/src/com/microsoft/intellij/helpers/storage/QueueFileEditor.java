@@ -23,6 +23,7 @@ package com.microsoft.intellij.helpers.storage;
 
 import com.intellij.codeHighlighting.BackgroundEditorHighlighter;
 import com.intellij.ide.structureView.StructureViewBuilder;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorLocation;
 import com.intellij.openapi.fileEditor.FileEditorState;
@@ -35,6 +36,9 @@ import com.intellij.openapi.util.Key;
 import com.microsoft.azuretools.azurecommons.helpers.AzureCmdException;
 import com.microsoft.intellij.forms.QueueMessageForm;
 import com.microsoft.intellij.forms.ViewMessageForm;
+import com.microsoft.intellij.helpers.UIHelperImpl;
+import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientSDKManager;
 import com.microsoft.tooling.msservices.model.storage.ClientStorageAccount;
 import com.microsoft.tooling.msservices.model.storage.Queue;
 import com.microsoft.tooling.msservices.model.storage.QueueMessage;
@@ -49,8 +53,12 @@ import javax.swing.table.JTableHeader;
 import java.awt.*;
 import java.awt.event.*;
 import java.beans.PropertyChangeListener;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
 
+import static com.microsoft.intellij.ui.messages.AzureBundle.message;
+
 public class QueueFileEditor implements FileEditor {
     static final String OPEN = "Open";
     static final String DEQUEUE = "Dequeue";
@@ -58,6 +66,10 @@ public class QueueFileEditor implements FileEditor {
     static final String CLEAR_QUEUE = "Clear Queue";
     static final String REFRESH = "Refresh";
 
+    private static final String PEEK_LIMIT_NOTE = String.format(
+            "Only the first %d messages can be browsed without dequeuing them",
+            StorageClientSDKManager.MAX_QUEUE_MESSAGE_PEEK);
+
     private Project project;
     private ClientStorageAccount storageAccount;
     private Queue queue;
@@ -67,7 +79,9 @@ public class QueueFileEditor implements FileEditor {
     private JButton addMessageButton;
     private JButton clearQueueButton;
     private JTable queueTable;
+    private JLabel peekLimitLabel;
     private List<QueueMessage> queueMessages;
+    private int queueBrowseGeneration;
 
     private FileEditorVirtualNode fileEditorVirtualNode;
 
@@ -260,33 +274,33 @@ public class QueueFileEditor implements FileEditor {
     }
 
     public void fillGrid() {
+        final int generation = ++queueBrowseGeneration;
+
         ProgressManager.getInstance().run(new Task.Backgroundable(project, "Loading queue messages", false) {
             @Override
             public void run(@NotNull ProgressIndicator progressIndicator) {
-                /*try {
-                    queueMessages = StorageClientSDKManager.getManager().getQueueMessages(storageAccount, queue);
+                try {
+                    final List<QueueMessage> messages = StorageClientSDKManager.getManager().getQueueMessages(
+                            storageAccount.getConnectionString(), queue);
 
                     ApplicationManager.getApplication().invokeLater(new Runnable() {
                         @Override
                         public void run() {
+                            if (generation != queueBrowseGeneration) {
+                                return;
+                            }
+
                             DefaultTableModel model = (DefaultTableModel) queueTable.getModel();
 
-                            while (model.getRowCount() > 0) {
-                                model.removeRow(0);
-                            }
+                            model.setRowCount(0);
 
-                            for (QueueMessage queueMessage : queueMessages) {
-                                String[] values = {
-                                        queueMessage.getId(),
-                                        queueMessage.getContent(),
-                                        UIHelperImpl.readableFileSize(queueMessage.getContent().length()),
-                                        new SimpleDateFormat().format(queueMessage.getInsertionTime().getTime()),
-                                        new SimpleDateFormat().format(queueMessage.getExpirationTime().getTime()),
-                                        String.valueOf(queueMessage.getDequeueCount()),
-                                };
-
-                                model.addRow(values);
-                            }
+                            queueMessages = new ArrayList<QueueMessage>();
+                            addQueueMessageRows(messages);
+
+                            // A full peek means the messages behind it are there but can't be shown
+                            peekLimitLabel.setText(queueMessages.size() >= StorageClientSDKManager.MAX_QUEUE_MESSAGE_PEEK
+                                    ? PEEK_LIMIT_NOTE
+                                    : "");
 
                             clearQueueButton.setEnabled(queueMessages.size() != 0);
                             dequeueMessageButton.setEnabled(queueMessages.size() != 0);
@@ -296,11 +310,30 @@ public class QueueFileEditor implements FileEditor {
                 } catch (AzureCmdException e) {
                     String msg = "An error occurred while attempting to get queue messages." + "\n" + String.format(message("webappExpMsg"), e.getMessage());
                     PluginUtil.displayErrorDialogAndLog(message("errTtl"), msg, e);
-                }*/
+                }
             }
         });
     }
 
+    private void addQueueMessageRows(List<QueueMessage> messages) {
+        DefaultTableModel model = (DefaultTableModel) queueTable.getModel();
+
+        for (QueueMessage queueMessage : messages) {
+            queueMessages.add(queueMessage);
+
+            String[] values = {
+                    queueMessage.getId(),
+                    queueMessage.getContent(),
+                    UIHelperImpl.readableFileSize(queueMessage.getContent().length()),
+                    new SimpleDateFormat().format(queueMessage.getInsertionTime().getTime()),
+                    new SimpleDateFormat().format(queueMessage.getExpirationTime().getTime()),
+                    String.valueOf(queueMessage.getDequeueCount()),
+            };
+
+            model.addRow(values);
+        }
+    }
+
     private JPopupMenu createTablePopUp(boolean isFirstRow) {
         JPopupMenu menu = new JPopupMenu();
         menu.add(fileEditorVirtualNode.createJMenuItem(OPEN));
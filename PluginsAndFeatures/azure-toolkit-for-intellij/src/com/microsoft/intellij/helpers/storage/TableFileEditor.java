@@ -36,7 +36,10 @@ import com.intellij.openapi.util.Key;
 import com.microsoft.azuretools.azurecommons.helpers.AzureCmdException;
 import com.microsoft.intellij.forms.TableEntityForm;
 import com.microsoft.intellij.forms.TablesQueryDesigner;
+import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientSDKManager;
 import com.microsoft.tooling.msservices.model.storage.ClientStorageAccount;
+import com.microsoft.tooling.msservices.model.storage.StorageItemPage;
 import com.microsoft.tooling.msservices.model.storage.Table;
 import com.microsoft.tooling.msservices.model.storage.TableEntity;
 import com.microsoft.tooling.msservices.serviceexplorer.NodeActionEvent;
@@ -45,16 +48,21 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.DefaultTableModel;
+import java.awt.*;
 import java.awt.event.*;
 import java.beans.PropertyChangeListener;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+
+import static com.microsoft.intellij.ui.messages.AzureBundle.message;
 
 public class TableFileEditor implements FileEditor {
     public static final String PARTITION_KEY = "Partition key";
@@ -67,6 +75,9 @@ public class TableFileEditor implements FileEditor {
     private static final String QUERY_DESIGNER = "QueryDesigner";
     private static final String NEW_ENTITY = "NewEntity";
 
+    private static final int TABLE_PAGE_SIZE = 200;
+    private static final int LOAD_MORE_THRESHOLD_ROWS = 50;
+
     private ClientStorageAccount storageAccount;
     private Project project;
     private Table table;
@@ -79,6 +90,10 @@ public class TableFileEditor implements FileEditor {
     private JButton queryDesignerButton;
     private JTable entitiesTable;
     private List<TableEntity> tableEntities;
+    private Set<String> columnNames;
+    private String tableEntitiesContinuationToken;
+    private boolean isLoadingTableEntitiesPage;
+    private int tableQueryGeneration;
 
     private FileEditorVirtualNode fileEditorVirtualNode;
 
@@ -149,6 +164,21 @@ public class TableFileEditor implements FileEditor {
             }
         });
 
+        JViewport entitiesViewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, entitiesTable);
+        if (entitiesViewport != null) {
+            entitiesViewport.addChangeListener(new ChangeListener() {
+                @Override
+                public void stateChanged(ChangeEvent changeEvent) {
+                    Rectangle visibleRect = entitiesTable.getVisibleRect();
+                    int lastVisibleRow = entitiesTable.rowAtPoint(new Point(0, visibleRect.y + visibleRect.height - 1));
+
+                    if (lastVisibleRow < 0 || lastVisibleRow >= entitiesTable.getRowCount() - LOAD_MORE_THRESHOLD_ROWS) {
+                        loadNextTableEntitiesPage();
+                    }
+                }
+            });
+        }
+
         entitiesTable.addKeyListener(new KeyListener() {
             @Override
             public void keyTyped(KeyEvent keyEvent) {
@@ -260,18 +290,83 @@ public class TableFileEditor implements FileEditor {
 
     public void fillGrid() {
         final String queryText = queryTextField.getText();
+        final int generation = ++tableQueryGeneration;
 
         ProgressManager.getInstance().run(new Task.Backgroundable(project, "Loading entities", false) {
             @Override
             public void run(@NotNull ProgressIndicator progressIndicator) {
                 progressIndicator.setIndeterminate(true);
-                /*try {
-                    tableEntities = StorageClientSDKManager.getManager().getTableEntities(storageAccount, table, queryText);
-                    refreshGrid();
+                try {
+                    final StorageItemPage<TableEntity> page = StorageClientSDKManager.getManager().getTableEntitiesPage(
+                            storageAccount.getConnectionString(), table, queryText, TABLE_PAGE_SIZE, null);
+
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != tableQueryGeneration) {
+                                return;
+                            }
+
+                            tableEntities = new ArrayList<TableEntity>();
+                            tableEntitiesContinuationToken = page.getContinuationToken();
+                            isLoadingTableEntitiesPage = false;
+                            resetModel();
+                            addTableEntityRows(page.getItems());
+                        }
+                    });
                 } catch (AzureCmdException e) {
                     String msg = "An error occurred while attempting to query entities." + "\n" + String.format(message("webappExpMsg"), e.getMessage());
                     PluginUtil.displayErrorDialogAndLog(message("errTtl"), msg, e);
-                }*/
+                }
+            }
+        });
+    }
+
+    private void loadNextTableEntitiesPage() {
+        final String continuationToken = tableEntitiesContinuationToken;
+
+        if (isLoadingTableEntitiesPage || continuationToken == null || tableEntities == null) {
+            return;
+        }
+
+        isLoadingTableEntitiesPage = true;
+
+        final String queryText = queryTextField.getText();
+        final int generation = tableQueryGeneration;
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Loading more entities", false) {
+            @Override
+            public void run(@NotNull ProgressIndicator progressIndicator) {
+                progressIndicator.setIndeterminate(true);
+                try {
+                    final StorageItemPage<TableEntity> page = StorageClientSDKManager.getManager().getTableEntitiesPage(
+                            storageAccount.getConnectionString(), table, queryText, TABLE_PAGE_SIZE, continuationToken);
+
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != tableQueryGeneration) {
+                                return;
+                            }
+
+                            tableEntitiesContinuationToken = page.getContinuationToken();
+                            isLoadingTableEntitiesPage = false;
+                            addTableEntityRows(page.getItems());
+                        }
+                    });
+                } catch (AzureCmdException e) {
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == tableQueryGeneration) {
+                                isLoadingTableEntitiesPage = false;
+                            }
+                        }
+                    });
+
+                    String msg = "An error occurred while attempting to query entities." + "\n" + String.format(message("webappExpMsg"), e.getMessage());
+                    PluginUtil.displayErrorDialogAndLog(message("errTtl"), msg, e);
+                }
             }
         });
     }
@@ -280,52 +375,70 @@ public class TableFileEditor implements FileEditor {
         ApplicationManager.getApplication().invokeLater(new Runnable() {
             @Override
             public void run() {
-                Map<String, List<String>> columnData = new LinkedHashMap<String, List<String>>();
-                columnData.put(PARTITION_KEY, new ArrayList<String>());
-                columnData.put(ROW_KEY, new ArrayList<String>());
-                columnData.put(TIMESTAMP, new ArrayList<String>());
-
-                for (TableEntity tableEntity : tableEntities) {
-                    columnData.get(PARTITION_KEY).add(tableEntity.getPartitionKey());
-                    columnData.get(ROW_KEY).add(tableEntity.getRowKey());
-                    columnData.get(TIMESTAMP).add(new SimpleDateFormat().format(tableEntity.getTimestamp().getTime()));
-
-                    for (String entityColumn : tableEntity.getProperties().keySet()) {
-                        if (!columnData.keySet().contains(entityColumn)) {
-                            columnData.put(entityColumn, new ArrayList<String>());
-                        }
-                    }
+                List<TableEntity> entities = tableEntities;
 
-                }
+                tableEntities = new ArrayList<TableEntity>();
+                resetModel();
+                addTableEntityRows(entities);
+            }
+        });
+    }
 
-                for (TableEntity tableEntity : tableEntities) {
-                    for (String column : columnData.keySet()) {
-                        if (!column.equals(PARTITION_KEY) && !column.equals(ROW_KEY) && !column.equals(TIMESTAMP)) {
-                            columnData.get(column).add(tableEntity.getProperties().containsKey(column)
-                                    ? getFormattedProperty(tableEntity.getProperties().get(column))
-                                    : "");
-                        }
-                    }
-                }
+    private void resetModel() {
+        columnNames = new LinkedHashSet<String>();
 
-                DefaultTableModel model = new DefaultTableModel() {
-                    @Override
-                    public boolean isCellEditable(int i, int i1) {
-                        return false;
-                    }
-                };
+        DefaultTableModel model = new DefaultTableModel() {
+            @Override
+            public boolean isCellEditable(int i, int i1) {
+                return false;
+            }
+        };
 
-                for (String column : columnData.keySet()) {
-                    model.addColumn(column, columnData.get(column).toArray());
-                }
+        entitiesTable.setModel(model);
+
+        addColumn(PARTITION_KEY);
+        addColumn(ROW_KEY);
+        addColumn(TIMESTAMP);
+    }
+
+    private void addColumn(String column) {
+        if (columnNames.add(column)) {
+            ((DefaultTableModel) entitiesTable.getModel()).addColumn(column);
+            entitiesTable.getColumnModel().getColumn(entitiesTable.getColumnCount() - 1).setPreferredWidth(100);
+        }
+    }
 
-                entitiesTable.setModel(model);
+    private void addTableEntityRows(List<TableEntity> entities) {
+        DefaultTableModel model = (DefaultTableModel) entitiesTable.getModel();
+
+        // columns are discovered page by page, rows added earlier are padded with empty cells
+        for (TableEntity tableEntity : entities) {
+            for (String entityColumn : tableEntity.getProperties().keySet()) {
+                addColumn(entityColumn);
+            }
+        }
 
-                for (int i = 0; i != entitiesTable.getColumnCount(); i++) {
-                    entitiesTable.getColumnModel().getColumn(i).setPreferredWidth(100);
+        for (TableEntity tableEntity : entities) {
+            tableEntities.add(tableEntity);
+
+            List<String> row = new ArrayList<String>(columnNames.size());
+
+            for (String column : columnNames) {
+                if (column.equals(PARTITION_KEY)) {
+                    row.add(tableEntity.getPartitionKey());
+                } else if (column.equals(ROW_KEY)) {
+                    row.add(tableEntity.getRowKey());
+                } else if (column.equals(TIMESTAMP)) {
+                    row.add(new SimpleDateFormat().format(tableEntity.getTimestamp().getTime()));
+                } else {
+                    row.add(tableEntity.getProperties().containsKey(column)
+                            ? getFormattedProperty(tableEntity.getProperties().get(column))
+                            : "");
                 }
             }
-        });
+
+            model.addRow(row.toArray());
+        }
     }
 
     private void deleteSelection() {
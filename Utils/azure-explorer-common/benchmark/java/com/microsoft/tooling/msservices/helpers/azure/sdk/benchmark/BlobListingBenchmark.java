@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.tooling.msservices.helpers.azure.sdk.benchmark;
+
+import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientSDKManager;
+import com.microsoft.tooling.msservices.model.storage.BlobContainer;
+import com.microsoft.tooling.msservices.model.storage.BlobDirectory;
+import com.microsoft.tooling.msservices.model.storage.BlobItem;
+import com.microsoft.tooling.msservices.model.storage.StorageItemPage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and throughput of listing containers and one page of blobs, by the number of listed items
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlobListingBenchmark {
+    @Param({"100", "1000", "5000"})
+    public int itemCount;
+
+    private StorageServiceStandIn service;
+    private String connectionString;
+    private BlobDirectory rootDirectory;
+
+    @Setup
+    public void setUp() throws Exception {
+        service = new StorageServiceStandIn();
+        service.start();
+        service.seedContainers(itemCount);
+        service.seedBlobListing(itemCount);
+
+        connectionString = service.getConnectionString();
+
+        BlobContainer container = new BlobContainer(StorageServiceStandIn.CONTAINER_NAME, "", "",
+                new GregorianCalendar(), "");
+        rootDirectory = StorageClientSDKManager.getManager().getRootDirectory(connectionString, container);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.stop();
+    }
+
+    @Benchmark
+    public List<BlobContainer> getBlobContainers() throws Exception {
+        return StorageClientSDKManager.getManager().getBlobContainers(connectionString);
+    }
+
+    @Benchmark
+    public StorageItemPage<BlobItem> getBlobItemsPage() throws Exception {
+        return StorageClientSDKManager.getManager().getBlobItemsPage(connectionString, rootDirectory, null,
+                itemCount, null);
+    }
+}
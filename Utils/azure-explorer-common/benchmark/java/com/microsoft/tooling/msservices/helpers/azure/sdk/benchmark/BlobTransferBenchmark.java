@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.tooling.msservices.helpers.azure.sdk.benchmark;
+
+import com.google.common.io.ByteStreams;
+import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientSDKManager;
+import com.microsoft.tooling.msservices.model.storage.BlobContainer;
+import com.microsoft.tooling.msservices.model.storage.BlobFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and throughput of uploading and downloading one blob, by the blob size.
+ * The file based calls go through the parallel uploader and downloader, the stream based ones don't.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 4)
+@Fork(1)
+public class BlobTransferBenchmark {
+    private static final long BLOCK_SIZE = 1024 * 1024;
+
+    @Param({"65536", "4194304", "33554432"})
+    public int blobSize;
+
+    private StorageServiceStandIn service;
+    private String connectionString;
+    private BlobContainer container;
+    private BlobFile blobFile;
+    private File uploadFile;
+    private File downloadFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        service = new StorageServiceStandIn();
+        service.start();
+        service.seedUploadTarget();
+
+        byte[] content = service.seedBlob("download.bin", blobSize);
+
+        connectionString = service.getConnectionString();
+        container = new BlobContainer(StorageServiceStandIn.CONTAINER_NAME, "", "", new GregorianCalendar(), "");
+        blobFile = new BlobFile("download.bin", "", StorageServiceStandIn.CONTAINER_NAME, "download.bin",
+                "BlockBlob", "", "", "", "application/octet-stream", "", "", new GregorianCalendar(), blobSize);
+
+        uploadFile = File.createTempFile("upload", ".bin");
+        Files.write(uploadFile.toPath(), content);
+        downloadFile = File.createTempFile("download", ".bin");
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.stop();
+        uploadFile.delete();
+        downloadFile.delete();
+    }
+
+    @Benchmark
+    public void uploadBlobFileContentFromFile() throws Exception {
+        StorageClientSDKManager.getManager().uploadBlobFileContent(connectionString, container, "upload.bin",
+                uploadFile, null, BLOCK_SIZE);
+    }
+
+    @Benchmark
+    public void downloadBlobFileContentToFile() throws Exception {
+        StorageClientSDKManager.getManager().downloadBlobFileContent(connectionString, blobFile, downloadFile, null);
+    }
+
+    @Benchmark
+    public void downloadBlobFileContentToStream() throws Exception {
+        StorageClientSDKManager.getManager().downloadBlobFileContent(connectionString, blobFile,
+                ByteStreams.nullOutputStream());
+    }
+}
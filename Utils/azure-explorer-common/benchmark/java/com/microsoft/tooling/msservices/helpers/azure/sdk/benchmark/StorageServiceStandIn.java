@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.tooling.msservices.helpers.azure.sdk.benchmark;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.microsoft.azure.storage.core.Base64;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.azure.sdk.ParallelBlobDownloader;
+import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientSDKManager;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+
+/**
+ * A local stand-in of the Blob, Queue and Table services of the development storage account, seeded with
+ * synthetic containers, blobs, messages and entities.
+ *
+ * Responses are canned and served from memory, so the benchmarks measure the client side of the calls:
+ * request building, signing, the HTTP round trip over loopback, parsing and the manager's own work.
+ */
+public class StorageServiceStandIn {
+    public static final String ACCOUNT_NAME = "devstoreaccount1";
+    public static final String ACCOUNT_KEY =
+            "Eby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/KBHBeksoGMGw==";
+    public static final String CONTAINER_NAME = "benchmark";
+    public static final String QUEUE_NAME = "benchmark";
+    public static final String TABLE_NAME = "benchmark";
+
+    private static final String LAST_MODIFIED = "Mon, 01 Jan 2018 00:00:00 GMT";
+    private static final String ETAG = "\"0x8D5A1B2C3D4E5F6\"";
+
+    private final WireMockServer server = new WireMockServer(wireMockConfig()
+            .dynamicPort()
+            .containerThreads(32)
+            .disableRequestJournal());
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop();
+    }
+
+    @NotNull
+    public String getConnectionString() {
+        String endpoint = String.format("http://127.0.0.1:%d/%s", server.port(), ACCOUNT_NAME);
+
+        return String.format("AccountName=%s;AccountKey=%s;BlobEndpoint=%s;QueueEndpoint=%s;TableEndpoint=%s",
+                ACCOUNT_NAME, ACCOUNT_KEY, endpoint, endpoint, endpoint);
+    }
+
+    /**
+     * Serve a container listing of the given size, the public access of every container is served too
+     */
+    public void seedContainers(int count) {
+        StringBuilder containers = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            containers.append(String.format("<Container><Name>container%05d</Name><Properties>" +
+                    "<Last-Modified>%s</Last-Modified><Etag>%s</Etag></Properties></Container>", i, LAST_MODIFIED, ETAG));
+        }
+
+        server.stubFor(get(urlPathEqualTo("/" + ACCOUNT_NAME + "/"))
+                .withQueryParam("comp", equalTo("list"))
+                .willReturn(xmlResponse("<EnumerationResults ServiceEndpoint=\"http://127.0.0.1/" + ACCOUNT_NAME +
+                        "/\"><Containers>" + containers + "</Containers><NextMarker /></EnumerationResults>")));
+
+        server.stubFor(get(urlPathMatching("/" + ACCOUNT_NAME + "/container.*"))
+                .withQueryParam("comp", equalTo("acl"))
+                .willReturn(xmlResponse("<SignedIdentifiers />")
+                        .withHeader("x-ms-blob-public-access", "container")));
+    }
+
+    /**
+     * Serve a page of the given size when listing the benchmark container with it as the page size
+     */
+    public void seedBlobListing(int count) {
+        StringBuilder blobs = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            blobs.append(String.format("<Blob><Name>blob%05d.bin</Name><Properties>" +
+                    "<Last-Modified>%s</Last-Modified><Etag>%s</Etag><Content-Length>%d</Content-Length>" +
+                    "<Content-Type>application/octet-stream</Content-Type><BlobType>BlockBlob</BlobType>" +
+                    "<LeaseStatus>unlocked</LeaseStatus><LeaseState>available</LeaseState></Properties></Blob>",
+                    i, LAST_MODIFIED, ETAG, 1024 + i));
+        }
+
+        server.stubFor(get(urlPathEqualTo("/" + ACCOUNT_NAME + "/" + CONTAINER_NAME))
+                .withQueryParam("comp", equalTo("list"))
+                .withQueryParam("maxresults", equalTo(Integer.toString(count)))
+                .willReturn(xmlResponse("<EnumerationResults ServiceEndpoint=\"http://127.0.0.1/" + ACCOUNT_NAME +
+                        "/\" ContainerName=\"" + CONTAINER_NAME + "\"><MaxResults>" + count + "</MaxResults>" +
+                        "<Delimiter>/</Delimiter><Blobs>" + blobs + "</Blobs><NextMarker /></EnumerationResults>")));
+    }
+
+    /**
+     * Serve a block blob of random content, both as a whole and in the ranges of {@link ParallelBlobDownloader}
+     *
+     * @return the blob content
+     */
+    @NotNull
+    public byte[] seedBlob(@NotNull String name, int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+
+        String path = "/" + ACCOUNT_NAME + "/" + CONTAINER_NAME + "/" + name;
+
+        server.stubFor(request("HEAD", urlPathEqualTo(path))
+                .willReturn(blobResponse(200, content.length)
+                        .withHeader("Content-MD5", Base64.encode(MessageDigest.getInstance("MD5").digest(content)))));
+
+        server.stubFor(get(urlPathEqualTo(path))
+                .willReturn(blobResponse(200, content.length)
+                        .withBody(content)));
+
+        long rangeSize = ParallelBlobDownloader.DEFAULT_RANGE_SIZE;
+
+        for (long start = 0; start < size; start += rangeSize) {
+            int end = (int) Math.min(start + rangeSize, size);
+
+            server.stubFor(get(urlPathEqualTo(path))
+                    .withHeader("x-ms-range", equalTo(String.format("bytes=%d-%d", start, end - 1)))
+                    .willReturn(blobResponse(206, end - (int) start)
+                            .withHeader("Content-Range", String.format("bytes %d-%d/%d", start, end - 1, size))
+                            .withBody(Arrays.copyOfRange(content, (int) start, end))));
+        }
+
+        return content;
+    }
+
+    /**
+     * Accept the blocks and block lists uploaded to any blob of the benchmark container
+     */
+    public void seedUploadTarget() {
+        server.stubFor(put(urlPathMatching("/" + ACCOUNT_NAME + "/" + CONTAINER_NAME + "/.*"))
+                .willReturn(aResponse()
+                        .withStatus(201)
+                        .withHeader("ETag", ETAG)
+                        .withHeader("Last-Modified", LAST_MODIFIED)));
+    }
+
+    /**
+     * Serve a segment of the given size when querying the benchmark table with it as the page size
+     */
+    public void seedTableEntities(int count) {
+        StringBuilder entities = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                entities.append(',');
+            }
+
+            entities.append(String.format("{\"odata.type\":\"%1$s.%2$s\"," +
+                    "\"odata.id\":\"http://127.0.0.1/%1$s/%2$s(PartitionKey='p%3$d',RowKey='r%4$05d')\"," +
+                    "\"odata.etag\":\"W/\\\"datetime'2018-01-01T00%%3A00%%3A00.0000000Z'\\\"\"," +
+                    "\"odata.editLink\":\"%2$s(PartitionKey='p%3$d',RowKey='r%4$05d')\"," +
+                    "\"PartitionKey\":\"p%3$d\",\"RowKey\":\"r%4$05d\"," +
+                    "\"Timestamp@odata.type\":\"Edm.DateTime\",\"Timestamp\":\"2018-01-01T00:00:00.0000000Z\"," +
+                    "\"Name\":\"entity %4$d\",\"Description\":\"synthetic entity for the table benchmarks\"," +
+                    "\"Count\":%4$d,\"Enabled\":true}",
+                    ACCOUNT_NAME, TABLE_NAME, i % 10, i));
+        }
+
+        server.stubFor(get(urlPathMatching("/" + ACCOUNT_NAME + "/" + TABLE_NAME + ".*"))
+                .withQueryParam("$top", equalTo(Integer.toString(count)))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json;odata=fullmetadata;streaming=true;charset=utf-8")
+                        .withBody("{\"odata.metadata\":\"http://127.0.0.1/" + ACCOUNT_NAME + "/$metadata#" +
+                                TABLE_NAME + "\",\"value\":[" + entities + "]}")));
+    }
+
+    /**
+     * Serve a queue whose peeks return a full batch of messages
+     */
+    public void seedQueueMessages() {
+        server.stubFor(get(urlPathEqualTo("/" + ACCOUNT_NAME + "/" + QUEUE_NAME + "/messages"))
+                .withQueryParam("peekonly", equalTo("true"))
+                .willReturn(xmlResponse(getQueueMessagesXml(StorageClientSDKManager.MAX_QUEUE_MESSAGE_PEEK))));
+    }
+
+    @NotNull
+    private static ResponseDefinitionBuilder xmlResponse(@NotNull String body) {
+        return aResponse()
+                .withStatus(200)
+                .withHeader("Content-Type", "application/xml")
+                .withBody("<?xml version=\"1.0\" encoding=\"utf-8\"?>" + body);
+    }
+
+    @NotNull
+    private static ResponseDefinitionBuilder blobResponse(int status, int length) {
+        return aResponse()
+                .withStatus(status)
+                .withHeader("Content-Length", Integer.toString(length))
+                .withHeader("Content-Type", "application/octet-stream")
+                .withHeader("ETag", ETAG)
+                .withHeader("Last-Modified", LAST_MODIFIED)
+                .withHeader("x-ms-blob-type", "BlockBlob");
+    }
+
+    @NotNull
+    private static String getQueueMessagesXml(int count) {
+        StringBuilder messages = new StringBuilder("<QueueMessagesList>");
+
+        for (int i = 0; i < count; i++) {
+            messages.append(String.format("<QueueMessage><MessageId>message%d</MessageId>" +
+                    "<InsertionTime>%2$s</InsertionTime><ExpirationTime>%2$s</ExpirationTime>" +
+                    "<PopReceipt>receipt%1$d</PopReceipt><TimeNextVisible>%2$s</TimeNextVisible>" +
+                    "<DequeueCount>1</DequeueCount><MessageText>dGV4dA==</MessageText></QueueMessage>",
+                    i, LAST_MODIFIED));
+        }
+
+        return messages.append("</QueueMessagesList>").toString();
+    }
+}
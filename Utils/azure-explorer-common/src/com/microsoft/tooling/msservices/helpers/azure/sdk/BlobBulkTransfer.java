@@ -0,0 +1,553 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.microsoft.azure.storage.StorageErrorCodeStrings;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobListingDetails;
+import com.microsoft.azure.storage.blob.BlobProperties;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
+import com.microsoft.tooling.msservices.helpers.CallableSingleArg;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mirror a local directory tree to a blob prefix, or a blob prefix to a local directory.
+ *
+ * A transfer is planned first: both sides are listed and the files whose size and MD5 already match are skipped.
+ * The remaining files are then transferred on a bounded pool, each file with the parallel block uploader or range
+ * downloader, and retried with an exponential backoff that grows faster when the service is throttling.
+ * Progress of the whole transfer and its cancellation go through one {@link Handle}.
+ */
+public class BlobBulkTransfer {
+    public static final int DEFAULT_CONCURRENCY = Integer.getInteger(
+            "azure.toolkit.storage.bulk.concurrency",
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())));
+
+    public static final int DEFAULT_MAX_RETRIES = 5;
+
+    // Every file runs its own block or range pool, keep it small as several files are in flight
+    private static final int FILE_CONCURRENCY = 2;
+
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30 * 1000;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final String DELIMITER = "/";
+
+    public enum Direction {
+        UPLOAD,
+        DOWNLOAD
+    }
+
+    /**
+     * One file to transfer, the relative path uses '/' on both sides
+     */
+    public static class Item {
+        private final String relativePath;
+        private final File localFile;
+        private final String blobPath;
+        private final long length;
+
+        public Item(@NotNull String relativePath, @NotNull File localFile, @NotNull String blobPath, long length) {
+            this.relativePath = relativePath;
+            this.localFile = localFile;
+            this.blobPath = blobPath;
+            this.length = length;
+        }
+
+        @NotNull
+        public String getRelativePath() {
+            return relativePath;
+        }
+
+        @NotNull
+        public File getLocalFile() {
+            return localFile;
+        }
+
+        @NotNull
+        public String getBlobPath() {
+            return blobPath;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * The files to transfer and the ones already in sync
+     */
+    public static class Plan {
+        private final Direction direction;
+        private final List<Item> items;
+        private final List<Item> skippedItems;
+
+        public Plan(@NotNull Direction direction, @NotNull List<Item> items, @NotNull List<Item> skippedItems) {
+            this.direction = direction;
+            this.items = items;
+            this.skippedItems = skippedItems;
+        }
+
+        @NotNull
+        public Direction getDirection() {
+            return direction;
+        }
+
+        @NotNull
+        public List<Item> getItems() {
+            return items;
+        }
+
+        @NotNull
+        public List<Item> getSkippedItems() {
+            return skippedItems;
+        }
+
+        public long getTotalBytes() {
+            long totalBytes = 0;
+
+            for (Item item : items) {
+                totalBytes += item.getLength();
+            }
+
+            return totalBytes;
+        }
+    }
+
+    /**
+     * The aggregate progress and the cancellation of a running transfer
+     */
+    public static class Handle {
+        private final Plan plan;
+        private final long totalBytes;
+        private final AtomicLong transferredBytes = new AtomicLong(0);
+        private final AtomicInteger completedFiles = new AtomicInteger(0);
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final Map<Item, Throwable> failures = new ConcurrentHashMap<>();
+        private final CountDownLatch done;
+        private volatile ExecutorService executor;
+
+        Handle(@NotNull Plan plan) {
+            this.plan = plan;
+            this.totalBytes = plan.getTotalBytes();
+            this.done = new CountDownLatch(plan.getItems().size());
+        }
+
+        @NotNull
+        public Plan getPlan() {
+            return plan;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getTransferredBytes() {
+            return transferredBytes.get();
+        }
+
+        public int getTotalFiles() {
+            return plan.getItems().size();
+        }
+
+        public int getCompletedFiles() {
+            return completedFiles.get();
+        }
+
+        public int getSkippedFiles() {
+            return plan.getSkippedItems().size();
+        }
+
+        public double getFraction() {
+            return totalBytes == 0
+                    ? (getTotalFiles() == 0 ? 1 : (double) (completedFiles.get() + failures.size()) / getTotalFiles())
+                    : (double) transferredBytes.get() / totalBytes;
+        }
+
+        /**
+         * The files failed after retries, with their last errors
+         */
+        @NotNull
+        public Map<Item, Throwable> getFailures() {
+            return new HashMap<>(failures);
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * Stop the transfer, the files in flight are interrupted and the queued ones are never started.
+         * A cancelled download resumes from its checkpoint when the same transfer is started again.
+         */
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                ExecutorService executor = this.executor;
+
+                if (executor != null) {
+                    // The files never started are done as well
+                    for (Runnable ignored : executor.shutdownNow()) {
+                        done.countDown();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Wait for every file to finish, fail or be cancelled
+         */
+        public void await() throws InterruptedException {
+            done.await();
+        }
+
+        public boolean await(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+            return done.await(timeout, unit);
+        }
+    }
+
+    private final int concurrency;
+    private final int maxRetries;
+
+    public BlobBulkTransfer() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_MAX_RETRIES);
+    }
+
+    public BlobBulkTransfer(int concurrency, int maxRetries) {
+        this.concurrency = Math.max(1, concurrency);
+        this.maxRetries = Math.max(1, maxRetries);
+    }
+
+    /**
+     * Plan the upload of every file under the local directory to the blobs under the prefix
+     *
+     * @param blobPrefix the target virtual directory, empty for the container root
+     */
+    @NotNull
+    public Plan planUpload(@NotNull CloudBlobContainer container,
+                           @NotNull File localDirectory,
+                           @NotNull String blobPrefix) throws Exception {
+        String prefix = normalizePrefix(blobPrefix);
+        Map<String, BlobProperties> remote = listBlobs(container, prefix);
+        Map<String, File> local = listFiles(localDirectory);
+
+        List<Item> items = new ArrayList<>();
+        List<Item> skippedItems = new ArrayList<>();
+
+        for (Map.Entry<String, File> entry : local.entrySet()) {
+            File file = entry.getValue();
+            Item item = new Item(entry.getKey(), file, prefix + entry.getKey(), file.length());
+
+            if (isInSync(file, remote.get(entry.getKey()))) {
+                skippedItems.add(item);
+            } else {
+                items.add(item);
+            }
+        }
+
+        return new Plan(Direction.UPLOAD, items, skippedItems);
+    }
+
+    /**
+     * Plan the download of every blob under the prefix into the local directory
+     *
+     * @param blobPrefix the source virtual directory, empty for the whole container
+     * @throws IOException when a blob path leads outside of the local directory, like "../file"
+     */
+    @NotNull
+    public Plan planDownload(@NotNull CloudBlobContainer container,
+                             @NotNull String blobPrefix,
+                             @NotNull File localDirectory) throws Exception {
+        String prefix = normalizePrefix(blobPrefix);
+        Map<String, BlobProperties> remote = listBlobs(container, prefix);
+
+        List<Item> items = new ArrayList<>();
+        List<Item> skippedItems = new ArrayList<>();
+
+        for (Map.Entry<String, BlobProperties> entry : remote.entrySet()) {
+            File file = getLocalFile(localDirectory, entry.getKey());
+            Item item = new Item(entry.getKey(), file, prefix + entry.getKey(), entry.getValue().getLength());
+
+            if (isInSync(file, entry.getValue())) {
+                skippedItems.add(item);
+            } else {
+                items.add(item);
+            }
+        }
+
+        return new Plan(Direction.DOWNLOAD, items, skippedItems);
+    }
+
+    /**
+     * Start the planned transfer in background
+     *
+     * @param onProgress called with the handle whenever a file makes progress or finishes
+     */
+    @NotNull
+    public Handle start(@NotNull final CloudBlobContainer container,
+                        @NotNull Plan plan,
+                        @Nullable final CallableSingleArg<Void, Handle> onProgress) {
+        final Handle handle = new Handle(plan);
+
+        if (plan.getItems().isEmpty()) {
+            return handle;
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        handle.executor = Executors.newFixedThreadPool(Math.min(concurrency, plan.getItems().size()),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NotNull Runnable runnable) {
+                        Thread thread = new Thread(runnable, "Blob Bulk Transfer-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        for (final Item item : plan.getItems()) {
+            try {
+                handle.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!handle.isCancelled()) {
+                                transfer(container, handle, item, onProgress);
+                                handle.completedFiles.incrementAndGet();
+                            }
+                        } catch (Throwable t) {
+                            if (!handle.isCancelled()) {
+                                handle.failures.put(item, t);
+                            }
+                        } finally {
+                            handle.done.countDown();
+                            reportProgress(onProgress, handle);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // Cancelled while queueing
+                handle.done.countDown();
+            }
+        }
+
+        handle.executor.shutdown();
+
+        return handle;
+    }
+
+    private void transfer(@NotNull CloudBlobContainer container,
+                          @NotNull final Handle handle,
+                          @NotNull Item item,
+                          @Nullable final CallableSingleArg<Void, Handle> onProgress) throws Exception {
+        int attempt = 0;
+        // Bytes reported by the previous attempts of this file are given back before retrying
+        final AtomicLong fileBytes = new AtomicLong(0);
+
+        CallableSingleArg<Void, Long> processBlock = new CallableSingleArg<Void, Long>() {
+            @Override
+            public Void call(Long transferredBytes) throws Exception {
+                handle.transferredBytes.addAndGet(transferredBytes - fileBytes.getAndSet(transferredBytes));
+                reportProgress(onProgress, handle);
+                return null;
+            }
+        };
+
+        while (true) {
+            try {
+                if (handle.getPlan().getDirection() == Direction.UPLOAD) {
+                    upload(container, item, processBlock);
+                } else {
+                    download(container, item, processBlock);
+                }
+
+                return;
+            } catch (Exception ex) {
+                if (++attempt >= maxRetries || handle.isCancelled() || Thread.currentThread().isInterrupted()) {
+                    throw ex;
+                }
+
+                Thread.sleep(getBackoffMillis(attempt, isThrottled(ex)));
+            }
+        }
+    }
+
+    private static void upload(@NotNull CloudBlobContainer container,
+                               @NotNull Item item,
+                               @NotNull CallableSingleArg<Void, Long> processBlock) throws Exception {
+        CloudBlockBlob blob = container.getBlockBlobReference(item.getBlobPath());
+
+        // Committed with the block list, so the next plan can compare the content without downloading it
+        blob.getProperties().setContentMD5(ContentMD5.of(item.getLocalFile()));
+
+        ParallelBlockBlobUploader uploader = new ParallelBlockBlobUploader(FILE_CONCURRENCY,
+                ParallelBlockBlobUploader.DEFAULT_MAX_RETRIES);
+        uploader.upload(blob, item.getLocalFile(), ParallelBlockBlobUploader.MAX_BLOCK_SIZE, processBlock);
+    }
+
+    private static void download(@NotNull CloudBlobContainer container,
+                                 @NotNull Item item,
+                                 @NotNull CallableSingleArg<Void, Long> processBlock) throws Exception {
+        File parent = item.getLocalFile().getParentFile();
+
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+
+        CloudBlob blob = container.getBlobReferenceFromServer(item.getBlobPath());
+
+        ParallelBlobDownloader downloader = new ParallelBlobDownloader(FILE_CONCURRENCY,
+                ParallelBlobDownloader.DEFAULT_RANGE_SIZE, ParallelBlobDownloader.DEFAULT_MAX_RETRIES);
+        downloader.download(blob, item.getLocalFile(), processBlock);
+    }
+
+    static long getBackoffMillis(int attempt, boolean throttled) {
+        // Throttling backs off twice as fast, with jitter so the workers don't come back together
+        long base = INITIAL_BACKOFF_MILLIS << Math.min(attempt - 1 + (throttled ? attempt : 0), 16);
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, base);
+
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    static boolean isThrottled(@Nullable Throwable t) {
+        // Other failures, a 500 included, are retried with the normal backoff
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof StorageException) {
+                StorageException storageException = (StorageException) cause;
+                int statusCode = storageException.getHttpStatusCode();
+
+                return statusCode == HttpURLConnection.HTTP_UNAVAILABLE
+                        || statusCode == HTTP_TOO_MANY_REQUESTS
+                        || StorageErrorCodeStrings.SERVER_BUSY.equals(storageException.getErrorCode());
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isInSync(@NotNull File file, @Nullable BlobProperties properties) throws IOException {
+        if (properties == null || !file.isFile() || file.length() != properties.getLength()) {
+            return false;
+        }
+
+        String contentMD5 = properties.getContentMD5();
+
+        // Without an MD5 the content can't be compared cheaply, transfer it again
+        return contentMD5 != null && !contentMD5.isEmpty() && contentMD5.equals(ContentMD5.of(file));
+    }
+
+    @NotNull
+    private static Map<String, BlobProperties> listBlobs(@NotNull CloudBlobContainer container,
+                                                         @NotNull String prefix) throws Exception {
+        Map<String, BlobProperties> blobs = new TreeMap<>();
+
+        // Flat listing, the blob properties come with it
+        for (ListBlobItem item : container.listBlobs(prefix, true, EnumSet.noneOf(BlobListingDetails.class),
+                null, null)) {
+            if (item instanceof CloudBlob) {
+                CloudBlob blob = (CloudBlob) item;
+                String relativePath = blob.getName().substring(prefix.length());
+
+                if (!relativePath.isEmpty() && !relativePath.endsWith(DELIMITER)) {
+                    blobs.put(relativePath, blob.getProperties());
+                }
+            }
+        }
+
+        return blobs;
+    }
+
+    /**
+     * Map a blob path to a file under the local directory. Blob names are written by whoever can write to the
+     * container, so a name that resolves outside of the directory is refused rather than written.
+     */
+    @NotNull
+    static File getLocalFile(@NotNull File localDirectory, @NotNull String relativePath) throws IOException {
+        File root = localDirectory.getCanonicalFile();
+        File file = new File(root, relativePath.replace(DELIMITER, File.separator)).getCanonicalFile();
+
+        if (file.equals(root) || !file.toPath().startsWith(root.toPath())) {
+            throw new IOException(String.format("The blob %s would be downloaded outside of the directory %s",
+                    relativePath, localDirectory.getPath()));
+        }
+
+        return file;
+    }
+
+    @NotNull
+    private static Map<String, File> listFiles(@NotNull File localDirectory) throws IOException {
+        final Map<String, File> files = new TreeMap<>();
+        final Path root = localDirectory.toPath();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) {
+                    String relativePath = root.relativize(file).toString().replace(File.separatorChar, '/');
+                    files.put(relativePath, file.toFile());
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return files;
+    }
+
+    @NotNull
+    private static String normalizePrefix(@NotNull String blobPrefix) {
+        String prefix = blobPrefix.startsWith(DELIMITER) ? blobPrefix.substring(1) : blobPrefix;
+
+        return prefix.isEmpty() || prefix.endsWith(DELIMITER) ? prefix : prefix + DELIMITER;
+    }
+
+    private static void reportProgress(@Nullable CallableSingleArg<Void, Handle> onProgress, @NotNull Handle handle) {
+        if (onProgress != null) {
+            try {
+                onProgress.call(handle);
+            } catch (Exception ignored) {
+                // A failing listener doesn't fail the transfer
+            }
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.google.gson.Gson;
+import com.microsoft.azure.storage.ResultContinuation;
+import com.microsoft.azure.storage.ResultSegment;
+import com.microsoft.azure.storage.blob.BlobListingDetails;
+import com.microsoft.azure.storage.blob.BlobProperties;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+import com.microsoft.azuretools.authmanage.CommonSettings;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
+import com.microsoft.tooling.msservices.model.storage.BlobFile;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local index of the blob properties of one container, to search blobs by path, size, date and content type
+ * without listing the container again.
+ *
+ * The entries are kept sorted by path in memory, so a prefix query only visits the matching range, and are
+ * persisted as a compressed snapshot under the settings directory. The index is filled from flat segmented
+ * listings; a refresh compares the ETags and reports the top level prefixes whose blobs were added, changed or
+ * removed, so only those need to be shown again.
+ */
+public class BlobMetadataIndex {
+    private static final Logger LOGGER = Logger.getLogger(BlobMetadataIndex.class.getName());
+
+    private static final String INDEX_DIR = "BlobIndex";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int FORMAT_VERSION = 1;
+    private static final int LISTING_PAGE_SIZE = 5000;
+    private static final String DELIMITER = "/";
+
+    // Only the indexes of the containers used last stay in memory, the others are loaded again from their snapshots
+    static final int MAX_CACHED_INDEXES = 8;
+
+    private static final Map<String, BlobMetadataIndex> indexes =
+            new LinkedHashMap<String, BlobMetadataIndex>(MAX_CACHED_INDEXES * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, BlobMetadataIndex> eldest) {
+                    return size() > MAX_CACHED_INDEXES;
+                }
+            };
+
+    /**
+     * The indexed properties of one blob
+     */
+    public static class Entry {
+        private String path;
+        private String uri;
+        private String type;
+        private String contentType;
+        private String contentMD5;
+        private String eTag;
+        private long lastModified;
+        private long size;
+
+        @NotNull
+        public String getPath() {
+            return path;
+        }
+
+        @NotNull
+        public String getUri() {
+            return uri;
+        }
+
+        @NotNull
+        public String getContentType() {
+            return contentType;
+        }
+
+        @NotNull
+        public String getETag() {
+            return eTag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @NotNull
+        public BlobFile toBlobFile(@NotNull String containerName) {
+            Calendar lastModifiedTime = new GregorianCalendar();
+            lastModifiedTime.setTimeInMillis(lastModified);
+
+            String name = path.substring(path.lastIndexOf(DELIMITER) + 1);
+
+            return new BlobFile(name, uri, containerName, path, type, "", "", "", contentType, contentMD5, eTag,
+                    lastModifiedTime, size);
+        }
+    }
+
+    /**
+     * Search criteria, unset criteria match every blob
+     */
+    public static class Query {
+        private String prefix = "";
+        private Pattern glob;
+        private long minSize = 0;
+        private long maxSize = Long.MAX_VALUE;
+        private long modifiedAfter = Long.MIN_VALUE;
+        private long modifiedBefore = Long.MAX_VALUE;
+        private String contentType;
+        private int limit = Integer.MAX_VALUE;
+
+        @NotNull
+        public Query prefix(@NotNull String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * Match the whole path, '*' and '?' don't cross '/', '**' does
+         */
+        @NotNull
+        public Query glob(@NotNull String glob) {
+            this.glob = globToPattern(glob);
+            return this;
+        }
+
+        @NotNull
+        public Query size(long minSize, long maxSize) {
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        @NotNull
+        public Query modified(@Nullable Date after, @Nullable Date before) {
+            this.modifiedAfter = after == null ? Long.MIN_VALUE : after.getTime();
+            this.modifiedBefore = before == null ? Long.MAX_VALUE : before.getTime();
+            return this;
+        }
+
+        @NotNull
+        public Query contentType(@Nullable String contentType) {
+            this.contentType = contentType;
+            return this;
+        }
+
+        @NotNull
+        public Query limit(int limit) {
+            this.limit = Math.max(1, limit);
+            return this;
+        }
+
+        boolean matches(@NotNull Entry entry) {
+            return entry.size >= minSize && entry.size <= maxSize
+                    && entry.lastModified >= modifiedAfter && entry.lastModified < modifiedBefore
+                    && (contentType == null || contentType.equalsIgnoreCase(entry.contentType))
+                    && (glob == null || glob.matcher(entry.path).matches());
+        }
+    }
+
+    private static class Snapshot {
+        int version;
+        String key;
+        Map<String, Long> refreshTimes;
+        List<Entry> entries;
+    }
+
+    private final String key;
+    private final File indexFile;
+    private final ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    // When each refreshed prefix was last listed, a refresh also covers the prefixes under it
+    private final ConcurrentMap<String, Long> refreshTimes = new ConcurrentHashMap<>();
+
+    BlobMetadataIndex(@NotNull String key, @Nullable File indexFile) {
+        this.key = key;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Get the index of the container, loaded from its snapshot when it isn't in memory
+     */
+    @NotNull
+    public static BlobMetadataIndex getIndex(@NotNull CloudBlobContainer container) {
+        String key = container.getUri().toString();
+
+        synchronized (indexes) {
+            BlobMetadataIndex index = indexes.get(key);
+
+            if (index == null) {
+                index = new BlobMetadataIndex(key, getIndexFile(key));
+                index.load();
+
+                indexes.put(key, index);
+            }
+
+            return index;
+        }
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * When the blobs under the prefix were last brought up to date, 0 if never
+     */
+    public long getRefreshTimeMillis(@NotNull String prefix) {
+        long refreshTimeMillis = 0;
+
+        for (Map.Entry<String, Long> refreshTime : refreshTimes.entrySet()) {
+            if (prefix.startsWith(refreshTime.getKey())) {
+                refreshTimeMillis = Math.max(refreshTimeMillis, refreshTime.getValue());
+            }
+        }
+
+        return refreshTimeMillis;
+    }
+
+    /**
+     * Bring the blobs under the prefix up to date with the container
+     *
+     * @param prefix the virtual directory to refresh, empty for the whole container
+     * @return the top level prefixes, relative to the container, whose blobs were added, changed or removed
+     */
+    @NotNull
+    public synchronized Set<String> refresh(@NotNull CloudBlobContainer container, @NotNull String prefix)
+            throws Exception {
+        Set<String> changedPrefixes = new TreeSet<>();
+        Set<String> seenPaths = new HashSet<>();
+        ResultContinuation continuation = null;
+
+        do {
+            ResultSegment<ListBlobItem> segment = container.listBlobsSegmented(prefix, true,
+                    EnumSet.noneOf(BlobListingDetails.class), LISTING_PAGE_SIZE, continuation, null, null);
+
+            for (ListBlobItem item : segment.getResults()) {
+                if (!(item instanceof CloudBlob)) {
+                    continue;
+                }
+
+                CloudBlob blob = (CloudBlob) item;
+                Entry entry = toEntry(blob);
+                seenPaths.add(entry.path);
+
+                Entry indexed = entries.get(entry.path);
+                if (indexed == null || !indexed.eTag.equals(entry.eTag)) {
+                    entries.put(entry.path, entry);
+                    changedPrefixes.add(getTopLevelPrefix(entry.path));
+                }
+            }
+
+            continuation = segment.getHasMoreResults() ? segment.getContinuationToken() : null;
+        } while (continuation != null);
+
+        Iterator<String> paths = getRange(prefix).keySet().iterator();
+        while (paths.hasNext()) {
+            String path = paths.next();
+
+            if (!seenPaths.contains(path)) {
+                paths.remove();
+                changedPrefixes.add(getTopLevelPrefix(path));
+            }
+        }
+
+        // The new listing supersedes the ones of the prefixes under it
+        Iterator<String> refreshedPrefixes = refreshTimes.keySet().iterator();
+        while (refreshedPrefixes.hasNext()) {
+            if (refreshedPrefixes.next().startsWith(prefix)) {
+                refreshedPrefixes.remove();
+            }
+        }
+        refreshTimes.put(prefix, System.currentTimeMillis());
+
+        if (!changedPrefixes.isEmpty() || indexFile == null || !indexFile.exists()) {
+            save();
+        }
+
+        return changedPrefixes;
+    }
+
+    /**
+     * Search the indexed blobs, in path order
+     */
+    @NotNull
+    public List<Entry> query(@NotNull Query query) {
+        List<Entry> result = new ArrayList<>();
+
+        for (Entry entry : getRange(query.prefix).values()) {
+            if (query.matches(entry)) {
+                result.add(entry);
+
+                if (result.size() >= query.limit) {
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Forget the indexed blobs of the container and its snapshot
+     */
+    public synchronized void clear() {
+        entries.clear();
+        refreshTimes.clear();
+
+        if (indexFile != null) {
+            try {
+                Files.deleteIfExists(indexFile.toPath());
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Failed to delete the blob index " + indexFile, ex);
+            }
+        }
+    }
+
+    @NotNull
+    private ConcurrentNavigableMap<String, Entry> getRange(@NotNull String prefix) {
+        return prefix.isEmpty() ? entries : entries.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    @NotNull
+    private static String getTopLevelPrefix(@NotNull String path) {
+        int index = path.indexOf(DELIMITER);
+
+        return index < 0 ? "" : path.substring(0, index + 1);
+    }
+
+    @NotNull
+    private static Entry toEntry(@NotNull CloudBlob blob) {
+        Entry entry = new Entry();
+        BlobProperties properties = blob.getProperties();
+
+        entry.path = blob.getName();
+        entry.uri = blob.getUri() != null ? blob.getUri().toString() : "";
+        entry.type = properties.getBlobType() != null ? properties.getBlobType().toString() : "";
+        entry.contentType = properties.getContentType() != null ? properties.getContentType() : "";
+        entry.contentMD5 = properties.getContentMD5() != null ? properties.getContentMD5() : "";
+        entry.eTag = properties.getEtag() != null ? properties.getEtag() : "";
+        entry.lastModified = properties.getLastModified() != null ? properties.getLastModified().getTime() : 0;
+        entry.size = properties.getLength();
+
+        return entry;
+    }
+
+    @NotNull
+    static Pattern globToPattern(@NotNull String glob) {
+        StringBuilder regex = new StringBuilder();
+
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        return Pattern.compile(regex.toString());
+    }
+
+    @Nullable
+    private static File getIndexFile(@NotNull String key) {
+        if (CommonSettings.settingsBaseDir == null) {
+            // Kept in memory only, e.g. before the plugin is initialized
+            return null;
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder name = new StringBuilder();
+
+            for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+                name.append(String.format("%02x", b));
+            }
+
+            return Paths.get(CommonSettings.settingsBaseDir, INDEX_DIR, name + INDEX_SUFFIX).toFile();
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    void load() {
+        if (indexFile == null || !indexFile.isFile()) {
+            return;
+        }
+
+        try (Reader reader = new InputStreamReader(new GZIPInputStream(new FileInputStream(indexFile)),
+                StandardCharsets.UTF_8)) {
+            Snapshot snapshot = new Gson().fromJson(reader, Snapshot.class);
+
+            if (snapshot == null || snapshot.version != FORMAT_VERSION || !key.equals(snapshot.key)
+                    || snapshot.entries == null) {
+                return;
+            }
+
+            for (Entry entry : snapshot.entries) {
+                entries.put(entry.path, entry);
+            }
+
+            if (snapshot.refreshTimes != null) {
+                refreshTimes.putAll(snapshot.refreshTimes);
+            }
+        } catch (Exception ex) {
+            // A broken snapshot is rebuilt by the next refresh
+            LOGGER.log(Level.WARNING, "Failed to load the blob index " + indexFile, ex);
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        if (indexFile == null) {
+            return;
+        }
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.version = FORMAT_VERSION;
+        snapshot.key = key;
+        snapshot.refreshTimes = new HashMap<>(refreshTimes);
+        snapshot.entries = new ArrayList<>(entries.values());
+
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+
+        try {
+            Files.createDirectories(indexFile.getParentFile().toPath());
+
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tempFile)),
+                    StandardCharsets.UTF_8)) {
+                new Gson().toJson(snapshot, writer);
+            }
+
+            // Write aside and move, so a crash never leaves a half written index
+            Files.move(tempFile.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to save the blob index " + indexFile, ex);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.microsoft.azure.storage.AccessCondition;
+import com.microsoft.azure.storage.RetryNoRetry;
+import com.microsoft.azure.storage.blob.BlobProperties;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
+import com.microsoft.tooling.msservices.helpers.CallableSingleArg;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Download a blob to a local file with several byte ranges in flight.
+ *
+ * The content goes to a preallocated partial file next to the target, and every range is written at its own offset
+ * with the positional write of a shared {@link FileChannel}. Completed ranges are recorded in a checkpoint file, so
+ * an interrupted download of the same blob version resumes from the missing ranges. Once the content is verified
+ * against the blob MD5, the partial file is renamed to the target and the checkpoint is removed, so the target
+ * never holds a half downloaded blob.
+ */
+public class ParallelBlobDownloader {
+    public static final String CHECKPOINT_SUFFIX = ".download";
+
+    public static final String PARTIAL_SUFFIX = ".partial";
+
+    public static final long DEFAULT_RANGE_SIZE = 4 * 1024 * 1024;
+
+    public static final int DEFAULT_CONCURRENCY = Integer.getInteger(
+            "azure.toolkit.storage.download.concurrency",
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())));
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private static final String CHECKPOINT_ETAG = "etag";
+    private static final String CHECKPOINT_LENGTH = "length";
+    private static final String CHECKPOINT_RANGE_SIZE = "rangeSize";
+    private static final String CHECKPOINT_COMPLETED = "completed";
+
+    private final int concurrency;
+    private final long rangeSize;
+    private final int maxRetries;
+
+    public ParallelBlobDownloader() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_RANGE_SIZE, DEFAULT_MAX_RETRIES);
+    }
+
+    public ParallelBlobDownloader(int concurrency, long rangeSize, int maxRetries) {
+        this.concurrency = Math.max(1, concurrency);
+        this.rangeSize = Math.max(1, rangeSize);
+        this.maxRetries = Math.max(1, maxRetries);
+    }
+
+    @NotNull
+    public static File getCheckpointFile(@NotNull File targetFile) {
+        return new File(targetFile.getPath() + CHECKPOINT_SUFFIX);
+    }
+
+    @NotNull
+    public static File getPartialFile(@NotNull File targetFile) {
+        return new File(targetFile.getPath() + PARTIAL_SUFFIX);
+    }
+
+    /**
+     * Download the blob content into the target file
+     *
+     * @param blob the source blob
+     * @param targetFile the local file, replaced once the whole content is downloaded and verified
+     * @param processBlock the callback to report the downloaded bytes in total, called from one thread at a time
+     * @throws Exception the exception of the failed range after retries, the MD5 mismatch, or the interruption
+     */
+    public void download(@NotNull CloudBlob blob,
+                         @NotNull File targetFile,
+                         @Nullable CallableSingleArg<Void, Long> processBlock) throws Exception {
+        BlobRequestOptions options = new BlobRequestOptions();
+        // Ranges are retried here, with the completed ones kept
+        options.setRetryPolicyFactory(new RetryNoRetry());
+
+        blob.downloadAttributes(null, options, null);
+
+        BlobProperties properties = blob.getProperties();
+        final long length = properties.getLength();
+        final String eTag = properties.getEtag();
+
+        File partialFile = getPartialFile(targetFile);
+        File checkpointFile = getCheckpointFile(targetFile);
+        final Checkpoint checkpoint = Checkpoint.load(checkpointFile, eTag, length, rangeSize, partialFile);
+
+        // The progress of this download only, so the reported totals never go backwards
+        final Object progressLock = new Object();
+        final AtomicLong downloadedBytes = new AtomicLong(0);
+        for (int index : checkpoint.getCompleted()) {
+            downloadedBytes.addAndGet(getRangeLength(index, length));
+        }
+
+        reportProgress(processBlock, downloadedBytes.get());
+
+        try (RandomAccessFile file = new RandomAccessFile(partialFile, "rw")) {
+            if (file.length() != length) {
+                file.setLength(length);
+            }
+
+            downloadRanges(blob, eTag, options, length, file.getChannel(), checkpoint, checkpointFile,
+                    progressLock, downloadedBytes, processBlock);
+
+            file.getChannel().force(false);
+        }
+
+        String expectedMD5 = properties.getContentMD5();
+        if (expectedMD5 != null && !expectedMD5.isEmpty()) {
+            String actualMD5 = ContentMD5.of(partialFile);
+
+            if (!expectedMD5.equals(actualMD5)) {
+                // The content can't be trusted, start over next time
+                Files.deleteIfExists(checkpointFile.toPath());
+                Files.deleteIfExists(partialFile.toPath());
+
+                throw new IOException(String.format("The MD5 of the downloaded file %s is %s, but the blob MD5 is %s",
+                        targetFile.getPath(), actualMD5, expectedMD5));
+            }
+        }
+
+        Files.move(partialFile.toPath(), targetFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(checkpointFile.toPath());
+    }
+
+    private void downloadRanges(@NotNull CloudBlob blob,
+                                @Nullable String eTag,
+                                @NotNull BlobRequestOptions options,
+                                long length,
+                                @NotNull FileChannel channel,
+                                @NotNull Checkpoint checkpoint,
+                                @NotNull File checkpointFile,
+                                @NotNull Object progressLock,
+                                @NotNull AtomicLong downloadedBytes,
+                                @Nullable CallableSingleArg<Void, Long> processBlock) throws Exception {
+        int rangeCount = (int) ((length + rangeSize - 1) / rangeSize);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(1, rangeCount)),
+                new DownloadThreadFactory(blob.getName()));
+
+        try {
+            List<Future<Void>> futures = new ArrayList<>(rangeCount);
+
+            for (int i = 0; i < rangeCount; i++) {
+                if (checkpoint.isCompleted(i)) {
+                    continue;
+                }
+
+                final int index = i;
+
+                futures.add(executor.submit(() -> {
+                    long offset = index * rangeSize;
+                    byte[] buffer = downloadRange(blob, eTag, options, offset, getRangeLength(index, length));
+
+                    writeRange(channel, offset, buffer);
+                    // A range is only recorded once its bytes are on disk, so a crash can't resume over lost data
+                    channel.force(false);
+                    checkpoint.complete(index, checkpointFile);
+                    synchronized (progressLock) {
+                        reportProgress(processBlock, downloadedBytes.addAndGet(buffer.length));
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    futures.forEach(f -> f.cancel(true));
+
+                    throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                } catch (InterruptedException ex) {
+                    futures.forEach(f -> f.cancel(true));
+
+                    throw ex;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            // Let the cancelled workers leave before the file is closed
+            executor.awaitTermination(RETRY_DELAY_MILLIS * maxRetries, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private long getRangeLength(int index, long length) {
+        return Math.min(rangeSize, length - index * rangeSize);
+    }
+
+    @NotNull
+    private byte[] downloadRange(@NotNull CloudBlob blob,
+                                 @Nullable String eTag,
+                                 @NotNull BlobRequestOptions options,
+                                 long offset,
+                                 long rangeLength) throws Exception {
+        int attempt = 0;
+
+        while (true) {
+            try {
+                ByteArrayOutputStream content = new ByteArrayOutputStream((int) rangeLength);
+
+                // Fail instead of mixing two versions when the blob is changed during the download
+                blob.downloadRange(offset, rangeLength, content,
+                        eTag == null ? null : AccessCondition.generateIfMatchCondition(eTag), options, null);
+
+                if (content.size() != rangeLength) {
+                    throw new EOFException(String.format("Got %d bytes of the range at %d, expected %d",
+                            content.size(), offset, rangeLength));
+                }
+
+                return content.toByteArray();
+            } catch (Exception ex) {
+                if (++attempt >= maxRetries || Thread.currentThread().isInterrupted()) {
+                    throw ex;
+                }
+
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+        }
+    }
+
+    private static void writeRange(@NotNull FileChannel channel, long offset, @NotNull byte[] content)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+    }
+
+    private static void reportProgress(@Nullable CallableSingleArg<Void, Long> processBlock,
+                                       long downloadedBytes) throws Exception {
+        if (processBlock != null) {
+            processBlock.call(downloadedBytes);
+        }
+    }
+
+    /**
+     * The ranges completed for one version of the blob, persisted as a properties file
+     */
+    private static class Checkpoint {
+        private final Properties properties;
+        private final Set<Integer> completed = new TreeSet<>();
+
+        private Checkpoint(@NotNull Properties properties) {
+            this.properties = properties;
+        }
+
+        @NotNull
+        static Checkpoint load(@NotNull File checkpointFile,
+                               @Nullable String eTag,
+                               long length,
+                               long rangeSize,
+                               @NotNull File partialFile) {
+            Properties expected = new Properties();
+            expected.setProperty(CHECKPOINT_ETAG, eTag == null ? "" : eTag);
+            expected.setProperty(CHECKPOINT_LENGTH, Long.toString(length));
+            expected.setProperty(CHECKPOINT_RANGE_SIZE, Long.toString(rangeSize));
+
+            Checkpoint checkpoint = new Checkpoint(expected);
+
+            if (!checkpointFile.isFile() || !partialFile.isFile() || partialFile.length() != length) {
+                return checkpoint;
+            }
+
+            Properties saved = new Properties();
+            try (InputStream input = new FileInputStream(checkpointFile)) {
+                saved.load(input);
+            } catch (IOException ignored) {
+                return checkpoint;
+            }
+
+            // Only resume the download of the same blob version with the same ranges
+            for (String key : expected.stringPropertyNames()) {
+                if (!expected.getProperty(key).equals(saved.getProperty(key))) {
+                    return checkpoint;
+                }
+            }
+
+            for (String index : saved.getProperty(CHECKPOINT_COMPLETED, "").split(",")) {
+                if (!index.trim().isEmpty()) {
+                    try {
+                        checkpoint.completed.add(Integer.parseInt(index.trim()));
+                    } catch (NumberFormatException ignored) {
+                        // Skip the broken entry, the range is downloaded again
+                    }
+                }
+            }
+
+            return checkpoint;
+        }
+
+        synchronized boolean isCompleted(int index) {
+            return completed.contains(index);
+        }
+
+        @NotNull
+        synchronized List<Integer> getCompleted() {
+            return new ArrayList<>(completed);
+        }
+
+        synchronized void complete(int index, @NotNull File checkpointFile) throws IOException {
+            completed.add(index);
+
+            StringBuilder indexes = new StringBuilder();
+            for (int completedIndex : completed) {
+                if (indexes.length() > 0) {
+                    indexes.append(',');
+                }
+
+                indexes.append(completedIndex);
+            }
+
+            properties.setProperty(CHECKPOINT_COMPLETED, indexes.toString());
+
+            // Write aside and move, so a crash never leaves a half written checkpoint
+            File tempFile = new File(checkpointFile.getPath() + ".tmp");
+            try (FileOutputStream output = new FileOutputStream(tempFile)) {
+                properties.store(output, null);
+                output.getFD().sync();
+            }
+
+            Files.move(tempFile.toPath(), checkpointFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static class DownloadThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger(0);
+        private final String blobName;
+
+        DownloadThreadFactory(String blobName) {
+            this.blobName = blobName;
+        }
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "Blob Download-" + blobName + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.microsoft.azure.storage.blob.BlockEntry;
+import com.microsoft.azure.storage.blob.BlockSearchMode;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.core.Base64;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
+import com.microsoft.tooling.msservices.helpers.CallableSingleArg;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upload a local file to a block blob with several blocks in flight.
+ *
+ * Every worker reads its own block with the positional read of a shared {@link FileChannel},
+ * so the blocks can be read and uploaded in any order. The block list is committed in the file order
+ * once all blocks are uploaded.
+ */
+public class ParallelBlockBlobUploader {
+    /**
+     * The maximum block size supported by the Storage service version of the SDK
+     */
+    public static final long MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The maximum block count of a block blob
+     */
+    public static final int MAX_BLOCK_COUNT = 50000;
+
+    public static final int DEFAULT_CONCURRENCY = Integer.getInteger(
+            "azure.toolkit.storage.upload.concurrency",
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())));
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final int concurrency;
+    private final int maxRetries;
+
+    public ParallelBlockBlobUploader() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_MAX_RETRIES);
+    }
+
+    public ParallelBlockBlobUploader(int concurrency, int maxRetries) {
+        this.concurrency = Math.max(1, concurrency);
+        this.maxRetries = Math.max(1, maxRetries);
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Get the block size used for a file, which grows with the file length to keep the request count low,
+     * but never beyond {@link #MAX_BLOCK_SIZE}
+     *
+     * @param length the file length
+     * @param minBlockSize the block size wanted by the caller for small files
+     * @return the block size
+     */
+    public long getBlockSize(long length, long minBlockSize) {
+        // Make each worker get at least several blocks to balance the load
+        long balancedSize = length / (concurrency * 4L);
+        long blockSize = Math.max(1, Math.min(MAX_BLOCK_SIZE, Math.max(minBlockSize, balancedSize)));
+
+        if ((length + blockSize - 1) / blockSize > MAX_BLOCK_COUNT) {
+            blockSize = MAX_BLOCK_SIZE;
+        }
+
+        return blockSize;
+    }
+
+    /**
+     * Upload the file content to the block blob, the blob content is replaced after the block list is committed
+     *
+     * @param blob the target block blob
+     * @param file the local file to upload
+     * @param minBlockSize the block size wanted by the caller, used for small files
+     * @param processBlock the callback to report the uploaded bytes in total, called from one thread at a time
+     * @throws Exception the exception of the failed block after retries, or the interruption
+     */
+    public void upload(@NotNull CloudBlockBlob blob,
+                       @NotNull File file,
+                       long minBlockSize,
+                       @Nullable CallableSingleArg<Void, Long> processBlock) throws Exception {
+        long length = file.length();
+        long blockSize = getBlockSize(length, minBlockSize);
+        long blocks = (length + blockSize - 1) / blockSize;
+
+        if (blocks > MAX_BLOCK_COUNT) {
+            throw new IOException(String.format("The file %s is too large for a block blob, %d blocks of %d bytes " +
+                    "at most", file.getPath(), MAX_BLOCK_COUNT, MAX_BLOCK_SIZE));
+        }
+
+        int blockCount = (int) blocks;
+
+        List<BlockEntry> blockEntries = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            BlockEntry entry = new BlockEntry(getBlockId(i), BlockSearchMode.UNCOMMITTED);
+            entry.setSize(Math.min(blockSize, length - i * blockSize));
+            blockEntries.add(entry);
+        }
+
+        // the progress of this upload is reported by one worker at a time, other uploads aren't held up
+        final Object progressLock = new Object();
+        AtomicLong uploadedBytes = new AtomicLong(0);
+        reportProgress(processBlock, 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(1, blockCount)),
+                new UploadThreadFactory(blob.getName()));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<Future<Void>> futures = new ArrayList<>(blockCount);
+
+            for (int i = 0; i < blockCount; i++) {
+                final BlockEntry entry = blockEntries.get(i);
+                final long offset = i * blockSize;
+
+                futures.add(executor.submit(() -> {
+                    byte[] buffer = readBlock(channel, offset, (int) entry.getSize());
+
+                    uploadBlock(blob, entry, buffer);
+                    synchronized (progressLock) {
+                        reportProgress(processBlock, uploadedBytes.addAndGet(buffer.length));
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    futures.forEach(f -> f.cancel(true));
+
+                    throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                } catch (InterruptedException ex) {
+                    futures.forEach(f -> f.cancel(true));
+
+                    throw ex;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        blob.commitBlockList(blockEntries);
+    }
+
+    private void uploadBlock(@NotNull CloudBlockBlob blob, @NotNull BlockEntry entry, @NotNull byte[] buffer)
+            throws Exception {
+        int attempt = 0;
+
+        while (true) {
+            try {
+                blob.uploadBlock(entry.getId(), new ByteArrayInputStream(buffer), buffer.length);
+
+                return;
+            } catch (Exception ex) {
+                if (++attempt >= maxRetries || Thread.currentThread().isInterrupted()) {
+                    throw ex;
+                }
+
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+        }
+    }
+
+    @NotNull
+    private static byte[] readBlock(@NotNull FileChannel channel, long offset, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("The file is truncated while uploading at " + (offset + buffer.position()));
+            }
+        }
+
+        return buffer.array();
+    }
+
+    private static void reportProgress(@Nullable CallableSingleArg<Void, Long> processBlock,
+                                                    long uploadedBytes) throws Exception {
+        if (processBlock != null) {
+            processBlock.call(uploadedBytes);
+        }
+    }
+
+    @NotNull
+    private static String getBlockId(int index) {
+        // All block IDs of a blob must be in the same length
+        return Base64.encode(String.format("block-%08d", index).getBytes());
+    }
+
+    private static class UploadThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger(0);
+        private final String blobName;
+
+        UploadThreadFactory(String blobName) {
+            this.blobName = blobName;
+        }
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "Blob Upload-" + blobName + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
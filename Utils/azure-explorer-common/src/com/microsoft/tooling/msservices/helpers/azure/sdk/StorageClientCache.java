@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.microsoft.azure.management.storage.StorageAccount;
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.RequestResult;
+import com.microsoft.azure.storage.ResponseReceivedEvent;
+import com.microsoft.azure.storage.StorageEvent;
+import com.microsoft.azure.storage.blob.CloudBlobClient;
+import com.microsoft.azure.storage.queue.CloudQueueClient;
+import com.microsoft.azure.storage.table.CloudTableClient;
+import com.microsoft.azuretools.authmanage.AuthMethodManager;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
+import com.microsoft.tooling.msservices.model.storage.ClientStorageAccount;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of storage account connection strings and data plane clients.
+ *
+ * Resolving the connection string of an ARM storage account needs a management plane call to list the keys,
+ * so it is done once per account and kept until the account is invalidated: when it is deleted from the explorer,
+ * when the data plane answers 403 to its regenerated key, or when the user signs out.
+ *
+ * The 403 answers are caught in one place, a global response listener of the storage SDK, for the requests of
+ * all clients, so callers don't need to report their failures.
+ */
+public class StorageClientCache {
+    private static StorageClientCache instance = null;
+
+    // storage account resource ID -> connection string built from its first key
+    private final ConcurrentHashMap<String, String> connectionStrings = new ConcurrentHashMap<>();
+
+    // connection string -> parsed account and clients
+    private final ConcurrentHashMap<String, AccountClients> accountClients = new ConcurrentHashMap<>();
+
+    public static StorageClientCache getInstance() {
+        if (instance == null) {
+            synchronized (StorageClientCache.class) {
+                if (instance == null) {
+                    instance = new StorageClientCache();
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    private StorageClientCache() {
+        try {
+            AuthMethodManager.getInstance().addSignOutEventListener(new Runnable() {
+                @Override
+                public void run() {
+                    invalidateAll();
+                }
+            });
+        } catch (Exception ignored) {
+            // Without the listener, the cache is still dropped on the 403 answered with stale keys
+        }
+
+        OperationContext.getGlobalResponseReceivedEventHandler().addListener(new StorageEvent<ResponseReceivedEvent>() {
+            @Override
+            public void eventOccurred(ResponseReceivedEvent event) {
+                onResponseReceived(event);
+            }
+        });
+    }
+
+    private static class AccountClients {
+        private final CloudStorageAccount cloudStorageAccount;
+        private volatile CloudBlobClient blobClient;
+        private volatile CloudQueueClient queueClient;
+        private volatile CloudTableClient tableClient;
+
+        private AccountClients(@NotNull CloudStorageAccount cloudStorageAccount) {
+            this.cloudStorageAccount = cloudStorageAccount;
+        }
+
+        private boolean isEndpointOf(@NotNull String requestUri) {
+            return isUnder(requestUri, cloudStorageAccount.getBlobEndpoint()) ||
+                    isUnder(requestUri, cloudStorageAccount.getQueueEndpoint()) ||
+                    isUnder(requestUri, cloudStorageAccount.getTableEndpoint()) ||
+                    isUnder(requestUri, cloudStorageAccount.getFileEndpoint());
+        }
+
+        private static boolean isUnder(@NotNull String requestUri, @Nullable URI endpoint) {
+            if (endpoint == null) {
+                return false;
+            }
+
+            String prefix = endpoint.toString().replaceAll("/+$", "");
+            if (!requestUri.startsWith(prefix)) {
+                return false;
+            }
+
+            // Not another account sharing the prefix, like devstoreaccount1 and devstoreaccount12
+            return requestUri.length() == prefix.length() || "/?".indexOf(requestUri.charAt(prefix.length())) >= 0;
+        }
+    }
+
+    @NotNull
+    public String getConnectionString(@NotNull StorageAccount storageAccount) {
+        String connectionString = connectionStrings.get(storageAccount.id());
+
+        if (connectionString != null) {
+            return connectionString;
+        }
+
+        connectionString = String.format(ClientStorageAccount.DEFAULT_CONN_STR_TEMPLATE,
+                ClientStorageAccount.DEFAULT_PROTOCOL,
+                storageAccount.name(),
+                storageAccount.getKeys().get(0).value(),
+                StorageClientSDKManager.getEndpointSuffix());
+
+        String existing = connectionStrings.putIfAbsent(storageAccount.id(), connectionString);
+        return existing != null ? existing : connectionString;
+    }
+
+    @NotNull
+    public CloudStorageAccount getCloudStorageAccount(@NotNull String connectionString)
+            throws URISyntaxException, InvalidKeyException {
+        return getAccountClients(connectionString).cloudStorageAccount;
+    }
+
+    @NotNull
+    public CloudBlobClient getCloudBlobClient(@NotNull String connectionString)
+            throws URISyntaxException, InvalidKeyException {
+        AccountClients clients = getAccountClients(connectionString);
+
+        if (clients.blobClient == null) {
+            clients.blobClient = clients.cloudStorageAccount.createCloudBlobClient();
+        }
+
+        return clients.blobClient;
+    }
+
+    @NotNull
+    public CloudQueueClient getCloudQueueClient(@NotNull String connectionString)
+            throws URISyntaxException, InvalidKeyException {
+        AccountClients clients = getAccountClients(connectionString);
+
+        if (clients.queueClient == null) {
+            clients.queueClient = clients.cloudStorageAccount.createCloudQueueClient();
+        }
+
+        return clients.queueClient;
+    }
+
+    @NotNull
+    public CloudTableClient getCloudTableClient(@NotNull String connectionString)
+            throws URISyntaxException, InvalidKeyException {
+        AccountClients clients = getAccountClients(connectionString);
+
+        if (clients.tableClient == null) {
+            clients.tableClient = clients.cloudStorageAccount.createCloudTableClient();
+        }
+
+        return clients.tableClient;
+    }
+
+    /**
+     * Drop the cached connection string and clients of the account, once it is deleted. Keys regenerated outside
+     * the toolkit are noticed through the 403 answered to the old key.
+     */
+    public void invalidate(@NotNull StorageAccount storageAccount) {
+        String connectionString = connectionStrings.remove(storageAccount.id());
+
+        if (connectionString != null) {
+            accountClients.remove(connectionString);
+        }
+    }
+
+    /**
+     * Drop the cached clients of the connection string, and the cached connection strings of accounts equal to it
+     */
+    public void invalidate(@NotNull String connectionString) {
+        accountClients.remove(connectionString);
+        connectionStrings.values().removeIf(cached -> cached.equals(connectionString));
+    }
+
+    public void invalidateAll() {
+        connectionStrings.clear();
+        accountClients.clear();
+    }
+
+    /**
+     * Drop the cached clients of the accounts the request is sent to, and their cached connection strings
+     *
+     * @param requestUri the URI of a request rejected by the storage service
+     */
+    public void invalidateByRequestUri(@NotNull String requestUri) {
+        accountClients.forEach((connectionString, clients) -> {
+            if (clients.isEndpointOf(requestUri)) {
+                invalidate(connectionString);
+            }
+        });
+    }
+
+    private void onResponseReceived(@NotNull ResponseReceivedEvent event) {
+        RequestResult result = event.getRequestResult();
+
+        // A 403 means the cached key of the account is no longer accepted
+        if (result != null && result.getStatusCode() == HttpURLConnection.HTTP_FORBIDDEN &&
+                event.getConnectionObject() instanceof HttpURLConnection) {
+            invalidateByRequestUri(((HttpURLConnection) event.getConnectionObject()).getURL().toString());
+        }
+    }
+
+    @NotNull
+    private AccountClients getAccountClients(@NotNull String connectionString)
+            throws URISyntaxException, InvalidKeyException {
+        AccountClients clients = accountClients.get(connectionString);
+
+        if (clients != null) {
+            return clients;
+        }
+
+        clients = new AccountClients(CloudStorageAccount.parse(connectionString));
+
+        AccountClients existing = accountClients.putIfAbsent(connectionString, clients);
+        return existing != null ? existing : clients;
+    }
+}
@@ -23,7 +23,10 @@ package com.microsoft.tooling.msservices.helpers.azure.sdk;
 
 import com.google.common.base.Strings;
 import com.microsoft.azure.AzureEnvironment;
+import com.google.gson.Gson;
 import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.ResultContinuation;
+import com.microsoft.azure.storage.ResultSegment;
 import com.microsoft.azure.storage.StorageException;
 import com.microsoft.azure.storage.blob.*;
 import com.microsoft.azure.storage.core.Base64;
@@ -41,6 +44,7 @@ import com.microsoft.tooling.msservices.model.storage.BlobFile;
 import com.microsoft.tooling.msservices.model.storage.BlobItem;
 import com.microsoft.tooling.msservices.model.storage.ClientStorageAccount;
 import com.microsoft.tooling.msservices.model.storage.Queue;
+import com.microsoft.tooling.msservices.model.storage.StorageItemPage;
 import com.microsoft.tooling.msservices.model.storage.QueueMessage;
 import com.microsoft.tooling.msservices.model.storage.Table;
 import com.microsoft.tooling.msservices.model.storage.TableEntity;
@@ -51,14 +55,35 @@ import com.microsoft.azuretools.azurecommons.helpers.NotNull;
 import com.microsoft.azuretools.azurecommons.helpers.Nullable;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class StorageClientSDKManager {
+    // The service returns at most 5000 items in one listing request
+    public static final int MAX_BLOB_LIST_PAGE_SIZE = 5000;
+    // and at most 1000 entities in one table query request
+    public static final int MAX_TABLE_QUERY_PAGE_SIZE = 1000;
+
+    public static final int CONTAINER_PERMISSION_CONCURRENCY = 8;
+    private static ExecutorService containerPermissionExecutor;
+
+    // Peek returns at most 32 messages from the front of the queue, messages behind them can't be read
+    // without dequeuing the ones in front
+    public static final int MAX_QUEUE_MESSAGE_PEEK = 32;
+
+    // Searches list the directory again when its index is older than this
+    public static final long BLOB_INDEX_REFRESH_INTERVAL_MILLIS = 5 * 60 * 1000;
+
     private static StorageClientSDKManager apiManager;
 
     private StorageClientSDKManager() {
@@ -130,18 +155,12 @@ public class StorageClientSDKManager {
                     }
                 }
 
-                String publicReadAccessType = "";
-                BlobContainerPermissions blobContainerPermissions = container.downloadPermissions();
-
-                if (blobContainerPermissions != null && blobContainerPermissions.getPublicAccess() != null) {
-                    publicReadAccessType = blobContainerPermissions.getPublicAccess().toString();
-                }
-
+                // The public access level needs one more request per container, it's resolved on demand
                 bcList.add(new BlobContainer(Strings.nullToEmpty(container.getName()),
                         uri,
                         eTag,
                         lastModified,
-                        publicReadAccessType));
+                        ""));
             }
 
             return bcList;
@@ -150,6 +169,81 @@ public class StorageClientSDKManager {
         }
     }
 
+    /**
+     * Download the public access level of the container and keep it in the container model
+     */
+    @NotNull
+    public String getBlobContainerPublicReadAccessType(@NotNull String connectionString,
+                                                       @NotNull BlobContainer blobContainer)
+            throws AzureCmdException {
+        try {
+            CloudBlobClient client = getCloudBlobClient(connectionString);
+            CloudBlobContainer container = client.getContainerReference(blobContainer.getName());
+
+            String publicReadAccessType = "";
+            BlobContainerPermissions blobContainerPermissions = container.downloadPermissions();
+
+            if (blobContainerPermissions != null && blobContainerPermissions.getPublicAccess() != null) {
+                publicReadAccessType = blobContainerPermissions.getPublicAccess().toString();
+            }
+
+            blobContainer.setPublicReadAccessType(publicReadAccessType);
+            blobContainer.setPublicReadAccessTypeResolved(true);
+
+            return publicReadAccessType;
+        } catch (Throwable t) {
+            throw new AzureCmdException("Error retrieving the Blob Container permissions", t);
+        }
+    }
+
+    /**
+     * Resolve the public access levels of the containers in background, with at most
+     * {@link #CONTAINER_PERMISSION_CONCURRENCY} requests in flight. The callback is called on a background thread
+     * for each resolved container; containers failed to resolve are left unresolved.
+     */
+    public void resolveBlobContainerPublicReadAccessTypes(@NotNull final String connectionString,
+                                                          @NotNull List<BlobContainer> blobContainers,
+                                                          @Nullable final CallableSingleArg<Void, BlobContainer> onResolved) {
+        for (final BlobContainer blobContainer : blobContainers) {
+            if (blobContainer.isPublicReadAccessTypeResolved()) {
+                continue;
+            }
+
+            getContainerPermissionExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getBlobContainerPublicReadAccessType(connectionString, blobContainer);
+
+                        if (onResolved != null) {
+                            onResolved.call(blobContainer);
+                        }
+                    } catch (Exception ignored) {
+                        // Shown as unknown, it's resolved again on the next refresh
+                    }
+                }
+            });
+        }
+    }
+
+    @NotNull
+    private static synchronized ExecutorService getContainerPermissionExecutor() {
+        if (containerPermissionExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+
+            containerPermissionExecutor = Executors.newFixedThreadPool(CONTAINER_PERMISSION_CONCURRENCY, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NotNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Storage-ContainerPermission-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return containerPermissionExecutor;
+    }
+
     @NotNull
     public BlobContainer createBlobContainer(@NotNull String connectionString,
                                              @NotNull BlobContainer blobContainer)
@@ -185,6 +279,7 @@ public class StorageClientSDKManager {
             blobContainer.setETag(eTag);
             blobContainer.setLastModified(lastModified);
             blobContainer.setPublicReadAccessType(publicReadAccessType);
+            blobContainer.setPublicReadAccessTypeResolved(true);
 
             return blobContainer;
         } catch (Throwable t) {
@@ -225,6 +320,34 @@ public class StorageClientSDKManager {
     public List<BlobItem> getBlobItems(@NotNull String connectionString, @NotNull BlobDirectory blobDirectory)
             throws AzureCmdException {
         List<BlobItem> biList = new ArrayList<BlobItem>();
+        String continuationToken = null;
+
+        do {
+            StorageItemPage<BlobItem> page = getBlobItemsPage(connectionString, blobDirectory, null,
+                    MAX_BLOB_LIST_PAGE_SIZE, continuationToken);
+
+            biList.addAll(page.getItems());
+            continuationToken = page.getContinuationToken();
+        } while (continuationToken != null);
+
+        return biList;
+    }
+
+    /**
+     * List one page of the blobs and virtual directories directly under a directory.
+     *
+     * @param namePrefix only return items whose name starts with it, null for all items
+     * @param pageSize the maximum number of items in the page, at most {@link #MAX_BLOB_LIST_PAGE_SIZE}
+     * @param continuationToken the token of the previous page, null for the first page
+     */
+    @NotNull
+    public StorageItemPage<BlobItem> getBlobItemsPage(@NotNull String connectionString,
+                                                      @NotNull BlobDirectory blobDirectory,
+                                                      @Nullable String namePrefix,
+                                                      int pageSize,
+                                                      @Nullable String continuationToken)
+            throws AzureCmdException {
+        List<BlobItem> biList = new ArrayList<BlobItem>();
 
         try {
             CloudBlobClient client = getCloudBlobClient(connectionString);
@@ -232,9 +355,17 @@ public class StorageClientSDKManager {
             String delimiter = client.getDirectoryDelimiter();
 
             CloudBlobContainer container = client.getContainerReference(containerName);
-            CloudBlobDirectory directory = container.getDirectoryReference(blobDirectory.getPath());
 
-            for (ListBlobItem item : directory.listBlobs()) {
+            ResultSegment<ListBlobItem> segment = container.listBlobsSegmented(
+                    blobDirectory.getPath() + Strings.nullToEmpty(namePrefix),
+                    false,
+                    EnumSet.noneOf(BlobListingDetails.class),
+                    Math.max(1, Math.min(pageSize, MAX_BLOB_LIST_PAGE_SIZE)),
+                    decodeContinuationToken(continuationToken),
+                    null,
+                    null);
+
+            for (ListBlobItem item : segment.getResults()) {
                 String uri = item.getUri() != null ? item.getUri().toString() : "";
 
                 if (item instanceof CloudBlobDirectory) {
@@ -285,7 +416,8 @@ public class StorageClientSDKManager {
                 }
             }
 
-            return biList;
+            return new StorageItemPage<BlobItem>(biList,
+                    segment.getHasMoreResults() ? encodeContinuationToken(segment.getContinuationToken()) : null);
         } catch (Throwable t) {
             throw new AzureCmdException("Error retrieving the Blob Item list", t);
         }
@@ -400,6 +532,97 @@ public class StorageClientSDKManager {
         }
     }
 
+    /**
+     * Upload a local file to a block blob, several blocks are uploaded concurrently
+     *
+     * @param connectionString the storage account connection string
+     * @param blobContainer the target container
+     * @param filePath the target blob path
+     * @param file the local file to upload
+     * @param processBlock the callback to report the uploaded bytes in total
+     * @param minBlockSize the block size for small files, larger blocks up to
+     *                     {@link ParallelBlockBlobUploader#MAX_BLOCK_SIZE} are used for large files
+     * @throws AzureCmdException the exception of the failed upload
+     */
+    public void uploadBlobFileContent(@NotNull String connectionString,
+                                      @NotNull BlobContainer blobContainer,
+                                      @NotNull String filePath,
+                                      @NotNull File file,
+                                      CallableSingleArg<Void, Long> processBlock,
+                                      long minBlockSize)
+            throws AzureCmdException {
+        try {
+            CloudBlobClient client = getCloudBlobClient(connectionString);
+            String containerName = blobContainer.getName();
+
+            CloudBlobContainer container = client.getContainerReference(containerName);
+            final CloudBlockBlob blob = container.getBlockBlobReference(filePath);
+
+            new ParallelBlockBlobUploader().upload(blob, file, minBlockSize, processBlock);
+        } catch (Throwable t) {
+            throw new AzureCmdException("Error uploading the Blob File content", t);
+        }
+    }
+
+    /**
+     * Get the user defined metadata of a blob
+     *
+     * @param connectionString the storage account connection string
+     * @param blobContainer the container of the blob
+     * @param filePath the blob path
+     * @return the metadata, or null if the blob doesn't exist
+     * @throws AzureCmdException the exception of the failed request
+     */
+    @Nullable
+    public Map<String, String> getBlobFileMetadata(@NotNull String connectionString,
+                                                   @NotNull BlobContainer blobContainer,
+                                                   @NotNull String filePath)
+            throws AzureCmdException {
+        try {
+            CloudBlobClient client = getCloudBlobClient(connectionString);
+
+            CloudBlobContainer container = client.getContainerReference(blobContainer.getName());
+            CloudBlockBlob blob = container.getBlockBlobReference(filePath);
+
+            if (!blob.exists()) {
+                return null;
+            }
+
+            blob.downloadAttributes();
+
+            return blob.getMetadata();
+        } catch (Throwable t) {
+            throw new AzureCmdException("Error retrieving the Blob File metadata", t);
+        }
+    }
+
+    /**
+     * Set the user defined metadata of a blob, the existing metadata is replaced
+     *
+     * @param connectionString the storage account connection string
+     * @param blobContainer the container of the blob
+     * @param filePath the blob path
+     * @param metadata the metadata to set
+     * @throws AzureCmdException the exception of the failed request
+     */
+    public void setBlobFileMetadata(@NotNull String connectionString,
+                                    @NotNull BlobContainer blobContainer,
+                                    @NotNull String filePath,
+                                    @NotNull Map<String, String> metadata)
+            throws AzureCmdException {
+        try {
+            CloudBlobClient client = getCloudBlobClient(connectionString);
+
+            CloudBlobContainer container = client.getContainerReference(blobContainer.getName());
+            CloudBlockBlob blob = container.getBlockBlobReference(filePath);
+
+            blob.setMetadata(new HashMap<>(metadata));
+            blob.uploadMetadata();
+        } catch (Throwable t) {
+            throw new AzureCmdException("Error updating the Blob File metadata", t);
+        }
+    }
+
     public void downloadBlobFileContent(@NotNull String connectionString,
                                         @NotNull BlobFile blobFile,
                                         @NotNull OutputStream content)
@@ -418,6 +641,135 @@ public class StorageClientSDKManager {
         }
     }
 
+    /**
+     * Download the blob to a local file with several ranges in flight, see {@link ParallelBlobDownloader}.
+     * An interrupted download of the same blob version into the same file resumes from the missing ranges.
+     *
+     * @param processBlock the callback to report the downloaded bytes in total
+     */
+    public void downloadBlobFileContent(@NotNull String connectionString,
+                                        @NotNull BlobFile blobFile,
+                                        @NotNull File targetFile,
+                                        @Nullable CallableSingleArg<Void, Long> processBlock)
+            throws AzureCmdException {
+        try {
+            CloudBlobClient client = getCloudBlobClient(connectionString);
+            String containerName = blobFile.getContainerName();
+
+            CloudBlobContainer container = client.getContainerReference(containerName);
+
+            CloudBlob blob = getCloudBlob(container, blobFile);
+
+            new ParallelBlobDownloader().download(blob, targetFile, processBlock);
+        } catch (Throwable t) {
+            throw new AzureCmdException("Error downloading the Blob File content", t);
+        }
+    }
+
+    /**
+     * Plan and start mirroring a local directory tree to a virtual directory, see {@link BlobBulkTransfer}.
+     * Files whose size and MD5 already match the blobs are skipped.
+     *
+     * @param blobPrefix the target virtual directory, empty for the container root
+     * @param onProgress called with the handle whenever a file makes progress or finishes
+     * @return the handle to follow or cancel the transfer running in background
+     */
+    @NotNull
+    public BlobBulkTransfer.Handle uploadDirectory(@NotNull String connectionString,
+                                                   @NotNull BlobContainer blobContainer,
+                                                   @NotNull File localDirectory,
+                                                   @NotNull String blobPrefix,
+                                                   @Nullable CallableSingleArg<Void, BlobBulkTransfer.Handle> onProgress)
+            throws AzureCmdException {
+        try {
+            CloudBlobContainer container = getCloudBlobClient(connectionString)
+                    .getContainerReference(blobContainer.getName());
+
+            BlobBulkTransfer transfer = new BlobBulkTransfer();
+
+            return transfer.start(container, transfer.planUpload(container, localDirectory, blobPrefix), onProgress);
+        } catch (Throwable t) {
+            throw new AzureCmdException("Error uploading the directory", t);
+        }
+    }
+
+    /**
+     * Plan and start mirroring a virtual directory to a local directory, see {@link BlobBulkTransfer}.
+     * Files whose size and MD5 already match the blobs are skipped.
+     *
+     * @param onProgress called with the handle whenever a file makes progress or finishes
+     * @return the handle to follow or cancel the transfer running in background
+     */
+    @NotNull
+    public BlobBulkTransfer.Handle downloadDirectory(@NotNull String connectionString,
+                                                     @NotNull BlobDirectory blobDirectory,
+                                                     @NotNull File localDirectory,
+                                                     @Nullable CallableSingleArg<Void, BlobBulkTransfer.Handle> onProgress)
+            throws AzureCmdException {
+        try {
+            CloudBlobContainer container = getCloudBlobClient(connectionString)
+                    .getContainerReference(blobDirectory.getContainerName());
+
+            BlobBulkTransfer transfer = new BlobBulkTransfer();
+
+            return transfer.start(container, transfer.planDownload(container, blobDirectory.getPath(), localDirectory),
+                    onProgress);
+        } catch (Throwable t) {
+            throw new AzureCmdException("Error downloading the directory", t);
+        }
+    }
+
+    /**
+     * Bring the local index of the blobs under the directory up to date, see {@link BlobMetadataIndex}
+     *
+     * @return the top level prefixes of the container whose blobs were added, changed or removed
+     */
+    @NotNull
+    public Set<String> refreshBlobMetadataIndex(@NotNull String connectionString, @NotNull BlobDirectory blobDirectory)
+            throws AzureCmdException {
+        try {
+            CloudBlobContainer container = getCloudBlobClient(connectionString)
+                    .getContainerReference(blobDirectory.getContainerName());
+
+            return BlobMetadataIndex.getIndex(container).refresh(container, blobDirectory.getPath());
+        } catch (Throwable t) {
+            throw new AzureCmdException("Error indexing the Blob Items", t);
+        }
+    }
+
+    /**
+     * Search the blobs under the directory with the local index. The directory is listed again first
+     * only when its index is older than {@link #BLOB_INDEX_REFRESH_INTERVAL_MILLIS}.
+     *
+     * @param query the criteria, its prefix is ignored in favor of the directory path
+     */
+    @NotNull
+    public List<BlobFile> searchBlobFiles(@NotNull String connectionString,
+                                          @NotNull BlobDirectory blobDirectory,
+                                          @NotNull BlobMetadataIndex.Query query)
+            throws AzureCmdException {
+        try {
+            CloudBlobContainer container = getCloudBlobClient(connectionString)
+                    .getContainerReference(blobDirectory.getContainerName());
+            BlobMetadataIndex index = BlobMetadataIndex.getIndex(container);
+            String prefix = blobDirectory.getPath();
+
+            if (System.currentTimeMillis() - index.getRefreshTimeMillis(prefix) > BLOB_INDEX_REFRESH_INTERVAL_MILLIS) {
+                index.refresh(container, prefix);
+            }
+
+            List<BlobFile> bfList = new ArrayList<BlobFile>();
+
+            for (BlobMetadataIndex.Entry entry : index.query(query.prefix(prefix))) {
+                bfList.add(entry.toBlobFile(blobDirectory.getContainerName()));
+            }
+
+            return bfList;
+        } catch (Throwable t) {
+            throw new AzureCmdException("Error searching the Blob Items", t);
+        }
+    }
+
     @NotNull
     public List<Queue> getQueues(@NotNull StorageAccount storageAccount)
             throws AzureCmdException {
@@ -478,33 +830,25 @@ public class StorageClientSDKManager {
     @NotNull
     public List<QueueMessage> getQueueMessages(@NotNull StorageAccount storageAccount, @NotNull Queue queue)
             throws AzureCmdException {
+        return getQueueMessages(getConnectionString(storageAccount), queue);
+    }
+
+    /**
+     * Peek the first {@link #MAX_QUEUE_MESSAGE_PEEK} messages of a queue, the service can't peek further and
+     * browsing never dequeues a message
+     */
+    @NotNull
+    public List<QueueMessage> getQueueMessages(@NotNull String connectionString, @NotNull Queue queue)
+            throws AzureCmdException {
         List<QueueMessage> qmList = new ArrayList<QueueMessage>();
 
         try {
-            CloudQueueClient client = getCloudQueueClient(storageAccount);
             String queueName = queue.getName();
 
-            CloudQueue cloudQueue = client.getQueueReference(queueName);
-
-            for (CloudQueueMessage cqm : cloudQueue.peekMessages(32)) {
-                String id = Strings.nullToEmpty(cqm.getId());
-                String content = Strings.nullToEmpty(cqm.getMessageContentAsString());
-
-                Calendar insertionTime = new GregorianCalendar();
-
-                if (cqm.getInsertionTime() != null) {
-                    insertionTime.setTime(cqm.getInsertionTime());
-                }
-
-                Calendar expirationTime = new GregorianCalendar();
+            CloudQueue cloudQueue = getCloudQueueClient(connectionString).getQueueReference(queueName);
 
-                if (cqm.getExpirationTime() != null) {
-                    expirationTime.setTime(cqm.getExpirationTime());
-                }
-
-                int dequeueCount = cqm.getDequeueCount();
-
-                qmList.add(new QueueMessage(id, queueName, content, insertionTime, expirationTime, dequeueCount));
+            for (CloudQueueMessage cqm : cloudQueue.peekMessages(MAX_QUEUE_MESSAGE_PEEK)) {
+                qmList.add(getQueueMessage(queueName, cqm, cqm.getDequeueCount()));
             }
 
             return qmList;
@@ -641,13 +985,52 @@ public class StorageClientSDKManager {
                                               @NotNull String filter)
             throws AzureCmdException {
         List<TableEntity> teList = new ArrayList<TableEntity>();
+        String continuationToken = null;
+
+        do {
+            StorageItemPage<TableEntity> page = getTableEntitiesPage(storageAccount, table, filter,
+                    MAX_TABLE_QUERY_PAGE_SIZE, continuationToken);
+
+            teList.addAll(page.getItems());
+            continuationToken = page.getContinuationToken();
+        } while (continuationToken != null);
+
+        return teList;
+    }
+
+    @NotNull
+    public StorageItemPage<TableEntity> getTableEntitiesPage(@NotNull StorageAccount storageAccount,
+                                                             @NotNull Table table,
+                                                             @NotNull String filter,
+                                                             int pageSize,
+                                                             @Nullable String continuationToken)
+            throws AzureCmdException {
+        return getTableEntitiesPage(getConnectionString(storageAccount), table, filter, pageSize, continuationToken);
+    }
+
+    /**
+     * Query one page of the entities of a table.
+     *
+     * @param filter the OData filter, empty for all entities
+     * @param pageSize the maximum number of entities in the page, at most {@link #MAX_TABLE_QUERY_PAGE_SIZE}
+     * @param continuationToken the token of the previous page, null for the first page
+     */
+    @NotNull
+    public StorageItemPage<TableEntity> getTableEntitiesPage(@NotNull String connectionString,
+                                                             @NotNull Table table,
+                                                             @NotNull String filter,
+                                                             int pageSize,
+                                                             @Nullable String continuationToken)
+            throws AzureCmdException {
+        List<TableEntity> teList = new ArrayList<TableEntity>();
 
         try {
-            CloudTableClient client = getCloudTableClient(storageAccount);
+            CloudTableClient client = getCloudTableClient(connectionString);
             String tableName = table.getName();
             CloudTable cloudTable = client.getTableReference(tableName);
 
-            TableQuery<DynamicTableEntity> tableQuery = TableQuery.from(DynamicTableEntity.class);
+            TableQuery<DynamicTableEntity> tableQuery = TableQuery.from(DynamicTableEntity.class)
+                    .take(Math.max(1, Math.min(pageSize, MAX_TABLE_QUERY_PAGE_SIZE)));
 
             if (!filter.isEmpty()) {
                 tableQuery.where(filter);
@@ -656,11 +1039,22 @@ public class StorageClientSDKManager {
             TableRequestOptions tro = new TableRequestOptions();
             tro.setTablePayloadFormat(TablePayloadFormat.JsonFullMetadata);
 
-            for (DynamicTableEntity dte : cloudTable.execute(tableQuery, tro, null)) {
+            ResultContinuation continuation = decodeContinuationToken(continuationToken);
+            ResultSegment<DynamicTableEntity> segment;
+
+            // The service may return an empty segment with a continuation at partition boundaries,
+            // follow it so callers never see an empty page that still has more results
+            do {
+                segment = cloudTable.executeSegmented(tableQuery, continuation, tro, null);
+                continuation = segment.getContinuationToken();
+            } while (segment.getLength() == 0 && segment.getHasMoreResults());
+
+            for (DynamicTableEntity dte : segment.getResults()) {
                 teList.add(getTableEntity(tableName, dte));
             }
 
-            return teList;
+            return new StorageItemPage<TableEntity>(teList,
+                    segment.getHasMoreResults() ? encodeContinuationToken(continuation) : null);
         } catch (Throwable t) {
             throw new AzureCmdException("Error retrieving the Table Entity list", t);
         }
@@ -729,11 +1123,7 @@ public class StorageClientSDKManager {
 
     @NotNull
     public static String getConnectionString(StorageAccount storageAccount) {
-        return String.format(ClientStorageAccount.DEFAULT_CONN_STR_TEMPLATE,
-                        ClientStorageAccount.DEFAULT_PROTOCOL,
-                        storageAccount.name(),
-                        storageAccount.getKeys().get(0).value(),
-                        getEndpointSuffix());
+        return StorageClientCache.getInstance().getConnectionString(storageAccount);
     }
 
     public static String getEndpointSuffix() {
@@ -752,43 +1142,45 @@ public class StorageClientSDKManager {
 
     @NotNull
     public static CloudStorageAccount getCloudStorageAccount(@NotNull String connectionString) throws URISyntaxException, InvalidKeyException {
-        return CloudStorageAccount.parse(connectionString);
+        return StorageClientCache.getInstance().getCloudStorageAccount(connectionString);
     }
 
     @NotNull
     private static CloudBlobClient getCloudBlobClient(@NotNull ClientStorageAccount storageAccount)
             throws Exception {
-        CloudStorageAccount csa = getCloudStorageAccount(storageAccount.getConnectionString());
-
-        return csa.createCloudBlobClient();
+        return getCloudBlobClient(storageAccount.getConnectionString());
     }
 
     @NotNull
     private static CloudBlobClient getCloudBlobClient(@NotNull StorageAccount storageAccount) throws Exception {
-        CloudStorageAccount csa = getCloudStorageAccount(getConnectionString(storageAccount));
-        return csa.createCloudBlobClient();
+        return getCloudBlobClient(getConnectionString(storageAccount));
     }
 
     @NotNull
     private static CloudBlobClient getCloudBlobClient(@NotNull String connectionString) throws Exception {
-        CloudStorageAccount csa = getCloudStorageAccount(connectionString);
-        return csa.createCloudBlobClient();
+        return StorageClientCache.getInstance().getCloudBlobClient(connectionString);
     }
 
     @NotNull
     private static CloudQueueClient getCloudQueueClient(@NotNull StorageAccount storageAccount)
             throws Exception {
-        CloudStorageAccount csa = getCloudStorageAccount(getConnectionString(storageAccount));
+        return getCloudQueueClient(getConnectionString(storageAccount));
+    }
 
-        return csa.createCloudQueueClient();
+    @NotNull
+    private static CloudQueueClient getCloudQueueClient(@NotNull String connectionString) throws Exception {
+        return StorageClientCache.getInstance().getCloudQueueClient(connectionString);
     }
 
     @NotNull
     private static CloudTableClient getCloudTableClient(@NotNull StorageAccount storageAccount)
             throws Exception {
-        CloudStorageAccount csa = getCloudStorageAccount(getConnectionString(storageAccount));
+        return getCloudTableClient(getConnectionString(storageAccount));
+    }
 
-        return csa.createCloudTableClient();
+    @NotNull
+    private static CloudTableClient getCloudTableClient(@NotNull String connectionString) throws Exception {
+        return StorageClientCache.getInstance().getCloudTableClient(connectionString);
     }
 
     @NotNull
@@ -874,6 +1266,25 @@ public class StorageClientSDKManager {
         return blobFile;
     }
 
+    @Nullable
+    private static String encodeContinuationToken(@Nullable ResultContinuation continuation) {
+        if (continuation == null) {
+            return null;
+        }
+
+        return Base64.encode(new Gson().toJson(continuation).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Nullable
+    private static ResultContinuation decodeContinuationToken(@Nullable String continuationToken) {
+        if (Strings.isNullOrEmpty(continuationToken)) {
+            return null;
+        }
+
+        return new Gson().fromJson(new String(Base64.decode(continuationToken), StandardCharsets.UTF_8),
+                ResultContinuation.class);
+    }
+
     @NotNull
     private static String extractBlobItemName(@Nullable String path, @Nullable String delimiter) {
         if (path == null) {
@@ -891,6 +1302,29 @@ public class StorageClientSDKManager {
         }
     }
 
+    @NotNull
+    private static QueueMessage getQueueMessage(@NotNull String queueName,
+                                                @NotNull CloudQueueMessage cqm,
+                                                int dequeueCount)
+            throws StorageException {
+        String id = Strings.nullToEmpty(cqm.getId());
+        String content = Strings.nullToEmpty(cqm.getMessageContentAsString());
+
+        Calendar insertionTime = new GregorianCalendar();
+
+        if (cqm.getInsertionTime() != null) {
+            insertionTime.setTime(cqm.getInsertionTime());
+        }
+
+        Calendar expirationTime = new GregorianCalendar();
+
+        if (cqm.getExpirationTime() != null) {
+            expirationTime.setTime(cqm.getExpirationTime());
+        }
+
+        return new QueueMessage(id, queueName, content, insertionTime, expirationTime, dequeueCount);
+    }
+
     @NotNull
     private static TableEntity getTableEntity(@NotNull String tableName,
                                               @NotNull DynamicTableEntity dte) {
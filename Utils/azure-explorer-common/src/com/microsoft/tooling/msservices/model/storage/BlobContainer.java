@@ -32,6 +32,7 @@ public class BlobContainer implements StorageServiceTreeItem {
     private String eTag;
     private Calendar lastModified;
     private String publicReadAccessType;
+    private boolean publicReadAccessTypeResolved;
 
     public BlobContainer(@NotNull String name,
                          @NotNull String uri,
@@ -96,6 +97,14 @@ public class BlobContainer implements StorageServiceTreeItem {
         this.publicReadAccessType = publicReadAccessType;
     }
 
+    public boolean isPublicReadAccessTypeResolved() {
+        return publicReadAccessTypeResolved;
+    }
+
+    public void setPublicReadAccessTypeResolved(boolean publicReadAccessTypeResolved) {
+        this.publicReadAccessTypeResolved = publicReadAccessTypeResolved;
+    }
+
     @Override
     public String toString() {
         return name + (loading ? " (loading...)" : "");
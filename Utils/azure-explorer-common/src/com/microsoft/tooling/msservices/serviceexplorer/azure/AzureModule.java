@@ -22,6 +22,7 @@
 package com.microsoft.tooling.msservices.serviceexplorer.azure;
 
 import com.microsoft.azure.hdinsight.serverexplore.hdinsightnode.HDInsightRootModule;
+import com.microsoft.azuretools.adauth.AuthMetrics;
 import com.microsoft.azuretools.authmanage.AuthMethodManager;
 import com.microsoft.azuretools.authmanage.ISubscriptionSelectionListener;
 import com.microsoft.azuretools.authmanage.SubscriptionManager;
@@ -35,12 +36,15 @@ import com.microsoft.azuretools.azurecommons.helpers.AzureCmdException;
 import com.microsoft.tooling.msservices.serviceexplorer.AzureRefreshableNode;
 import com.microsoft.tooling.msservices.serviceexplorer.Node;
 import com.microsoft.tooling.msservices.serviceexplorer.NodeActionEvent;
+import com.microsoft.tooling.msservices.serviceexplorer.NodeActionListener;
 import com.microsoft.tooling.msservices.serviceexplorer.azure.docker.DockerHostModule;
 import com.microsoft.tooling.msservices.serviceexplorer.azure.storage.StorageModule;
 import com.microsoft.tooling.msservices.serviceexplorer.azure.vmarm.VMArmModule;
 import com.microsoft.tooling.msservices.serviceexplorer.azure.rediscache.RedisCacheModule;
 import com.microsoft.tooling.msservices.serviceexplorer.azure.webapps.WebappsModule;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -48,6 +52,7 @@ public class AzureModule extends AzureRefreshableNode {
     private static final String AZURE_SERVICE_MODULE_ID = AzureModule.class.getName();
     private static final String ICON_PATH = "AzureExplorer_16.png";
     private static final String BASE_MODULE_NAME = "Azure";
+    private static final String SAVE_SIGN_IN_DIAGNOSTICS = "Save Sign-in Diagnostics";
 
     private Object project;
     private VMArmModule vmArmServiceModule;
@@ -138,6 +143,27 @@ public class AzureModule extends AzureRefreshableNode {
     protected void onNodeClick(NodeActionEvent e) {
     }
 
+    @Override
+    protected void loadActions() {
+        addAction(SAVE_SIGN_IN_DIAGNOSTICS, new NodeActionListener() {
+            @Override
+            protected void actionPerformed(NodeActionEvent e) {
+                File file = DefaultLoader.getUIHelper().showFileChooser(SAVE_SIGN_IN_DIAGNOSTICS);
+                if (file == null) {
+                    return;
+                }
+                try {
+                    AuthMetrics.getInstance().dump(file.toPath());
+                } catch (IOException ex) {
+                    DefaultLoader.getUIHelper().showException("An error occurred while saving the sign-in diagnostics.",
+                            ex, "MS Services - Error Saving Diagnostics", false, true);
+                }
+            }
+        });
+
+        super.loadActions();
+    }
+
     @Override
     protected void refreshFromAzure() throws AzureCmdException {
         try {
@@ -131,6 +131,23 @@ public class ContainerNode extends Node implements TelemetryProperties{
         }
     }
 
+    /**
+     * Called on a background thread after the public access level of the container is resolved
+     */
+    public void onPublicReadAccessTypeResolved() {
+        propertyChangeSupport.firePropertyChange("publicReadAccessType", null, blobContainer.getPublicReadAccessType());
+    }
+
+    @Override
+    public String getToolTip() {
+        if (!blobContainer.isPublicReadAccessTypeResolved()) {
+            return getName();
+        }
+
+        return getName() + "\nPublic access: " +
+                (blobContainer.getPublicReadAccessType().isEmpty() ? "Unknown" : blobContainer.getPublicReadAccessType());
+    }
+
     @Override
     protected Map<String, Class<? extends NodeActionListener>> initActions() {
         return ImmutableMap.of(
@@ -27,16 +27,15 @@ import com.microsoft.azuretools.authmanage.AuthMethodManager;
 import com.microsoft.azuretools.authmanage.SubscriptionManager;
 import com.microsoft.azuretools.sdkmanage.AzureManager;
 import com.microsoft.tooling.msservices.components.DefaultLoader;
-import com.microsoft.tooling.msservices.helpers.ExternalStorageHelper;
 import com.microsoft.azuretools.azurecommons.helpers.AzureCmdException;
-import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientSDKManager;
-import com.microsoft.tooling.msservices.model.storage.ClientStorageAccount;
+import com.microsoft.tooling.msservices.helpers.ParallelExecutor;
 import com.microsoft.tooling.msservices.serviceexplorer.AzureRefreshableNode;
 import com.microsoft.tooling.msservices.serviceexplorer.Node;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -52,10 +51,10 @@ public class StorageModule extends AzureRefreshableNode {
     @Override
     protected void refreshItems()
             throws AzureCmdException {
-        List<Pair<String, String>> failedSubscriptions = new ArrayList<>();
+        final List<Pair<String, String>> failedSubscriptions = Collections.synchronizedList(new ArrayList<Pair<String, String>>());
 
         try {
-            AzureManager azureManager = AuthMethodManager.getInstance().getAzureManager();
+            final AzureManager azureManager = AuthMethodManager.getInstance().getAzureManager();
             // not signed in
             if (azureManager == null) {
                 return;
@@ -63,19 +62,29 @@ public class StorageModule extends AzureRefreshableNode {
 
             SubscriptionManager subscriptionManager = azureManager.getSubscriptionManager();
             Set<String> sidList = subscriptionManager.getAccountSidList();
-            for (String sid : sidList) {
-                try {
-                    Azure azure = azureManager.getAzure(sid);
-                    List<com.microsoft.azure.management.storage.StorageAccount> storageAccounts = azure.storageAccounts().list();
-                    for (StorageAccount sm : storageAccounts) {
-                        addChildNode(new StorageNode(this, sid, sm));
-                    }
+            // List the subscriptions concurrently, the accounts of each one show up as soon as it's listed
+            ParallelExecutor.For(sidList, new ParallelExecutor.Operation<String>() {
+                @Override
+                public void perform(String sid) {
+                    try {
+                        Azure azure = azureManager.getAzure(sid);
+                        List<com.microsoft.azure.management.storage.StorageAccount> storageAccounts = azure.storageAccounts().list();
+                        List<StorageNode> storageNodes = new ArrayList<>(storageAccounts.size());
+                        for (StorageAccount sm : storageAccounts) {
+                            storageNodes.add(new StorageNode(StorageModule.this, sid, sm));
+                        }
 
-                } catch (Exception ex) {
-                    failedSubscriptions.add(new ImmutablePair<>(sid, ex.getMessage()));
-                    continue;
+                        // The child list isn't thread safe
+                        synchronized (StorageModule.this) {
+                            for (StorageNode storageNode : storageNodes) {
+                                addChildNode(storageNode);
+                            }
+                        }
+                    } catch (Exception ex) {
+                        failedSubscriptions.add(new ImmutablePair<>(sid, ex.getMessage()));
+                    }
                 }
-            }
+            });
         } catch (Exception ex) {
             DefaultLoader.getUIHelper().logError("An error occurred when trying to load Storage Accounts\n\n" + ex.getMessage(), ex);
         }
@@ -102,11 +111,12 @@ public class StorageModule extends AzureRefreshableNode {
 //            }
         //TODO
         // load External Accounts
-        for (ClientStorageAccount clientStorageAccount : ExternalStorageHelper.getList(getProject())) {
-            ClientStorageAccount storageAccount = StorageClientSDKManager.getManager().getStorageAccount(clientStorageAccount.getConnectionString());
-
+        // The nodes aren't shown yet, so don't parse the saved connection strings for nothing
+//        for (ClientStorageAccount clientStorageAccount : ExternalStorageHelper.getList(getProject())) {
+//            ClientStorageAccount storageAccount = StorageClientSDKManager.getManager().getStorageAccount(clientStorageAccount.getConnectionString());
+//
 //            addChildNode(new ExternalStorageNode(this, storageAccount));
-        }
+//        }
         if (!failedSubscriptions.isEmpty()) {
             StringBuilder errorMessage = new StringBuilder("An error occurred when trying to load Storage Accounts for the subscriptions:\n\n");
             for (Pair error : failedSubscriptions) {
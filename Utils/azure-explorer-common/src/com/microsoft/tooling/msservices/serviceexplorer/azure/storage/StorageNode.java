@@ -29,6 +29,8 @@ import com.microsoft.azuretools.sdkmanage.AzureManager;
 import com.microsoft.azuretools.telemetry.AppInsightsConstants;
 import com.microsoft.azuretools.telemetry.TelemetryProperties;
 import com.microsoft.tooling.msservices.components.DefaultLoader;
+import com.microsoft.tooling.msservices.helpers.CallableSingleArg;
+import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientCache;
 import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientSDKManager;
 import com.microsoft.tooling.msservices.model.storage.BlobContainer;
 import com.microsoft.tooling.msservices.serviceexplorer.Node;
@@ -82,6 +84,7 @@ public class StorageNode extends RefreshableNode implements TelemetryProperties
                 }
                 Azure azure = azureManager.getAzure(subscriptionId);
                 azure.storageAccounts().deleteByResourceGroup(storageAccount.resourceGroupName(), storageAccount.name());
+                StorageClientCache.getInstance().invalidate(storageAccount);
                 DefaultLoader.getIdeHelper().invokeLater(new Runnable() {
                     @Override
                     public void run() {
@@ -102,11 +105,30 @@ public class StorageNode extends RefreshableNode implements TelemetryProperties
 
     @Override
     protected void refreshItems() throws AzureCmdException {
-        List<BlobContainer> containerList = StorageClientSDKManager.getManager()
-                .getBlobContainers(StorageClientSDKManager.getConnectionString(storageAccount));
+        String connectionString = StorageClientSDKManager.getConnectionString(storageAccount);
+        List<BlobContainer> containerList = StorageClientSDKManager.getManager().getBlobContainers(connectionString);
+        final Map<BlobContainer, ContainerNode> containerNodes = new HashMap<>();
+
         for (BlobContainer blobContainer : containerList) {
-            addChildNode(new ContainerNode(this, storageAccount, blobContainer));
+            ContainerNode containerNode = new ContainerNode(this, storageAccount, blobContainer);
+            containerNodes.put(blobContainer, containerNode);
+            addChildNode(containerNode);
         }
+
+        // Access levels are not needed to show the containers, resolve them after the nodes are shown
+        StorageClientSDKManager.getManager().resolveBlobContainerPublicReadAccessTypes(connectionString, containerList,
+                new CallableSingleArg<Void, BlobContainer>() {
+                    @Override
+                    public Void call(BlobContainer blobContainer) throws Exception {
+                        ContainerNode containerNode = containerNodes.get(blobContainer);
+
+                        if (containerNode != null) {
+                            containerNode.onPublicReadAccessTypeResolved();
+                        }
+
+                        return null;
+                    }
+                });
     }
 
     @Override
@@ -0,0 +1,381 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.http.RequestMethod;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.matching.RequestPatternBuilder;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.core.Base64;
+import com.microsoft.azuretools.azurecommons.helpers.AzureCmdException;
+import com.microsoft.tooling.msservices.helpers.CallableSingleArg;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.*;
+
+public class BlobBulkTransferTest {
+    private static final String ACCOUNT_NAME = "devstoreaccount1";
+    private static final String ACCOUNT_KEY =
+            "Eby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/KBHBeksoGMGw==";
+    private static final String CONTAINER_PATH = "/" + ACCOUNT_NAME + "/container";
+    private static final String ETAG = "\"0x8D5A1B2C3D4E5F6\"";
+    private static final String LAST_MODIFIED = "Mon, 01 Jan 2018 00:00:00 GMT";
+
+    @Rule
+    public WireMockRule blobService = new WireMockRule(wireMockConfig().dynamicPort());
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private CloudBlobContainer container;
+    private final Map<String, byte[]> blobs = new TreeMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        String connectionString = String.format("AccountName=%s;AccountKey=%s;BlobEndpoint=http://127.0.0.1:%d/%s",
+                ACCOUNT_NAME, ACCOUNT_KEY, blobService.port(), ACCOUNT_NAME);
+
+        container = CloudStorageAccount.parse(connectionString).createCloudBlobClient()
+                .getContainerReference("container");
+    }
+
+    @Test
+    public void throttlingIsFoundInTheCauseChain() {
+        StorageException serverBusy = new StorageException("ServerBusy", "The server is busy.", 503, null, null);
+
+        assertTrue(BlobBulkTransfer.isThrottled(new AzureCmdException("Error uploading", serverBusy)));
+        assertFalse(BlobBulkTransfer.isThrottled(
+                new StorageException("BlobNotFound", "The blob doesn't exist.", 404, null, null)));
+        assertFalse(BlobBulkTransfer.isThrottled(new IOException("Connection reset")));
+    }
+
+    @Test
+    public void internalErrorIsNotThrottling() {
+        assertTrue(BlobBulkTransfer.isThrottled(
+                new StorageException("TooManyRequests", "Too many requests.", 429, null, null)));
+        assertFalse(BlobBulkTransfer.isThrottled(
+                new StorageException("InternalError", "The server encountered an internal error.", 500, null, null)));
+        assertFalse(BlobBulkTransfer.isThrottled(
+                new StorageException("OperationTimedOut", "The operation could not be completed.", 500, null, null)));
+    }
+
+    @Test
+    public void backoffGrowsFasterWhenThrottled() {
+        for (int attempt = 1; attempt <= 4; attempt++) {
+            long backoff = BlobBulkTransfer.getBackoffMillis(attempt, false);
+            long throttledBackoff = BlobBulkTransfer.getBackoffMillis(attempt, true);
+
+            long base = 500L << (attempt - 1);
+            assertTrue(backoff >= base / 2 && backoff <= base);
+            assertTrue(throttledBackoff >= base && throttledBackoff <= Math.min(30000, base << attempt));
+        }
+
+        assertTrue(BlobBulkTransfer.getBackoffMillis(30, true) <= 30000);
+    }
+
+    @Test
+    public void downloadPlanSkipsFilesInSync() throws Exception {
+        serveBlob("dir/a.txt", "same");
+        serveBlob("dir/b.txt", "remote");
+        serveBlob("dir/sub/c.txt", "nested");
+        serveListing();
+
+        File localDirectory = tempFolder.newFolder("local");
+        writeFile(localDirectory, "a.txt", "same");
+        writeFile(localDirectory, "b.txt", "stale");
+
+        BlobBulkTransfer.Plan plan = new BlobBulkTransfer(2, 1).planDownload(container, "dir", localDirectory);
+
+        assertEquals(BlobBulkTransfer.Direction.DOWNLOAD, plan.getDirection());
+        assertEquals(Arrays.asList("b.txt", "sub/c.txt"), getRelativePaths(plan.getItems()));
+        assertEquals(Arrays.asList("a.txt"), getRelativePaths(plan.getSkippedItems()));
+        assertEquals("dir/sub/c.txt", plan.getItems().get(1).getBlobPath());
+        assertEquals(new File(localDirectory, "sub" + File.separator + "c.txt").getCanonicalFile(),
+                plan.getItems().get(1).getLocalFile());
+        assertEquals("remote".length() + "nested".length(), plan.getTotalBytes());
+    }
+
+    @Test
+    public void uploadPlanSkipsFilesInSync() throws Exception {
+        serveBlob("dir/a.txt", "same");
+        serveBlob("dir/b.txt", "remote");
+        serveListing();
+
+        File localDirectory = tempFolder.newFolder("local");
+        writeFile(localDirectory, "a.txt", "same");
+        writeFile(localDirectory, "b.txt", "changed");
+        writeFile(localDirectory, "sub/c.txt", "new");
+
+        BlobBulkTransfer.Plan plan = new BlobBulkTransfer(2, 1).planUpload(container, localDirectory, "/dir");
+
+        assertEquals(BlobBulkTransfer.Direction.UPLOAD, plan.getDirection());
+        assertEquals(Arrays.asList("b.txt", "sub/c.txt"), getRelativePaths(plan.getItems()));
+        assertEquals(Arrays.asList("a.txt"), getRelativePaths(plan.getSkippedItems()));
+        assertEquals("dir/sub/c.txt", plan.getItems().get(1).getBlobPath());
+    }
+
+    @Test
+    public void downloadPlanRefusesBlobsOutsideTheDirectory() throws Exception {
+        serveBlob("dir/a.txt", "fine");
+        serveBlob("dir/sub/../../../escaped.txt", "evil");
+        serveListing();
+
+        File localDirectory = tempFolder.newFolder("local");
+
+        try {
+            new BlobBulkTransfer(2, 1).planDownload(container, "dir", localDirectory);
+            fail("The plan should refuse a blob leading outside of the directory");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("escaped.txt"));
+        }
+    }
+
+    @Test
+    public void localFilesStayUnderTheDirectory() throws Exception {
+        File localDirectory = tempFolder.newFolder("local");
+
+        assertEquals(new File(localDirectory, "ok.txt").getCanonicalFile(),
+                BlobBulkTransfer.getLocalFile(localDirectory, "sub/../ok.txt"));
+
+        for (String relativePath : new String[]{"../escaped.txt", "sub/../../escaped.txt", "..", "."}) {
+            try {
+                BlobBulkTransfer.getLocalFile(localDirectory, relativePath);
+                fail(relativePath + " should be refused");
+            } catch (IOException expected) {
+                // outside of the directory, or the directory itself
+            }
+        }
+
+        // A sibling directory sharing the name as a prefix is still outside
+        try {
+            BlobBulkTransfer.getLocalFile(localDirectory, "../local2/file.txt");
+            fail("A sibling directory should be refused");
+        } catch (IOException expected) {
+            // outside of the directory
+        }
+    }
+
+    @Test
+    public void failedFilesAreRetriedAndProgressIsAggregated() throws Exception {
+        serveBlob("dir/a.txt", "first");
+        serveBlob("dir/b.txt", "second");
+        serveListing();
+
+        // The first lookup of b.txt fails, the retry finds it
+        blobService.stubFor(request("HEAD", urlPathEqualTo(CONTAINER_PATH + "/dir/b.txt"))
+                .atPriority(1)
+                .inScenario("retry")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(404))
+                .willSetStateTo("found"));
+
+        File localDirectory = tempFolder.newFolder("local");
+        BlobBulkTransfer transfer = new BlobBulkTransfer(2, 3);
+        BlobBulkTransfer.Plan plan = transfer.planDownload(container, "dir", localDirectory);
+
+        final AtomicLong reportedBytes = new AtomicLong();
+        BlobBulkTransfer.Handle handle = transfer.start(container, plan,
+                new CallableSingleArg<Void, BlobBulkTransfer.Handle>() {
+                    @Override
+                    public Void call(BlobBulkTransfer.Handle progress) throws Exception {
+                        long transferredBytes = progress.getTransferredBytes();
+                        long reported;
+
+                        while ((reported = reportedBytes.get()) < transferredBytes
+                                && !reportedBytes.compareAndSet(reported, transferredBytes)) {
+                            // another worker reported at the same time, try again
+                        }
+
+                        return null;
+                    }
+                });
+
+        assertTrue(handle.await(30, TimeUnit.SECONDS));
+
+        assertTrue(handle.isDone());
+        assertTrue(handle.getFailures().isEmpty());
+        assertEquals(2, handle.getCompletedFiles());
+        assertEquals(plan.getTotalBytes(), handle.getTransferredBytes());
+        assertEquals(plan.getTotalBytes(), reportedBytes.get());
+        assertEquals(1.0, handle.getFraction(), 0);
+        assertEquals("first", readFile(localDirectory, "a.txt"));
+        assertEquals("second", readFile(localDirectory, "b.txt"));
+
+        // The lookup and the attributes of the download, b.txt has its failed lookup on top
+        blobService.verify(2, headRequestedFor(CONTAINER_PATH + "/dir/a.txt"));
+        blobService.verify(3, headRequestedFor(CONTAINER_PATH + "/dir/b.txt"));
+    }
+
+    @Test
+    public void filesFailingEveryAttemptAreReported() throws Exception {
+        serveBlob("dir/a.txt", "first");
+        serveBlob("dir/b.txt", "second");
+        serveListing();
+
+        blobService.stubFor(request("HEAD", urlPathEqualTo(CONTAINER_PATH + "/dir/b.txt"))
+                .atPriority(1)
+                .willReturn(aResponse().withStatus(404)));
+
+        File localDirectory = tempFolder.newFolder("local");
+        BlobBulkTransfer transfer = new BlobBulkTransfer(2, 2);
+        BlobBulkTransfer.Handle handle = transfer.start(container,
+                transfer.planDownload(container, "dir", localDirectory), null);
+
+        assertTrue(handle.await(30, TimeUnit.SECONDS));
+
+        assertEquals(1, handle.getCompletedFiles());
+        assertEquals(Arrays.asList("b.txt"), getRelativePaths(new ArrayList<>(handle.getFailures().keySet())));
+        assertEquals(1.0 * "first".length() / ("first".length() + "second".length()), handle.getFraction(), 0);
+        blobService.verify(2, headRequestedFor(CONTAINER_PATH + "/dir/b.txt"));
+    }
+
+    @Test
+    public void cancelledTransferNeverStartsTheQueuedFiles() throws Exception {
+        serveBlob("dir/a.txt", "first");
+        serveBlob("dir/b.txt", "second");
+        serveListing();
+
+        // Keep the first file in flight while the transfer is cancelled
+        blobService.stubFor(get(urlPathEqualTo(CONTAINER_PATH + "/dir/a.txt"))
+                .atPriority(1)
+                .willReturn(blobRangeResponse(blobs.get("dir/a.txt")).withFixedDelay(1000)));
+
+        File localDirectory = tempFolder.newFolder("local");
+        BlobBulkTransfer transfer = new BlobBulkTransfer(1, 3);
+        BlobBulkTransfer.Handle handle = transfer.start(container,
+                transfer.planDownload(container, "dir", localDirectory), null);
+
+        handle.cancel();
+
+        assertTrue(handle.await(30, TimeUnit.SECONDS));
+
+        assertTrue(handle.isCancelled());
+        assertTrue(handle.isDone());
+        assertTrue("Cancelled files aren't failures", handle.getFailures().isEmpty());
+        assertTrue(handle.getCompletedFiles() <= 1);
+        assertFalse(new File(localDirectory, "b.txt").exists());
+        blobService.verify(0, headRequestedFor(CONTAINER_PATH + "/dir/b.txt"));
+        blobService.verify(0, getRequestedFor(urlPathEqualTo(CONTAINER_PATH + "/dir/b.txt")));
+    }
+
+    private void serveBlob(String blobName, String text) throws Exception {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        blobs.put(blobName, content);
+
+        blobService.stubFor(request("HEAD", urlPathEqualTo(CONTAINER_PATH + "/" + blobName))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Length", Integer.toString(content.length))
+                        .withHeader("Content-MD5", getMD5(content))
+                        .withHeader("ETag", ETAG)
+                        .withHeader("Last-Modified", LAST_MODIFIED)
+                        .withHeader("x-ms-blob-type", "BlockBlob")));
+
+        blobService.stubFor(get(urlPathEqualTo(CONTAINER_PATH + "/" + blobName))
+                .willReturn(blobRangeResponse(content)));
+    }
+
+    private void serveListing() throws Exception {
+        StringBuilder listing = new StringBuilder();
+
+        for (Map.Entry<String, byte[]> blob : blobs.entrySet()) {
+            listing.append(String.format("<Blob><Name>%s</Name><Properties>" +
+                            "<Last-Modified>%s</Last-Modified><Etag>%s</Etag><Content-Length>%d</Content-Length>" +
+                            "<Content-Type>text/plain</Content-Type><Content-MD5>%s</Content-MD5>" +
+                            "<BlobType>BlockBlob</BlobType></Properties></Blob>",
+                    blob.getKey(), LAST_MODIFIED, ETAG, blob.getValue().length, getMD5(blob.getValue())));
+        }
+
+        blobService.stubFor(get(urlPathEqualTo(CONTAINER_PATH))
+                .withQueryParam("restype", equalTo("container"))
+                .withQueryParam("comp", equalTo("list"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/xml")
+                        .withBody("<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+                                "<EnumerationResults ServiceEndpoint=\"http://127.0.0.1/" + ACCOUNT_NAME + "/\" " +
+                                "ContainerName=\"container\"><Blobs>" + listing + "</Blobs><NextMarker />" +
+                                "</EnumerationResults>")));
+    }
+
+    private static RequestPatternBuilder headRequestedFor(String path) {
+        return new RequestPatternBuilder(RequestMethod.HEAD, urlPathEqualTo(path));
+    }
+
+    private static ResponseDefinitionBuilder blobRangeResponse(byte[] content) {
+        return aResponse()
+                .withStatus(206)
+                .withHeader("Content-Length", Integer.toString(content.length))
+                .withHeader("Content-Range", String.format("bytes 0-%d/%d", content.length - 1, content.length))
+                .withHeader("ETag", ETAG)
+                .withHeader("Last-Modified", LAST_MODIFIED)
+                .withHeader("x-ms-blob-type", "BlockBlob")
+                .withBody(content);
+    }
+
+    private static String getMD5(byte[] content) throws Exception {
+        return Base64.encode(MessageDigest.getInstance("MD5").digest(content));
+    }
+
+    private static void writeFile(File directory, String relativePath, String text) throws IOException {
+        File file = new File(directory, relativePath.replace('/', File.separatorChar));
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readFile(File directory, String relativePath) throws IOException {
+        return new String(Files.readAllBytes(new File(directory, relativePath).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> getRelativePaths(List<BlobBulkTransfer.Item> items) {
+        List<String> relativePaths = new ArrayList<>();
+
+        for (BlobBulkTransfer.Item item : items) {
+            relativePaths.add(item.getRelativePath());
+        }
+
+        return relativePaths;
+    }
+}
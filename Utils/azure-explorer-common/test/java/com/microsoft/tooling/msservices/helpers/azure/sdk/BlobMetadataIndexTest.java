@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.blob.CloudBlobClient;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.*;
+
+public class BlobMetadataIndexTest {
+    private static final String ACCOUNT_NAME = "devstoreaccount1";
+    private static final String ACCOUNT_KEY =
+            "Eby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/KBHBeksoGMGw==";
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    @Rule
+    public WireMockRule blobService = new WireMockRule(wireMockConfig().dynamicPort());
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private CloudBlobClient client;
+    private CloudBlobContainer container;
+    // Blob path to its ETag, size, content type and last modified time
+    private final Map<String, Object[]> blobs = new TreeMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        String connectionString = String.format("AccountName=%s;AccountKey=%s;BlobEndpoint=http://127.0.0.1:%d/%s",
+                ACCOUNT_NAME, ACCOUNT_KEY, blobService.port(), ACCOUNT_NAME);
+
+        client = CloudStorageAccount.parse(connectionString).createCloudBlobClient();
+        container = client.getContainerReference("container");
+
+        putBlob("a/1.txt", "\"1\"", 100, "text/plain", 1);
+        putBlob("a/2.jar", "\"1\"", 5000, "application/java-archive", 2);
+        putBlob("b/3.txt", "\"1\"", 300, "text/plain", 3);
+        putBlob("top.txt", "\"1\"", 10, "text/plain", 4);
+    }
+
+    @Test
+    public void singleStarStaysInTheDirectory() {
+        Pattern pattern = BlobMetadataIndex.globToPattern("build/*.jar");
+
+        assertTrue(pattern.matcher("build/app.jar").matches());
+        assertFalse(pattern.matcher("build/libs/app.jar").matches());
+        assertFalse(pattern.matcher("build/app.jar.sha1").matches());
+    }
+
+    @Test
+    public void doubleStarCrossesDirectories() {
+        Pattern pattern = BlobMetadataIndex.globToPattern("build/**.jar");
+
+        assertTrue(pattern.matcher("build/app.jar").matches());
+        assertTrue(pattern.matcher("build/libs/app.jar").matches());
+    }
+
+    @Test
+    public void otherCharactersAreLiteral() {
+        Pattern pattern = BlobMetadataIndex.globToPattern("logs/app.(?).log");
+
+        assertTrue(pattern.matcher("logs/app.(1).log").matches());
+        assertFalse(pattern.matcher("logs/appx(1).log").matches());
+        assertFalse(pattern.matcher("logs/app.(/).log").matches());
+    }
+
+    @Test
+    public void refreshRewritesOnlyChangedBlobs() throws Exception {
+        BlobMetadataIndex index = new BlobMetadataIndex(container.getUri().toString(), null);
+
+        serveListing("");
+        assertEquals(new TreeSet<>(Arrays.asList("", "a/", "b/")), index.refresh(container, ""));
+        assertEquals(4, index.size());
+
+        putBlob("a/1.txt", "\"2\"", 150, "text/plain", 5);
+        serveListing("");
+
+        assertEquals(Collections.singleton("a/"), index.refresh(container, ""));
+        BlobMetadataIndex.Entry changed = index.query(new BlobMetadataIndex.Query().prefix("a/1")).get(0);
+        assertEquals("\"2\"", changed.getETag());
+        assertEquals(150, changed.getSize());
+
+        // Nothing changed since
+        assertTrue(index.refresh(container, "").isEmpty());
+    }
+
+    @Test
+    public void refreshDropsDeletedBlobs() throws Exception {
+        BlobMetadataIndex index = new BlobMetadataIndex(container.getUri().toString(), null);
+
+        serveListing("");
+        index.refresh(container, "");
+
+        blobs.remove("b/3.txt");
+        serveListing("");
+
+        assertEquals(Collections.singleton("b/"), index.refresh(container, ""));
+        assertEquals(3, index.size());
+        assertTrue(index.query(new BlobMetadataIndex.Query().prefix("b/")).isEmpty());
+    }
+
+    @Test
+    public void refreshOfADirectoryKeepsTheOtherBlobs() throws Exception {
+        BlobMetadataIndex index = new BlobMetadataIndex(container.getUri().toString(), null);
+
+        serveListing("");
+        index.refresh(container, "");
+
+        blobs.remove("a/2.jar");
+        blobs.remove("b/3.txt");
+        serveListing("a/");
+
+        assertEquals(Collections.singleton("a/"), index.refresh(container, "a/"));
+        assertEquals(Arrays.asList("a/1.txt", "b/3.txt", "top.txt"),
+                getPaths(index.query(new BlobMetadataIndex.Query())));
+        assertTrue(index.getRefreshTimeMillis("a/") >= index.getRefreshTimeMillis("b/"));
+    }
+
+    @Test
+    public void queryFiltersBySizeDateAndContentType() throws Exception {
+        BlobMetadataIndex index = new BlobMetadataIndex(container.getUri().toString(), null);
+
+        serveListing("");
+        index.refresh(container, "");
+
+        assertEquals(Arrays.asList("a/1.txt", "b/3.txt", "top.txt"),
+                getPaths(index.query(new BlobMetadataIndex.Query().glob("**.txt"))));
+        assertEquals(Arrays.asList("a/2.jar", "b/3.txt"),
+                getPaths(index.query(new BlobMetadataIndex.Query().size(200, Long.MAX_VALUE))));
+        assertEquals(Collections.singletonList("a/2.jar"),
+                getPaths(index.query(new BlobMetadataIndex.Query().contentType("APPLICATION/java-archive"))));
+        assertEquals(Arrays.asList("a/2.jar", "b/3.txt"), getPaths(index.query(
+                new BlobMetadataIndex.Query().modified(new Date(2 * DAY_MILLIS), new Date(4 * DAY_MILLIS)))));
+        assertEquals(Collections.singletonList("a/1.txt"),
+                getPaths(index.query(new BlobMetadataIndex.Query().prefix("a/").limit(1))));
+    }
+
+    @Test
+    public void snapshotIsSavedAndLoadedAgain() throws Exception {
+        File indexFile = new File(tempFolder.getRoot(), "BlobIndex" + File.separator + "container.idx");
+        String key = container.getUri().toString();
+
+        BlobMetadataIndex index = new BlobMetadataIndex(key, indexFile);
+        serveListing("");
+        index.refresh(container, "");
+
+        assertTrue(indexFile.isFile());
+        assertFalse(new File(indexFile.getPath() + ".tmp").exists());
+
+        BlobMetadataIndex loaded = new BlobMetadataIndex(key, indexFile);
+        loaded.load();
+
+        assertEquals(4, loaded.size());
+        assertEquals(index.getRefreshTimeMillis(""), loaded.getRefreshTimeMillis(""));
+
+        BlobMetadataIndex.Entry jar = loaded.query(new BlobMetadataIndex.Query().prefix("a/2")).get(0);
+        assertEquals(5000, jar.getSize());
+        assertEquals("application/java-archive", jar.getContentType());
+        assertEquals(2 * DAY_MILLIS, jar.getLastModified());
+    }
+
+    @Test
+    public void snapshotOfAnotherContainerIsIgnored() throws Exception {
+        File indexFile = tempFolder.newFile("container.idx");
+
+        serveListing("");
+        new BlobMetadataIndex(container.getUri().toString(), indexFile).refresh(container, "");
+
+        BlobMetadataIndex other = new BlobMetadataIndex(client.getContainerReference("other").getUri().toString(),
+                indexFile);
+        other.load();
+
+        assertTrue(other.isEmpty());
+        assertEquals(0, other.getRefreshTimeMillis(""));
+    }
+
+    @Test
+    public void brokenSnapshotIsIgnored() throws Exception {
+        File indexFile = tempFolder.newFile("broken.idx");
+        Files.write(indexFile.toPath(), "not a snapshot".getBytes("UTF-8"));
+
+        BlobMetadataIndex index = new BlobMetadataIndex(container.getUri().toString(), indexFile);
+        index.load();
+
+        assertTrue(index.isEmpty());
+    }
+
+    @Test
+    public void leastRecentlyUsedIndexesAreEvicted() throws Exception {
+        BlobMetadataIndex first = BlobMetadataIndex.getIndex(client.getContainerReference("lru0"));
+        BlobMetadataIndex second = BlobMetadataIndex.getIndex(client.getContainerReference("lru1"));
+
+        for (int i = 2; i <= BlobMetadataIndex.MAX_CACHED_INDEXES; i++) {
+            BlobMetadataIndex.getIndex(client.getContainerReference("lru" + i));
+
+            // Keep the first one in use
+            assertSame(first, BlobMetadataIndex.getIndex(client.getContainerReference("lru0")));
+        }
+
+        assertNotSame(second, BlobMetadataIndex.getIndex(client.getContainerReference("lru1")));
+    }
+
+    private void putBlob(String path, String eTag, long size, String contentType, int lastModifiedDay) {
+        blobs.put(path, new Object[]{eTag, size, contentType, lastModifiedDay * DAY_MILLIS});
+    }
+
+    private void serveListing(String prefix) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        StringBuilder listing = new StringBuilder();
+
+        for (Map.Entry<String, Object[]> blob : blobs.entrySet()) {
+            if (!blob.getKey().startsWith(prefix)) {
+                continue;
+            }
+
+            Object[] properties = blob.getValue();
+            listing.append(String.format("<Blob><Name>%s</Name><Properties>" +
+                            "<Last-Modified>%s</Last-Modified><Etag>%s</Etag><Content-Length>%d</Content-Length>" +
+                            "<Content-Type>%s</Content-Type><BlobType>BlockBlob</BlobType></Properties></Blob>",
+                    blob.getKey(), format.format(new Date((Long) properties[3])), properties[0], properties[1],
+                    properties[2]));
+        }
+
+        // The latest stub wins, so serving the listing again replaces the previous one
+        blobService.stubFor(get(urlPathEqualTo("/" + ACCOUNT_NAME + "/container"))
+                .withQueryParam("restype", equalTo("container"))
+                .withQueryParam("comp", equalTo("list"))
+                .withQueryParam("prefix", prefix.isEmpty() ? absent() : equalTo(prefix))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/xml")
+                        .withBody("<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+                                "<EnumerationResults ServiceEndpoint=\"http://127.0.0.1/" + ACCOUNT_NAME + "/\" " +
+                                "ContainerName=\"container\"><MaxResults>5000</MaxResults><Blobs>" + listing +
+                                "</Blobs><NextMarker /></EnumerationResults>")));
+    }
+
+    private static List<String> getPaths(List<BlobMetadataIndex.Entry> entries) {
+        List<String> paths = new ArrayList<>();
+
+        for (BlobMetadataIndex.Entry entry : entries) {
+            paths.add(entry.getPath());
+        }
+
+        return paths;
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.extension.Parameters;
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformer;
+import com.github.tomakehurst.wiremock.http.Fault;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.github.tomakehurst.wiremock.stubbing.StubMapping;
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.core.Base64;
+import com.microsoft.tooling.msservices.helpers.CallableSingleArg;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.*;
+
+public class ParallelBlobDownloaderTest {
+    private static final String ACCOUNT_NAME = "devstoreaccount1";
+    private static final String ACCOUNT_KEY =
+            "Eby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/KBHBeksoGMGw==";
+    private static final String BLOB_PATH = "/" + ACCOUNT_NAME + "/container/blob.bin";
+    private static final String ETAG = "\"0x8D5A1B2C3D4E5F6\"";
+    private static final int RANGE_SIZE = 1024;
+    private static final int RANGE_COUNT = 5;
+
+    private final AwaitLatchTransformer awaitOtherRanges = new AwaitLatchTransformer(RANGE_COUNT - 1);
+
+    @Rule
+    public WireMockRule blobService = new WireMockRule(wireMockConfig().dynamicPort().extensions(awaitOtherRanges));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private byte[] content;
+    private CloudBlockBlob blob;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[RANGE_SIZE * (RANGE_COUNT - 1) + 100];
+        new Random(42).nextBytes(content);
+
+        String connectionString = String.format("AccountName=%s;AccountKey=%s;BlobEndpoint=http://127.0.0.1:%d/%s",
+                ACCOUNT_NAME, ACCOUNT_KEY, blobService.port(), ACCOUNT_NAME);
+        blob = CloudStorageAccount.parse(connectionString).createCloudBlobClient()
+                .getContainerReference("container")
+                .getBlockBlobReference("blob.bin");
+
+        blobService.stubFor(request("HEAD", urlPathEqualTo(BLOB_PATH))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Length", Integer.toString(content.length))
+                        .withHeader("Content-MD5", Base64.encode(MessageDigest.getInstance("MD5").digest(content)))
+                        .withHeader("ETag", ETAG)
+                        .withHeader("Last-Modified", "Mon, 01 Jan 2018 00:00:00 GMT")
+                        .withHeader("x-ms-blob-type", "BlockBlob")));
+
+        for (int i = 0; i * RANGE_SIZE < content.length; i++) {
+            blobService.stubFor(get(urlPathEqualTo(BLOB_PATH))
+                    .withHeader("x-ms-range", equalTo(getRangeHeader(i)))
+                    .willReturn(rangeResponse(i)));
+        }
+    }
+
+    @Test
+    public void downloadRecoversFromDisconnects() throws Exception {
+        // The third range is disconnected once, then served
+        blobService.stubFor(get(urlPathEqualTo(BLOB_PATH))
+                .withHeader("x-ms-range", equalTo(getRangeHeader(2)))
+                .inScenario("disconnect")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withFault(Fault.EMPTY_RESPONSE))
+                .willSetStateTo("served"));
+        blobService.stubFor(get(urlPathEqualTo(BLOB_PATH))
+                .withHeader("x-ms-range", equalTo(getRangeHeader(2)))
+                .inScenario("disconnect")
+                .whenScenarioStateIs("served")
+                .willReturn(rangeResponse(2)));
+
+        File target = new File(tempFolder.getRoot(), "blob.bin");
+        final long[] reported = {0};
+
+        new ParallelBlobDownloader(3, RANGE_SIZE, 3).download(blob, target, new CallableSingleArg<Void, Long>() {
+            @Override
+            public Void call(Long downloadedBytes) throws Exception {
+                reported[0] = downloadedBytes;
+                return null;
+            }
+        });
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(content.length, reported[0]);
+        assertFalse(ParallelBlobDownloader.getCheckpointFile(target).exists());
+        assertFalse(ParallelBlobDownloader.getPartialFile(target).exists());
+        blobService.verify(2, getRequestedFor(urlPathEqualTo(BLOB_PATH))
+                .withHeader("x-ms-range", equalTo(getRangeHeader(2))));
+    }
+
+    @Test
+    public void downloadResumesFromCheckpoint() throws Exception {
+        // The fourth range breaks only after all the others are checkpointed, so the failure leaves a known state
+        StubMapping broken = blobService.stubFor(get(urlPathEqualTo(BLOB_PATH))
+                .withHeader("x-ms-range", equalTo(getRangeHeader(3)))
+                .atPriority(1)
+                .willReturn(aResponse()
+                        .withFault(Fault.EMPTY_RESPONSE)
+                        .withTransformers(awaitOtherRanges.getName())));
+
+        File target = new File(tempFolder.getRoot(), "blob.bin");
+
+        try {
+            new ParallelBlobDownloader(RANGE_COUNT, RANGE_SIZE, 1).download(blob, target,
+                    new CallableSingleArg<Void, Long>() {
+                        @Override
+                        public Void call(Long downloadedBytes) throws Exception {
+                            if (downloadedBytes > 0) {
+                                awaitOtherRanges.latch.countDown();
+                            }
+
+                            return null;
+                        }
+                    });
+            fail("The download should fail on the broken range");
+        } catch (Exception expected) {
+            assertTrue(ParallelBlobDownloader.getCheckpointFile(target).exists());
+            assertTrue(ParallelBlobDownloader.getPartialFile(target).exists());
+            assertFalse("The target is only created by a complete download", target.exists());
+        }
+
+        blobService.removeStub(broken);
+        blobService.resetRequests();
+
+        new ParallelBlobDownloader(RANGE_COUNT, RANGE_SIZE, 1).download(blob, target, null);
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(ParallelBlobDownloader.getCheckpointFile(target).exists());
+        assertFalse(ParallelBlobDownloader.getPartialFile(target).exists());
+
+        for (int i = 0; i < RANGE_COUNT; i++) {
+            blobService.verify(i == 3 ? 1 : 0, getRequestedFor(urlPathEqualTo(BLOB_PATH))
+                    .withHeader("x-ms-range", equalTo(getRangeHeader(i))));
+        }
+    }
+
+    @Test
+    public void progressNeverGoesBackwards() throws Exception {
+        File target = new File(tempFolder.getRoot(), "blob.bin");
+        final List<Long> reported = new ArrayList<>();
+
+        new ParallelBlobDownloader(RANGE_COUNT, RANGE_SIZE, 1).download(blob, target,
+                new CallableSingleArg<Void, Long>() {
+                    @Override
+                    public Void call(Long downloadedBytes) throws Exception {
+                        reported.add(downloadedBytes);
+                        return null;
+                    }
+                });
+
+        assertEquals(RANGE_COUNT + 1, reported.size());
+        for (int i = 1; i < reported.size(); i++) {
+            assertTrue(reported.get(i) > reported.get(i - 1));
+        }
+        assertEquals(content.length, (long) reported.get(RANGE_COUNT));
+    }
+
+    @Test
+    public void failedDownloadKeepsTheExistingTarget() throws Exception {
+        blobService.stubFor(get(urlPathEqualTo(BLOB_PATH))
+                .withHeader("x-ms-range", equalTo(getRangeHeader(1)))
+                .atPriority(1)
+                .willReturn(aResponse().withFault(Fault.EMPTY_RESPONSE)));
+
+        File target = new File(tempFolder.getRoot(), "blob.bin");
+        byte[] previous = "previous version".getBytes("UTF-8");
+        Files.write(target.toPath(), previous);
+
+        try {
+            new ParallelBlobDownloader(2, RANGE_SIZE, 1).download(blob, target, null);
+            fail("The download should fail on the broken range");
+        } catch (Exception expected) {
+            assertArrayEquals(previous, Files.readAllBytes(target.toPath()));
+        }
+    }
+
+    private String getRangeHeader(int index) {
+        long start = (long) index * RANGE_SIZE;
+        long end = Math.min(start + RANGE_SIZE, content.length) - 1;
+
+        return String.format("bytes=%d-%d", start, end);
+    }
+
+    private ResponseDefinitionBuilder rangeResponse(int index) {
+        int start = index * RANGE_SIZE;
+        int end = Math.min(start + RANGE_SIZE, content.length);
+
+        return aResponse()
+                .withStatus(206)
+                .withHeader("Content-Length", Integer.toString(end - start))
+                .withHeader("Content-Range", String.format("bytes %d-%d/%d", start, end - 1, content.length))
+                .withHeader("ETag", ETAG)
+                .withHeader("Last-Modified", "Mon, 01 Jan 2018 00:00:00 GMT")
+                .withHeader("x-ms-blob-type", "BlockBlob")
+                .withBody(Arrays.copyOfRange(content, start, end));
+    }
+
+    /**
+     * Hold the response until the latch is released, or give up after a while so a broken test doesn't hang
+     */
+    private static class AwaitLatchTransformer extends ResponseDefinitionTransformer {
+        private final CountDownLatch latch;
+
+        AwaitLatchTransformer(int count) {
+            this.latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public ResponseDefinition transform(Request request,
+                                            ResponseDefinition responseDefinition,
+                                            FileSource files,
+                                            Parameters parameters) {
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            return responseDefinition;
+        }
+
+        @Override
+        public String getName() {
+            return "await-latch";
+        }
+
+        @Override
+        public boolean applyGlobally() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.extension.Parameters;
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformer;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.matching.RequestPatternBuilder;
+import com.github.tomakehurst.wiremock.matching.StringValuePattern;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.RetryNoRetry;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.core.Base64;
+import com.microsoft.tooling.msservices.helpers.CallableSingleArg;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.*;
+
+public class ParallelBlockBlobUploaderTest {
+    private static final long MB = 1024 * 1024;
+
+    private static final String ACCOUNT_NAME = "devstoreaccount1";
+    private static final String ACCOUNT_KEY =
+            "Eby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/KBHBeksoGMGw==";
+    private static final String BLOB_PATH = "/" + ACCOUNT_NAME + "/container/blob.bin";
+    private static final int BLOCK_SIZE = 1024;
+    private static final int BLOCK_COUNT = 5;
+    private static final Pattern BLOCK_LIST_ENTRY = Pattern.compile("<Uncommitted>([^<]*)</Uncommitted>");
+
+    private final HoldTransformer holdBlock = new HoldTransformer();
+
+    @Rule
+    public WireMockRule blobService = new WireMockRule(wireMockConfig().dynamicPort().extensions(holdBlock));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private byte[] content;
+    private File file;
+    private CloudBlockBlob blob;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[BLOCK_SIZE * (BLOCK_COUNT - 1) + 100];
+        new Random(42).nextBytes(content);
+        file = tempFolder.newFile("blob.bin");
+        Files.write(file.toPath(), content);
+
+        String connectionString = String.format("AccountName=%s;AccountKey=%s;BlobEndpoint=http://127.0.0.1:%d/%s",
+                ACCOUNT_NAME, ACCOUNT_KEY, blobService.port(), ACCOUNT_NAME);
+        blob = CloudStorageAccount.parse(connectionString).createCloudBlobClient()
+                .getContainerReference("container")
+                .getBlockBlobReference("blob.bin");
+        // Blocks are retried by the uploader, not by the SDK
+        blob.getServiceClient().getDefaultRequestOptions().setRetryPolicyFactory(new RetryNoRetry());
+
+        blobService.stubFor(put(urlPathEqualTo(BLOB_PATH))
+                .withQueryParam("comp", equalTo("block"))
+                .willReturn(createdResponse()));
+        blobService.stubFor(put(urlPathEqualTo(BLOB_PATH))
+                .withQueryParam("comp", equalTo("blocklist"))
+                .willReturn(createdResponse()
+                        .withHeader("ETag", "\"0x8D5A1B2C3D4E5F6\"")
+                        .withHeader("Last-Modified", "Mon, 01 Jan 2018 00:00:00 GMT")));
+    }
+
+    @Test
+    public void smallFilesUseTheMinBlockSize() {
+        ParallelBlockBlobUploader uploader = new ParallelBlockBlobUploader(4, 1);
+
+        assertEquals(MB, uploader.getBlockSize(10 * MB, MB));
+        assertEquals(MB, uploader.getBlockSize(100, MB));
+    }
+
+    @Test
+    public void blockSizeGrowsWithTheFileUpToTheMaximum() {
+        ParallelBlockBlobUploader uploader = new ParallelBlockBlobUploader(4, 1);
+
+        assertEquals(2 * MB, uploader.getBlockSize(32 * MB, MB));
+        assertEquals(ParallelBlockBlobUploader.MAX_BLOCK_SIZE, uploader.getBlockSize(1024 * MB, MB));
+    }
+
+    @Test
+    public void blockSizeWantedByTheCallerIsClamped() {
+        ParallelBlockBlobUploader uploader = new ParallelBlockBlobUploader(4, 1);
+
+        assertEquals(ParallelBlockBlobUploader.MAX_BLOCK_SIZE, uploader.getBlockSize(10 * MB, 64 * MB));
+        assertTrue(uploader.getBlockSize(0, 0) >= 1);
+    }
+
+    @Test
+    public void blocksAreCommittedInTheFileOrder() throws Exception {
+        final List<Long> reported = new ArrayList<>();
+
+        new ParallelBlockBlobUploader(3, 1).upload(blob, file, BLOCK_SIZE, new CallableSingleArg<Void, Long>() {
+            @Override
+            public Void call(Long uploadedBytes) throws Exception {
+                reported.add(uploadedBytes);
+                return null;
+            }
+        });
+
+        List<String> blockIds = new ArrayList<>();
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            blockIds.add(getBlockId(i));
+
+            int start = i * BLOCK_SIZE;
+            int end = Math.min(start + BLOCK_SIZE, content.length);
+            List<LoggedRequest> blockRequests = blobService.findAll(blockRequest(i));
+            assertEquals(1, blockRequests.size());
+            assertArrayEquals(Arrays.copyOfRange(content, start, end), blockRequests.get(0).getBody());
+        }
+
+        assertEquals(blockIds, getCommittedBlockIds());
+        assertEquals(content.length, (long) reported.get(reported.size() - 1));
+    }
+
+    @Test
+    public void failedBlockIsRetried() throws Exception {
+        blobService.stubFor(put(urlPathEqualTo(BLOB_PATH))
+                .withQueryParam("comp", equalTo("block"))
+                .withQueryParam("blockid", blockIdMatching(2))
+                .atPriority(1)
+                .inScenario("retry")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(serverBusy())
+                .willSetStateTo("accepted"));
+
+        new ParallelBlockBlobUploader(3, 2).upload(blob, file, BLOCK_SIZE, null);
+
+        blobService.verify(2, blockRequest(2));
+        blobService.verify(1, blockRequest(3));
+        assertEquals(BLOCK_COUNT, getCommittedBlockIds().size());
+    }
+
+    @Test
+    public void failedBlockIsNotCommitted() throws Exception {
+        blobService.stubFor(put(urlPathEqualTo(BLOB_PATH))
+                .withQueryParam("comp", equalTo("block"))
+                .withQueryParam("blockid", blockIdMatching(1))
+                .atPriority(1)
+                .willReturn(serverBusy()));
+
+        try {
+            new ParallelBlockBlobUploader(2, 2).upload(blob, file, BLOCK_SIZE, null);
+            fail("The upload should fail on the broken block");
+        } catch (Exception expected) {
+            blobService.verify(2, blockRequest(1));
+        }
+
+        blobService.verify(0, blockListRequest());
+    }
+
+    @Test
+    public void cancelledUploadIsNotCommitted() throws Exception {
+        blobService.stubFor(put(urlPathEqualTo(BLOB_PATH))
+                .withQueryParam("comp", equalTo("block"))
+                .withQueryParam("blockid", blockIdMatching(0))
+                .atPriority(1)
+                .willReturn(createdResponse().withTransformers(holdBlock.getName())));
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread uploading = new Thread(() -> {
+            try {
+                new ParallelBlockBlobUploader(2, 1).upload(blob, file, BLOCK_SIZE, null);
+            } catch (Throwable ex) {
+                error.set(ex);
+            }
+        });
+
+        try {
+            uploading.start();
+            assertTrue(holdBlock.received.await(10, TimeUnit.SECONDS));
+
+            uploading.interrupt();
+            uploading.join(TimeUnit.SECONDS.toMillis(10));
+
+            assertFalse(uploading.isAlive());
+            assertTrue(error.get() instanceof InterruptedException);
+        } finally {
+            holdBlock.release.countDown();
+        }
+
+        blobService.verify(0, blockListRequest());
+    }
+
+    private static String getBlockId(int index) {
+        return Base64.encode(String.format("block-%08d", index).getBytes());
+    }
+
+    private static StringValuePattern blockIdMatching(int index) {
+        // The padding of the ID may reach the service URL encoded or not, depending on the SDK
+        return matching(getBlockId(index).replace("=", "(=|%3D)"));
+    }
+
+    private static RequestPatternBuilder blockRequest(int index) {
+        return putRequestedFor(urlPathEqualTo(BLOB_PATH))
+                .withQueryParam("comp", equalTo("block"))
+                .withQueryParam("blockid", blockIdMatching(index));
+    }
+
+    private static RequestPatternBuilder blockListRequest() {
+        return putRequestedFor(urlPathEqualTo(BLOB_PATH)).withQueryParam("comp", equalTo("blocklist"));
+    }
+
+    private List<String> getCommittedBlockIds() {
+        List<LoggedRequest> commits = blobService.findAll(blockListRequest());
+        assertEquals(1, commits.size());
+
+        List<String> blockIds = new ArrayList<>();
+        Matcher entry = BLOCK_LIST_ENTRY.matcher(commits.get(0).getBodyAsString());
+        while (entry.find()) {
+            blockIds.add(entry.group(1));
+        }
+
+        return blockIds;
+    }
+
+    private static ResponseDefinitionBuilder createdResponse() {
+        return aResponse().withStatus(201);
+    }
+
+    private static ResponseDefinitionBuilder serverBusy() {
+        return aResponse()
+                .withStatus(503)
+                .withHeader("x-ms-error-code", "ServerBusy");
+    }
+
+    /**
+     * Tell that the response is on its way, then hold it until released, or give up after a while so a broken test
+     * doesn't hang
+     */
+    private static class HoldTransformer extends ResponseDefinitionTransformer {
+        private final CountDownLatch received = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public ResponseDefinition transform(Request request,
+                                            ResponseDefinition responseDefinition,
+                                            FileSource files,
+                                            Parameters parameters) {
+            received.countDown();
+
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            return responseDefinition;
+        }
+
+        @Override
+        public String getName() {
+            return "hold-block";
+        }
+
+        @Override
+        public boolean applyGlobally() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.microsoft.azure.management.storage.StorageAccount;
+import com.microsoft.azure.management.storage.StorageAccountKey;
+import com.microsoft.azure.storage.blob.CloudBlobClient;
+import com.microsoft.azuretools.azurecommons.helpers.AzureCmdException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class StorageClientCacheTest {
+    private static final String ACCOUNT_NAME = "devstoreaccount1";
+    private static final String ACCOUNT_KEY =
+            "Eby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/KBHBeksoGMGw==";
+    private static final String ROTATED_ACCOUNT_KEY =
+            "KBHBeksoGMGwEby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/==";
+
+    @Rule
+    public WireMockRule blobService = new WireMockRule(wireMockConfig().dynamicPort());
+
+    private String connectionString;
+
+    @Before
+    public void setUp() {
+        connectionString = String.format("AccountName=%s;AccountKey=%s;BlobEndpoint=http://127.0.0.1:%d/%s",
+                ACCOUNT_NAME, ACCOUNT_KEY, blobService.port(), ACCOUNT_NAME);
+    }
+
+    @Test
+    public void clientsAreDroppedWhenTheServiceAnswers403() throws Exception {
+        stubContainerListing(403, "AuthenticationFailed");
+
+        CloudBlobClient client = StorageClientCache.getInstance().getCloudBlobClient(connectionString);
+        assertSame(client, StorageClientCache.getInstance().getCloudBlobClient(connectionString));
+
+        try {
+            StorageClientSDKManager.getManager().getBlobContainers(connectionString);
+            fail("The listing should fail");
+        } catch (AzureCmdException ignored) {
+        }
+
+        assertNotSame(client, StorageClientCache.getInstance().getCloudBlobClient(connectionString));
+    }
+
+    @Test
+    public void clientsAreKeptOnOtherFailures() throws Exception {
+        stubContainerListing(404, "ResourceNotFound");
+
+        CloudBlobClient client = StorageClientCache.getInstance().getCloudBlobClient(connectionString);
+
+        try {
+            StorageClientSDKManager.getManager().getBlobContainers(connectionString);
+            fail("The listing should fail");
+        } catch (AzureCmdException ignored) {
+        }
+
+        assertSame(client, StorageClientCache.getInstance().getCloudBlobClient(connectionString));
+    }
+
+    @Test
+    public void rotatedKeysAreListedAgainAfter403() throws Exception {
+        StorageAccount storageAccount = mockStorageAccount("rotated", ACCOUNT_KEY, ROTATED_ACCOUNT_KEY);
+
+        String staleConnectionString = StorageClientCache.getInstance().getConnectionString(storageAccount);
+        StorageClientCache.getInstance().getCloudBlobClient(staleConnectionString);
+
+        assertTrue(staleConnectionString.contains(ACCOUNT_KEY));
+        assertEquals(staleConnectionString, StorageClientCache.getInstance().getConnectionString(storageAccount));
+        verify(storageAccount, times(1)).getKeys();
+
+        // The service rejects the old key after it's regenerated
+        StorageClientCache.getInstance().invalidateByRequestUri(
+                "https://rotated.blob.core.windows.net/container?restype=container&comp=list");
+
+        assertTrue(StorageClientCache.getInstance().getConnectionString(storageAccount).contains(ROTATED_ACCOUNT_KEY));
+        verify(storageAccount, times(2)).getKeys();
+    }
+
+    @Test
+    public void accountIsDroppedWhenItsKeysAreRegenerated() throws Exception {
+        StorageAccount storageAccount = mockStorageAccount("regenerated", ACCOUNT_KEY, ROTATED_ACCOUNT_KEY);
+
+        assertTrue(StorageClientCache.getInstance().getConnectionString(storageAccount).contains(ACCOUNT_KEY));
+
+        StorageClientCache.getInstance().invalidate(storageAccount);
+
+        assertTrue(StorageClientCache.getInstance().getConnectionString(storageAccount).contains(ROTATED_ACCOUNT_KEY));
+    }
+
+    @Test
+    public void requestsToOtherAccountsDontDropTheClients() throws Exception {
+        StorageAccount storageAccount = mockStorageAccount("kept", ACCOUNT_KEY, ROTATED_ACCOUNT_KEY);
+
+        String cachedConnectionString = StorageClientCache.getInstance().getConnectionString(storageAccount);
+        CloudBlobClient client = StorageClientCache.getInstance().getCloudBlobClient(cachedConnectionString);
+
+        StorageClientCache.getInstance().invalidateByRequestUri("https://keptother.blob.core.windows.net/container");
+        StorageClientCache.getInstance().invalidateByRequestUri("https://other.blob.core.windows.net/kept");
+
+        assertSame(client, StorageClientCache.getInstance().getCloudBlobClient(cachedConnectionString));
+        assertEquals(cachedConnectionString, StorageClientCache.getInstance().getConnectionString(storageAccount));
+    }
+
+    private void stubContainerListing(int status, String errorCode) {
+        blobService.stubFor(get(urlPathEqualTo("/" + ACCOUNT_NAME + "/"))
+                .withQueryParam("comp", equalTo("list"))
+                .willReturn(aResponse()
+                        .withStatus(status)
+                        .withHeader("Content-Type", "application/xml")
+                        .withBody("<?xml version=\"1.0\" encoding=\"utf-8\"?><Error><Code>" + errorCode +
+                                "</Code><Message>Failed</Message></Error>")));
+    }
+
+    private static StorageAccount mockStorageAccount(String name, String key, String regeneratedKey) {
+        StorageAccountKey accountKey = mock(StorageAccountKey.class);
+        when(accountKey.value()).thenReturn(key);
+
+        StorageAccountKey regeneratedAccountKey = mock(StorageAccountKey.class);
+        when(regeneratedAccountKey.value()).thenReturn(regeneratedKey);
+
+        List<StorageAccountKey> keys = Collections.singletonList(accountKey);
+        List<StorageAccountKey> regeneratedKeys = Collections.singletonList(regeneratedAccountKey);
+
+        StorageAccount storageAccount = mock(StorageAccount.class);
+        when(storageAccount.id()).thenReturn("/subscriptions/00000000/resourceGroups/group/providers/" +
+                "Microsoft.Storage/storageAccounts/" + name);
+        when(storageAccount.name()).thenReturn(name);
+        when(storageAccount.getKeys()).thenReturn(keys, regeneratedKeys);
+
+        return storageAccount;
+    }
+}
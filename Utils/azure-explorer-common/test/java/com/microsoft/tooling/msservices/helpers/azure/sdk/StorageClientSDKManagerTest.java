@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.tooling.msservices.helpers.azure.sdk;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.microsoft.tooling.msservices.model.storage.BlobContainer;
+import com.microsoft.tooling.msservices.model.storage.BlobDirectory;
+import com.microsoft.tooling.msservices.model.storage.BlobItem;
+import com.microsoft.tooling.msservices.model.storage.Queue;
+import com.microsoft.tooling.msservices.model.storage.QueueMessage;
+import com.microsoft.tooling.msservices.model.storage.StorageItemPage;
+import com.microsoft.tooling.msservices.model.storage.Table;
+import com.microsoft.tooling.msservices.model.storage.TableEntity;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StorageClientSDKManagerTest {
+    private static final String ACCOUNT_NAME = "devstoreaccount1";
+    private static final String ACCOUNT_KEY =
+            "Eby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/KBHBeksoGMGw==";
+
+    @Rule
+    public WireMockRule blobService = new WireMockRule(wireMockConfig().dynamicPort());
+
+    private String connectionString;
+
+    @Before
+    public void setUp() {
+        connectionString = String.format("AccountName=%s;AccountKey=%s;BlobEndpoint=http://127.0.0.1:%d/%s;" +
+                        "QueueEndpoint=http://127.0.0.1:%d/%s;TableEndpoint=http://127.0.0.1:%d/%s",
+                ACCOUNT_NAME, ACCOUNT_KEY, blobService.port(), ACCOUNT_NAME, blobService.port(), ACCOUNT_NAME,
+                blobService.port(), ACCOUNT_NAME);
+
+        StringBuilder containers = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            containers.append(String.format("<Container><Name>container%02d</Name><Properties>" +
+                    "<Last-Modified>Mon, 01 Jan 2018 00:00:00 GMT</Last-Modified><Etag>\"0x8D5%02d\"</Etag>" +
+                    "</Properties></Container>", i, i));
+        }
+
+        blobService.stubFor(get(urlPathEqualTo("/" + ACCOUNT_NAME + "/"))
+                .withQueryParam("comp", equalTo("list"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/xml")
+                        .withBody("<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+                                "<EnumerationResults ServiceEndpoint=\"http://127.0.0.1/" + ACCOUNT_NAME + "/\">" +
+                                "<Containers>" + containers + "</Containers><NextMarker /></EnumerationResults>")));
+
+        blobService.stubFor(get(urlPathMatching("/" + ACCOUNT_NAME + "/container.*"))
+                .withQueryParam("comp", equalTo("acl"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("x-ms-blob-public-access", "container")
+                        .withHeader("Content-Type", "application/xml")
+                        .withBody("<?xml version=\"1.0\" encoding=\"utf-8\"?><SignedIdentifiers />")));
+    }
+
+    @Test
+    public void listingContainersCostsOneListRequest() throws Exception {
+        List<BlobContainer> blobContainers = StorageClientSDKManager.getManager().getBlobContainers(connectionString);
+
+        assertEquals(20, blobContainers.size());
+        assertFalse(blobContainers.get(0).isPublicReadAccessTypeResolved());
+
+        blobService.verify(1, getRequestedFor(urlPathEqualTo("/" + ACCOUNT_NAME + "/"))
+                .withQueryParam("comp", equalTo("list")));
+        blobService.verify(0, getRequestedFor(urlPathMatching("/" + ACCOUNT_NAME + "/container.*"))
+                .withQueryParam("comp", equalTo("acl")));
+    }
+
+    @Test
+    public void publicAccessIsResolvedOnDemand() throws Exception {
+        List<BlobContainer> blobContainers = StorageClientSDKManager.getManager().getBlobContainers(connectionString);
+        BlobContainer blobContainer = blobContainers.get(3);
+
+        String publicReadAccessType = StorageClientSDKManager.getManager()
+                .getBlobContainerPublicReadAccessType(connectionString, blobContainer);
+
+        assertEquals("CONTAINER", publicReadAccessType);
+        assertEquals(publicReadAccessType, blobContainer.getPublicReadAccessType());
+        blobService.verify(1, getRequestedFor(urlPathEqualTo("/" + ACCOUNT_NAME + "/container03"))
+                .withQueryParam("comp", equalTo("acl")));
+    }
+
+    @Test
+    public void blobPagesFollowTheContinuationToken() throws Exception {
+        stubBlobListing(null, blobListingResponse("<NextMarker>marker2</NextMarker>", "dir/a.txt", "dir/b.txt"));
+        stubBlobListing("marker2", blobListingResponse("<NextMarker />", "dir/c.txt"));
+
+        BlobDirectory directory = new BlobDirectory("dir", "", "mycontainer", "dir/");
+
+        StorageItemPage<BlobItem> firstPage = StorageClientSDKManager.getManager().getBlobItemsPage(
+                connectionString, directory, null, 2, null);
+
+        assertEquals(2, firstPage.getItems().size());
+        assertEquals("a.txt", firstPage.getItems().get(0).getName());
+        assertTrue(firstPage.hasMore());
+        assertNotNull(firstPage.getContinuationToken());
+
+        StorageItemPage<BlobItem> lastPage = StorageClientSDKManager.getManager().getBlobItemsPage(
+                connectionString, directory, null, 2, firstPage.getContinuationToken());
+
+        assertEquals(1, lastPage.getItems().size());
+        assertEquals("c.txt", lastPage.getItems().get(0).getName());
+        assertFalse(lastPage.hasMore());
+        assertNull(lastPage.getContinuationToken());
+
+        blobService.verify(1, getRequestedFor(urlPathEqualTo("/" + ACCOUNT_NAME + "/mycontainer"))
+                .withQueryParam("maxresults", equalTo("2"))
+                .withQueryParam("marker", equalTo("marker2")));
+    }
+
+    @Test
+    public void listingThatFitsOnePageHasNoContinuationToken() throws Exception {
+        stubBlobListing(null, blobListingResponse("<NextMarker />", "dir/a.txt", "dir/b.txt"));
+
+        StorageItemPage<BlobItem> page = StorageClientSDKManager.getManager().getBlobItemsPage(
+                connectionString, new BlobDirectory("dir", "", "mycontainer", "dir/"), "a", 2, null);
+
+        assertEquals(2, page.getItems().size());
+        assertNull(page.getContinuationToken());
+
+        blobService.verify(1, getRequestedFor(urlPathEqualTo("/" + ACCOUNT_NAME + "/mycontainer"))
+                .withQueryParam("prefix", equalTo("dir/a")));
+    }
+
+    @Test
+    public void allBlobItemsAreListedAcrossPages() throws Exception {
+        stubBlobListing(null, blobListingResponse("<NextMarker>marker2</NextMarker>", "dir/a.txt", "dir/b.txt"));
+        stubBlobListing("marker2", blobListingResponse("<NextMarker />", "dir/c.txt"));
+
+        List<BlobItem> items = StorageClientSDKManager.getManager().getBlobItems(
+                connectionString, new BlobDirectory("dir", "", "mycontainer", "dir/"));
+
+        assertEquals(3, items.size());
+        blobService.verify(2, getRequestedFor(urlPathEqualTo("/" + ACCOUNT_NAME + "/mycontainer"))
+                .withQueryParam("comp", equalTo("list")));
+    }
+
+    private void stubBlobListing(String marker, ResponseDefinitionBuilder response) {
+        blobService.stubFor(get(urlPathEqualTo("/" + ACCOUNT_NAME + "/mycontainer"))
+                .withQueryParam("restype", equalTo("container"))
+                .withQueryParam("comp", equalTo("list"))
+                .withQueryParam("marker", marker == null ? absent() : equalTo(marker))
+                .willReturn(response));
+    }
+
+    private static ResponseDefinitionBuilder blobListingResponse(String nextMarker, String... blobNames) {
+        StringBuilder blobs = new StringBuilder();
+        for (String blobName : blobNames) {
+            blobs.append(String.format("<Blob><Name>%s</Name><Properties>" +
+                    "<Last-Modified>Mon, 01 Jan 2018 00:00:00 GMT</Last-Modified><Etag>0x8D5A1B2C3D4E5F6</Etag>" +
+                    "<Content-Length>10</Content-Length><Content-Type>text/plain</Content-Type>" +
+                    "<BlobType>BlockBlob</BlobType></Properties></Blob>", blobName));
+        }
+
+        return aResponse()
+                .withStatus(200)
+                .withHeader("Content-Type", "application/xml")
+                .withBody("<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+                        "<EnumerationResults ServiceEndpoint=\"http://127.0.0.1/" + ACCOUNT_NAME + "/\" " +
+                        "ContainerName=\"mycontainer\"><Delimiter>/</Delimiter><Blobs>" + blobs + "</Blobs>" +
+                        nextMarker + "</EnumerationResults>");
+    }
+
+    @Test
+    public void queueMessagesAreOnlyPeeked() throws Exception {
+        String messagesPath = "/" + ACCOUNT_NAME + "/myqueue/messages";
+
+        blobService.stubFor(get(urlPathEqualTo(messagesPath))
+                .withQueryParam("peekonly", equalTo("true"))
+                .willReturn(queueMessagesResponse(0, 32)));
+
+        List<QueueMessage> messages = StorageClientSDKManager.getManager().getQueueMessages(
+                connectionString, new Queue("myqueue", "", 40));
+
+        assertEquals(StorageClientSDKManager.MAX_QUEUE_MESSAGE_PEEK, messages.size());
+        assertEquals("message00", messages.get(0).getId());
+        assertEquals(1, messages.get(31).getDequeueCount());
+
+        blobService.verify(1, getRequestedFor(urlPathEqualTo(messagesPath))
+                .withQueryParam("numofmessages", equalTo(Integer.toString(StorageClientSDKManager.MAX_QUEUE_MESSAGE_PEEK))));
+        blobService.verify(0, getRequestedFor(urlPathEqualTo(messagesPath))
+                .withQueryParam("peekonly", absent()));
+        blobService.verify(0, putRequestedFor(urlPathMatching(messagesPath + "/.*")));
+    }
+
+    @Test
+    public void tablePagesFollowTheContinuationHeaders() throws Exception {
+        String tablePath = "/" + ACCOUNT_NAME + "/mytable.*";
+
+        blobService.stubFor(get(urlPathMatching(tablePath))
+                .withQueryParam("NextPartitionKey", absent())
+                .willReturn(tableEntitiesResponse("p1", "r2", "r1", "r2")));
+        blobService.stubFor(get(urlPathMatching(tablePath))
+                .withQueryParam("NextPartitionKey", equalTo("p1"))
+                .withQueryParam("NextRowKey", equalTo("r2"))
+                .willReturn(tableEntitiesResponse(null, null, "r3")));
+
+        Table table = new Table("mytable", "");
+
+        StorageItemPage<TableEntity> firstPage = StorageClientSDKManager.getManager().getTableEntitiesPage(
+                connectionString, table, "", 2, null);
+
+        assertEquals(2, firstPage.getItems().size());
+        assertEquals("r1", firstPage.getItems().get(0).getRowKey());
+        assertEquals("name-r1", firstPage.getItems().get(0).getProperties().get("Name").getValueAsString());
+        assertTrue(firstPage.hasMore());
+
+        StorageItemPage<TableEntity> lastPage = StorageClientSDKManager.getManager().getTableEntitiesPage(
+                connectionString, table, "", 2, firstPage.getContinuationToken());
+
+        assertEquals(1, lastPage.getItems().size());
+        assertEquals("r3", lastPage.getItems().get(0).getRowKey());
+        assertFalse(lastPage.hasMore());
+        assertNull(lastPage.getContinuationToken());
+
+        blobService.verify(2, getRequestedFor(urlPathMatching(tablePath))
+                .withQueryParam("$top", equalTo("2")));
+    }
+
+    @Test
+    public void emptyTableSegmentsAreSkipped() throws Exception {
+        String tablePath = "/" + ACCOUNT_NAME + "/mytable.*";
+
+        // The service may answer with no entities and a continuation at a partition boundary
+        blobService.stubFor(get(urlPathMatching(tablePath))
+                .withQueryParam("NextPartitionKey", absent())
+                .willReturn(tableEntitiesResponse("p2", "r1")));
+        blobService.stubFor(get(urlPathMatching(tablePath))
+                .withQueryParam("NextPartitionKey", equalTo("p2"))
+                .willReturn(tableEntitiesResponse(null, null, "r1", "r2")));
+
+        StorageItemPage<TableEntity> page = StorageClientSDKManager.getManager().getTableEntitiesPage(
+                connectionString, new Table("mytable", ""), "", 10, null);
+
+        assertEquals(2, page.getItems().size());
+        assertFalse(page.hasMore());
+        blobService.verify(2, getRequestedFor(urlPathMatching(tablePath)));
+    }
+
+    @Test
+    public void tablePageSizeIsCappedAtTheServiceLimit() throws Exception {
+        blobService.stubFor(get(urlPathMatching("/" + ACCOUNT_NAME + "/mytable.*"))
+                .willReturn(tableEntitiesResponse(null, null, "r1")));
+
+        StorageClientSDKManager.getManager().getTableEntitiesPage(connectionString, new Table("mytable", ""), "",
+                StorageClientSDKManager.MAX_TABLE_QUERY_PAGE_SIZE * 10, null);
+
+        blobService.verify(1, getRequestedFor(urlPathMatching("/" + ACCOUNT_NAME + "/mytable.*"))
+                .withQueryParam("$top", equalTo(Integer.toString(StorageClientSDKManager.MAX_TABLE_QUERY_PAGE_SIZE))));
+    }
+
+    private static ResponseDefinitionBuilder tableEntitiesResponse(String nextPartitionKey,
+                                                                   String nextRowKey,
+                                                                   String... rowKeys) {
+        StringBuilder entities = new StringBuilder();
+        for (String rowKey : rowKeys) {
+            if (entities.length() > 0) {
+                entities.append(',');
+            }
+
+            entities.append(String.format("{\"odata.etag\":\"W/\\\"datetime'2018-01-01T00%%3A00%%3A00Z'\\\"\"," +
+                    "\"PartitionKey\":\"p1\",\"RowKey\":\"%s\"," +
+                    "\"Timestamp@odata.type\":\"Edm.DateTime\",\"Timestamp\":\"2018-01-01T00:00:00Z\"," +
+                    "\"Name\":\"name-%s\"}", rowKey, rowKey));
+        }
+
+        ResponseDefinitionBuilder response = aResponse()
+                .withStatus(200)
+                .withHeader("Content-Type", "application/json;odata=fullmetadata;streaming=true;charset=utf-8")
+                .withBody("{\"odata.metadata\":\"http://127.0.0.1/" + ACCOUNT_NAME + "/$metadata#mytable\"," +
+                        "\"value\":[" + entities + "]}");
+
+        if (nextPartitionKey != null) {
+            response.withHeader("x-ms-continuation-NextPartitionKey", nextPartitionKey)
+                    .withHeader("x-ms-continuation-NextRowKey", nextRowKey);
+        }
+
+        return response;
+    }
+
+    private static ResponseDefinitionBuilder queueMessagesResponse(int first, int count) {
+        StringBuilder messages = new StringBuilder();
+        for (int i = first; i < first + count; i++) {
+            messages.append(String.format("<QueueMessage><MessageId>message%02d</MessageId>" +
+                    "<InsertionTime>Mon, 01 Jan 2018 00:00:00 GMT</InsertionTime>" +
+                    "<ExpirationTime>Mon, 08 Jan 2018 00:00:00 GMT</ExpirationTime>" +
+                    "<PopReceipt>receipt%02d</PopReceipt>" +
+                    "<TimeNextVisible>Mon, 01 Jan 2018 00:00:30 GMT</TimeNextVisible>" +
+                    "<DequeueCount>1</DequeueCount><MessageText>dGV4dA==</MessageText></QueueMessage>", i, i));
+        }
+
+        return aResponse()
+                .withStatus(200)
+                .withHeader("Content-Type", "application/xml")
+                .withBody("<?xml version=\"1.0\" encoding=\"utf-8\"?><QueueMessagesList>" + messages +
+                        "</QueueMessagesList>");
+    }
+}
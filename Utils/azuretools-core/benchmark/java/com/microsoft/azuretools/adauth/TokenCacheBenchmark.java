@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azuretools.adauth;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a token cache hit by the number of cached items, spread over tenants and resources.
+ * A lookup should only depend on the items of its own tenant, client and resource.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenCacheBenchmark {
+    private static final String CLIENT_ID = "61d65f5a-6e3b-468b-af73-a033f5098c5c";
+    private static final String[] RESOURCES = {
+            "https://management.core.windows.net/",
+            "https://management.azure.com/",
+            "https://graph.windows.net/",
+            "https://vault.azure.net",
+            "https://storage.azure.com/"
+    };
+
+    @Param({"10", "100", "1000", "10000"})
+    public int itemCount;
+
+    private TokenCache cache;
+    private String authority;
+    private String resource;
+
+    @Setup
+    public void setUp() {
+        cache = new TokenCache();
+        long expiresOn = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + TimeUnit.HOURS.toSeconds(1);
+        UserInfo userInfo = new UserInfo("unique-id", "user@contoso.com", "Given", "Family", null, 0, null);
+
+        for (int i = 0; i < itemCount; i++) {
+            AuthenticationResult result = new AuthenticationResult("Bearer", "access" + i, "refresh", expiresOn);
+            result.updateTenantAndUserInfo("tenant" + i / RESOURCES.length, null, userInfo);
+            cache.storeToCache(result, getAuthority(i / RESOURCES.length), RESOURCES[i % RESOURCES.length],
+                    CLIENT_ID, TokenSubjectType.User);
+        }
+
+        authority = getAuthority(itemCount / RESOURCES.length / 2);
+        resource = RESOURCES[1];
+    }
+
+    @Benchmark
+    public AuthenticationResult loadFromCache() throws Exception {
+        return cache.loadFromCache(authority, resource, CLIENT_ID, TokenSubjectType.User, null, null);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public AuthenticationResult loadFromCacheContended() throws Exception {
+        return cache.loadFromCache(authority, resource, CLIENT_ID, TokenSubjectType.User, null, null);
+    }
+
+    private static String getAuthority(int tenant) {
+        return "https://login.microsoftonline.com/tenant" + tenant + "/";
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azuretools.sdkmanage;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of a management token for a service principal auth file, against a local stand-in for the token endpoint.
+ * The steady state only checks the file's stamp and reuses the cached credentials and token, the uncached case
+ * parses the file and requests a token as every operation did before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServicePrincipalCredentialsBenchmark {
+    private static final String RESOURCE = "https://management.azure.com/";
+    private static final byte[] TOKEN_RESPONSE = ("{\"token_type\":\"Bearer\",\"expires_in\":\"3599\","
+            + "\"access_token\":\"stand-in-token\"}").getBytes(StandardCharsets.UTF_8);
+
+    private final AtomicLong tokenRequests = new AtomicLong();
+    private HttpServer server;
+    private File credFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            tokenRequests.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, TOKEN_RESPONSE.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(TOKEN_RESPONSE);
+            }
+        });
+        server.start();
+
+        credFile = File.createTempFile("sp-benchmark", ".azureauth");
+        try (PrintWriter writer = new PrintWriter(credFile, "UTF-8")) {
+            writer.println("subscription=00000000-0000-0000-0000-000000000000");
+            writer.println("client=61d65f5a-6e3b-468b-af73-a033f5098c5c");
+            writer.println("key=stand-in-secret");
+            writer.println("tenant=contoso.onmicrosoft.com");
+            writer.println("managementURI=https\\://management.core.windows.net/");
+            writer.println("baseURL=https\\://management.azure.com/");
+            writer.println("authURL=http\\://127.0.0.1\\:" + server.getAddress().getPort() + "/");
+            writer.println("graphURL=https\\://graph.windows.net/");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        credFile.delete();
+        ServicePrincipalAzureManager.clearCache();
+        System.out.println("\nToken requests sent: " + tokenRequests.get());
+    }
+
+    @Benchmark
+    public String cachedToken() throws IOException {
+        return ServicePrincipalAzureManager.getCredentials(credFile).getToken(RESOURCE);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String cachedTokenContended() throws IOException {
+        return ServicePrincipalAzureManager.getCredentials(credFile).getToken(RESOURCE);
+    }
+
+    @Benchmark
+    public String uncachedToken() throws IOException {
+        return ServicePrincipalCredentials.loadFromFile(credFile).getToken(RESOURCE);
+    }
+}
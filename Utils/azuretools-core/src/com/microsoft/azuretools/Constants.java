@@ -44,6 +44,7 @@ public class Constants {
     public static String tenant = "72f988bf-86f1-41af-91ab-2d7cd011db47";
     public static String clientId = "61d65f5a-6e3b-468b-af73-a033f5098c5c";
     public static String redirectUri = "https://msopentech.com/";
+    public static int connection_connect_timeout_ms = 10000;
     public static int connection_read_timeout_ms = 10000;
 
 }
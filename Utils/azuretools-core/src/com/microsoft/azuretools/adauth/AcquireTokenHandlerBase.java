@@ -46,7 +46,10 @@ public class AcquireTokenHandlerBase {
     protected boolean storeToCache;
     protected final static String NullResource = "null_resource_as_optional";
     private final TokenCache tokenCache;
-    private static Object cacheLock = new Object();
+    // One lock per token, so acquisitions of different tenants or resources don't wait for each other
+    private static final ConcurrentMap<String, Object> tokenLocks = new ConcurrentHashMap<>();
+    // set by acquire, a handler serves a single call
+    private AuthMetrics.TokenSource tokenSource = null;
     
     protected AcquireTokenHandlerBase(Authenticator authenticator, TokenCache tokenCache, String resource, ClientKey clientKey, TokenSubjectType subjectType) {
         this.authenticator = authenticator;
@@ -64,9 +67,31 @@ public class AcquireTokenHandlerBase {
     }
 
     AuthenticationResult run() throws IOException {
+        long start = System.nanoTime();
+        try {
+            AuthenticationResult result = acquire();
+            AuthMetrics.getInstance().recordAcquisition(resource, tokenSource, elapsedMillis(start),
+                    callState.correlationId);
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            AuthMetrics.getInstance().recordAcquisitionFailure(resource, elapsedMillis(start), callState.correlationId, ex);
+            throw ex;
+        }
+    }
+
+    private AuthenticationResult acquire() throws IOException {
+        if (loadFromCache) {
+            // A valid access token in the cache needs neither the lock nor a request
+            AuthenticationResult cached = loadValidTokenFromCache();
+            if (cached != null) {
+                AuthMetrics.getInstance().recordCacheLookup(resource, true);
+                tokenSource = AuthMetrics.TokenSource.CACHE;
+                return cached;
+            }
+        }
         boolean notifiedBeforeAccessCache = false;
         try {
-            synchronized (cacheLock) {
+            synchronized (getTokenLock()) {
                 preRun();
                 AuthenticationResult result = null;
                 long start = System.currentTimeMillis();
@@ -79,16 +104,21 @@ public class AcquireTokenHandlerBase {
                     result = tokenCache.loadFromCache(authenticator.getAuthority(), resource,
                             clientKey.clientId, tokenSubjectType, uniqueId, displayableId);
                     result = validateResult(result);
+                    boolean hit = result != null && result.accessToken != null;
+                    AuthMetrics.getInstance().recordCacheLookup(resource, hit);
+                    tokenSource = hit ? AuthMetrics.TokenSource.CACHE : null;
                     if (result != null && result.accessToken == null
                             && result.refreshToken != null) {
                         //result = refreshAccessTokenAsync(result).get();
                         result = refreshAccessToken(result);
                         if (result != null) {
+                            tokenSource = AuthMetrics.TokenSource.REFRESH;
                             tokenCache.storeToCache(result, authenticator.getAuthority(), resource, clientKey.clientId, tokenSubjectType);
                         }
                     }
                 }
                 if (result == null) {
+                    tokenSource = getTokenRequestSource();
                     preTokenRequest();
                     //result = acquireTokenAsync().get();
                     result = acquireToken();
@@ -113,6 +143,55 @@ public class AcquireTokenHandlerBase {
         }
     }
     
+    /// <summary>
+    /// Redeems the cached refresh token for a new access token even if the cached one is still valid,
+    /// unless another caller renewed it meanwhile to expire after minExpiresOn. Concurrent refreshes and
+    /// acquisitions wait for each other, so only one request is sent for the same token.
+    /// </summary>
+    /// <param name="minExpiresOn">The expiration time in seconds since the epoch that is good enough</param>
+    /// <param name="generation">The tokens the renewal belongs to, nothing is stored once they are cleared</param>
+    /// <returns>The renewed result, or null if there is no refresh token, it was rejected or the renewal is stale</returns>
+    AuthenticationResult refresh(long minExpiresOn, TokenRefresher.Generation generation) throws IOException {
+        synchronized (getTokenLock()) {
+            preRun();
+            notifyBeforeAccessCache();
+            try {
+                AuthenticationResult result = validateResult(tokenCache.loadFromCache(authenticator.getAuthority(),
+                        resource, clientKey.clientId, tokenSubjectType, uniqueId, displayableId));
+                if (result == null || result.refreshToken == null) {
+                    return null;
+                }
+                if (result.accessToken != null && result.expiresOn >= minExpiresOn) {
+                    return result;
+                }
+                final AuthenticationResult renewed = refreshAccessToken(result);
+                if (renewed != null && !generation.runIfCurrent(() -> tokenCache.storeToCache(renewed,
+                        authenticator.getAuthority(), resource, clientKey.clientId, tokenSubjectType))) {
+                    return null;
+                }
+                return renewed;
+            } finally {
+                notifyAfterAccessCache();
+            }
+        }
+    }
+
+    private Object getTokenLock() {
+        return tokenLocks.computeIfAbsent(authenticator.getAuthority() + ":::" + resource + ":::" + clientKey.clientId,
+                key -> new Object());
+    }
+
+    private AuthenticationResult loadValidTokenFromCache() throws IOException {
+        notifyBeforeAccessCache();
+        try {
+            AuthenticationResult result = validateResult(tokenCache.loadFromCache(authenticator.getAuthority(),
+                    resource, clientKey.clientId, tokenSubjectType, uniqueId, displayableId));
+            return (result != null && result.accessToken != null) ? result : null;
+        } finally {
+            notifyAfterAccessCache();
+        }
+    }
+
     Future<AuthenticationResult> runAsync() {
         return service.submit(new Callable<AuthenticationResult>() {
             @Override
@@ -128,6 +207,13 @@ public class AcquireTokenHandlerBase {
     }
 
     protected void preTokenRequest() throws IOException{};
+
+    /// <summary>
+    /// How acquireToken gets a token, for the metrics.
+    /// </summary>
+    protected AuthMetrics.TokenSource getTokenRequestSource() {
+        return AuthMetrics.TokenSource.REQUEST;
+    }
     
     protected AuthenticationResult acquireToken() throws IOException{
         Map<String, String> requestParameters = new HashMap<>();
@@ -166,13 +252,19 @@ public class AcquireTokenHandlerBase {
         AuthenticationResult newResult = null;
         if (resource != null) {
             log.log(Level.FINEST, "Refreshing access token...");
+            long start = System.nanoTime();
             try {
                 newResult = sendTokenRequestByRefreshToken(result.refreshToken);
 
             } catch (AuthException e) {
                 log.log(Level.WARNING, "Error getting token - need to re-login.");
+                AuthMetrics.getInstance().recordRefresh(resource, false, elapsedMillis(start), callState.correlationId);
                 return null;
+            } catch (IOException e) {
+                AuthMetrics.getInstance().recordRefresh(resource, false, elapsedMillis(start), callState.correlationId);
+                throw e;
             }
+            AuthMetrics.getInstance().recordRefresh(resource, true, elapsedMillis(start), callState.correlationId);
             authenticator.updateTenantId(result.tenantId);
             if (newResult != null && newResult.idToken == null) {
                 // If Id token is not returned by token endpoint when refresh token is redeemed, we should copy tenant and user information from the cached token.
@@ -220,6 +312,10 @@ public class AcquireTokenHandlerBase {
         }
     }
 
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
     private void validateAuthorityType() throws AuthException {
         if (!this.supportADFS && this.authenticator.authorityType == AuthorityType.ADFS) {
             String message = AuthError.InvalidAuthorityType + ": " + this.authenticator.getAuthority();
@@ -33,6 +33,8 @@ import java.util.logging.Logger;
 
 public class AcquireTokenInteractiveHandler extends AcquireTokenHandlerBase {
     final static Logger log = Logger.getLogger(AcquireTokenInteractiveHandler.class.getName());
+    // The tokens are locked one by one, but the user is asked to sign in once at a time
+    private final static Object promptLock = new Object();
     private AuthorizationResult authorizationResult;
     private URI redirectUri;
     private String redirectUriRequestParameter;
@@ -83,7 +85,9 @@ public class AcquireTokenInteractiveHandler extends AcquireTokenHandlerBase {
 
     @Override
     protected void preTokenRequest() throws IOException {
-        acquireAuthorization();
+        synchronized (promptLock) {
+            acquireAuthorization();
+        }
     }
 
     private void acquireAuthorization() throws IOException {
@@ -168,6 +172,11 @@ public class AcquireTokenInteractiveHandler extends AcquireTokenHandlerBase {
         }
     }
 
+    @Override
+    protected AuthMetrics.TokenSource getTokenRequestSource() {
+        return AuthMetrics.TokenSource.PROMPT;
+    }
+
     @Override
     protected void addAdditionalRequestParameters(Map<String, String> requestParameters) {
         requestParameters.put(OAuthParameter.GrantType, OAuthGrantType.AuthorizationCode);
@@ -65,6 +65,19 @@ public class AuthContext {
     	return handler.runAsync();
     }
     
+    /// <summary>
+    /// Renews the cached access token with the cached refresh token ahead of its expiration, no user interaction
+    /// takes place, the token is only stored while the generation of the renewal is current.
+    /// See AcquireTokenHandlerBase.refresh.
+    /// </summary>
+    public AuthenticationResult refreshToken(String resource, String clientId, String redirectUri, long minExpiresOn,
+            TokenRefresher.Generation generation) throws IOException {
+        AcquireTokenInteractiveHandler handler = new AcquireTokenInteractiveHandler(this.authenticator, this.tokenCache,
+                resource, clientId, redirectUri, PromptBehavior.Never, UserIdentifier.anyUser,
+                this.createWebAuthenticationDialog(PromptBehavior.Never));
+        return handler.refresh(minExpiresOn, generation);
+    }
+
     private IWebUi createWebAuthenticationDialog(PromptBehavior promptBehavior) {
         if(userDefinedWebUi != null) {
         	return userDefinedWebUi;
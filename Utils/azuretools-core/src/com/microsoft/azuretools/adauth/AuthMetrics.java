@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) Microsoft Corporation
+ *   <p/>
+ *  All rights reserved.
+ *   <p/>
+ *  MIT License
+ *   <p/>
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ *  the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ *  to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *  <p/>
+ *  The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ *  the Software.
+ *   <p/>
+ *  THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ *  THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ *  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package com.microsoft.azuretools.adauth;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters, latency histograms and recent traces of the token acquisitions, so slow sign-ins can be attributed to
+ * the cache, the refreshes, the prompts or the token endpoint.
+ *
+ * The events are aggregated in memory and forwarded to the registered sinks. Every trace carries the correlation
+ * ID sent to the token endpoint, which matches the server side logs of a request.
+ */
+public class AuthMetrics {
+    private final static Logger log = Logger.getLogger(AuthMetrics.class.getName());
+    private static final int MAX_TRACES = 200;
+    // upper bounds of the histogram buckets in milliseconds, the last bucket has none
+    private static final long[] BUCKET_BOUNDS_MILLIS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private static final AuthMetrics instance = new AuthMetrics();
+
+    /**
+     * Where a token came from
+     */
+    public enum TokenSource {
+        CACHE,
+        REFRESH,
+        REQUEST,
+        PROMPT
+    }
+
+    /**
+     * Receives the events as they happen, on the thread acquiring the token, so it must not block
+     */
+    public interface Sink {
+        default void cacheLookup(String resource, boolean hit) {
+        }
+
+        default void refreshCompleted(String resource, boolean succeeded, long elapsedMillis, UUID correlationId) {
+        }
+
+        default void tokenAcquired(String resource, TokenSource source, long elapsedMillis, UUID correlationId) {
+        }
+
+        default void tokenAcquisitionFailed(String resource, long elapsedMillis, UUID correlationId, Throwable error) {
+        }
+
+        /**
+         * @param statusCode the HTTP status code, or -1 if no response was received
+         */
+        default void endpointCalled(String endpoint, int statusCode, long elapsedMillis, UUID correlationId) {
+        }
+    }
+
+    private final List<Sink> sinks = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, ResourceCounters> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<TokenSource, Histogram> acquisitionLatency = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> endpointLatency = new ConcurrentHashMap<>();
+    private final Deque<String> traces = new ArrayDeque<>();
+
+    public static AuthMetrics getInstance() {
+        return instance;
+    }
+
+    AuthMetrics() {
+    }
+
+    public void addSink(Sink sink) {
+        sinks.add(sink);
+    }
+
+    public void removeSink(Sink sink) {
+        sinks.remove(sink);
+    }
+
+    void recordCacheLookup(String resource, boolean hit) {
+        ResourceCounters c = getCounters(resource);
+        (hit ? c.hits : c.misses).increment();
+        for (Sink sink : sinks) {
+            try {
+                sink.cacheLookup(resource, hit);
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING, "An auth metrics sink failed", ex);
+            }
+        }
+    }
+
+    void recordRefresh(String resource, boolean succeeded, long elapsedMillis, UUID correlationId) {
+        ResourceCounters c = getCounters(resource);
+        (succeeded ? c.refreshes : c.refreshFailures).increment();
+        trace(correlationId, String.format("refresh %s for '%s' in %d ms",
+                succeeded ? "succeeded" : "failed", resource, elapsedMillis));
+        for (Sink sink : sinks) {
+            try {
+                sink.refreshCompleted(resource, succeeded, elapsedMillis, correlationId);
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING, "An auth metrics sink failed", ex);
+            }
+        }
+    }
+
+    void recordAcquisition(String resource, TokenSource source, long elapsedMillis, UUID correlationId) {
+        if (source == TokenSource.PROMPT) {
+            getCounters(resource).prompts.increment();
+        }
+        getHistogram(acquisitionLatency, source).record(elapsedMillis);
+        // the hits are frequent and fast, only the slower paths are worth a trace
+        if (source != TokenSource.CACHE) {
+            trace(correlationId, String.format("token for '%s' acquired by %s in %d ms", resource, source, elapsedMillis));
+        }
+        for (Sink sink : sinks) {
+            try {
+                sink.tokenAcquired(resource, source, elapsedMillis, correlationId);
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING, "An auth metrics sink failed", ex);
+            }
+        }
+    }
+
+    void recordAcquisitionFailure(String resource, long elapsedMillis, UUID correlationId, Throwable error) {
+        getCounters(resource).failures.increment();
+        trace(correlationId, String.format("token for '%s' failed after %d ms: %s", resource, elapsedMillis, error));
+        for (Sink sink : sinks) {
+            try {
+                sink.tokenAcquisitionFailed(resource, elapsedMillis, correlationId, error);
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING, "An auth metrics sink failed", ex);
+            }
+        }
+    }
+
+    void recordEndpointCall(String endpoint, int statusCode, long elapsedMillis, UUID correlationId) {
+        getHistogram(endpointLatency, endpoint).record(elapsedMillis);
+        trace(correlationId, String.format("POST %s returned %s in %d ms", endpoint,
+                statusCode < 0 ? "no response" : Integer.toString(statusCode), elapsedMillis));
+        for (Sink sink : sinks) {
+            try {
+                sink.endpointCalled(endpoint, statusCode, elapsedMillis, correlationId);
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING, "An auth metrics sink failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Writes the counters, the histograms and the recent traces as a text report, for diagnosing a slow sign-in
+     */
+    public void dump(Path file) throws IOException {
+        Files.write(file, getReport().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Token acquisitions per resource (cache hits, misses, refreshes, failed refreshes, prompts, failures)\n");
+        for (Map.Entry<String, ResourceCounters> entry : new TreeMap<>(counters).entrySet()) {
+            ResourceCounters c = entry.getValue();
+            sb.append(String.format("  %s: %d, %d, %d, %d, %d, %d%n", entry.getKey(), c.hits.sum(), c.misses.sum(),
+                    c.refreshes.sum(), c.refreshFailures.sum(), c.prompts.sum(), c.failures.sum()));
+        }
+        sb.append("\nAcquisition latency per token source\n");
+        for (Map.Entry<TokenSource, Histogram> entry : new TreeMap<>(acquisitionLatency).entrySet()) {
+            sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        sb.append("\nToken endpoint latency\n");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(endpointLatency).entrySet()) {
+            sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        sb.append("\nRecent events\n");
+        synchronized (traces) {
+            for (String trace : traces) {
+                sb.append("  ").append(trace).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    public void reset() {
+        counters.clear();
+        acquisitionLatency.clear();
+        endpointLatency.clear();
+        synchronized (traces) {
+            traces.clear();
+        }
+    }
+
+    /**
+     * @return the counters of the resource, null if nothing was recorded for it
+     */
+    ResourceCounters peekCounters(String resource) {
+        return counters.get(String.valueOf(resource));
+    }
+
+    private void trace(UUID correlationId, String message) {
+        String trace = String.format("%s [%s] %s",
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date()), correlationId, message);
+        log.log(Level.FINE, trace);
+        synchronized (traces) {
+            if (traces.size() == MAX_TRACES) {
+                traces.removeFirst();
+            }
+            traces.addLast(trace);
+        }
+    }
+
+    private ResourceCounters getCounters(String resource) {
+        // the resource is null for the requests without one
+        return counters.computeIfAbsent(String.valueOf(resource), k -> new ResourceCounters());
+    }
+
+    private static <K> Histogram getHistogram(ConcurrentMap<K, Histogram> histograms, K key) {
+        return histograms.computeIfAbsent(key, k -> new Histogram());
+    }
+
+    static final class ResourceCounters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder refreshes = new LongAdder();
+        final LongAdder refreshFailures = new LongAdder();
+        final LongAdder prompts = new LongAdder();
+        final LongAdder failures = new LongAdder();
+    }
+
+    /**
+     * Counts of the latencies falling in fixed buckets, lock-free
+     */
+    private static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long millis) {
+            int i = 0;
+            while (i < BUCKET_BOUNDS_MILLIS.length && millis > BUCKET_BOUNDS_MILLIS[i]) {
+                i++;
+            }
+            buckets.incrementAndGet(i);
+            count.increment();
+            sum.add(millis);
+            max.accumulateAndGet(millis, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            long n = count.sum();
+            StringBuilder sb = new StringBuilder(String.format("count %d, mean %d ms, max %d ms;",
+                    n, n == 0 ? 0 : sum.sum() / n, max.get()));
+            for (int i = 0; i < buckets.length(); i++) {
+                long bucket = buckets.get(i);
+                if (bucket > 0) {
+                    sb.append(i < BUCKET_BOUNDS_MILLIS.length
+                            ? String.format(" <=%dms: %d", BUCKET_BOUNDS_MILLIS[i], bucket)
+                            : String.format(" >%dms: %d", BUCKET_BOUNDS_MILLIS[i - 1], bucket));
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
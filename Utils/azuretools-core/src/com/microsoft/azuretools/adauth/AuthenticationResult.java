@@ -47,6 +47,19 @@ public class AuthenticationResult {
         this.expiresOn =  expiresOn;
     }
     
+    AuthenticationResult(AuthenticationResult other) {
+        this.resource = other.resource;
+        this.accessTokenType = other.accessTokenType;
+        this.accessToken = other.accessToken;
+        this.refreshToken = other.refreshToken;
+        this.expiresOn = other.expiresOn;
+        this.tenantId = other.tenantId;
+        this.userInfo = other.userInfo;
+        this.idToken = other.idToken;
+        this.isMultipleResourceRefreshToken = other.isMultipleResourceRefreshToken;
+        this.userAssertionHash = other.userAssertionHash;
+    }
+
     // This is only needed for AcquireTokenByAuthorizationCode in which parameter resource is optional and we need
     // to get it from the STS response.
     String resource;
@@ -118,6 +131,13 @@ public class AuthenticationResult {
         return accessToken;
     }
 
+    /// <summary>
+    /// Gets the expiration time of the access token, in seconds since the epoch.
+    /// </summary>
+    public long getExpiresOn() {
+        return expiresOn;
+    }
+
     /// <summary>
     /// Serializes the object to a JSON String
     /// </summary>
@@ -22,119 +22,420 @@
 
 package com.microsoft.azuretools.adauth;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
+/// <summary>
+/// Token cache persisted to a journal file shared by the processes of the user.
+///
+/// Every change of the cache is appended to the journal as a length-prefixed record with a checksum, on a
+/// background thread so the callers never wait for the file. The journal is compacted into a snapshot of the
+/// items once it holds many more records than items. Before appending, the records appended by other processes
+/// since the last flush are applied to this cache.
+///
+/// The file lock is only retried for a few milliseconds, if another process holds it the changes stay queued
+/// for the next attempt.
+/// </summary>
 public class FileTokenCache extends TokenCache {
-    final static Logger log = Logger.getLogger(AcquireTokenHandlerBase.class.getName());
-    private final Object lock = new Object();
+    final static Logger log = Logger.getLogger(FileTokenCache.class.getName());
     private static final String CacheDir = ".msauth4j";
     private static final String CacheFileName = "msauth4j.cache";
-    private Path filePath;
-    
+    private static final String LockFileSuffix = ".lock";
+    // "MSJL"
+    private static final int JournalMagic = 0x4d534a4c;
+    private static final int JournalVersion = 1;
+    // magic, version and generation
+    private static final int HeaderLength = 16;
+    // length and checksum
+    private static final int RecordHeaderLength = 8;
+    private static final int LockAttempts = 7;
+    private static final long MaxLockBackoffMillis = 32;
+    private static final long RetryDelayMillis = 1000;
+    private static final int MinRecordsToCompact = 64;
+    // a file lock is held per process, so the caches of this process sharing a file take turns first
+    private static final ConcurrentMap<Path, Object> processLocks = new ConcurrentHashMap<>();
+
+    private final Path filePath;
+    private final Path lockPath;
+    private final Object processLock;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // changes not written yet, in their order
+    private final List<TokenCacheChange> pending = new ArrayList<>();
+
+    // state of the journal, guarded by flushLock
+    private final Object flushLock = new Object();
+    // changes taken from pending by the running flush
+    private List<TokenCacheChange> inFlight = new ArrayList<>();
+    // replaced by every compaction, so the other processes know to read the journal from the start
+    private long generation = 0;
+    private long journalEnd = 0;
+    private int recordCount = 0;
+
     public FileTokenCache() throws IOException {
-        String homeDir = System.getProperty("user.home");
+        this(null);
+    }
+
+    public FileTokenCache(String baseDirPath) throws IOException {
+        String baseDir = System.getProperty("user.home");
+        if (!StringUtils.isNullOrEmpty(baseDirPath) && Files.exists(Paths.get(baseDirPath))) {
+            baseDir = baseDirPath;
+        }
 
-        Path dirPath = Paths.get(homeDir, CacheDir);
+        Path dirPath = Paths.get(baseDir, CacheDir);
+        Files.createDirectories(dirPath);
+        filePath = dirPath.resolve(CacheFileName);
+        lockPath = dirPath.resolve(CacheFileName + LockFileSuffix);
+        processLock = processLocks.computeIfAbsent(lockPath.toAbsolutePath().normalize(), path -> new Object());
+        log.log(Level.FINEST, "filePath = '" + filePath + "'");
 
-        if (!Files.exists(dirPath)) {
-            Files.createDirectory(dirPath);
+        final AtomicInteger threadCount = new AtomicInteger();
+        flusher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AdAuth-FileTokenCache-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        load();
+    }
+
+    /// <summary>
+    /// Writes the queued changes now.
+    /// </summary>
+    /// <returns>false if another process held the file lock, the changes are then written later</returns>
+    public boolean flush() throws IOException {
+        synchronized (flushLock) {
+            synchronized (pending) {
+                inFlight.addAll(pending);
+                pending.clear();
+            }
+            // the records before a clear still hold the tokens, so the journal is rewritten instead of appended to
+            boolean cleared = false;
+            for (TokenCacheChange change : inFlight) {
+                cleared |= change.kind == TokenCacheChange.Kind.CLEARED;
+            }
+            synchronized (processLock) {
+                try (FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock lock = tryLock(lockChannel)) {
+                    if (lock == null) {
+                        log.log(Level.FINE, "The file token cache is locked by another process, retrying later");
+                        scheduleFlush(RetryDelayMillis);
+                        return false;
+                    }
+
+                    if (!Files.exists(filePath)) {
+                        compact();
+                        return true;
+                    }
+                    try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                        long fileGeneration = readGeneration(channel);
+                        if (fileGeneration == -1) {
+                            // written by an older version or damaged, the items in memory replace it
+                            channel.close();
+                            compact();
+                            return true;
+                        }
+                        if (fileGeneration != generation || channel.size() < journalEnd) {
+                            // compacted by another process
+                            List<TokenCacheChange> changes = new ArrayList<>();
+                            changes.add(TokenCacheChange.cleared());
+                            journalEnd = readRecords(channel, HeaderLength, changes);
+                            recordCount = changes.size() - 1;
+                            generation = fileGeneration;
+                            merge(changes);
+                        } else if (channel.size() > journalEnd) {
+                            List<TokenCacheChange> changes = new ArrayList<>();
+                            journalEnd = readRecords(channel, journalEnd, changes);
+                            recordCount += changes.size();
+                            if (!changes.isEmpty()) {
+                                merge(changes);
+                            }
+                        }
+
+                        if (!inFlight.isEmpty() && !cleared) {
+                            ByteArrayOutputStream records = new ByteArrayOutputStream();
+                            for (TokenCacheChange change : inFlight) {
+                                records.write(encode(change));
+                            }
+                            ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+                            long position = journalEnd;
+                            while (buffer.hasRemaining()) {
+                                position += channel.write(buffer, position);
+                            }
+                            // drops the torn record a crash may have left after the last complete one
+                            channel.truncate(position);
+                            channel.force(false);
+                            journalEnd = position;
+                            recordCount += inFlight.size();
+                            inFlight = new ArrayList<>();
+                        }
+                    }
+
+                    if (cleared || (recordCount > 0 && getCount() == 0)
+                            || (recordCount >= MinRecordsToCompact && recordCount > 2 * getCount())) {
+                        compact();
+                    }
+                    return true;
+                }
+            }
         }
-        
-        filePath = Paths.get(homeDir, CacheDir, CacheFileName);
-        if (!Files.exists(filePath)) {
-            Files.createFile(filePath);
+    }
+
+    @Override
+    void onChanged(TokenCacheChange change) {
+        synchronized (pending) {
+            pending.add(change);
         }
+        scheduleFlush(0);
     }
-    
-    private FileLock acquireLock(RandomAccessFile raf) throws IOException, InterruptedException {
-        // in case of multiprocess file access
-        FileLock lock = null;
-        int tryCount = 3;
-        long sleepSec = 10;
-        while(tryCount > 0) {
-            try {
-                lock = raf.getChannel().tryLock();
-                break;
-            } catch(OverlappingFileLockException ex) {
-                log.log(Level.WARNING, String.format("The file has been locked by another process - waiting %s sec to release [%d attempt(s) left].", sleepSec, tryCount));
-                Thread.sleep(sleepSec*1000);
-                tryCount--;
+
+    private void scheduleFlush(long delayMillis) {
+        if (!flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        flusher.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // set before draining, a change queued from now on schedules another flush
+                flushScheduled.set(false);
+                try {
+                    flush();
+                } catch (IOException | RuntimeException ex) {
+                    // the changes stay in flight, a task ending with an exception would drop them until the next change
+                    log.log(Level.WARNING, "Writing the file token cache failed, retrying later", ex);
+                    scheduleFlush(RetryDelayMillis);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void load() throws IOException {
+        synchronized (flushLock) {
+            if (!Files.exists(filePath)) {
+                return;
+            }
+            synchronized (processLock) {
+                try (FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock lock = tryLock(lockChannel);
+                     FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                    // without the lock a record being appended is read as a torn one, the next flush reads it again
+                    long fileGeneration = readGeneration(channel);
+                    if (fileGeneration == -1) {
+                        if (channel.size() > 0) {
+                            loadLegacyState(channel);
+                        }
+                        return;
+                    }
+                    List<TokenCacheChange> changes = new ArrayList<>();
+                    journalEnd = readRecords(channel, HeaderLength, changes);
+                    recordCount = changes.size();
+                    generation = fileGeneration;
+                    applyChanges(changes);
+                    log.log(Level.FINEST, String.format("Loaded %d items from %d journal records", getCount(), recordCount));
+                }
             }
         }
-        return lock;
     }
-    
-    private void read() throws IOException, InterruptedException {
-        RandomAccessFile in = new RandomAccessFile(filePath.toString(), "rw");
+
+    /// <summary>
+    /// Reads the whole state written by TokenCache.serialize, the changes it reports replace the file.
+    /// </summary>
+    private void loadLegacyState(FileChannel channel) {
         try {
-            // in case of multiprocess file access
-            FileLock lock = acquireLock(in);
-            if(lock != null) {
-                log.log(Level.FINEST, "Locking file cache for reading...");
-                try {
-                    int length = (int)new File(filePath.toString()).length();
-                    byte[] data = new byte[length];
-                    log.log(Level.FINEST, "Reading data...");
-                    in.read(data);
-                    deserialize(data);
-                } finally {
-                    log.log(Level.FINEST, "Unocking file cache");
-                    lock.release();
-                }
-            } else {
-                throw new IOException("Can't lock file token cache for reading");
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
             }
-        } finally {
-            in.close();
+            deserialize(buffer.array());
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Ignoring the unreadable token cache file", ex);
+        }
+    }
+
+    /// <summary>
+    /// Applies the records of other processes, then the changes of this process not written yet on top of them,
+    /// under the cache lock so no change is lost in between.
+    /// </summary>
+    private void merge(List<TokenCacheChange> changes) {
+        synchronized (getLock()) {
+            changes.addAll(inFlight);
+            synchronized (pending) {
+                changes.addAll(pending);
+            }
+            applyChanges(changes);
         }
     }
-    
-    private void write() throws IOException, InterruptedException {
-        RandomAccessFile out = new RandomAccessFile(filePath.toString(), "rw");
+
+    /// <summary>
+    /// Replaces the journal with a snapshot of the items, must be called holding the file lock.
+    /// </summary>
+    private void compact() throws IOException {
+        Map<TokenCacheKey, AuthenticationResult> items = copyItems();
+        long newGeneration = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
+        ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        DataOutputStream writer = new DataOutputStream(journal);
+        writer.writeInt(JournalMagic);
+        writer.writeInt(JournalVersion);
+        writer.writeLong(newGeneration);
+        for (Map.Entry<TokenCacheKey, AuthenticationResult> item : items.entrySet()) {
+            writer.write(encode(TokenCacheChange.stored(item.getKey(), item.getValue())));
+        }
+
+        // a temporary file is only readable by its owner on the file systems supporting it
+        Path tempPath = Files.createTempFile(filePath.getParent(), CacheFileName + ".", ".tmp");
         try {
-            // in case of multiprocess file access
-            FileLock lock = acquireLock(out);
-            if(lock != null) {
-                log.log(Level.FINEST, "Locking file cache for writing");
-                try {
-                    byte[] data = serialize();
-                    log.log(Level.FINEST, "Writing file...");
-                    out.write(data);
-                } finally {
-                    log.log(Level.FINEST, "Unocking file cache");
-                    lock.release();
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(journal.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
                 }
-            } else {
-                throw new IOException("Can't lock file token cache for writing");
+                channel.force(true);
+            }
+            try {
+                Files.move(tempPath, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING);
             }
         } finally {
-            out.close();
+            Files.deleteIfExists(tempPath);
+        }
+
+        generation = newGeneration;
+        journalEnd = journal.size();
+        recordCount = items.size();
+        // the snapshot holds them
+        inFlight = new ArrayList<>();
+        log.log(Level.FINEST, String.format("Compacted the file token cache to %d records", recordCount));
+    }
+
+    private FileLock tryLock(FileChannel channel) throws IOException {
+        long backoff = 1;
+        for (int attempt = 1; ; attempt++) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException ex) {
+                // held by this process through another channel, e.g. by a cache loaded by another class loader
+                lock = null;
+            }
+            if (lock != null || attempt == LockAttempts) {
+                return lock;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the file token cache lock");
+            }
+            backoff = Math.min(backoff * 2, MaxLockBackoffMillis);
+        }
+    }
+
+    /// <returns>The generation of the journal, or -1 if the file isn't a journal</returns>
+    private static long readGeneration(FileChannel channel) throws IOException {
+        if (channel.size() < HeaderLength) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HeaderLength);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+        }
+        header.flip();
+        if (header.getInt() != JournalMagic || header.getInt() != JournalVersion) {
+            return -1;
+        }
+        return header.getLong();
+    }
+
+    /// <summary>
+    /// Reads the complete records from the position on, stopping at the first torn or damaged one.
+    /// </summary>
+    /// <returns>The end of the last complete record</returns>
+    private long readRecords(FileChannel channel, long position, List<TokenCacheChange> changes) throws IOException {
+        long size = channel.size();
+        if (size <= position) {
+            return position;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - position));
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+        }
+        buffer.flip();
+
+        long end = position;
+        while (buffer.remaining() >= RecordHeaderLength) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 1 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(body);
+            if (checksum(body) != checksum) {
+                log.log(Level.WARNING, "The file token cache has a damaged record, ignoring the rest of it");
+                break;
+            }
+            end += RecordHeaderLength + length;
+            try {
+                changes.add(decode(body));
+            } catch (IOException | RuntimeException ex) {
+                log.log(Level.WARNING, "Skipping an unreadable record of the file token cache", ex);
+            }
         }
+        return end;
+    }
+
+    private static byte[] encode(TokenCacheChange change) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream writer = new DataOutputStream(body);
+        writer.writeByte(change.kind.ordinal());
+        if (change.kind != TokenCacheChange.Kind.CLEARED) {
+            writeString(writer, toKeyString(change.key));
+            writeString(writer, change.value.serialize());
+        }
+        byte[] bytes = body.toByteArray();
+
+        ByteBuffer record = ByteBuffer.allocate(RecordHeaderLength + bytes.length);
+        record.putInt(bytes.length);
+        record.putInt(checksum(bytes));
+        record.put(bytes);
+        return record.array();
+    }
+
+    private static TokenCacheChange decode(byte[] body) throws IOException {
+        DataInputStream reader = new DataInputStream(new ByteArrayInputStream(body));
+        int kind = reader.readUnsignedByte();
+        if (kind >= TokenCacheChange.Kind.values().length) {
+            throw new IOException(String.format("Unknown record kind %d", kind));
+        }
+        if (TokenCacheChange.Kind.values()[kind] == TokenCacheChange.Kind.CLEARED) {
+            return TokenCacheChange.cleared();
+        }
+        String keyString = readString(reader);
+        AuthenticationResult result = AuthenticationResult.deserialize(readString(reader));
+        TokenCacheKey key = fromKeyString(keyString, result);
+        return TokenCacheChange.Kind.values()[kind] == TokenCacheChange.Kind.STORED
+                ? TokenCacheChange.stored(key, result)
+                : TokenCacheChange.removed(key, result);
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
     }
-//
-//    @Override
-//    void onBeforeAccess() throws IOException, InterruptedException {
-//        synchronized (lock) {
-//            read();
-//        }
-//    }
-//
-//    @Override
-//    void onAfterAccess() {
-//        synchronized (lock) {
-//            if(getHasStateChanged()) {
-//                write();
-//                setHasStateChanged(false);
-//            }
-//        }
-//    }
 }
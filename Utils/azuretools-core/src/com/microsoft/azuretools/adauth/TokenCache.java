@@ -23,6 +23,7 @@
 package com.microsoft.azuretools.adauth;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
@@ -31,11 +32,15 @@ import java.util.logging.Logger;
 
 public class TokenCache {
     private final static Logger log = Logger.getLogger(TokenCache.class.getName());
-    private final int SchemaVersion = 1;
+    private final int SchemaVersion = 2;
+    // entries written with DataOutput.writeUTF, limited to 64 KB
+    private final static int LegacySchemaVersion = 1;
     private final static String Delimiter = ":::";
     private final Map<TokenCacheKey, AuthenticationResult> tokenCacheDictionary;
     private volatile boolean hasStateChanged = false;
+    // Only taken by writers, readers go through the current index without locking
     private final Object lock = new Object();
+    private volatile Index index = Index.EMPTY;
     private static TokenCache defaultShared = null;
 
     /// <summary>
@@ -58,15 +63,11 @@ public class TokenCache {
     /// the flag after serializing and persisting the state of the cache.
     /// </summary>
     public boolean getHasStateChanged() {
-       synchronized (lock) {
-          return hasStateChanged;
-       }
+        return hasStateChanged;
     }
 
     public void setHasStateChanged(boolean val) {
-       synchronized (lock) {
-          hasStateChanged = val;
-       }
+        hasStateChanged = val;
     }
 
     /// <summary>
@@ -83,9 +84,7 @@ public class TokenCache {
     /// Gets the number of items in the cache.
     /// </summary>
     public int getCount() {
-       synchronized (lock) {
-          return this.tokenCacheDictionary.size();
-        }
+        return this.tokenCacheDictionary.size();
     }
 
     /// <summary>
@@ -104,15 +103,9 @@ public class TokenCache {
 
           writer.writeInt(SchemaVersion);
           writer.writeInt(tokenCacheDictionary.size());
-          for(TokenCacheKey key : tokenCacheDictionary.keySet()) {
-             AuthenticationResult res = tokenCacheDictionary.get(key);
-             writer.writeUTF(String.format(
-                   "%s%s%s%s%s%s%s",
-                   key.authority, Delimiter,
-                   key.resource, Delimiter,
-                   key.clientId, Delimiter,
-                   key.tokenSubjectType));
-             writer.writeUTF(res.serialize());
+          for (Map.Entry<TokenCacheKey, AuthenticationResult> item : tokenCacheDictionary.entrySet()) {
+             writeString(writer, toKeyString(item.getKey()));
+             writeString(writer, item.getValue().serialize());
           }
           log.log(Level.FINEST, String.format("Serialized %d items to the output stream.", tokenCacheDictionary.size()));
           return outputStream.toByteArray();
@@ -128,6 +121,8 @@ public class TokenCache {
           log.log(Level.FINEST, "Deserializing...");
             if (state.length == 0) {
                 this.tokenCacheDictionary.clear();
+                rebuildIndex();
+                onChanged(TokenCacheChange.cleared());
                 return;
             }
           // memory stream
@@ -135,23 +130,24 @@ public class TokenCache {
           // stream reader
           DataInputStream reader = new DataInputStream(inputStream);
             int schemaVersion = reader.readInt();
-            if (schemaVersion != SchemaVersion) {
+            if (schemaVersion != SchemaVersion && schemaVersion != LegacySchemaVersion) {
                 log.log(Level.WARNING, "The version of the persistent state of the cache does not match the current schema, so skipping deserialization.");
                 return;
             }
             tokenCacheDictionary.clear();
+            onChanged(TokenCacheChange.cleared());
             int count = reader.readInt();
             for (int n = 0; n < count; n++) {
-                String keyString = reader.readUTF();
-
-                String[] kvpElements = keyString.split(Delimiter);
-                AuthenticationResult result = AuthenticationResult.deserialize(reader.readUTF());
-                TokenCacheKey key = new TokenCacheKey(kvpElements[0], kvpElements[1], kvpElements[2],
-                    TokenSubjectType.valueOf(TokenSubjectType.class,kvpElements[3]), result.userInfo);
+                String keyString = schemaVersion == LegacySchemaVersion ? reader.readUTF() : readString(reader);
+                AuthenticationResult result = AuthenticationResult.deserialize(
+                        schemaVersion == LegacySchemaVersion ? reader.readUTF() : readString(reader));
+                TokenCacheKey key = fromKeyString(keyString, result);
 
                 log.log(Level.FINEST, String.format("Putting key into the dictionary [hash: '%x']", key.hashCode()));
                 tokenCacheDictionary.put(key, result);
+                onChanged(TokenCacheChange.stored(key, result));
             }
+            rebuildIndex();
             log.log(Level.FINEST, String.format("Deserialized %d items to token cache.", count));
         }
     }
@@ -210,6 +206,8 @@ public class TokenCache {
             onBeforeAccess();
             log.log(Level.FINEST, String.format("Clearing Cache :- %d items to be removed", tokenCacheDictionary.size()));
             this.tokenCacheDictionary.clear();
+            rebuildIndex();
+            onChanged(TokenCacheChange.cleared());
             log.log(Level.FINEST, "Successfully Cleared Cache");
             this.setHasStateChanged(true);
             onAfterAccess();
@@ -227,6 +225,89 @@ public class TokenCache {
         }
     }
 
+    /// <summary>
+    /// Called under the writer lock after every change of the items, so a subclass can persist the changes
+    /// one by one instead of serializing the whole cache.
+    /// </summary>
+    void onChanged(TokenCacheChange change) {
+    }
+
+    /// <summary>
+    /// Applies changes made elsewhere, e.g. by another process sharing a persistent cache, in their order.
+    /// They aren't reported to onChanged.
+    /// </summary>
+    void applyChanges(List<TokenCacheChange> changes) {
+        synchronized(lock) {
+            for (TokenCacheChange change : changes) {
+                switch (change.kind) {
+                    case STORED:
+                        tokenCacheDictionary.put(change.key, change.value);
+                        break;
+                    case REMOVED:
+                        tokenCacheDictionary.remove(change.key);
+                        break;
+                    case CLEARED:
+                        tokenCacheDictionary.clear();
+                        break;
+                }
+            }
+            rebuildIndex();
+        }
+    }
+
+    Object getLock() {
+        return lock;
+    }
+
+    /// <summary>
+    /// Reads a copy of the items under the writer lock, so it doesn't miss a change reported to onChanged.
+    /// </summary>
+    Map<TokenCacheKey, AuthenticationResult> copyItems() {
+        synchronized(lock) {
+            return new HashMap<>(tokenCacheDictionary);
+        }
+    }
+
+    /// <summary>
+    /// Writes a string of any length, DataOutput.writeUTF is limited to 64 KB which large tokens exceed.
+    /// </summary>
+    static void writeString(DataOutput writer, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writer.writeInt(bytes.length);
+        writer.write(bytes);
+    }
+
+    static String readString(DataInput reader) throws IOException {
+        int length = reader.readInt();
+        if (length < 0) {
+            throw new IOException(String.format("Invalid string length %d in the persistent state of the cache", length));
+        }
+        byte[] bytes = new byte[length];
+        reader.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static String toKeyString(TokenCacheKey key) {
+        return String.format(
+                "%s%s%s%s%s%s%s",
+                key.authority, Delimiter,
+                key.resource, Delimiter,
+                key.clientId, Delimiter,
+                key.tokenSubjectType);
+    }
+
+    /// <summary>
+    /// The user of the key comes from the result stored with it.
+    /// </summary>
+    static TokenCacheKey fromKeyString(String keyString, AuthenticationResult result) throws IOException {
+        String[] kvpElements = keyString.split(Delimiter);
+        if (kvpElements.length != 4) {
+            throw new IOException("Invalid key in the persistent state of the cache");
+        }
+        return new TokenCacheKey(kvpElements[0], kvpElements[1], kvpElements[2],
+            TokenSubjectType.valueOf(TokenSubjectType.class, kvpElements[3]), result.userInfo);
+    }
+
     private Runnable  onBeforeAccessCallback = null;
     private Runnable  onAfterAccessCallback = null;
 
@@ -238,53 +319,50 @@ public class TokenCache {
         this.onAfterAccessCallback = onAfterAccessCallback;
     }
 
+    /// <summary>
+    /// Looks up a token without locking, concurrent writers replace the index as a whole so a lookup sees
+    /// either the state before or after a write. The cached results are never modified in place.
+    /// </summary>
     AuthenticationResult loadFromCache(String authority, String resource, String clientId, TokenSubjectType subjectType, String uniqueId, String displayableId) throws IOException {
-       synchronized(lock) {
-            log.log(Level.FINEST, "Looking up cache for a token...");
-            AuthenticationResult result = null;
-            Map.Entry<TokenCacheKey, AuthenticationResult> kvp = loadSingleItemFromCache(authority,
-                resource, clientId, subjectType, uniqueId, displayableId);
-            if (kvp != null) {
-                TokenCacheKey cacheKey = kvp.getKey();
-                result = kvp.getValue();
-
-                Calendar now = new GregorianCalendar();
-                now.setTimeInMillis(System.currentTimeMillis());
-                int expirationMarginInMinutes = 5;
-                now.add(Calendar.MINUTE, expirationMarginInMinutes);
-                Calendar expiresOn = new GregorianCalendar();
-                expiresOn.setTimeInMillis(TimeUnit.SECONDS.toMillis(result.expiresOn));
-                boolean tokenNearExpiry = expiresOn.before(now);
-
-                if (tokenNearExpiry) {
-                    result.accessToken = null;
-                    log.log(Level.FINEST, "An expired or near expiry token was found in the cache");
-                } else if (!cacheKey.resource.equals(resource)) {
-                    log.log(Level.FINEST, String.format(
-                            "Multi resource refresh token for resource '%s' will be used to acquire token for '%s'",
-                            cacheKey.resource, resource));
-                    AuthenticationResult newResult = new AuthenticationResult(null, null, result.refreshToken, 0);
-                    newResult.updateTenantAndUserInfo(result.tenantId, result.idToken, result.userInfo);
-                    result = newResult;
-                } else {
-                   long nowSec = System.currentTimeMillis()/1000;
-                    log.log(Level.FINEST,
-                        String.format("%d minutes left until token in cache expires", TimeUnit.SECONDS.toMinutes(result.expiresOn - nowSec)));
-                }
-                if (result.accessToken == null && result.refreshToken == null) {
-                    this.tokenCacheDictionary.remove(cacheKey);
-                    log.log(Level.FINEST,  "An old item was removed from the cache");
-                    this.setHasStateChanged(true);
-                    result = null;
-                }
-                if (result != null) {
-                    log.log(Level.FINEST, String.format("A matching item (access token or refresh token or both) was found in the cache [hashCode: '%x']", cacheKey.hashCode() ));
-                }
+        log.log(Level.FINEST, "Looking up cache for a token...");
+        AuthenticationResult result = null;
+        Map.Entry<TokenCacheKey, AuthenticationResult> kvp = loadSingleItemFromCache(authority,
+            resource, clientId, subjectType, uniqueId, displayableId);
+        if (kvp != null) {
+            TokenCacheKey cacheKey = kvp.getKey();
+            result = kvp.getValue();
+
+            long nowSec = System.currentTimeMillis()/1000;
+            int expirationMarginInMinutes = 5;
+            boolean tokenNearExpiry = result.expiresOn < nowSec + TimeUnit.MINUTES.toSeconds(expirationMarginInMinutes);
+
+            if (tokenNearExpiry) {
+                result = new AuthenticationResult(result);
+                result.accessToken = null;
+                log.log(Level.FINEST, "An expired or near expiry token was found in the cache");
+            } else if (!cacheKey.resource.equals(resource)) {
+                log.log(Level.FINEST, String.format(
+                        "Multi resource refresh token for resource '%s' will be used to acquire token for '%s'",
+                        cacheKey.resource, resource));
+                AuthenticationResult newResult = new AuthenticationResult(null, null, result.refreshToken, 0);
+                newResult.updateTenantAndUserInfo(result.tenantId, result.idToken, result.userInfo);
+                result = newResult;
             } else {
-                log.log(Level.FINEST,  "No matching token was found in the cache");
+                log.log(Level.FINEST,
+                    String.format("%d minutes left until token in cache expires", TimeUnit.SECONDS.toMinutes(result.expiresOn - nowSec)));
+            }
+            if (result.accessToken == null && result.refreshToken == null) {
+                removeFromCache(cacheKey, kvp.getValue());
+                log.log(Level.FINEST,  "An old item was removed from the cache");
+                result = null;
+            }
+            if (result != null) {
+                log.log(Level.FINEST, String.format("A matching item (access token or refresh token or both) was found in the cache [hashCode: '%x']", cacheKey.hashCode() ));
             }
-            return result;
+        } else {
+            log.log(Level.FINEST,  "No matching token was found in the cache");
         }
+        return result;
     }
 
     void storeToCache(AuthenticationResult result, String authority, String resource, String clientId, TokenSubjectType subjectType) {
@@ -298,37 +376,48 @@ public class TokenCache {
                   , result.userInfo.uniqueId
                   , result.userInfo.displayableId
                   , subjectType));
+            // the index still holds the items before this store, update them before the new item replaces its own
+            updateCachedMrrtRefreshTokens(result, authority, clientId, subjectType);
             tokenCacheDictionary.put(tokenCacheKey, result);
+            rebuildIndex();
+            onChanged(TokenCacheChange.stored(tokenCacheKey, result));
             log.log(Level.FINEST, String.format("==> hashCode: '%x'", tokenCacheKey.hashCode()));
 
             log.log(Level.FINEST, "An item was stored in the cache");
-            updateCachedMrrtRefreshTokens(result, authority, clientId, subjectType);
 
             this.setHasStateChanged(true);
         }
     }
 
+    private void removeFromCache(TokenCacheKey key, AuthenticationResult value) {
+        synchronized(lock) {
+            // a concurrent store may have replaced the stale item meanwhile, keep the new one
+            if (tokenCacheDictionary.remove(key, value)) {
+                rebuildIndex();
+                onChanged(TokenCacheChange.removed(key, value));
+                this.setHasStateChanged(true);
+            }
+        }
+    }
+
+    /// <summary>
+    /// Must be called under the lock after every change of the dictionary.
+    /// </summary>
+    private void rebuildIndex() {
+        index = new Index(tokenCacheDictionary);
+    }
+
     private void updateCachedMrrtRefreshTokens(AuthenticationResult result, String authority, String clientId, TokenSubjectType subjectType) {
-       synchronized(lock) {
-            if (result.userInfo != null && result.isMultipleResourceRefreshToken) {
-//                List<Map.Entry<TokenCacheKey, AuthenticationResult>> mrrtItems =
-//                    queryCache(authority, clientId, subjectType, result.userInfo.uniqueId, result.userInfo.displayableId)
-//                       .stream().filter(p -> p.getValue().isMultipleResourceRefreshToken).collect(Collectors.toList());
-
-                List<Map.Entry<TokenCacheKey, AuthenticationResult>> items =  queryCache(authority, clientId,
-                        subjectType, result.userInfo.uniqueId, result.userInfo.displayableId);
-
-                List<Map.Entry<TokenCacheKey, AuthenticationResult>> mrrtItems = new LinkedList<>();
-                for (Map.Entry<TokenCacheKey, AuthenticationResult> item : items) {
-                    if (item.getValue().isMultipleResourceRefreshToken) {
-                        mrrtItems.add(item);
-                    }
-                }
+        if (result.userInfo != null && result.isMultipleResourceRefreshToken) {
+            List<Map.Entry<TokenCacheKey, AuthenticationResult>> items =  queryCache(authority, clientId,
+                    subjectType, result.userInfo.uniqueId, result.userInfo.displayableId);
 
-                for (Map.Entry<TokenCacheKey, AuthenticationResult> mrrtItem : mrrtItems) {
-                    AuthenticationResult update = mrrtItem.getValue();
+            for (Map.Entry<TokenCacheKey, AuthenticationResult> item : items) {
+                if (item.getValue().isMultipleResourceRefreshToken && tokenCacheDictionary.containsKey(item.getKey())) {
+                    AuthenticationResult update = new AuthenticationResult(item.getValue());
                     update.refreshToken = result.refreshToken;
-                    tokenCacheDictionary.put(mrrtItem.getKey(), update);
+                    tokenCacheDictionary.put(item.getKey(), update);
+                    onChanged(TokenCacheChange.stored(item.getKey(), update));
                 }
             }
         }
@@ -336,47 +425,43 @@ public class TokenCache {
 
     private Map.Entry<TokenCacheKey, AuthenticationResult> loadSingleItemFromCache(String authority, String resource, String clientId,
           TokenSubjectType subjectType, String uniqueId, String displayableId) throws IOException {
-        synchronized(lock) {
-            // First identify all potential tokens.
-            List<Map.Entry<TokenCacheKey, AuthenticationResult>> items = queryCache(authority, clientId,
-                subjectType, uniqueId, displayableId);
-
-            List<Map.Entry<TokenCacheKey, AuthenticationResult>> resourceSpecificItems = new LinkedList<>();
-            for (Map.Entry<TokenCacheKey, AuthenticationResult> item : items) {
+        Index current = index;
+
+        // First identify all potential tokens.
+        List<Map.Entry<TokenCacheKey, AuthenticationResult>> resourceSpecificItems;
+        if (StringUtils.isNullOrWhiteSpace(clientId)) {
+            resourceSpecificItems = new LinkedList<>();
+            for (Map.Entry<TokenCacheKey, AuthenticationResult> item :
+                    current.query(authority, clientId, subjectType, uniqueId, displayableId)) {
                 if (item.getKey().resource.equals(resource)) {
                     resourceSpecificItems.add(item);
                 }
             }
+        } else {
+            resourceSpecificItems = current.queryResource(authority, resource, clientId, subjectType, uniqueId, displayableId);
+        }
 
-//            List<Map.Entry<TokenCacheKey, AuthenticationResult>> resourceSpecificItems =
-//                items.stream().filter(p -> p.getKey().resource.equals(resource)).collect(Collectors.toList());
-
-            int resourceValuesCount = resourceSpecificItems.size();
-            Map.Entry<TokenCacheKey, AuthenticationResult> returnValue = null;
-            if (resourceValuesCount == 1) {
-                log.log(Level.FINEST,  "An item matching the requested resource was found in the cache");
-                returnValue = resourceSpecificItems.get(0);
-            } else if (resourceValuesCount == 0) {
-                // There are no resource specific tokens.  Choose any of the MRRT tokens if there are any.
-//                items.stream().filter(p -> p.getValue().isMultipleResourceRefreshToken).collect(Collectors.toList());
-                List<Map.Entry<TokenCacheKey, AuthenticationResult>> mrrtItems = new LinkedList<>();
-                for (Map.Entry<TokenCacheKey, AuthenticationResult> item : items) {
-                    if (item.getValue().isMultipleResourceRefreshToken) {
-                        mrrtItems.add(item);
-                    }
-                }
-
-                if (!mrrtItems.isEmpty()) {
-                    returnValue = mrrtItems.get(0);
+        int resourceValuesCount = resourceSpecificItems.size();
+        Map.Entry<TokenCacheKey, AuthenticationResult> returnValue = null;
+        if (resourceValuesCount == 1) {
+            log.log(Level.FINEST,  "An item matching the requested resource was found in the cache");
+            returnValue = resourceSpecificItems.get(0);
+        } else if (resourceValuesCount == 0) {
+            // There are no resource specific tokens.  Choose any of the MRRT tokens if there are any.
+            for (Map.Entry<TokenCacheKey, AuthenticationResult> item :
+                    current.query(authority, clientId, subjectType, uniqueId, displayableId)) {
+                if (item.getValue().isMultipleResourceRefreshToken) {
+                    returnValue = item;
                     log.log(Level.FINEST, "A Multi Resource Refresh Token for a different resource was found which can be used");
+                    break;
                 }
-            } else {
-                String message = AuthError.MultipleTokensMatched;
-                log.log(Level.SEVERE, message);
-                throw new IOException(message);
             }
-            return returnValue;
+        } else {
+            String message = AuthError.MultipleTokensMatched;
+            log.log(Level.SEVERE, message);
+            throw new IOException(message);
         }
+        return returnValue;
     }
 
     /// <summary>
@@ -386,18 +471,80 @@ public class TokenCache {
     /// </summary>
     private List<Map.Entry<TokenCacheKey, AuthenticationResult>> queryCache(String authority, String clientId,
         TokenSubjectType subjectType, String uniqueId, String displayableId) {
-       synchronized(lock) {
-          List<Map.Entry<TokenCacheKey, AuthenticationResult>> res = new LinkedList<>();
-          for(Map.Entry<TokenCacheKey, AuthenticationResult> p : tokenCacheDictionary.entrySet()) {
-             if(p.getKey().authority.equals(authority)
-                        && (StringUtils.isNullOrWhiteSpace(clientId) || p.getKey().clientId.equals(clientId))
-                        && (StringUtils.isNullOrWhiteSpace(uniqueId) || p.getKey().uniqueId.equals(uniqueId))
-                        && (StringUtils.isNullOrWhiteSpace(displayableId) || p.getKey().displayableId.equals(displayableId))
-                        && p.getKey().tokenSubjectType.equals(subjectType)) {
-                res.add(p);
-             }
-          }
-          return res;
+        return index.query(authority, clientId, subjectType, uniqueId, displayableId);
+    }
+
+    /// <summary>
+    /// Immutable snapshot of the cache items, grouped by authority and subject type, then by client ID
+    /// and then by resource, so a lookup only visits the items of its own authority, client and resource.
+    /// The items of one group are matched against the user.
+    /// </summary>
+    private static final class Index {
+        static final Index EMPTY = new Index(Collections.<TokenCacheKey, AuthenticationResult>emptyMap());
+
+        private final Map<String, List<Map.Entry<TokenCacheKey, AuthenticationResult>>> byAuthority = new HashMap<>();
+        private final Map<String, List<Map.Entry<TokenCacheKey, AuthenticationResult>>> byClient = new HashMap<>();
+        private final Map<String, List<Map.Entry<TokenCacheKey, AuthenticationResult>>> byResource = new HashMap<>();
+
+        Index(Map<TokenCacheKey, AuthenticationResult> items) {
+            for (Map.Entry<TokenCacheKey, AuthenticationResult> item : items.entrySet()) {
+                TokenCacheKey key = item.getKey();
+                Map.Entry<TokenCacheKey, AuthenticationResult> entry =
+                        new AbstractMap.SimpleImmutableEntry<>(key, item.getValue());
+
+                add(byAuthority, authorityKey(key.authority, key.tokenSubjectType), entry);
+                add(byClient, clientKey(key.authority, key.clientId, key.tokenSubjectType), entry);
+                add(byResource, resourceKey(key.authority, key.resource, key.clientId, key.tokenSubjectType), entry);
+            }
+        }
+
+        List<Map.Entry<TokenCacheKey, AuthenticationResult>> query(String authority, String clientId,
+            TokenSubjectType subjectType, String uniqueId, String displayableId) {
+            List<Map.Entry<TokenCacheKey, AuthenticationResult>> group = StringUtils.isNullOrWhiteSpace(clientId)
+                    ? byAuthority.get(authorityKey(authority, subjectType))
+                    : byClient.get(clientKey(authority, clientId, subjectType));
+            return matchUser(group, uniqueId, displayableId);
+        }
+
+        List<Map.Entry<TokenCacheKey, AuthenticationResult>> queryResource(String authority, String resource, String clientId,
+            TokenSubjectType subjectType, String uniqueId, String displayableId) {
+            return matchUser(byResource.get(resourceKey(authority, resource, clientId, subjectType)), uniqueId, displayableId);
+        }
+
+        private static List<Map.Entry<TokenCacheKey, AuthenticationResult>> matchUser(
+            List<Map.Entry<TokenCacheKey, AuthenticationResult>> group, String uniqueId, String displayableId) {
+            List<Map.Entry<TokenCacheKey, AuthenticationResult>> res = new LinkedList<>();
+            if (group != null) {
+                for (Map.Entry<TokenCacheKey, AuthenticationResult> p : group) {
+                    if ((StringUtils.isNullOrWhiteSpace(uniqueId) || uniqueId.equals(p.getKey().uniqueId))
+                            && (StringUtils.isNullOrWhiteSpace(displayableId) || displayableId.equals(p.getKey().displayableId))) {
+                        res.add(p);
+                    }
+                }
+            }
+            return res;
+        }
+
+        private static void add(Map<String, List<Map.Entry<TokenCacheKey, AuthenticationResult>>> map, String key,
+            Map.Entry<TokenCacheKey, AuthenticationResult> entry) {
+            List<Map.Entry<TokenCacheKey, AuthenticationResult>> group = map.get(key);
+            if (group == null) {
+                group = new ArrayList<>(1);
+                map.put(key, group);
+            }
+            group.add(entry);
+        }
+
+        private static String authorityKey(String authority, TokenSubjectType subjectType) {
+            return authority + Delimiter + subjectType;
+        }
+
+        private static String clientKey(String authority, String clientId, TokenSubjectType subjectType) {
+            return authorityKey(authority, subjectType) + Delimiter + clientId;
+        }
+
+        private static String resourceKey(String authority, String resource, String clientId, TokenSubjectType subjectType) {
+            return clientKey(authority, clientId, subjectType) + Delimiter + resource;
         }
     }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) Microsoft Corporation
+ *   <p/>
+ *  All rights reserved.
+ *   <p/>
+ *  MIT License
+ *   <p/>
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ *  the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ *  to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *  <p/>
+ *  The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ *  the Software.
+ *   <p/>
+ *  THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ *  THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ *  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package com.microsoft.azuretools.adauth;
+
+/// <summary>
+/// A single change of the items of a TokenCache, reported to subclasses which persist the cache incrementally.
+/// </summary>
+final class TokenCacheChange {
+    enum Kind {
+        STORED,
+        REMOVED,
+        CLEARED
+    }
+
+    final Kind kind;
+    final TokenCacheKey key;
+    final AuthenticationResult value;
+
+    private TokenCacheChange(Kind kind, TokenCacheKey key, AuthenticationResult value) {
+        this.kind = kind;
+        this.key = key;
+        this.value = value;
+    }
+
+    static TokenCacheChange stored(TokenCacheKey key, AuthenticationResult value) {
+        return new TokenCacheChange(Kind.STORED, key, value);
+    }
+
+    /// <param name="value">The removed value, which carries the user of the key</param>
+    static TokenCacheChange removed(TokenCacheKey key, AuthenticationResult value) {
+        return new TokenCacheChange(Kind.REMOVED, key, value);
+    }
+
+    static TokenCacheChange cleared() {
+        return new TokenCacheChange(Kind.CLEARED, null, null);
+    }
+}
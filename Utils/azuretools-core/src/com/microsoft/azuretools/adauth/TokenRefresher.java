@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) Microsoft Corporation
+ *   <p/>
+ *  All rights reserved.
+ *   <p/>
+ *  MIT License
+ *   <p/>
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ *  the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ *  to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *  <p/>
+ *  The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ *  the Software.
+ *   <p/>
+ *  THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ *  THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ *  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package com.microsoft.azuretools.adauth;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Renews access tokens in the background ahead of their expiration, so callers find a valid token in the cache
+ * instead of waiting for the token endpoint.
+ *
+ * Every tracked (authority, resource) pair is renewed once per token lifetime on a single scheduler thread,
+ * a random jitter spreads the renewals of tokens acquired together. Concurrent refreshes of the same pair,
+ * scheduled or requested, share one renewal. A renewal still running when the tokens are cleared is stale, its
+ * token is neither stored nor tracked again.
+ */
+public class TokenRefresher {
+    private final static Logger log = Logger.getLogger(TokenRefresher.class.getName());
+    private final static String Delimiter = ":::";
+
+    public static final long DEFAULT_REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_MAX_JITTER_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    // Keeps a token lasting less than the time ahead from being renewed over and over
+    public static final long DEFAULT_MIN_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Sends the actual renewal request of a token
+     */
+    public interface Renewal {
+        /**
+         * @param minExpiresOn the expiration time in seconds since the epoch that makes a cached token good enough
+         * @param generation the tokens the renewal belongs to, the renewed token is stored through
+         *                   {@link Generation#runIfCurrent} only
+         * @return the renewed result, or null if the token can't be renewed without user interaction
+         */
+        AuthenticationResult renew(String authority, String resource, long minExpiresOn, Generation generation)
+                throws IOException;
+    }
+
+    /**
+     * The tokens tracked between two {@link #clear()} calls
+     */
+    public final class Generation {
+        private final long value;
+
+        private Generation(long value) {
+            this.value = value;
+        }
+
+        public boolean isCurrent() {
+            synchronized (scheduled) {
+                return value == generation;
+            }
+        }
+
+        /**
+         * Runs the store of a renewed token unless the tokens were cleared since the renewal started,
+         * a clear waits for the store already running
+         *
+         * @return false if the renewal is stale and the store didn't run
+         */
+        public boolean runIfCurrent(Runnable store) {
+            synchronized (scheduled) {
+                if (value != generation) {
+                    return false;
+                }
+                store.run();
+                return true;
+            }
+        }
+    }
+
+    private final Renewal renewal;
+    private final long refreshAheadMillis;
+    private final long maxJitterMillis;
+    private final long minDelayMillis;
+    private final ScheduledExecutorService scheduler;
+    // Replaced under its own lock only, so a renewal can't run before it is recorded
+    private final ConcurrentMap<String, Tracking> scheduled = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, FutureTask<AuthenticationResult>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    // Incremented by clear under the lock of scheduled, the renewals started before are stale
+    private long generation = 0;
+
+    public TokenRefresher(Renewal renewal) {
+        this(renewal, DEFAULT_REFRESH_AHEAD_MILLIS, DEFAULT_MAX_JITTER_MILLIS, DEFAULT_MIN_DELAY_MILLIS,
+                createScheduler());
+    }
+
+    TokenRefresher(Renewal renewal, long refreshAheadMillis, long maxJitterMillis, long minDelayMillis,
+                   ScheduledExecutorService scheduler) {
+        this.renewal = renewal;
+        this.refreshAheadMillis = refreshAheadMillis;
+        this.maxJitterMillis = maxJitterMillis;
+        this.minDelayMillis = minDelayMillis;
+        this.scheduler = scheduler;
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AdAuth-TokenRefresher-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Schedules the renewal of a token ahead of its expiration, replacing the renewal scheduled for the pair before.
+     * Tracking the same expiration time again keeps the renewal already scheduled.
+     *
+     * @param expiresOn the expiration time of the current token in seconds since the epoch
+     */
+    public void track(String authority, String resource, long expiresOn) {
+        String key = getKey(authority, resource);
+        long jitter = maxJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(maxJitterMillis) : 0;
+        long delay = Math.max(minDelayMillis, TimeUnit.SECONDS.toMillis(expiresOn) - refreshAheadMillis - jitter
+                - System.currentTimeMillis());
+
+        synchronized (scheduled) {
+            Tracking current = scheduled.get(key);
+            if (current != null && current.expiresOn == expiresOn
+                    && current.future.getDelay(TimeUnit.MILLISECONDS) > 0) {
+                return;
+            }
+
+            Tracking tracking = new Tracking(key, authority, resource, expiresOn);
+            tracking.future = scheduler.schedule(tracking, delay, TimeUnit.MILLISECONDS);
+            scheduled.put(key, tracking);
+
+            if (current != null) {
+                current.future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Renews a token now unless a renewal of the same pair is already running, in which case its result is shared.
+     * The renewal is tracked again with the new expiration time.
+     *
+     * @return the renewed result, or null if the token can't be renewed without user interaction
+     */
+    public AuthenticationResult refresh(final String authority, final String resource) throws IOException {
+        String key = getKey(authority, resource);
+        final Generation current = getGeneration();
+        FutureTask<AuthenticationResult> task = new FutureTask<>(new Callable<AuthenticationResult>() {
+            @Override
+            public AuthenticationResult call() throws IOException {
+                long minExpiresOn = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() + refreshAheadMillis
+                        + maxJitterMillis);
+                AuthenticationResult result = renewal.renew(authority, resource, minExpiresOn, current);
+                synchronized (scheduled) {
+                    if (!current.isCurrent()) {
+                        log.log(Level.FINE, String.format("Dropping the token for '%s' of '%s' renewed before the "
+                                + "tokens were cleared", resource, authority));
+                        return null;
+                    }
+                    if (result != null && result.accessToken != null) {
+                        track(authority, resource, result.expiresOn);
+                    }
+                }
+                return result;
+            }
+        });
+
+        FutureTask<AuthenticationResult> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        } else {
+            waiting.incrementAndGet();
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } finally {
+            if (running != task) {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stops tracking all tokens. A renewal already running completes, but its token is neither stored nor tracked
+     * and its callers get null.
+     */
+    public void clear() {
+        synchronized (scheduled) {
+            generation++;
+            for (Tracking tracking : scheduled.values()) {
+                tracking.future.cancel(false);
+            }
+            scheduled.clear();
+            // The refreshes requested from now on don't wait for a stale renewal
+            inFlight.clear();
+        }
+    }
+
+    Generation getGeneration() {
+        synchronized (scheduled) {
+            return new Generation(generation);
+        }
+    }
+
+    int getTrackedCount() {
+        return scheduled.size();
+    }
+
+    int getWaitingCount() {
+        return waiting.get();
+    }
+
+    private static String getKey(String authority, String resource) {
+        return authority + Delimiter + resource;
+    }
+
+    private class Tracking implements Runnable {
+        private final String key;
+        private final String authority;
+        private final String resource;
+        private final long expiresOn;
+        // Set under the lock of scheduled, before the renewal can read it
+        private ScheduledFuture<?> future;
+
+        Tracking(String key, String authority, String resource, long expiresOn) {
+            this.key = key;
+            this.authority = authority;
+            this.resource = resource;
+            this.expiresOn = expiresOn;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (refresh(authority, resource) == null) {
+                    log.log(Level.INFO, String.format("The token for '%s' of '%s' can't be renewed in background",
+                            resource, authority));
+                    stop();
+                }
+            } catch (IOException ex) {
+                // The next call needing the token acquires it inline
+                log.log(Level.WARNING, String.format("Renewing the token for '%s' of '%s' failed", resource, authority), ex);
+                stop();
+            }
+        }
+
+        private void stop() {
+            synchronized (scheduled) {
+                // A token acquired meanwhile is tracked by a newer renewal, which stays
+                scheduled.remove(key, this);
+            }
+        }
+    }
+}
@@ -35,12 +35,14 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class AdAuthManager {
     private final static Logger LOGGER = Logger.getLogger(AdAuthManager.class.getName());
     private final TokenCache cache;
-    private TokenFileStorage tokenFileStorage;
+    private final TokenRefresher tokenRefresher;
     private static AdAuthManager instance = null;
     //private static String adAuthSettingsFileName = "AdAuthDetails.json";
     private static AdAuthDetails adAuthDetails = new AdAuthDetails();
@@ -49,7 +51,7 @@ public class AdAuthManager {
     public static AdAuthManager getInstance() throws IOException {
         if( instance == null) {
             AuthContext.setUserDefinedWebUi(CommonSettings.getUiFactory().getWebUi());
-            instance = new AdAuthManager(false);
+            instance = new AdAuthManager(true);
             // load accountEmail
 //            instance.loadSettings();
         }
@@ -61,8 +63,11 @@ public class AdAuthManager {
     }
 
     public String getAccessToken(String tid, String resource, PromptBehavior promptBehavior) throws IOException {
-        AuthContext ac = new AuthContext(String.format("%s/%s", Constants.authority, tid), cache);
+        String authority = String.format("%s/%s", Constants.authority, tid);
+        AuthContext ac = new AuthContext(authority, cache);
         AuthenticationResult result = ac.acquireToken(resource, Constants.clientId, Constants.redirectUri, promptBehavior, null);
+        // keep the token warm for the next calls
+        tokenRefresher.track(authority, resource, result.getExpiresOn());
         return result.getAccessToken();
     }
 
@@ -79,22 +84,32 @@ public class AdAuthManager {
         String displayableId = result.getUserInfo().getDisplayableId();
         UserIdentifier uid = new UserIdentifier(displayableId, UserIdentifierType.RequiredDisplayableId);
 
-        Map<String, List<String>> tidToSidsMap = new HashMap<>();
+        final Map<String, List<String>> tidToSidsMap = new ConcurrentHashMap<>();
 //        List<Tenant> tenants = AccessTokenAzureManager.authTid(commonTid).tenants().list();
         List<Tenant> tenants = AccessTokenAzureManager.getTenants(commonTid);
-        for (Tenant t : tenants) {
-            String tid = t.tenantId();
-            AuthContext ac1 = new AuthContext(String.format("%s/%s", Constants.authority, tid), cache);
-            // put tokens into the cache
-            ac1.acquireToken(AzureEnvironment.AZURE.resourceManagerEndpoint(), Constants.clientId, Constants.redirectUri, PromptBehavior.Auto, uid);
-            ac1.acquireToken(AzureEnvironment.AZURE.graphEndpoint(), Constants.clientId, Constants.redirectUri, PromptBehavior.Auto, uid);
-            ac1.acquireToken(Constants.resourceVault, Constants.clientId, Constants.redirectUri, PromptBehavior.Auto, uid);
-            List<String> sids = new LinkedList<>();
-            for (Subscription s : AccessTokenAzureManager.getSubscriptions(tid)) {
-                sids.add(s.subscriptionId());
+        // tenants are signed in to concurrently, one that fails doesn't fail the others
+        AccessTokenAzureManager.discoverSubscriptions(tenants, new AccessTokenAzureManager.TenantDiscoveryListener() {
+            @Override
+            public void beforeListing(Tenant t) throws IOException {
+                String authority = String.format("%s/%s", Constants.authority, t.tenantId());
+                AuthContext ac1 = new AuthContext(authority, cache);
+                // put tokens into the cache
+                for (String resource : new String[] {AzureEnvironment.AZURE.resourceManagerEndpoint(),
+                        AzureEnvironment.AZURE.graphEndpoint(), Constants.resourceVault}) {
+                    AuthenticationResult tokenResult = ac1.acquireToken(resource, Constants.clientId, Constants.redirectUri, PromptBehavior.Auto, uid);
+                    tokenRefresher.track(authority, resource, tokenResult.getExpiresOn());
+                }
             }
-            tidToSidsMap.put(t.tenantId(), sids);
-        }
+
+            @Override
+            public void tenantDiscovered(Tenant t, List<Subscription> subscriptions) {
+                List<String> sids = new LinkedList<>();
+                for (Subscription s : subscriptions) {
+                    sids.add(s.subscriptionId());
+                }
+                tidToSidsMap.put(t.tenantId(), sids);
+            }
+        });
 
         // save account email
         String accountEmail = displayableId;
@@ -103,7 +118,7 @@ public class AdAuthManager {
         }
 
         adAuthDetails.setAccountEmail(accountEmail);
-        adAuthDetails.setTidToSidsMap(tidToSidsMap);
+        adAuthDetails.setTidToSidsMap(new HashMap<>(tidToSidsMap));
 //        saveSettings();
 
         return result;
@@ -128,28 +143,29 @@ public class AdAuthManager {
 
     // logout
     public void cleanCache() {
+        tokenRefresher.clear();
         cache.clear();
     }
 
     private AdAuthManager(boolean useFileCache) throws IOException {
-        cache = new TokenCache();
-        if (useFileCache) {
-            tokenFileStorage = new TokenFileStorage(CommonSettings.settingsBaseDir);
-            byte[] data = tokenFileStorage.read();
-            cache.deserialize(data);
-
-            cache.setOnAfterAccessCallback(new Runnable() {
-                public void run() {
-                    try {
-                        if(cache.getHasStateChanged()) {
-                            tokenFileStorage.write(cache.serialize());
-                            cache.setHasStateChanged(false);
-                        }
-                    } catch (IOException ex) {
-                        System.out.println(ex.getMessage());
-                    }
-                }
-            });
+        // the file cache writes its changes in background, it never blocks the callers
+        cache = useFileCache ? createFileCache() : new TokenCache();
+        tokenRefresher = new TokenRefresher(new TokenRefresher.Renewal() {
+            @Override
+            public AuthenticationResult renew(String authority, String resource, long minExpiresOn,
+                                              TokenRefresher.Generation generation) throws IOException {
+                AuthContext ac = new AuthContext(authority, cache);
+                return ac.refreshToken(resource, Constants.clientId, Constants.redirectUri, minExpiresOn, generation);
+            }
+        });
+    }
+
+    private static TokenCache createFileCache() {
+        try {
+            return new FileTokenCache(CommonSettings.settingsBaseDir);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Can't open the file token cache, keeping the tokens in memory only", ex);
+            return new TokenCache();
         }
     }
 
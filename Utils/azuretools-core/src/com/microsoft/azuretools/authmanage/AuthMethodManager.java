@@ -209,8 +209,8 @@ public class AuthMethodManager {
 
     private void loadSettings() throws IOException {
         System.out.println("loading authMethodDetails...");
-        FileStorage fs = new FileStorage(CommonSettings.authMethodDetailsFileName, CommonSettings.settingsBaseDir);
-        byte[] data = fs.read();
+        SettingsStore store = SettingsStore.getStore(CommonSettings.authMethodDetailsFileName, CommonSettings.settingsBaseDir);
+        byte[] data = store.read();
         String json = new String(data);
         if (json.isEmpty()) {
             System.out.println(CommonSettings.authMethodDetailsFileName + "file is empty");
@@ -223,7 +223,7 @@ public class AuthMethodManager {
     private void saveSettings() throws IOException {
         System.out.println("saving authMethodDetails...");
         String sd = JsonHelper.serialize(authMethodDetails);
-        FileStorage fs = new FileStorage(CommonSettings.authMethodDetailsFileName, CommonSettings.settingsBaseDir);
-        fs.write(sd.getBytes(Charset.forName("utf-8")));
+        SettingsStore store = SettingsStore.getStore(CommonSettings.authMethodDetailsFileName, CommonSettings.settingsBaseDir);
+        store.write(sd.getBytes(Charset.forName("utf-8")));
     }
 }
@@ -33,6 +33,8 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Created by shch on 10/5/2016.
+ * <p/>
+ * Writes in place, which suits the append-only reports; settings go to {@link SettingsStore}.
  */
 public class FileStorage {
     private static final String DefaultDir = ".msauth4j";
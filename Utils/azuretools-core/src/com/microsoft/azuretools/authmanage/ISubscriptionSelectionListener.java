@@ -27,4 +27,14 @@ package com.microsoft.azuretools.authmanage;
  */
 public interface ISubscriptionSelectionListener {
     void update(boolean isRefresh);
+
+    /**
+     * Called after the subscriptions or the selection changed, override it to apply only the difference
+     *
+     * @param oldSnapshot the state before the change
+     * @param newSnapshot the state after the change, not loaded when the subscriptions were cleaned
+     */
+    default void update(SubscriptionsSnapshot oldSnapshot, SubscriptionsSnapshot newSnapshot) {
+        update(!newSnapshot.isLoaded());
+    }
 }
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) Microsoft Corporation
+ *   <p/>
+ *  All rights reserved.
+ *   <p/>
+ *  MIT License
+ *   <p/>
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ *  the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ *  to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *  <p/>
+ *  The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ *  the Software.
+ *   <p/>
+ *  THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ *  THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ *  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package com.microsoft.azuretools.authmanage;
+
+import com.microsoft.azuretools.adauth.StringUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Settings file shared by the processes of the user.
+ * <p/>
+ * A write replaces the file as a whole: the record goes to a temporary file which is renamed over the target
+ * while holding an OS lock, so a reader never sees a torn file and concurrent writers don't interleave.
+ * Every record carries a version and a checksum; a plain file written by {@link FileStorage} reads as version 0
+ * and is converted by the next write.
+ */
+public class SettingsStore {
+    private static final Logger LOGGER = Logger.getLogger(SettingsStore.class.getName());
+    private static final String DefaultDir = ".msauth4j";
+    static final String RECORD_HEADER = "#msauth4j-record";
+    private static final int RECORD_FORMAT = 1;
+    private static final String LOCK_FILE_SUFFIX = ".lock";
+    private static final int LOCK_ATTEMPTS = 10;
+    private static final long LOCK_BACKOFF_MILLIS = 10;
+    private static final long LOCK_MAX_BACKOFF_MILLIS = 200;
+
+    // one store per file, so the writers of this process share the lock and the cached record
+    private static final ConcurrentMap<Path, SettingsStore> stores = new ConcurrentHashMap<>();
+    private static final Set<Path> watchedDirs = new HashSet<>();
+    private static WatchService watchService;
+
+    public interface ChangeListener {
+        /**
+         * Called on the watcher thread when another process wrote a new record to the store
+         */
+        void changed(SettingsStore store);
+    }
+
+    public static class CorruptedRecordException extends IOException {
+        public CorruptedRecordException(String message) {
+            super(message);
+        }
+    }
+
+    private final Path filePath;
+    private final Path lockPath;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Set<ChangeListener> listeners = new CopyOnWriteArraySet<>();
+    // the last record read or written, null before the first access
+    private volatile Record record;
+
+    private static final class Record {
+        private final long version;
+        private final byte[] data;
+        // attributes of the file the record was read from, null if the file doesn't exist
+        private final Object stamp;
+
+        private Record(long version, byte[] data, Object stamp) {
+            this.version = version;
+            this.data = data;
+            this.stamp = stamp;
+        }
+    }
+
+    public static SettingsStore getStore(String filename, String baseDirPath) throws IOException {
+        if (StringUtils.isNullOrEmpty(filename)) {
+            throw new IllegalArgumentException("filename is null or empty");
+        }
+
+        Path baseDir = (!StringUtils.isNullOrEmpty(baseDirPath))
+                ? Paths.get(baseDirPath)
+                : Paths.get(System.getProperty("user.home"), DefaultDir);
+        Files.createDirectories(baseDir);
+
+        Path filePath = baseDir.resolve(filename).toAbsolutePath().normalize();
+        return stores.computeIfAbsent(filePath, SettingsStore::new);
+    }
+
+    private SettingsStore(Path filePath) {
+        this.filePath = filePath;
+        this.lockPath = filePath.resolveSibling(filePath.getFileName() + LOCK_FILE_SUFFIX);
+    }
+
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * @return the data of the current record, empty if nothing was written yet.
+     * The file is only read again if it changed since the last call.
+     */
+    public byte[] read() throws IOException {
+        return load().data.clone();
+    }
+
+    /**
+     * @return the version of the current record, 0 if nothing was written yet
+     */
+    public long getVersion() throws IOException {
+        return load().version;
+    }
+
+    public void write(byte[] data) throws IOException {
+        writeLock.lock();
+        try (FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = lock(lockChannel)) {
+            long version;
+            try {
+                // another process may have written since the last read
+                version = readRecord().version;
+            } catch (CorruptedRecordException ex) {
+                LOGGER.log(Level.WARNING, "Overwriting the corrupted record of " + filePath, ex);
+                Record current = record;
+                version = current == null ? 0 : current.version;
+            }
+
+            Path tempPath = Files.createTempFile(filePath.getParent(), filePath.getFileName() + ".", ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(encode(version + 1, data));
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+                try {
+                    Files.move(tempPath, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+            record = new Record(version + 1, data.clone(), stampOf(filePath));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes an empty record, which the other processes are notified about like any other write
+     */
+    public void clean() throws IOException {
+        write(new byte[]{});
+    }
+
+    public void addChangeListener(ChangeListener listener) throws IOException {
+        listeners.add(listener);
+        watch(filePath.getParent());
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private Record load() throws IOException {
+        Record current = record;
+        if (current != null && Objects.equals(current.stamp, stampOf(filePath))) {
+            return current;
+        }
+        Record loaded = readRecord();
+        record = loaded;
+        return loaded;
+    }
+
+    private Record readRecord() throws IOException {
+        // taken before reading, a change in between only causes one more read later
+        Object stamp = stampOf(filePath);
+        if (stamp == null) {
+            return new Record(0, new byte[]{}, null);
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(filePath);
+        } catch (NoSuchFileException ex) {
+            return new Record(0, new byte[]{}, null);
+        }
+        return decode(bytes, stamp);
+    }
+
+    static byte[] encode(long version, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        String header = String.format("%s %d %d %d %08x\n", RECORD_HEADER, RECORD_FORMAT, version, data.length,
+                crc.getValue());
+        byte[] headerBytes = header.getBytes(StandardCharsets.US_ASCII);
+        byte[] bytes = Arrays.copyOf(headerBytes, headerBytes.length + data.length);
+        System.arraycopy(data, 0, bytes, headerBytes.length, data.length);
+        return bytes;
+    }
+
+    private Record decode(byte[] bytes, Object stamp) throws IOException {
+        byte[] magic = RECORD_HEADER.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length < magic.length || !Arrays.equals(Arrays.copyOf(bytes, magic.length), magic)) {
+            // written by FileStorage
+            return new Record(0, bytes, stamp);
+        }
+
+        int headerEnd = 0;
+        while (headerEnd < bytes.length && bytes[headerEnd] != '\n') {
+            headerEnd++;
+        }
+        if (headerEnd == bytes.length) {
+            throw new CorruptedRecordException("The record header of " + filePath + " is incomplete");
+        }
+        String[] fields = new String(bytes, 0, headerEnd, StandardCharsets.US_ASCII).split(" ");
+        try {
+            if (fields.length != 5) {
+                throw new CorruptedRecordException("The record header of " + filePath + " is malformed");
+            }
+            int format = Integer.parseInt(fields[1]);
+            if (format > RECORD_FORMAT) {
+                throw new IOException("The record of " + filePath + " has the unsupported format " + format);
+            }
+            long version = Long.parseLong(fields[2]);
+            int length = Integer.parseInt(fields[3]);
+            long checksum = Long.parseLong(fields[4], 16);
+            if (bytes.length - headerEnd - 1 != length) {
+                throw new CorruptedRecordException("The record of " + filePath + " has " + (bytes.length - headerEnd - 1)
+                        + " bytes instead of " + length);
+            }
+            byte[] data = Arrays.copyOfRange(bytes, headerEnd + 1, bytes.length);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if (crc.getValue() != checksum) {
+                throw new CorruptedRecordException("The record of " + filePath + " doesn't match its checksum");
+            }
+            return new Record(version, data, stamp);
+        } catch (NumberFormatException ex) {
+            throw new CorruptedRecordException("The record header of " + filePath + " is malformed");
+        }
+    }
+
+    private static Object stampOf(Path path) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            // the file key changes with every rename on the file systems which have one
+            return Arrays.asList(attributes.lastModifiedTime(), attributes.size(), attributes.fileKey());
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    private FileLock lock(FileChannel channel) throws IOException {
+        long backoff = LOCK_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return lock;
+            }
+            if (attempt == LOCK_ATTEMPTS) {
+                throw new IOException("Timed out waiting for another process to release " + lockPath);
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + lockPath);
+            }
+            backoff = Math.min(backoff * 2, LOCK_MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private void checkForChange() {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        Record previous = record;
+        Record current;
+        try {
+            current = load();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to read the changed " + filePath, ex);
+            return;
+        }
+        // the writes of this process update the record, so they aren't reported
+        if (previous != null && previous.version == current.version) {
+            return;
+        }
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.changed(this);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "A listener of " + filePath + " failed", ex);
+            }
+        }
+    }
+
+    private static synchronized void watch(Path dir) throws IOException {
+        if (watchService == null) {
+            watchService = dir.getFileSystem().newWatchService();
+            Thread watcher = new Thread(SettingsStore::watchChanges, "SettingsStore watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        if (watchedDirs.add(dir)) {
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+    }
+
+    private static void watchChanges() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            Set<SettingsStore> changed = new HashSet<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    for (SettingsStore store : stores.values()) {
+                        if (store.filePath.getParent().equals(dir)) {
+                            changed.add(store);
+                        }
+                    }
+                } else {
+                    SettingsStore store = stores.get(dir.resolve((Path) event.context()));
+                    if (store != null) {
+                        changed.add(store);
+                    }
+                }
+            }
+            key.reset();
+            for (SettingsStore store : changed) {
+                store.checkForChange();
+            }
+        }
+    }
+}
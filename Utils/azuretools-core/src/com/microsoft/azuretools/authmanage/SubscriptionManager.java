@@ -33,41 +33,56 @@ import com.microsoft.azuretools.utils.Pair;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Created by shch on 10/3/2016.
  */
 public class SubscriptionManager {
-    private Set<ISubscriptionSelectionListener> listeners = new HashSet<>();
+    private static final Logger LOGGER = Logger.getLogger(SubscriptionManager.class.getName());
+    private final Set<ISubscriptionSelectionListener> listeners = new CopyOnWriteArraySet<>();
     protected AzureManager azureManager;
 
-    // for user to select subscr to work with
-    private List<SubscriptionDetail> subscriptionDetails;
-
-    // to get tid for sid
-    private Map<String, String> sidToTid = new HashMap<String, String>();
+    // replaced as a whole under the manager lock, read without locking
+    private volatile SubscriptionsSnapshot snapshot = SubscriptionsSnapshot.EMPTY;
 
     public SubscriptionManager(AzureManager azureManager) {
         this.azureManager = azureManager;
     }
 
-    public synchronized List<SubscriptionDetail> getSubscriptionDetails() throws AuthException, IOException {
-        System.out.println(Thread.currentThread().getId() + " SubscriptionManager.getSubscriptionDetails()");
-        if (subscriptionDetails == null) {
-            List<SubscriptionDetail> sdl = updateAccountSubscriptionList();
-            doSetSubscriptionDetails(sdl);;
+    /**
+     * @return the current state of the subscriptions, which doesn't load them
+     */
+    public SubscriptionsSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return a copy of the subscriptions of the account, loaded on the first call
+     */
+    public List<SubscriptionDetail> getSubscriptionDetails() throws AuthException, IOException {
+        SubscriptionsSnapshot current = snapshot;
+        if (current.isLoaded()) {
+            return current.getSubscriptionDetails();
+        }
+        synchronized (this) {
+            if (!snapshot.isLoaded()) {
+                LOGGER.log(Level.FINE, "Loading the subscriptions of the account");
+                List<SubscriptionDetail> sdl = updateAccountSubscriptionList();
+                doSetSubscriptionDetails(sdl);
+            }
+            return snapshot.getSubscriptionDetails();
         }
-        return subscriptionDetails;
     }
 
     protected List<SubscriptionDetail> updateAccountSubscriptionList() throws IOException {
-        System.out.println(Thread.currentThread().getId() + " SubscriptionManager.updateAccountSubscriptionList()");
-
         if (azureManager == null) {
             throw new IllegalArgumentException("azureManager is null");
         }
 
-        System.out.println("Getting subscription list from Azure");
+        LOGGER.log(Level.FINE, "Getting subscription list from Azure");
         List<SubscriptionDetail> sdl = new ArrayList<>();
         List<Pair<Subscription, Tenant>> stpl = azureManager.getSubscriptionsWithTenant();
         for (Pair<Subscription, Tenant> stp : stpl) {
@@ -81,70 +96,67 @@ public class SubscriptionManager {
         return sdl;
     }
 
-    private synchronized void doSetSubscriptionDetails(List<SubscriptionDetail> subscriptionDetails) throws AuthException {
-        System.out.println(Thread.currentThread().getId() + " SubscriptionManager.doSetSubscriptionDetails()");
+    /**
+     * @return the snapshot replaced
+     */
+    private synchronized SubscriptionsSnapshot doSetSubscriptionDetails(List<SubscriptionDetail> subscriptionDetails) throws AuthException {
         if (subscriptionDetails.isEmpty()) {
             throw new AuthException("No subscription found in the account");
         }
 
-        this.subscriptionDetails = subscriptionDetails;
-        updateSidToTidMap();
+        SubscriptionsSnapshot oldSnapshot = snapshot;
+        snapshot = new SubscriptionsSnapshot(subscriptionDetails);
+        LOGGER.log(Level.FINE, String.format("%d subscriptions, %d selected", subscriptionDetails.size(),
+                snapshot.getSelectedSids().size()));
+        return oldSnapshot;
     }
 
     public void setSubscriptionDetails(List<SubscriptionDetail> subscriptionDetails) throws AuthException, IOException {
-        System.out.println("SubscriptionManager.setSubscriptionDetails() " + Thread.currentThread().getId());
-        doSetSubscriptionDetails(subscriptionDetails);
-        notifyAllListeners();
+        SubscriptionsSnapshot oldSnapshot;
+        SubscriptionsSnapshot newSnapshot;
+        // the listeners get the snapshot published by this call, not one of a concurrent call
+        synchronized (this) {
+            oldSnapshot = doSetSubscriptionDetails(subscriptionDetails);
+            newSnapshot = snapshot;
+        }
+        notifyAllListeners(oldSnapshot, newSnapshot);
     }
 
-    public synchronized void addListener(ISubscriptionSelectionListener l) {
-        if (!listeners.contains(l)) {
-            listeners.add(l);
-        }
+    public void addListener(ISubscriptionSelectionListener l) {
+        listeners.add(l);
     }
 
-    public synchronized void removeListener(ISubscriptionSelectionListener l) {
+    public void removeListener(ISubscriptionSelectionListener l) {
         listeners.remove(l);
     }
 
-    private void notifyAllListeners() {
+    private void notifyAllListeners(SubscriptionsSnapshot oldSnapshot, SubscriptionsSnapshot newSnapshot) {
         for (ISubscriptionSelectionListener l : listeners) {
-            l.update(subscriptionDetails == null);
+            l.update(oldSnapshot, newSnapshot);
         }
         if (AzureUIRefreshCore.listeners != null) {
             AzureUIRefreshCore.execute(new AzureUIRefreshEvent(AzureUIRefreshEvent.EventType.UPDATE, null));
         }
     }
 
-    public synchronized String getSubscriptionTenant(String sid) {
-        System.out.println(Thread.currentThread().getId() + " SubscriptionManager.getSubscriptionTenant()");
-        String tid = sidToTid.get(sid);
-        return tid;
+    public String getSubscriptionTenant(String sid) {
+        return snapshot.getTenant(sid);
     }
 
-    public synchronized Set<String> getAccountSidList() {
-        System.out.println(Thread.currentThread().getId() + " SubscriptionManager.getAccountSidList()");
-        return sidToTid.keySet();
+    /**
+     * @return the selected subscriptions, an unmodifiable set which doesn't change afterwards
+     */
+    public Set<String> getAccountSidList() {
+        return snapshot.getSelectedSids();
     }
 
     public void cleanSubscriptions() throws IOException {
-        System.out.println(Thread.currentThread().getId() + " SubscriptionManager.cleanSubscriptions()");
+        LOGGER.log(Level.FINE, "Cleaning the subscriptions");
+        SubscriptionsSnapshot oldSnapshot;
         synchronized (this) {
-            if (subscriptionDetails != null) {
-                subscriptionDetails.clear();
-                subscriptionDetails = null;
-                sidToTid.clear();
-            }
-        }
-        notifyAllListeners();
-    }
-
-    private void updateSidToTidMap() {
-        System.out.println(Thread.currentThread().getId() + " SubscriptionManager.updateSidToTidMap()");
-        sidToTid.clear();
-        for (SubscriptionDetail sd : subscriptionDetails) {
-            if (sd.isSelected())
-                sidToTid.put(sd.getSubscriptionId(), sd.getTenantId());
+            oldSnapshot = snapshot;
+            snapshot = SubscriptionsSnapshot.EMPTY;
         }
+        notifyAllListeners(oldSnapshot, SubscriptionsSnapshot.EMPTY);
     }
 }
@@ -32,11 +32,29 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Created by vlashch on 11/15/16.
  */
 public class SubscriptionManagerPersist extends SubscriptionManager {
+    private static final Logger LOGGER = Logger.getLogger(SubscriptionManagerPersist.class.getName());
+
+    // reloads the selection made by another process, registered while the subscriptions are loaded
+    private final SettingsStore.ChangeListener storeListener = new SettingsStore.ChangeListener() {
+        @Override
+        public void changed(SettingsStore store) {
+            try {
+                List<SubscriptionDetail> sdl = loadSubscriptions(store);
+                if (sdl != null) {
+                    SubscriptionManagerPersist.super.setSubscriptionDetails(sdl);
+                }
+            } catch (IOException | AuthException ex) {
+                LOGGER.log(Level.WARNING, "Failed to reload " + store.getFilePath(), ex);
+            }
+        }
+    };
 
     public SubscriptionManagerPersist(AzureManager azureManager) {
         super(azureManager);
@@ -46,8 +64,9 @@ public class SubscriptionManagerPersist extends SubscriptionManager {
     public void setSubscriptionDetails(List<SubscriptionDetail> subscriptionDetails) throws AuthException, IOException {
         System.out.println(Thread.currentThread().getId() + " SubscriptionManagerPersist.setSubscriptionDetails()");
         synchronized (this) {
-            String subscriptionsDetailsFileName = azureManager.getSettings().getSubscriptionsDetailsFileName();
-            saveSubscriptions(subscriptionDetails, subscriptionsDetailsFileName);
+            SettingsStore store = getStore();
+            saveSubscriptions(subscriptionDetails, store);
+            store.addChangeListener(storeListener);
         }
         super.setSubscriptionDetails(subscriptionDetails);
     }
@@ -57,8 +76,14 @@ public class SubscriptionManagerPersist extends SubscriptionManager {
         System.out.println(Thread.currentThread().getId() + " SubscriptionManagerPersist.updateAccountSubscriptionList()");
         List<SubscriptionDetail> sdl = null;
         synchronized (this) {
-            String subscriptionsDetailsFileName = azureManager.getSettings().getSubscriptionsDetailsFileName();
-            sdl = loadSubscriptions(subscriptionsDetailsFileName);
+            SettingsStore store = getStore();
+            try {
+                sdl = loadSubscriptions(store);
+            } catch (SettingsStore.CorruptedRecordException ex) {
+                // list the subscriptions again, the next save replaces the record
+                LOGGER.log(Level.WARNING, "Ignoring the corrupted " + store.getFilePath(), ex);
+            }
+            store.addChangeListener(storeListener);
         }
 
         if (sdl == null) {
@@ -70,27 +95,29 @@ public class SubscriptionManagerPersist extends SubscriptionManager {
     @Override
     public synchronized void cleanSubscriptions() throws IOException {
         System.out.println(Thread.currentThread().getId() + " SubscriptionManagerPersist.cleanSubscriptions()");
-        String subscriptionsDetailsFileName = azureManager.getSettings().getSubscriptionsDetailsFileName();
-        deleteSubscriptions(subscriptionsDetailsFileName);
+        SettingsStore store = getStore();
+        store.removeChangeListener(storeListener);
+        store.clean();
         super.cleanSubscriptions();
     }
 
     public synchronized static void deleteSubscriptions(String subscriptionsDetailsFileName) throws IOException {
         System.out.println("cleaning " + subscriptionsDetailsFileName + " file");
-        //String subscriptionsDetailsFileName = azureManager.getSettings().getSubscriptionsDetailsFileName();
-        FileStorage fs = new FileStorage(subscriptionsDetailsFileName, CommonSettings.settingsBaseDir);
-        fs.cleanFile();
+        SettingsStore.getStore(subscriptionsDetailsFileName, CommonSettings.settingsBaseDir).clean();
+    }
+
+    private SettingsStore getStore() throws IOException {
+        String subscriptionsDetailsFileName = azureManager.getSettings().getSubscriptionsDetailsFileName();
+        return SettingsStore.getStore(subscriptionsDetailsFileName, CommonSettings.settingsBaseDir);
     }
 
-    private static List<SubscriptionDetail> loadSubscriptions(String subscriptionsDetailsFileName) throws IOException {
+    private static List<SubscriptionDetail> loadSubscriptions(SettingsStore store) throws IOException {
         System.out.println("SubscriptionManagerPersist.loadSubscriptions()");
 
-        //subscriptionDetails.clear();
-        FileStorage subscriptionsDetailsFileStorage = new FileStorage(subscriptionsDetailsFileName, CommonSettings.settingsBaseDir);
-        byte[] data = subscriptionsDetailsFileStorage.read();
+        byte[] data = store.read();
         String json = new String(data, StandardCharsets.UTF_8);
         if (json.isEmpty()) {
-            System.out.println(subscriptionsDetailsFileName + " file is empty");
+            System.out.println(store.getFilePath() + " file is empty");
             return null;
         }
         SubscriptionDetail[] sda = JsonHelper.deserialize(SubscriptionDetail[].class, json);
@@ -101,12 +128,10 @@ public class SubscriptionManagerPersist extends SubscriptionManager {
         return sdl;
     }
 
-    private static void saveSubscriptions(List<SubscriptionDetail> sdl, String subscriptionsDetailsFileName) throws IOException {
+    private static void saveSubscriptions(List<SubscriptionDetail> sdl, SettingsStore store) throws IOException {
         System.out.println("SubscriptionManagerPersist.saveSubscriptions()");
         String sd = JsonHelper.serialize(sdl);
-        //String subscriptionsDetailsFileName = azureManager.getSettings().getSubscriptionsDetailsFileName();
-        FileStorage subscriptionsDetailsFileStorage = new FileStorage(subscriptionsDetailsFileName, CommonSettings.settingsBaseDir);
-        subscriptionsDetailsFileStorage.write(sd.getBytes(StandardCharsets.UTF_8));
+        store.write(sd.getBytes(StandardCharsets.UTF_8));
     }
 
 }
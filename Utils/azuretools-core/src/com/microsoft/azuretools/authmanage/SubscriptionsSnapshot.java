@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) Microsoft Corporation
+ *   <p/>
+ *  All rights reserved.
+ *   <p/>
+ *  MIT License
+ *   <p/>
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ *  the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ *  to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *  <p/>
+ *  The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ *  the Software.
+ *   <p/>
+ *  THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ *  THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ *  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package com.microsoft.azuretools.authmanage;
+
+import com.microsoft.azuretools.authmanage.models.SubscriptionDetail;
+
+import java.util.*;
+
+/**
+ * Immutable state of the subscriptions of the account, see {@link SubscriptionManager#getSnapshot()}.
+ * A change of the subscriptions or of the selection publishes a new snapshot instead of updating this one.
+ */
+public final class SubscriptionsSnapshot {
+    public static final SubscriptionsSnapshot EMPTY = new SubscriptionsSnapshot(null);
+
+    // null until the subscriptions are loaded
+    private final List<SubscriptionDetail> subscriptionDetails;
+    // the selected subscriptions only
+    private final Map<String, String> sidToTid;
+
+    SubscriptionsSnapshot(List<SubscriptionDetail> subscriptionDetails) {
+        if (subscriptionDetails == null) {
+            this.subscriptionDetails = null;
+            this.sidToTid = Collections.emptyMap();
+            return;
+        }
+
+        List<SubscriptionDetail> sdl = new ArrayList<>(subscriptionDetails.size());
+        Map<String, String> selected = new LinkedHashMap<>();
+        for (SubscriptionDetail sd : subscriptionDetails) {
+            sdl.add(copy(sd));
+            if (sd.isSelected()) {
+                selected.put(sd.getSubscriptionId(), sd.getTenantId());
+            }
+        }
+        this.subscriptionDetails = Collections.unmodifiableList(sdl);
+        this.sidToTid = Collections.unmodifiableMap(selected);
+    }
+
+    public boolean isLoaded() {
+        return subscriptionDetails != null;
+    }
+
+    /**
+     * @return a copy of the subscriptions, which can be changed and passed to
+     * {@link SubscriptionManager#setSubscriptionDetails(List)}, or null if they aren't loaded
+     */
+    public List<SubscriptionDetail> getSubscriptionDetails() {
+        if (subscriptionDetails == null) {
+            return null;
+        }
+
+        List<SubscriptionDetail> sdl = new ArrayList<>(subscriptionDetails.size());
+        for (SubscriptionDetail sd : subscriptionDetails) {
+            sdl.add(copy(sd));
+        }
+        return sdl;
+    }
+
+    public Set<String> getSelectedSids() {
+        return sidToTid.keySet();
+    }
+
+    public String getTenant(String sid) {
+        return sidToTid.get(sid);
+    }
+
+    /**
+     * @return the subscriptions selected in this snapshot but not in the other one
+     */
+    public Set<String> getSelectedSidsNotIn(SubscriptionsSnapshot other) {
+        Set<String> sids = new LinkedHashSet<>(getSelectedSids());
+        sids.removeAll(other.getSelectedSids());
+        return sids;
+    }
+
+    private static SubscriptionDetail copy(SubscriptionDetail sd) {
+        return new SubscriptionDetail(sd.getSubscriptionId(), sd.getSubscriptionName(), sd.getTenantId(),
+                sd.isSelected());
+    }
+}
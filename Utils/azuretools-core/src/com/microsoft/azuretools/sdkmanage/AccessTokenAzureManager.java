@@ -36,18 +36,50 @@ import com.microsoft.azuretools.authmanage.RefreshableTokenCredentials;
 import com.microsoft.azuretools.authmanage.SubscriptionManager;
 import com.microsoft.azuretools.telemetry.TelemetryInterceptor;
 import com.microsoft.azuretools.utils.AzureRegisterProviderNamespaces;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
 import com.microsoft.azuretools.utils.Pair;
 import com.microsoft.rest.credentials.ServiceClientCredentials;
+import rx.Observable;
+import rx.schedulers.Schedulers;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class AccessTokenAzureManager extends AzureManagerBase {
     private final static Logger LOGGER = Logger.getLogger(AccessTokenAzureManager.class.getName());
+    public static final int TENANT_DISCOVERY_CONCURRENCY = 8;
+    // the credentials get their tokens per request, so one client per tenant can be shared
+    private static final Map<String, Azure.Authenticated> tidToAuthenticatedMap = new ConcurrentHashMap<>();
     private final SubscriptionManager subscriptionManager;
 
+    /**
+     * Receives the progress of the tenants discovered by {@link #discoverSubscriptions}, called from the
+     * discovery threads, a tenant at a time but different tenants concurrently
+     */
+    public interface TenantDiscoveryListener {
+        /**
+         * Called before the subscriptions of the tenant are listed, a failure fails the tenant
+         */
+        default void beforeListing(Tenant tenant) throws IOException {
+        }
+
+        default void tenantDiscovered(Tenant tenant, List<Subscription> subscriptions) {
+        }
+
+        default void tenantFailed(Tenant tenant, Throwable error) {
+        }
+    }
+
+    /**
+     * Lists the subscriptions of a tenant
+     */
+    interface SubscriptionLister {
+        List<Subscription> list(String tid) throws IOException;
+    }
+
     public AccessTokenAzureManager() {
         this.subscriptionManager = new SubscriptionManager(this);
     }
@@ -61,6 +93,7 @@ public class AccessTokenAzureManager extends AzureManagerBase {
     public void drop() throws IOException {
         subscriptionManager.cleanSubscriptions();
         AdAuthManager.getInstance().signOut();
+        tidToAuthenticatedMap.clear();
     }
 
     private static Settings settings;
@@ -78,7 +111,7 @@ public class AccessTokenAzureManager extends AzureManagerBase {
         String tid = subscriptionManager.getSubscriptionTenant(sid);
         Azure azure = authTid(tid).withSubscription(sid);
         // TODO: remove this call after Azure SDK properly implements handling of unregistered provider namespaces
-        AzureRegisterProviderNamespaces.registerAzureNamespaces(azure);
+        AzureRegisterProviderNamespaces.registerAzureNamespacesAsync(sid, azure);
         sidToAzureMap.put(sid, azure);
         return azure;
     }
@@ -87,23 +120,15 @@ public class AccessTokenAzureManager extends AzureManagerBase {
     public List<Subscription> getSubscriptions() throws IOException {
         List<Subscription> sl = new LinkedList<Subscription>();
         // could be multi tenant - return all subscriptions for the current account
-        List<Tenant> tl = getTenants("common");
-        for (Tenant t : tl) {
-            sl.addAll(getSubscriptions(t.tenantId()));
+        for (Pair<Subscription, Tenant> stp : getSubscriptionsWithTenant()) {
+            sl.add(stp.first());
         }
         return sl;
     }
 
     @Override
     public List<Pair<Subscription, Tenant>> getSubscriptionsWithTenant() throws IOException {
-        List<Pair<Subscription, Tenant>> stl = new LinkedList<>();
-        for (Tenant t : getTenants("common")) {
-            String tid = t.tenantId();
-            for (Subscription s : getSubscriptions(tid)) {
-                stl.add(new Pair<Subscription, Tenant>(s, t));
-            }
-        }
-        return stl;
+        return discoverSubscriptions(getTenants("common"), null);
     }
 
     @Override
@@ -121,6 +146,61 @@ public class AccessTokenAzureManager extends AzureManagerBase {
         return tl;
     }
 
+    /**
+     * List the subscriptions of several tenants, at most {@link #TENANT_DISCOVERY_CONCURRENCY} tenants at a time.
+     * A tenant that fails, e.g. blocked by a conditional access policy, is logged, reported to the listener and
+     * left out of the result.
+     *
+     * @return the subscriptions in the order of the tenants
+     * @throws IOException if every tenant failed
+     */
+    public static List<Pair<Subscription, Tenant>> discoverSubscriptions(List<Tenant> tenants,
+                                                                        @Nullable final TenantDiscoveryListener listener)
+            throws IOException {
+        return discoverSubscriptions(tenants, listener, AccessTokenAzureManager::getSubscriptions);
+    }
+
+    static List<Pair<Subscription, Tenant>> discoverSubscriptions(List<Tenant> tenants,
+                                                                 @Nullable final TenantDiscoveryListener listener,
+                                                                 final SubscriptionLister lister) throws IOException {
+        final Map<String, List<Subscription>> tidToSubscriptionsMap = new ConcurrentHashMap<>();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        Observable.from(tenants).flatMap(tenant -> Observable.fromCallable(() -> {
+            if (listener != null) {
+                listener.beforeListing(tenant);
+            }
+            List<Subscription> sl = lister.list(tenant.tenantId());
+            tidToSubscriptionsMap.put(tenant.tenantId(), sl);
+            if (listener != null) {
+                listener.tenantDiscovered(tenant, sl);
+            }
+            return sl;
+        }).subscribeOn(Schedulers.io()).onErrorResumeNext(error -> {
+            LOGGER.log(Level.WARNING, "Failed to list the subscriptions of tenant " + tenant.tenantId(), error);
+            errors.add(error);
+            if (listener != null) {
+                listener.tenantFailed(tenant, error);
+            }
+            return Observable.empty();
+        }), TENANT_DISCOVERY_CONCURRENCY).toBlocking().subscribe();
+
+        if (!tenants.isEmpty() && errors.size() == tenants.size()) {
+            throw new IOException("Failed to list the subscriptions of every tenant", errors.get(0));
+        }
+
+        List<Pair<Subscription, Tenant>> stl = new LinkedList<>();
+        for (Tenant t : tenants) {
+            List<Subscription> sl = tidToSubscriptionsMap.get(t.tenantId());
+            if (sl != null) {
+                for (Subscription s : sl) {
+                    stl.add(new Pair<Subscription, Tenant>(s, t));
+                }
+            }
+        }
+        return stl;
+    }
+
 //    public static Azure.Authenticated auth(String accessToken) throws Exception {
 //        return Azure.configure().authenticate(getTokenCredentials(accessToken));
 //    }
@@ -132,9 +212,17 @@ public class AccessTokenAzureManager extends AzureManagerBase {
     private static Azure.Authenticated authTid(String tid) throws IOException {
 //        String token = AdAuthManager.getInstance().getAccessToken(tid);
 //        return auth(token);
-        return Azure.configure()
-                .withInterceptor(new TelemetryInterceptor())
-                .withUserAgent(CommonSettings.USER_AGENT).authenticate(new RefreshableTokenCredentials(AdAuthManager.getInstance(), tid));
+        Azure.Authenticated authenticated = tidToAuthenticatedMap.get(tid);
+        if (authenticated == null) {
+            authenticated = Azure.configure()
+                    .withInterceptor(new TelemetryInterceptor())
+                    .withUserAgent(CommonSettings.USER_AGENT).authenticate(new RefreshableTokenCredentials(AdAuthManager.getInstance(), tid));
+            Azure.Authenticated existing = tidToAuthenticatedMap.putIfAbsent(tid, authenticated);
+            if (existing != null) {
+                authenticated = existing;
+            }
+        }
+        return authenticated;
     }
 
     @Override
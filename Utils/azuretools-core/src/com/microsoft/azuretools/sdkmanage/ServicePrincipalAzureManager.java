@@ -42,19 +42,27 @@ import com.microsoft.azuretools.utils.Pair;
 import com.microsoft.rest.RestClient;
 import com.microsoft.rest.credentials.ServiceClientCredentials;
 import retrofit2.Retrofit;
+import rx.Observable;
+import rx.schedulers.Schedulers;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 public class ServicePrincipalAzureManager extends AzureManagerBase {
     private final static Logger LOGGER = Logger.getLogger(ServicePrincipalAzureManager.class.getName());
     private static Settings settings;
+    // the credentials and clients built for an auth file or a secret, shared by the managers of the process
+    private static final Map<String, CachedAuth> credentialsCache = new ConcurrentHashMap<>();
     private final SubscriptionManager subscriptionManager;
     private final File credFile;
-    private ApplicationTokenCredentials atc;
+    private final String tid;
+    private final String appId;
+    private final String appKey;
 
     static {
         settings = new Settings();
@@ -66,19 +74,83 @@ public class ServicePrincipalAzureManager extends AzureManagerBase {
         SubscriptionManagerPersist.deleteSubscriptions(subscriptionsDetailsFileName);
     }
 
+    public static void clearCache() {
+        credentialsCache.clear();
+    }
+
     public ServicePrincipalAzureManager(String tid, String appId, String appKey) {
         this.credFile = null;
-        this.atc = new ApplicationTokenCredentials(appId, tid, appKey, null);
+        this.tid = tid;
+        this.appId = appId;
+        this.appKey = appKey;
         this.subscriptionManager = new SubscriptionManagerPersist(this);
     }
 
     public ServicePrincipalAzureManager(File credFile) {
         this.credFile = credFile;
+        this.tid = null;
+        this.appId = null;
+        this.appKey = null;
         this.subscriptionManager = new SubscriptionManagerPersist(this);
     }
 
+    /**
+     * The credentials and clients of an auth file are kept until the file is modified, the ones of a secret
+     * until the secret changes.
+     */
+    private CachedAuth cachedAuth() throws IOException {
+        if (credFile == null) {
+            String key = tid + "/" + appId;
+            CachedAuth cached = credentialsCache.get(key);
+            if (cached == null || !cached.credentials.hasSecret(appKey)) {
+                cached = new CachedAuth(0, 0,
+                        new ServicePrincipalCredentials(appId, tid, appKey, AzureEnvironment.AZURE));
+                credentialsCache.put(key, cached);
+            }
+            return cached;
+        }
+        return getCachedAuth(credFile);
+    }
+
+    private static CachedAuth getCachedAuth(File credFile) throws IOException {
+        String key = credFile.getCanonicalPath();
+        long lastModified = credFile.lastModified();
+        long length = credFile.length();
+        CachedAuth cached = credentialsCache.get(key);
+        if (cached == null || cached.lastModified != lastModified || cached.length != length) {
+            cached = new CachedAuth(lastModified, length, ServicePrincipalCredentials.loadFromFile(credFile));
+            credentialsCache.put(key, cached);
+        }
+        return cached;
+    }
+
+    static ServicePrincipalCredentials getCredentials(File credFile) throws IOException {
+        return getCachedAuth(credFile).credentials;
+    }
+
+    private ServicePrincipalCredentials credentials() throws IOException {
+        return cachedAuth().credentials;
+    }
+
     private Azure.Authenticated auth() throws IOException {
-        ApplicationTokenCredentials credentials = (atc == null) ? ApplicationTokenCredentials.fromFile(credFile) : atc;
+        return auth(cachedAuth());
+    }
+
+    private static Azure.Authenticated auth(CachedAuth cached) {
+        Azure.Authenticated authenticated = cached.authenticated;
+        if (authenticated == null) {
+            synchronized (cached) {
+                authenticated = cached.authenticated;
+                if (authenticated == null) {
+                    authenticated = authenticate(cached.credentials);
+                    cached.authenticated = authenticated;
+                }
+            }
+        }
+        return authenticated;
+    }
+
+    private static Azure.Authenticated authenticate(ApplicationTokenCredentials credentials) {
         if (!credentials.environment().managementEndpoint().contains(AzureEnvironment.AZURE.managementEndpoint()) &&
             AuthMethodManager.getClientBuilder() != null) {
             // Register attached resources certificates needed to work with China and Germany clouds
@@ -97,21 +169,21 @@ public class ServicePrincipalAzureManager extends AzureManagerBase {
             Azure.Configurable azureConfigurable = Azure.configure()
                     .withInterceptor(new TelemetryInterceptor())
                     .withUserAgent(CommonSettings.USER_AGENT);
-            return (atc == null)
-                ? azureConfigurable.authenticate(credFile)
-                : azureConfigurable.authenticate(atc);
+            return azureConfigurable.authenticate(credentials);
         }
     }
 
     @Override
     public Azure getAzure(String sid) throws IOException {
-        if (sidToAzureMap.containsKey(sid)) {
-            return sidToAzureMap.get(sid);
+        // the clients are cached with the credentials, so they are rebuilt once the auth file is modified
+        CachedAuth cached = cachedAuth();
+        Azure azure = cached.sidToAzureMap.get(sid);
+        if (azure == null) {
+            azure = auth(cached).withSubscription(sid);
+            // TODO: remove this call after Azure SDK properly implements handling of unregistered provider namespaces
+            AzureRegisterProviderNamespaces.registerAzureNamespacesAsync(sid, azure);
+            cached.sidToAzureMap.put(sid, azure);
         }
-        Azure azure = auth().withSubscription(sid);
-        // TODO: remove this call after Azure SDK properly implements handling of unregistered provider namespaces
-        AzureRegisterProviderNamespaces.registerAzureNamespaces(azure);
-        sidToAzureMap.put(sid, azure);
         return azure;
     }
 
@@ -121,18 +193,29 @@ public class ServicePrincipalAzureManager extends AzureManagerBase {
         return sl;
     }
 
+    /**
+     * The tenants and the subscriptions are listed concurrently, the subscriptions only once since the service
+     * principal sees the same ones from each of its tenants.
+     */
     @Override
     public List<Pair<Subscription, Tenant>> getSubscriptionsWithTenant() throws IOException {
+        final Azure.Authenticated authenticated = auth();
+        Pair<List<Tenant>, List<Subscription>> listed;
+        try {
+            listed = Observable.zip(
+                    Observable.fromCallable(() -> authenticated.tenants().list()).subscribeOn(Schedulers.io()),
+                    Observable.fromCallable(() -> authenticated.subscriptions().list()).subscribeOn(Schedulers.io()),
+                    (tl, sl) -> new Pair<List<Tenant>, List<Subscription>>(tl, sl))
+                    .toBlocking().single();
+        } catch (RuntimeException ex) {
+            throw new IOException("Failed to list the subscriptions of the service principal", ex);
+        }
+
         List<Pair<Subscription, Tenant>> stl = new LinkedList<>();
-        for (Tenant t : getTenants()) {
-            //String tid = t.tenantId();
-            for (Subscription s : getSubscriptions()) {
+        for (Tenant t : listed.first()) {
+            for (Subscription s : listed.second()) {
                 stl.add(new Pair<Subscription, Tenant>(s, t));
             }
-//            try {
-//            } catch (IOException e) {
-//                System.out.println(e.getMessage());
-//            }
         }
         return stl;
     }
@@ -151,6 +234,7 @@ public class ServicePrincipalAzureManager extends AzureManagerBase {
     public void drop() throws IOException {
         System.out.println("ServicePrincipalAzureManager.drop()");
         subscriptionManager.cleanSubscriptions();
+        clearCache();
     }
 
     public List<Tenant> getTenants() throws IOException {
@@ -164,8 +248,7 @@ public class ServicePrincipalAzureManager extends AzureManagerBase {
             @Override
             public String doAuthenticate(String authorization, String resource, String scope) {
                 try {
-                    initATCIfNeeded();
-                    return atc.getToken(resource);
+                    return credentials().getToken(resource);
                 } catch (Exception ex) {
                     throw new RuntimeException(ex);
                 }
@@ -177,21 +260,22 @@ public class ServicePrincipalAzureManager extends AzureManagerBase {
 
     @Override
     public String getCurrentUserId() throws IOException {
-        initATCIfNeeded();
-        return atc.clientId();
+        return credentials().clientId();
     }
 
     @Override
     public String getAccessToken(String tid) throws IOException {
         String uri = getManagementURI();
-        return atc.getToken(uri);
+        return credentials().getToken(uri);
     }
 
     @Override
     public String getManagementURI() throws IOException {
-        initATCIfNeeded();
+        ServicePrincipalCredentials credentials = credentials();
         // default to global cloud
-        return atc.environment() == null ? Constants.resourceARM : atc.environment().resourceManagerEndpoint();
+        return credentials.environment() == null
+                ? Constants.resourceARM
+                : credentials.environment().resourceManagerEndpoint();
     }
 
     @Override
@@ -216,9 +300,17 @@ public class ServicePrincipalAzureManager extends AzureManagerBase {
         }
     }
 
-    private void initATCIfNeeded() throws IOException {
-        if (atc == null) {
-            atc = ApplicationTokenCredentials.fromFile(credFile);
+    private static final class CachedAuth {
+        final long lastModified;
+        final long length;
+        final ServicePrincipalCredentials credentials;
+        final Map<String, Azure> sidToAzureMap = new ConcurrentHashMap<>();
+        volatile Azure.Authenticated authenticated;
+
+        CachedAuth(long lastModified, long length, ServicePrincipalCredentials credentials) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.credentials = credentials;
         }
     }
 }
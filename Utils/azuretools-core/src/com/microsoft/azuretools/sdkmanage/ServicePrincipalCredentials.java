@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) Microsoft Corporation
+ *   <p/>
+ *  All rights reserved.
+ *   <p/>
+ *  MIT License
+ *   <p/>
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ *  the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ *  to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *  <p/>
+ *  The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ *  the Software.
+ *   <p/>
+ *  THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ *  THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ *  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package com.microsoft.azuretools.sdkmanage;
+
+import com.microsoft.azure.AzureEnvironment;
+import com.microsoft.azure.credentials.ApplicationTokenCredentials;
+import com.microsoft.azuretools.adauth.AcquireTokenHandlerBase;
+import com.microsoft.azuretools.adauth.HttpHelper;
+import com.microsoft.azuretools.adauth.OAuthGrantType;
+import com.microsoft.azuretools.adauth.OAuthParameter;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client credentials of a service principal that keep their access tokens per resource and reuse them until
+ * shortly before they expire, so scripted operations don't request a token each time a client is built.
+ * The tokens are requested with the client secret from the token endpoint of the credentials' environment.
+ */
+class ServicePrincipalCredentials extends ApplicationTokenCredentials {
+    private final static Logger LOGGER = Logger.getLogger(ServicePrincipalCredentials.class.getName());
+    // a token is renewed this long before it expires so it doesn't expire while a request is in flight
+    static final long REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final String AUTH_FILE_SECRET = "key";
+
+    private final String secret;
+    private final String authority;
+    private final Map<String, Token> resourceToTokenMap = new ConcurrentHashMap<>();
+
+    ServicePrincipalCredentials(String clientId, String domain, String secret, AzureEnvironment environment) {
+        this(clientId, domain, secret, environment,
+                (environment == null ? AzureEnvironment.AZURE : environment).activeDirectoryEndpoint());
+    }
+
+    /**
+     * @param authorityHost the base URL of the token endpoint, the environment's Active Directory endpoint
+     */
+    ServicePrincipalCredentials(String clientId, String domain, String secret, AzureEnvironment environment,
+                                String authorityHost) {
+        super(clientId, domain, secret, environment);
+        this.secret = secret;
+        this.authority = (authorityHost.endsWith("/") ? authorityHost : authorityHost + "/") + domain;
+    }
+
+    /**
+     * Reads the credentials from an auth file, the format is the one of {@link ApplicationTokenCredentials#fromFile}.
+     */
+    static ServicePrincipalCredentials loadFromFile(File credFile) throws IOException {
+        ApplicationTokenCredentials parsed = ApplicationTokenCredentials.fromFile(credFile);
+        Properties authSettings = new Properties();
+        try (InputStream is = new FileInputStream(credFile)) {
+            authSettings.load(is);
+        }
+        ServicePrincipalCredentials credentials = new ServicePrincipalCredentials(parsed.clientId(), parsed.domain(),
+                authSettings.getProperty(AUTH_FILE_SECRET), parsed.environment());
+        credentials.withDefaultSubscriptionId(parsed.defaultSubscriptionId());
+        return credentials;
+    }
+
+    boolean hasSecret(String secret) {
+        return this.secret != null && this.secret.equals(secret);
+    }
+
+    @Override
+    public String getToken(String resource) throws IOException {
+        if (secret == null) {
+            return super.getToken(resource);
+        }
+        Token token = resourceToTokenMap.get(resource);
+        if (token != null && token.isValid()) {
+            return token.accessToken;
+        }
+        synchronized (this) {
+            // another thread may have renewed it while this one waited
+            token = resourceToTokenMap.get(resource);
+            if (token == null || !token.isValid()) {
+                token = acquireToken(resource);
+                resourceToTokenMap.put(resource, token);
+            }
+            return token.accessToken;
+        }
+    }
+
+    /**
+     * Forgets the tokens, the next {@link #getToken} requests a new one.
+     */
+    void clearTokens() {
+        resourceToTokenMap.clear();
+    }
+
+    private Token acquireToken(String resource) throws IOException {
+        LOGGER.log(Level.FINEST, "Requesting a client credentials token for " + resource);
+        Map<String, String> requestParameters = new HashMap<>();
+        requestParameters.put(OAuthParameter.GrantType, OAuthGrantType.ClientCredentials);
+        requestParameters.put(OAuthParameter.ClientId, clientId());
+        requestParameters.put(OAuthParameter.ClientSecret, secret);
+        requestParameters.put(OAuthParameter.Resource, resource);
+        TokenResponse response = HttpHelper.sendPostRequestAndDeserializeJsonResponse(authority + "/oauth2/token",
+                requestParameters, AcquireTokenHandlerBase.createCallState(null), TokenResponse.class);
+        if (response.accessToken == null) {
+            throw new IOException("The token endpoint returned no access token for " + resource);
+        }
+        return new Token(response.accessToken,
+                System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(response.expiresIn));
+    }
+
+    private static final class Token {
+        final String accessToken;
+        final long expiresOnMillis;
+
+        Token(String accessToken, long expiresOnMillis) {
+            this.accessToken = accessToken;
+            this.expiresOnMillis = expiresOnMillis;
+        }
+
+        boolean isValid() {
+            return System.currentTimeMillis() < expiresOnMillis - REFRESH_AHEAD_MILLIS;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class TokenResponse {
+        @JsonProperty("access_token")
+        String accessToken;
+
+        @JsonProperty("expires_in")
+        long expiresIn;
+    }
+}
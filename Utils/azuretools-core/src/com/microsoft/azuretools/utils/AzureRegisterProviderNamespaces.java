@@ -22,36 +22,146 @@
 package com.microsoft.azuretools.utils;
 
 import com.microsoft.azure.management.Azure;
+import com.microsoft.azure.management.resources.Provider;
+import com.microsoft.azuretools.adauth.JsonHelper;
+import com.microsoft.azuretools.authmanage.CommonSettings;
+import com.microsoft.azuretools.authmanage.SettingsStore;
 import rx.Observable;
 import rx.schedulers.Schedulers;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Makes sure the resource provider namespaces used by the tools are registered in a subscription.
+ *
+ * The registration state is read with one list call and only the missing namespaces are registered.
+ * Subscriptions found fully registered are remembered in a file for {@link #REGISTERED_STATE_TTL_MILLIS},
+ * during which they aren't checked again.
+ */
 public class AzureRegisterProviderNamespaces {
+  private static final Logger LOGGER = Logger.getLogger(AzureRegisterProviderNamespaces.class.getName());
+  private static final String[] NAMESPACES = new String[] {"Microsoft.Resources", "Microsoft.Network",
+      "Microsoft.Compute", "Microsoft.KeyVault", "Microsoft.Storage", "Microsoft.Web", "Microsoft.Authorization",
+      "Microsoft.HDInsight"};
+  private static final String REGISTERED_STATE_FILE_NAME = "ProviderRegistrations.json";
+  public static final long REGISTERED_STATE_TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  // subscription ID -> the time all namespaces were last seen registered
+  private static Map<String, Long> sidToRegisteredTimeMap = null;
+  // subscriptions with a check running, so a subscription is checked once at a time
+  private static final Set<String> pendingSids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
   public static void registerAzureNamespaces(Azure azureInstance) {
-    String[] namespaces = new String[] {"Microsoft.Resources", "Microsoft.Network", "Microsoft.Compute",
-        "Microsoft.KeyVault", "Microsoft.Storage", "Microsoft.Web", "Microsoft.Authorization", "Microsoft.HDInsight"};
     try {
-      Observable.from(namespaces).flatMap(namespace -> {
-        return Observable.fromCallable(new Callable<Object>() {
-          @Override
-          public Object call() throws Exception {
-            azureInstance.providers().register(namespace);
-            return null;
-          }
-        }).subscribeOn(Schedulers.io());
-      }).toBlocking().subscribe();
-//      azureInstance.providers().register("Microsoft.Resources");
-//      azureInstance.providers().register("Microsoft.Network");
-//      azureInstance.providers().register("Microsoft.Compute");
-//      azureInstance.providers().register("Microsoft.KeyVault");
-//      azureInstance.providers().register("Microsoft.Storage");
-//      azureInstance.providers().register("Microsoft.Web");
-//      azureInstance.providers().register("Microsoft.Authorization");
-//      azureInstance.providers().register("Microsoft.HDInsight");
+      registerMissingNamespaces(azureInstance).toBlocking().subscribe();
     } catch (Exception ignored) {
       // No need to handle this for now since this functionality will be eventually removed once the Azure SDK
       //  something similar
     }
   }
+
+  /**
+   * Check and register the namespaces of a subscription in background, unless the subscription was found
+   * registered within {@link #REGISTERED_STATE_TTL_MILLIS}
+   */
+  public static void registerAzureNamespacesAsync(final String sid, Azure azureInstance) {
+    if (isKnownRegistered(sid) || !pendingSids.add(sid)) {
+      return;
+    }
+
+    registerMissingNamespaces(azureInstance)
+        .subscribeOn(Schedulers.io())
+        .subscribe(
+            namespace -> LOGGER.log(Level.INFO, String.format("Registered %s in subscription %s", namespace, sid)),
+            error -> {
+              pendingSids.remove(sid);
+              LOGGER.log(Level.WARNING, "Failed to register the provider namespaces of subscription " + sid, error);
+            },
+            () -> {
+              setKnownRegistered(sid);
+              pendingSids.remove(sid);
+            });
+  }
+
+  /**
+   * @return the observable of the namespaces registered now, which completes when all namespaces are registered
+   */
+  private static Observable<String> registerMissingNamespaces(final Azure azureInstance) {
+    return Observable.fromCallable(new Callable<List<String>>() {
+      @Override
+      public List<String> call() throws Exception {
+        Set<String> registered = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (Provider provider : azureInstance.providers().list()) {
+          String state = provider.registrationState();
+          if ("Registered".equalsIgnoreCase(state) || "Registering".equalsIgnoreCase(state)) {
+            registered.add(provider.namespace());
+          }
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (String namespace : NAMESPACES) {
+          if (!registered.contains(namespace)) {
+            missing.add(namespace);
+          }
+        }
+        return missing;
+      }
+    }).flatMap(missing -> Observable.from(missing)).flatMap(namespace -> {
+      return Observable.fromCallable(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          azureInstance.providers().register(namespace);
+          return namespace;
+        }
+      }).subscribeOn(Schedulers.io());
+    });
+  }
+
+  private static synchronized boolean isKnownRegistered(String sid) {
+    Long registeredTime = getRegisteredState().get(sid);
+    return registeredTime != null && System.currentTimeMillis() - registeredTime < REGISTERED_STATE_TTL_MILLIS;
+  }
+
+  private static synchronized void setKnownRegistered(String sid) {
+    getRegisteredState().put(sid, System.currentTimeMillis());
+    saveRegisteredState();
+  }
+
+  private static Map<String, Long> getRegisteredState() {
+    if (sidToRegisteredTimeMap == null) {
+      sidToRegisteredTimeMap = new HashMap<>();
+      try {
+        SettingsStore store = SettingsStore.getStore(REGISTERED_STATE_FILE_NAME, CommonSettings.settingsBaseDir);
+        String json = new String(store.read(), StandardCharsets.UTF_8);
+        if (!json.isEmpty()) {
+          Map<?, ?> state = JsonHelper.deserialize(Map.class, json);
+          for (Map.Entry<?, ?> entry : state.entrySet()) {
+            if (entry.getValue() instanceof Number) {
+              sidToRegisteredTimeMap.put(entry.getKey().toString(), ((Number) entry.getValue()).longValue());
+            }
+          }
+        }
+      } catch (IOException ex) {
+        // the state is only an optimization, check the subscriptions again
+        LOGGER.log(Level.WARNING, "Failed to load the provider registration state", ex);
+      }
+    }
+    return sidToRegisteredTimeMap;
+  }
+
+  private static void saveRegisteredState() {
+    try {
+      SettingsStore store = SettingsStore.getStore(REGISTERED_STATE_FILE_NAME, CommonSettings.settingsBaseDir);
+      store.write(JsonHelper.serialize(sidToRegisteredTimeMap).getBytes(StandardCharsets.UTF_8));
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Failed to save the provider registration state", ex);
+    }
+  }
 }
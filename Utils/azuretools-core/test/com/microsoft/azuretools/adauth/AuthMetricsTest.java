@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azuretools.adauth;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class AuthMetricsTest {
+    private static final String ARM = "https://management.azure.com/";
+
+    @Test
+    public void countersAreKeptPerResource() {
+        AuthMetrics metrics = new AuthMetrics();
+        metrics.recordCacheLookup(ARM, true);
+        metrics.recordCacheLookup(ARM, true);
+        metrics.recordCacheLookup(ARM, false);
+        metrics.recordRefresh(ARM, true, 120, UUID.randomUUID());
+        metrics.recordRefresh(ARM, false, 80, UUID.randomUUID());
+        metrics.recordAcquisition(ARM, AuthMetrics.TokenSource.PROMPT, 9000, UUID.randomUUID());
+
+        AuthMetrics.ResourceCounters counters = metrics.peekCounters(ARM);
+        assertEquals(2, counters.hits.sum());
+        assertEquals(1, counters.misses.sum());
+        assertEquals(1, counters.refreshes.sum());
+        assertEquals(1, counters.refreshFailures.sum());
+        assertEquals(1, counters.prompts.sum());
+        assertNull(metrics.peekCounters("https://graph.windows.net/"));
+    }
+
+    @Test
+    public void sinksReceiveEventsAndAFailingSinkIsIsolated() {
+        AuthMetrics metrics = new AuthMetrics();
+        final List<Integer> statusCodes = new ArrayList<>();
+        metrics.addSink(new AuthMetrics.Sink() {
+            @Override
+            public void endpointCalled(String endpoint, int statusCode, long elapsedMillis, UUID correlationId) {
+                throw new IllegalStateException("broken sink");
+            }
+        });
+        metrics.addSink(new AuthMetrics.Sink() {
+            @Override
+            public void endpointCalled(String endpoint, int statusCode, long elapsedMillis, UUID correlationId) {
+                statusCodes.add(statusCode);
+            }
+        });
+
+        metrics.recordEndpointCall("https://login.microsoftonline.com/common/oauth2/token", 503, 40, null);
+        metrics.recordEndpointCall("https://login.microsoftonline.com/common/oauth2/token", 200, 60, null);
+
+        assertEquals(2, statusCodes.size());
+        assertEquals(Integer.valueOf(200), statusCodes.get(1));
+    }
+
+    @Test
+    public void dumpHoldsHistogramsAndCorrelationIds() throws Exception {
+        AuthMetrics metrics = new AuthMetrics();
+        UUID correlationId = UUID.randomUUID();
+        metrics.recordEndpointCall("https://login.microsoftonline.com/common/oauth2/token", 200, 60, correlationId);
+        metrics.recordAcquisition(ARM, AuthMetrics.TokenSource.REFRESH, 70, correlationId);
+        Path file = Files.createTempFile("auth-metrics", ".txt");
+
+        metrics.dump(file);
+
+        String report = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertTrue(report.contains("REFRESH: count 1, mean 70 ms, max 70 ms; <=100ms: 1"));
+        assertTrue(report.contains(correlationId.toString()));
+    }
+}
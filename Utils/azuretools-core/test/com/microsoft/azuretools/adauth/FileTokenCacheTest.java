@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azuretools.adauth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FileTokenCacheTest {
+    private static final String AUTHORITY = "https://login.microsoftonline.com/tenant/";
+    private static final String CLIENT_ID = "client";
+    private static final String ARM = "https://management.azure.com/";
+    private static final String GRAPH = "https://graph.windows.net/";
+
+    // magic, version and generation
+    private static final long JOURNAL_HEADER_LENGTH = 16;
+
+    private Path baseDir;
+    private UserInfo userInfo;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = Files.createTempDirectory("file-token-cache");
+        userInfo = new UserInfo("unique-id", "user@contoso.com", "Given", "Family", null, 0, null);
+    }
+
+    @Test
+    public void tokenLargerThan64KbSurvivesSerialization() throws Exception {
+        StringBuilder token = new StringBuilder();
+        while (token.length() < 100 * 1024) {
+            token.append("eyJncm91cHMiOlsiMDAwMDAwMDAtMDAwMC0wMDAwLTAwMDAtMDAwMDAwMDAwMDAwIl19");
+        }
+        TokenCache cache = new TokenCache();
+        cache.storeToCache(result(token.toString(), "refresh"), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+
+        TokenCache restored = new TokenCache(cache.serialize());
+
+        assertEquals(token.toString(), restored.loadFromCache(AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User,
+                null, null).accessToken);
+    }
+
+    @Test
+    public void changesAreReloadedFromTheJournal() throws Exception {
+        FileTokenCache cache = new FileTokenCache(baseDir.toString());
+        cache.storeToCache(result("arm", "refresh"), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+        cache.storeToCache(result("graph", "refresh"), AUTHORITY, GRAPH, CLIENT_ID, TokenSubjectType.User);
+        assertTrue(cache.flush());
+
+        FileTokenCache reloaded = new FileTokenCache(baseDir.toString());
+
+        assertEquals(2, reloaded.getCount());
+        assertEquals("graph", reloaded.loadFromCache(AUTHORITY, GRAPH, CLIENT_ID, TokenSubjectType.User,
+                null, null).accessToken);
+    }
+
+    @Test
+    public void recordsOfAnotherCacheAreMerged() throws Exception {
+        FileTokenCache first = new FileTokenCache(baseDir.toString());
+        FileTokenCache second = new FileTokenCache(baseDir.toString());
+
+        first.storeToCache(result("arm", "refresh"), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+        assertTrue(first.flush());
+        second.storeToCache(result("graph", "refresh"), AUTHORITY, GRAPH, CLIENT_ID, TokenSubjectType.User);
+        assertTrue(second.flush());
+        assertTrue(first.flush());
+
+        assertEquals(2, first.getCount());
+        assertEquals(2, second.getCount());
+        assertEquals("graph", first.loadFromCache(AUTHORITY, GRAPH, CLIENT_ID, TokenSubjectType.User,
+                null, null).accessToken);
+    }
+
+    @Test
+    public void tornRecordIsIgnored() throws Exception {
+        FileTokenCache cache = new FileTokenCache(baseDir.toString());
+        cache.storeToCache(result("arm", "refresh"), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+        assertTrue(cache.flush());
+        Path journal = baseDir.resolve(".msauth4j").resolve("msauth4j.cache");
+        Files.write(journal, new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+
+        FileTokenCache reloaded = new FileTokenCache(baseDir.toString());
+        assertEquals(1, reloaded.getCount());
+
+        reloaded.storeToCache(result("graph", "refresh"), AUTHORITY, GRAPH, CLIENT_ID, TokenSubjectType.User);
+        assertTrue(reloaded.flush());
+        assertEquals(2, new FileTokenCache(baseDir.toString()).getCount());
+    }
+
+    @Test
+    public void journalIsCompacted() throws Exception {
+        FileTokenCache cache = new FileTokenCache(baseDir.toString());
+        cache.storeToCache(result("arm", "refresh"), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+        assertTrue(cache.flush());
+        long singleItemSize = Files.size(baseDir.resolve(".msauth4j").resolve("msauth4j.cache"));
+
+        for (int i = 0; i < 200; i++) {
+            cache.storeToCache(result("arm" + i, "refresh"), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+            assertTrue(cache.flush());
+        }
+
+        assertTrue(Files.size(baseDir.resolve(".msauth4j").resolve("msauth4j.cache")) < 100 * singleItemSize);
+        FileTokenCache reloaded = new FileTokenCache(baseDir.toString());
+        assertEquals("arm199", reloaded.loadFromCache(AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User,
+                null, null).accessToken);
+    }
+
+    @Test
+    public void clearLeavesNoTokenInTheJournal() throws Exception {
+        FileTokenCache cache = new FileTokenCache(baseDir.toString());
+        FileTokenCache other = new FileTokenCache(baseDir.toString());
+        cache.storeToCache(result("arm-token", "refresh-token"), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+        cache.storeToCache(result("graph-token", "refresh-token"), AUTHORITY, GRAPH, CLIENT_ID, TokenSubjectType.User);
+        assertTrue(cache.flush());
+        assertTrue(other.flush());
+        assertEquals(2, other.getCount());
+
+        cache.clear();
+        assertTrue(cache.flush());
+
+        Path journal = getJournal();
+        assertEquals(JOURNAL_HEADER_LENGTH, Files.size(journal));
+        assertFalse(new String(Files.readAllBytes(journal), StandardCharsets.ISO_8859_1).contains("token"));
+        assertEquals(0, new FileTokenCache(baseDir.toString()).getCount());
+
+        assertTrue(other.flush());
+        assertEquals(0, other.getCount());
+    }
+
+    @Test
+    public void removingTheLastItemEmptiesTheJournal() throws Exception {
+        FileTokenCache cache = new FileTokenCache(baseDir.toString());
+        // near expiry and without a refresh token, so the next lookup removes it
+        cache.storeToCache(result("arm-token", null, 60), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+        assertTrue(cache.flush());
+        assertTrue(Files.size(getJournal()) > JOURNAL_HEADER_LENGTH);
+
+        assertNull(cache.loadFromCache(AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User, null, null));
+        assertEquals(0, cache.getCount());
+        assertTrue(cache.flush());
+
+        assertEquals(JOURNAL_HEADER_LENGTH, Files.size(getJournal()));
+    }
+
+    @Test
+    public void lockHeldByThisProcessIsRetriedLater() throws Exception {
+        FileTokenCache cache = new FileTokenCache(baseDir.toString());
+        cache.storeToCache(result("arm", "refresh"), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+
+        Path lockPath = baseDir.resolve(".msauth4j").resolve("msauth4j.cache.lock");
+        try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            assertFalse(cache.flush());
+        }
+
+        assertTrue(cache.flush());
+        assertEquals(1, new FileTokenCache(baseDir.toString()).getCount());
+    }
+
+    private Path getJournal() {
+        return baseDir.resolve(".msauth4j").resolve("msauth4j.cache");
+    }
+
+    private AuthenticationResult result(String accessToken, String refreshToken) {
+        return result(accessToken, refreshToken, 3600);
+    }
+
+    private AuthenticationResult result(String accessToken, String refreshToken, long expiresInSeconds) {
+        long expiresOn = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + expiresInSeconds;
+        AuthenticationResult result = new AuthenticationResult("Bearer", accessToken, refreshToken, expiresOn);
+        result.updateTenantAndUserInfo("tenant", null, userInfo);
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azuretools.adauth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HttpHelperTest {
+    private static final String TOKEN_RESPONSE = "{\"token_type\":\"Bearer\",\"access_token\":\"at\",\"refresh_token\":\"rt\"}";
+    private static final Map<String, String> REQUEST = Collections.singletonMap(OAuthParameter.GrantType,
+            OAuthGrantType.RefreshToken);
+
+    private HttpServer server;
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void requestIsRetriedWhileTheEndpointIsUnavailable() throws Exception {
+        String uri = serve(503, 2);
+
+        TokenResponse response = HttpHelper.sendPostRequestAndDeserializeJsonResponse(uri, REQUEST, null,
+                TokenResponse.class);
+
+        assertEquals("at", response.accessToken);
+        assertEquals(3, requestCount.get());
+    }
+
+    @Test
+    public void throttledRequestFailsAfterMaxAttempts() throws Exception {
+        String uri = serve(429, Integer.MAX_VALUE);
+
+        try {
+            HttpHelper.sendPostRequestAndDeserializeJsonResponse(uri, REQUEST, null, TokenResponse.class, 2);
+            fail("the throttled request succeeded");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("429"));
+            assertFalse(ex.getMessage().contains("\"rt\""));
+        }
+        assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    public void authorizationCodeIsRedeemedOnce() throws Exception {
+        String uri = serve(503, 1);
+        Map<String, String> request = Collections.singletonMap(OAuthParameter.GrantType,
+                OAuthGrantType.AuthorizationCode);
+
+        try {
+            HttpHelper.sendPostRequestAndDeserializeJsonResponse(uri, request, null, TokenResponse.class);
+            fail("the unavailable endpoint redeemed the code");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("503"));
+        }
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void onlyRepeatableGrantsAreRetriedByDefault() {
+        assertEquals(HttpHelper.DEFAULT_MAX_ATTEMPTS, HttpHelper.getDefaultMaxAttempts(REQUEST));
+        assertEquals(HttpHelper.DEFAULT_MAX_ATTEMPTS, HttpHelper.getDefaultMaxAttempts(
+                Collections.singletonMap(OAuthParameter.GrantType, OAuthGrantType.ClientCredentials)));
+        assertEquals(1, HttpHelper.getDefaultMaxAttempts(
+                Collections.singletonMap(OAuthParameter.GrantType, OAuthGrantType.AuthorizationCode)));
+        assertEquals(1, HttpHelper.getDefaultMaxAttempts(Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void secretsAreRedacted() {
+        String redacted = HttpHelper.redact("{\"error\":\"invalid_grant\",\"refresh_token\" : \"secret\"}");
+
+        assertFalse(redacted.contains("secret"));
+        assertTrue(redacted.contains("invalid_grant"));
+    }
+
+    // answers the first requests with the failure status, then with a token
+    private String serve(final int failureStatus, final int failures) {
+        server.createContext("/token", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try (InputStream in = exchange.getRequestBody()) {
+                    while (in.read() != -1) {
+                    }
+                }
+                boolean fail = requestCount.incrementAndGet() <= failures;
+                // the failure body holds a secret which must not reach the exception message
+                byte[] body = (fail ? "{\"error\":\"busy\",\"refresh_token\":\"rt\"}" : TOKEN_RESPONSE)
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Retry-After", "0");
+                exchange.sendResponseHeaders(fail ? failureStatus : 200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/token";
+    }
+}
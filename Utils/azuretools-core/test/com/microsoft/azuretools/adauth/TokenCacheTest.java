@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azuretools.adauth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TokenCacheTest {
+    private static final String AUTHORITY = "https://login.microsoftonline.com/tenant/";
+    private static final String CLIENT_ID = "client";
+    private static final String ARM = "https://management.azure.com/";
+    private static final String GRAPH = "https://graph.windows.net/";
+
+    private TokenCache cache;
+    private UserInfo userInfo;
+
+    @Before
+    public void setUp() {
+        cache = new TokenCache();
+        userInfo = new UserInfo("unique-id", "user@contoso.com", "Given", "Family", null, 0, null);
+    }
+
+    @Test
+    public void lookupMatchesResourceAndFallsBackToMultiResourceRefreshToken() throws Exception {
+        cache.storeToCache(result("arm", "refresh", 3600, true), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+
+        AuthenticationResult arm = cache.loadFromCache(AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User, null, null);
+        assertEquals("arm", arm.accessToken);
+
+        AuthenticationResult graph = cache.loadFromCache(AUTHORITY, GRAPH, CLIENT_ID, TokenSubjectType.User,
+                null, "user@contoso.com");
+        assertNull(graph.accessToken);
+        assertEquals("refresh", graph.refreshToken);
+
+        assertNull(cache.loadFromCache(AUTHORITY, ARM, "other", TokenSubjectType.User, null, null));
+        assertNull(cache.loadFromCache(AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User, "someone-else", null));
+    }
+
+    @Test
+    public void expiredTokenIsNotClearedInTheCachedItem() throws Exception {
+        AuthenticationResult expired = result("arm", "refresh", -60, false);
+        cache.storeToCache(expired, AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+
+        AuthenticationResult loaded = cache.loadFromCache(AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User, null, null);
+
+        assertNull(loaded.accessToken);
+        assertEquals("refresh", loaded.refreshToken);
+        assertEquals("arm", expired.accessToken);
+    }
+
+    @Test
+    public void newMultiResourceRefreshTokenIsSharedWithOtherResources() throws Exception {
+        cache.storeToCache(result("arm", "old", 3600, true), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+        cache.storeToCache(result("graph", "new", 3600, true), AUTHORITY, GRAPH, CLIENT_ID, TokenSubjectType.User);
+
+        assertEquals("new", cache.loadFromCache(AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User, null, null)
+                .refreshToken);
+        assertEquals(2, cache.getCount());
+    }
+
+    @Test
+    public void itemWithoutAnyTokenLeftIsRemoved() throws Exception {
+        cache.storeToCache(result("arm", null, -60, false), AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User);
+        cache.setHasStateChanged(false);
+
+        assertNull(cache.loadFromCache(AUTHORITY, ARM, CLIENT_ID, TokenSubjectType.User, null, null));
+        assertEquals(0, cache.getCount());
+        assertTrue(cache.getHasStateChanged());
+    }
+
+    private AuthenticationResult result(String accessToken, String refreshToken, long expiresInSeconds,
+                                        boolean multiResource) {
+        long expiresOn = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + expiresInSeconds;
+        AuthenticationResult result = new AuthenticationResult("Bearer", accessToken, refreshToken, expiresOn);
+        result.updateTenantAndUserInfo("tenant", null, userInfo);
+        result.isMultipleResourceRefreshToken = multiResource;
+        return result;
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azuretools.adauth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TokenRefresherTest {
+    private static final String AUTHORITY = "https://login.microsoftonline.com/tenant";
+    private static final String RESOURCE = "https://management.azure.com/";
+
+    private ScheduledThreadPoolExecutor scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void concurrentRefreshesShareOneRenewal() throws Exception {
+        final CountDownLatch renewalStarted = new CountDownLatch(1);
+        final CountDownLatch releaseRenewal = new CountDownLatch(1);
+        final AtomicInteger renewals = new AtomicInteger();
+        final TokenRefresher refresher = new TokenRefresher(new TokenRefresher.Renewal() {
+            @Override
+            public AuthenticationResult renew(String authority, String resource, long minExpiresOn,
+                                              TokenRefresher.Generation generation) throws IOException {
+                renewals.incrementAndGet();
+                renewalStarted.countDown();
+                try {
+                    releaseRenewal.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                return result("token", 3600);
+            }
+        }, 0, 0, 0, scheduler);
+
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<AuthenticationResult>> results = new ArrayList<>();
+            results.add(callers.submit(refreshCall(refresher)));
+            assertTrue(renewalStarted.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                results.add(callers.submit(refreshCall(refresher)));
+            }
+
+            // let the other callers join the running renewal
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+            while (refresher.getWaitingCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.yield();
+            }
+            assertEquals(3, refresher.getWaitingCount());
+            releaseRenewal.countDown();
+
+            for (Future<AuthenticationResult> result : results) {
+                assertEquals("token", result.get(5, TimeUnit.SECONDS).getAccessToken());
+            }
+            assertEquals(1, renewals.get());
+            assertEquals(1, refresher.getTrackedCount());
+            assertEquals(0, refresher.getWaitingCount());
+        } finally {
+            callers.shutdownNow();
+            refresher.clear();
+        }
+    }
+
+    @Test
+    public void trackedTokenIsRenewedAheadOfExpiration() throws Exception {
+        final BlockingQueue<Long> renewals = new LinkedBlockingQueue<>();
+        TokenRefresher refresher = new TokenRefresher(new TokenRefresher.Renewal() {
+            @Override
+            public AuthenticationResult renew(String authority, String resource, long minExpiresOn,
+                                              TokenRefresher.Generation generation) {
+                renewals.add(System.currentTimeMillis());
+                return result("renewed", 3600);
+            }
+        }, TimeUnit.MINUTES.toMillis(10), TimeUnit.SECONDS.toMillis(1), 0, scheduler);
+
+        // expires in five minutes, already within the ten minutes ahead
+        refresher.track(AUTHORITY, RESOURCE, nowSeconds() + 300);
+
+        assertNotNull(renewals.poll(5, TimeUnit.SECONDS));
+        awaitScheduler();
+
+        // the renewed token is tracked again, due long after the test ends
+        assertTrue(renewals.isEmpty());
+        assertEquals(1, refresher.getTrackedCount());
+        assertEquals(1, scheduler.getQueue().size());
+        assertTrue(getScheduledDelayMillis() > TimeUnit.MINUTES.toMillis(45));
+
+        refresher.clear();
+        assertEquals(0, refresher.getTrackedCount());
+        assertTrue(scheduler.getQueue().isEmpty());
+    }
+
+    @Test
+    public void tokenThatCannotBeRenewedIsNoLongerTracked() throws Exception {
+        final CountDownLatch renewed = new CountDownLatch(1);
+        TokenRefresher refresher = new TokenRefresher(new TokenRefresher.Renewal() {
+            @Override
+            public AuthenticationResult renew(String authority, String resource, long minExpiresOn,
+                                              TokenRefresher.Generation generation) {
+                renewed.countDown();
+                return null;
+            }
+        }, TimeUnit.MINUTES.toMillis(10), 0, 0, scheduler);
+
+        refresher.track(AUTHORITY, RESOURCE, nowSeconds());
+
+        assertTrue(renewed.await(5, TimeUnit.SECONDS));
+        awaitScheduler();
+
+        assertEquals(0, refresher.getTrackedCount());
+        assertTrue(scheduler.getQueue().isEmpty());
+    }
+
+    @Test
+    public void failedRenewalKeepsATokenTrackedMeanwhile() throws Exception {
+        final CountDownLatch renewalStarted = new CountDownLatch(1);
+        final CountDownLatch releaseRenewal = new CountDownLatch(1);
+        final TokenRefresher refresher = new TokenRefresher(new TokenRefresher.Renewal() {
+            @Override
+            public AuthenticationResult renew(String authority, String resource, long minExpiresOn,
+                                              TokenRefresher.Generation generation) throws IOException {
+                renewalStarted.countDown();
+                try {
+                    releaseRenewal.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                throw new IOException("token endpoint unavailable");
+            }
+        }, TimeUnit.MINUTES.toMillis(10), 0, 0, scheduler);
+
+        refresher.track(AUTHORITY, RESOURCE, nowSeconds());
+        assertTrue(renewalStarted.await(5, TimeUnit.SECONDS));
+
+        // a token acquired inline while the renewal is failing
+        refresher.track(AUTHORITY, RESOURCE, nowSeconds() + 3600);
+        releaseRenewal.countDown();
+        awaitScheduler();
+
+        assertEquals(1, refresher.getTrackedCount());
+        assertEquals(1, scheduler.getQueue().size());
+    }
+
+    @Test
+    public void renewalRunningWhenClearedIsDropped() throws Exception {
+        final CountDownLatch firstRenewalStarted = new CountDownLatch(1);
+        final CountDownLatch renewalsStarted = new CountDownLatch(2);
+        final CountDownLatch releaseRenewals = new CountDownLatch(1);
+        final AtomicInteger stored = new AtomicInteger();
+        final TokenRefresher refresher = new TokenRefresher(new TokenRefresher.Renewal() {
+            @Override
+            public AuthenticationResult renew(String authority, String resource, long minExpiresOn,
+                                              TokenRefresher.Generation generation) throws IOException {
+                firstRenewalStarted.countDown();
+                renewalsStarted.countDown();
+                try {
+                    releaseRenewals.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                return generation.runIfCurrent(stored::incrementAndGet) ? result("token", 3600) : null;
+            }
+        }, TimeUnit.MINUTES.toMillis(10), 0, 0, scheduler);
+
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<AuthenticationResult> stale = callers.submit(refreshCall(refresher));
+            assertTrue(firstRenewalStarted.await(5, TimeUnit.SECONDS));
+
+            // signed out while the renewal is running, then signed in again
+            refresher.clear();
+            Future<AuthenticationResult> current = callers.submit(refreshCall(refresher));
+            assertTrue(renewalsStarted.await(5, TimeUnit.SECONDS));
+            releaseRenewals.countDown();
+
+            assertNull(stale.get(5, TimeUnit.SECONDS));
+            assertEquals("token", current.get(5, TimeUnit.SECONDS).accessToken);
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertEquals(1, stored.get());
+        assertEquals(1, refresher.getTrackedCount());
+        refresher.clear();
+    }
+
+    @Test
+    public void trackingTheSameExpirationKeepsTheScheduledRenewal() throws Exception {
+        TokenRefresher refresher = new TokenRefresher(noRenewal(), TimeUnit.MINUTES.toMillis(10), 0, 0, scheduler);
+        long expiresOn = nowSeconds() + 3600;
+
+        refresher.track(AUTHORITY, RESOURCE, expiresOn);
+        Object scheduled = scheduler.getQueue().peek();
+
+        refresher.track(AUTHORITY, RESOURCE, expiresOn);
+        assertSame(scheduled, scheduler.getQueue().peek());
+        assertEquals(1, scheduler.getQueue().size());
+
+        refresher.track(AUTHORITY, RESOURCE, expiresOn + 60);
+        assertNotSame(scheduled, scheduler.getQueue().peek());
+        assertEquals(1, scheduler.getQueue().size());
+        assertEquals(1, refresher.getTrackedCount());
+
+        refresher.clear();
+    }
+
+    @Test
+    public void renewalIsNeverDueSoonerThanTheMinimumDelay() throws Exception {
+        long minDelayMillis = TimeUnit.MINUTES.toMillis(5);
+        TokenRefresher refresher = new TokenRefresher(noRenewal(), TimeUnit.MINUTES.toMillis(10), 0, minDelayMillis,
+                scheduler);
+
+        // a token lasting less than the time ahead
+        refresher.track(AUTHORITY, RESOURCE, nowSeconds() + 60);
+
+        long delayMillis = getScheduledDelayMillis();
+        assertTrue(delayMillis > minDelayMillis - TimeUnit.SECONDS.toMillis(5));
+        assertTrue(delayMillis <= minDelayMillis);
+
+        refresher.clear();
+    }
+
+    private void awaitScheduler() throws Exception {
+        // the scheduler has a single thread, so this runs after the renewal in progress
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    private long getScheduledDelayMillis() {
+        return ((ScheduledFuture<?>) scheduler.getQueue().peek()).getDelay(TimeUnit.MILLISECONDS);
+    }
+
+    private static long nowSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    private static TokenRefresher.Renewal noRenewal() {
+        return new TokenRefresher.Renewal() {
+            @Override
+            public AuthenticationResult renew(String authority, String resource, long minExpiresOn,
+                                              TokenRefresher.Generation generation) {
+                return null;
+            }
+        };
+    }
+
+    private static Callable<AuthenticationResult> refreshCall(final TokenRefresher refresher) {
+        return new Callable<AuthenticationResult>() {
+            @Override
+            public AuthenticationResult call() throws Exception {
+                return refresher.refresh(AUTHORITY, RESOURCE);
+            }
+        };
+    }
+
+    private static AuthenticationResult result(String accessToken, long expiresInSeconds) {
+        return new AuthenticationResult("Bearer", accessToken, "refresh", nowSeconds() + expiresInSeconds);
+    }
+}
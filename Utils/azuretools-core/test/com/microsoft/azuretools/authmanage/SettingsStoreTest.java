@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azuretools.authmanage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class SettingsStoreTest {
+    private Path baseDir;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = Files.createTempDirectory("settings-store");
+    }
+
+    @Test
+    public void writeReplacesRecordAndIncrementsVersion() throws Exception {
+        SettingsStore store = SettingsStore.getStore("settings.json", baseDir.toString());
+        assertEquals(0, store.getVersion());
+        assertEquals(0, store.read().length);
+
+        store.write(bytes("{\"a\":1}"));
+        store.write(bytes("{\"a\":2}"));
+
+        assertEquals(2, store.getVersion());
+        assertEquals("{\"a\":2}", new String(store.read(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void plainFileIsReadAsVersionZero() throws Exception {
+        Files.write(baseDir.resolve("legacy.json"), bytes("[]"));
+        SettingsStore store = SettingsStore.getStore("legacy.json", baseDir.toString());
+        assertEquals(0, store.getVersion());
+        assertEquals("[]", new String(store.read(), StandardCharsets.UTF_8));
+
+        store.write(bytes("[1]"));
+        assertEquals(1, store.getVersion());
+        assertTrue(new String(Files.readAllBytes(store.getFilePath()), StandardCharsets.UTF_8)
+                .startsWith(SettingsStore.RECORD_HEADER));
+    }
+
+    @Test
+    public void tornRecordIsDetected() throws Exception {
+        SettingsStore store = SettingsStore.getStore("torn.json", baseDir.toString());
+        store.write(bytes("{\"subscriptions\":[]}"));
+        byte[] record = Files.readAllBytes(store.getFilePath());
+        Files.write(store.getFilePath(), Arrays.copyOf(record, record.length - 4));
+
+        try {
+            store.read();
+            fail("the torn record was read");
+        } catch (SettingsStore.CorruptedRecordException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void concurrentWritersKeepEveryVersion() throws Exception {
+        final SettingsStore store = SettingsStore.getStore("concurrent.json", baseDir.toString());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                final int writer = i;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 25; j++) {
+                        store.write(bytes("writer " + writer + " write " + j));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(100, store.getVersion());
+        assertTrue(new String(store.read(), StandardCharsets.UTF_8).startsWith("writer "));
+    }
+
+    @Test
+    public void listenerIsNotifiedOfAnotherWriter() throws Exception {
+        SettingsStore store = SettingsStore.getStore("shared.json", baseDir.toString());
+        store.write(bytes("mine"));
+        final BlockingQueue<Long> versions = new LinkedBlockingQueue<>();
+        store.addChangeListener(s -> {
+            try {
+                versions.add(s.getVersion());
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+
+        // what another process does: rename a newer record over the file
+        Path temp = Files.createTempFile(baseDir, "shared.json.", ".tmp");
+        Files.write(temp, SettingsStore.encode(7, bytes("theirs")));
+        Files.move(temp, store.getFilePath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        assertEquals(Long.valueOf(7), versions.poll(30, TimeUnit.SECONDS));
+        assertEquals("theirs", new String(store.read(), StandardCharsets.UTF_8));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
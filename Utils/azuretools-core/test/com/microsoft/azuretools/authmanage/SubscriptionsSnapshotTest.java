@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azuretools.authmanage;
+
+import com.microsoft.azuretools.adauth.AuthException;
+import com.microsoft.azuretools.authmanage.models.SubscriptionDetail;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionsSnapshotTest {
+    private final SubscriptionManager manager = new SubscriptionManager(null);
+
+    @Test
+    public void snapshotIsIsolatedFromTheDetailsItWasBuiltFrom() throws Exception {
+        List<SubscriptionDetail> sdl = details("s1", "s2");
+        manager.setSubscriptionDetails(sdl);
+
+        sdl.get(0).setSelected(false);
+        sdl.add(new SubscriptionDetail("s3", "s3", "t", true));
+
+        SubscriptionsSnapshot snapshot = manager.getSnapshot();
+        assertEquals(new HashSet<>(Arrays.asList("s1", "s2")), snapshot.getSelectedSids());
+        assertEquals(2, snapshot.getSubscriptionDetails().size());
+
+        // a copy handed out can be changed without changing the snapshot
+        List<SubscriptionDetail> copy = manager.getSubscriptionDetails();
+        copy.get(1).setSelected(false);
+        copy.clear();
+
+        assertTrue(snapshot.getSubscriptionDetails().get(1).isSelected());
+        assertEquals(2, manager.getSubscriptionDetails().size());
+
+        try {
+            manager.getAccountSidList().remove("s1");
+            fail("expected the selected subscriptions to be unmodifiable");
+        } catch (UnsupportedOperationException ex) {
+            assertEquals("t-s1", manager.getSubscriptionTenant("s1"));
+        }
+    }
+
+    @Test
+    public void publishedSnapshotNeverChanges() throws Exception {
+        manager.setSubscriptionDetails(details("s1", "s2"));
+        SubscriptionsSnapshot before = manager.getSnapshot();
+        Set<String> sidsBefore = manager.getAccountSidList();
+
+        List<SubscriptionDetail> sdl = manager.getSubscriptionDetails();
+        sdl.get(0).setSelected(false);
+        manager.setSubscriptionDetails(sdl);
+
+        assertNotSame(before, manager.getSnapshot());
+        assertEquals(new HashSet<>(Arrays.asList("s1", "s2")), before.getSelectedSids());
+        assertEquals(new HashSet<>(Arrays.asList("s1", "s2")), sidsBefore);
+        assertEquals(Collections.singleton("s2"), manager.getAccountSidList());
+        assertNull(manager.getSubscriptionTenant("s1"));
+        assertEquals("t-s1", before.getTenant("s1"));
+
+        manager.cleanSubscriptions();
+
+        assertSame(SubscriptionsSnapshot.EMPTY, manager.getSnapshot());
+        assertFalse(manager.getSnapshot().isLoaded());
+        assertNull(manager.getSnapshot().getSubscriptionDetails());
+        assertTrue(manager.getAccountSidList().isEmpty());
+    }
+
+    @Test(expected = AuthException.class)
+    public void noSubscriptionsIsAnError() throws Exception {
+        manager.setSubscriptionDetails(new ArrayList<SubscriptionDetail>());
+    }
+
+    @Test
+    public void listenersGetTheOldAndTheNewSnapshot() throws Exception {
+        final List<SubscriptionsSnapshot[]> changes = new ArrayList<>();
+        final List<Boolean> refreshes = new ArrayList<>();
+        ISubscriptionSelectionListener listener = new ISubscriptionSelectionListener() {
+            @Override
+            public void update(boolean isRefresh) {
+                fail("the listener applies the difference only");
+            }
+
+            @Override
+            public void update(SubscriptionsSnapshot oldSnapshot, SubscriptionsSnapshot newSnapshot) {
+                changes.add(new SubscriptionsSnapshot[]{oldSnapshot, newSnapshot});
+            }
+        };
+        // an existing listener, only told whether the subscriptions were cleaned
+        ISubscriptionSelectionListener legacyListener = refreshes::add;
+        manager.addListener(listener);
+        manager.addListener(legacyListener);
+
+        manager.setSubscriptionDetails(details("s1"));
+        SubscriptionsSnapshot first = manager.getSnapshot();
+        manager.setSubscriptionDetails(details("s1", "s2"));
+        SubscriptionsSnapshot second = manager.getSnapshot();
+        manager.cleanSubscriptions();
+
+        assertEquals(3, changes.size());
+        assertSame(SubscriptionsSnapshot.EMPTY, changes.get(0)[0]);
+        assertSame(first, changes.get(0)[1]);
+        assertSame(first, changes.get(1)[0]);
+        assertSame(second, changes.get(1)[1]);
+        assertEquals(Collections.singleton("s2"), changes.get(1)[1].getSelectedSidsNotIn(changes.get(1)[0]));
+        assertSame(second, changes.get(2)[0]);
+        assertSame(SubscriptionsSnapshot.EMPTY, changes.get(2)[1]);
+        assertEquals(Arrays.asList(false, false, true), refreshes);
+
+        manager.removeListener(listener);
+        manager.removeListener(legacyListener);
+        manager.setSubscriptionDetails(details("s3"));
+
+        assertEquals(3, changes.size());
+        assertEquals(3, refreshes.size());
+    }
+
+    @Test
+    public void concurrentReadersSeeWholeSnapshots() throws Exception {
+        final List<SubscriptionDetail> first = details("s1", "s2");
+        final List<SubscriptionDetail> second = details("s3");
+        final Set<String> firstSids = new HashSet<>(Arrays.asList("s1", "s2"));
+        final Set<String> secondSids = Collections.singleton("s3");
+        manager.setSubscriptionDetails(first);
+
+        final AtomicInteger writes = new AtomicInteger();
+        final CountDownLatch readersStarted = new CountDownLatch(4);
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> reads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                reads.add(readers.submit(() -> {
+                    readersStarted.countDown();
+                    int count = 0;
+                    do {
+                        SubscriptionsSnapshot snapshot = manager.getSnapshot();
+                        Set<String> sids = snapshot.getSelectedSids();
+                        assertTrue(sids.equals(firstSids) || sids.equals(secondSids));
+                        assertEquals(sids.size(), snapshot.getSubscriptionDetails().size());
+                        for (String sid : sids) {
+                            assertEquals("t-" + sid, snapshot.getTenant(sid));
+                        }
+                        count++;
+                    } while (writes.get() < 1000);
+                    return count;
+                }));
+            }
+
+            assertTrue(readersStarted.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 1000; i++) {
+                manager.setSubscriptionDetails(i % 2 == 0 ? second : first);
+                writes.incrementAndGet();
+            }
+
+            for (Future<Integer> read : reads) {
+                assertTrue(read.get(10, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void subscriptionsAreLoadedOnceForConcurrentCallers() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch releaseLoading = new CountDownLatch(1);
+        final SubscriptionManager loadingManager = new SubscriptionManager(null) {
+            @Override
+            protected List<SubscriptionDetail> updateAccountSubscriptionList() {
+                loads.incrementAndGet();
+                loading.countDown();
+                try {
+                    releaseLoading.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return details("s1", "s2");
+            }
+        };
+
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<SubscriptionDetail>>> results = new ArrayList<>();
+            results.add(callers.submit(loadingManager::getSubscriptionDetails));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                results.add(callers.submit(loadingManager::getSubscriptionDetails));
+            }
+            releaseLoading.countDown();
+
+            for (Future<List<SubscriptionDetail>> result : results) {
+                assertEquals(2, result.get(5, TimeUnit.SECONDS).size());
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private static List<SubscriptionDetail> details(String... sids) {
+        List<SubscriptionDetail> sdl = new ArrayList<>();
+        for (String sid : sids) {
+            sdl.add(new SubscriptionDetail(sid, "name of " + sid, "t-" + sid, true));
+        }
+        return sdl;
+    }
+}
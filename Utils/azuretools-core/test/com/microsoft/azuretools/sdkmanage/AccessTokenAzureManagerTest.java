@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azuretools.sdkmanage;
+
+import com.microsoft.azure.management.resources.Subscription;
+import com.microsoft.azure.management.resources.Tenant;
+import com.microsoft.azuretools.utils.Pair;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AccessTokenAzureManagerTest {
+    private final Map<String, List<Subscription>> tidToSubscriptionsMap = new HashMap<>();
+    private final List<String> discovered = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, Throwable> failed = Collections.synchronizedMap(new HashMap<String, Throwable>());
+
+    private final AccessTokenAzureManager.TenantDiscoveryListener listener =
+            new AccessTokenAzureManager.TenantDiscoveryListener() {
+                @Override
+                public void tenantDiscovered(Tenant tenant, List<Subscription> subscriptions) {
+                    discovered.add(tenant.tenantId());
+                }
+
+                @Override
+                public void tenantFailed(Tenant tenant, Throwable error) {
+                    failed.put(tenant.tenantId(), error);
+                }
+            };
+
+    @Test
+    public void subscriptionsKeepTheOrderOfTheTenants() throws Exception {
+        final List<Tenant> tenants = tenants("t0", "t1", "t2");
+        final CountDownLatch othersDiscovered = new CountDownLatch(2);
+
+        // the first tenant finishes last, after the others were discovered meanwhile
+        List<Pair<Subscription, Tenant>> stl = AccessTokenAzureManager.discoverSubscriptions(tenants,
+                new AccessTokenAzureManager.TenantDiscoveryListener() {
+                    @Override
+                    public void tenantDiscovered(Tenant tenant, List<Subscription> subscriptions) {
+                        listener.tenantDiscovered(tenant, subscriptions);
+                        othersDiscovered.countDown();
+                    }
+                }, tid -> {
+                    if (tid.equals("t0")) {
+                        try {
+                            assertTrue(othersDiscovered.await(5, TimeUnit.SECONDS));
+                        } catch (InterruptedException ex) {
+                            throw new IOException(ex);
+                        }
+                    }
+                    return subscriptions(tid, 2);
+                });
+
+        assertEquals(3, discovered.size());
+        assertEquals("t0", discovered.get(2));
+        assertEquals(6, stl.size());
+        for (int i = 0; i < stl.size(); i++) {
+            Tenant tenant = tenants.get(i / 2);
+            assertSame(tenant, stl.get(i).second());
+            assertSame(tidToSubscriptionsMap.get(tenant.tenantId()).get(i % 2), stl.get(i).first());
+        }
+    }
+
+    @Test
+    public void failedTenantIsLeftOut() throws Exception {
+        List<Tenant> tenants = tenants("t0", "t1", "t2");
+        final IOException error = new IOException("AADSTS53003: blocked by conditional access");
+
+        List<Pair<Subscription, Tenant>> stl = AccessTokenAzureManager.discoverSubscriptions(tenants, listener, tid -> {
+            if (tid.equals("t1")) {
+                throw error;
+            }
+            return subscriptions(tid, 1);
+        });
+
+        assertEquals(2, stl.size());
+        assertSame(tenants.get(0), stl.get(0).second());
+        assertSame(tenants.get(2), stl.get(1).second());
+        assertEquals(new HashSet<>(Arrays.asList("t0", "t2")), new HashSet<>(discovered));
+        assertEquals(Collections.singletonMap("t1", (Throwable) error), failed);
+    }
+
+    @Test
+    public void failureBeforeListingFailsTheTenant() throws Exception {
+        List<Tenant> tenants = tenants("t0", "t1");
+        final IOException error = new IOException("token of the tenant unavailable");
+        final List<String> listed = Collections.synchronizedList(new ArrayList<String>());
+
+        List<Pair<Subscription, Tenant>> stl = AccessTokenAzureManager.discoverSubscriptions(tenants,
+                new AccessTokenAzureManager.TenantDiscoveryListener() {
+                    @Override
+                    public void beforeListing(Tenant tenant) throws IOException {
+                        if (tenant.tenantId().equals("t0")) {
+                            throw error;
+                        }
+                    }
+
+                    @Override
+                    public void tenantFailed(Tenant tenant, Throwable error) {
+                        listener.tenantFailed(tenant, error);
+                    }
+                }, tid -> {
+                    listed.add(tid);
+                    return subscriptions(tid, 1);
+                });
+
+        assertEquals(1, stl.size());
+        assertSame(tenants.get(1), stl.get(0).second());
+        assertEquals(Collections.singletonList("t1"), listed);
+        assertSame(error, failed.get("t0"));
+    }
+
+    @Test
+    public void everyTenantFailingIsAnError() throws Exception {
+        List<Tenant> tenants = tenants("t0", "t1");
+
+        try {
+            AccessTokenAzureManager.discoverSubscriptions(tenants, listener, tid -> {
+                throw new IOException("failed " + tid);
+            });
+            fail("expected an IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+            assertTrue(ex.getCause().getMessage().startsWith("failed t"));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("t0", "t1")), failed.keySet());
+    }
+
+    @Test
+    public void noTenantsIsNoSubscriptions() throws Exception {
+        assertTrue(AccessTokenAzureManager.discoverSubscriptions(Collections.<Tenant>emptyList(), listener,
+                tid -> subscriptions(tid, 1)).isEmpty());
+    }
+
+    @Test
+    public void tenantsAreListedConcurrentlyUpToTheLimit() throws Exception {
+        int limit = AccessTokenAzureManager.TENANT_DISCOVERY_CONCURRENCY;
+        List<String> tids = new ArrayList<>();
+        for (int i = 0; i < limit + 2; i++) {
+            tids.add("t" + i);
+        }
+        final CountDownLatch allRunning = new CountDownLatch(limit);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Pair<Subscription, Tenant>> stl = AccessTokenAzureManager.discoverSubscriptions(
+                tenants(tids.toArray(new String[0])), listener, tid -> {
+                    int now = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(now, Math::max);
+                    try {
+                        // the first tenants only finish once as many run at the same time as allowed
+                        allRunning.countDown();
+                        assertTrue(allRunning.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException ex) {
+                        throw new IOException(ex);
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    return subscriptions(tid, 1);
+                });
+
+        assertEquals(limit + 2, stl.size());
+        assertEquals(limit, maxRunning.get());
+        assertTrue(failed.isEmpty());
+    }
+
+    private static List<Tenant> tenants(String... tids) {
+        List<Tenant> tenants = new ArrayList<>();
+        for (String tid : tids) {
+            Tenant tenant = mock(Tenant.class);
+            when(tenant.tenantId()).thenReturn(tid);
+            tenants.add(tenant);
+        }
+        return tenants;
+    }
+
+    private List<Subscription> subscriptions(String tid, int count) {
+        List<Subscription> sl = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sl.add(mock(Subscription.class));
+        }
+        synchronized (tidToSubscriptionsMap) {
+            tidToSubscriptionsMap.put(tid, sl);
+        }
+        return sl;
+    }
+}
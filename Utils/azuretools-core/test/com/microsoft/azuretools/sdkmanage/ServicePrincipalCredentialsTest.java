@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azuretools.sdkmanage;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ServicePrincipalCredentialsTest {
+    private static final String RESOURCE = "https://management.azure.com/";
+
+    private HttpServer server;
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void tokenIsReusedUntilNearExpiry() throws Exception {
+        ServicePrincipalCredentials credentials = serve(3599);
+
+        assertEquals("at1", credentials.getToken(RESOURCE));
+        assertEquals("at1", credentials.getToken(RESOURCE));
+        assertEquals(1, requestCount.get());
+
+        assertEquals("at2", credentials.getToken("https://vault.azure.net"));
+        assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    public void tokenCloseToExpiryIsRenewed() throws Exception {
+        ServicePrincipalCredentials credentials = serve(60);
+
+        assertEquals("at1", credentials.getToken(RESOURCE));
+        assertEquals("at2", credentials.getToken(RESOURCE));
+        assertEquals(2, requestCount.get());
+    }
+
+    // answers every request with a new token that expires in the given number of seconds
+    private ServicePrincipalCredentials serve(final long expiresIn) {
+        server.createContext("/contoso/oauth2/token", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() != -1) {
+                }
+            }
+            byte[] body = ("{\"token_type\":\"Bearer\",\"expires_in\":\"" + expiresIn + "\",\"access_token\":\"at"
+                    + requestCount.incrementAndGet() + "\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        return new ServicePrincipalCredentials("client", "contoso", "secret", null,
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.common;
+
+import com.microsoft.azure.hdinsight.sdk.cluster.IClusterDetail;
+import com.microsoft.tooling.msservices.components.DefaultLoader;
+import com.microsoft.tooling.msservices.helpers.IDEHelper;
+import cucumber.api.java.After;
+import cucumber.api.java.Before;
+import cucumber.api.java.en.Given;
+import cucumber.api.java.en.Then;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ClusterManagerExScenario {
+    private final Map<String, List<List<String>>> notifiedClusters = new HashMap<>();
+    // The cluster manager only holds the listeners weakly
+    private final Map<String, Consumer<List<IClusterDetail>>> listeners = new HashMap<>();
+    private IDEHelper originalIdeHelper;
+    private ClusterManagerEx clusterManagerExSpy;
+
+    @Before
+    public void setUp() throws Throwable {
+        originalIdeHelper = DefaultLoader.getIdeHelper();
+
+        // Run the background refresh at once
+        IDEHelper ideHelperMock = mock(IDEHelper.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(ideHelperMock).executeOnPooledThread(any(Runnable.class));
+        DefaultLoader.setIdeHelper(ideHelperMock);
+
+        clusterManagerExSpy = spy(ClusterManagerEx.getInstance());
+    }
+
+    @After
+    public void cleanUp() {
+        // The spy shares the listeners of the singleton
+        listeners.keySet().forEach(id -> clusterManagerExSpy.removeClusterDetailsRefreshedListener(id));
+        DefaultLoader.setIdeHelper(originalIdeHelper);
+    }
+
+    @Given("^the clusters reconciled in background are (.+)$")
+    public void mockReconciledClusters(List<String> clusterNames) throws Throwable {
+        List<IClusterDetail> clusterDetails = clusterNames.stream()
+                .map(name -> {
+                    IClusterDetail clusterDetail = mock(IClusterDetail.class);
+                    when(clusterDetail.getName()).thenReturn(name);
+                    return clusterDetail;
+                })
+                .collect(Collectors.toList());
+
+        doReturn(clusterDetails).when(clusterManagerExSpy).getClusterDetails(any());
+    }
+
+    @Given("^listen to the reconciled clusters as '(.+)'$")
+    public void addListener(String id) throws Throwable {
+        Consumer<List<IClusterDetail>> listener = clusterDetails ->
+                notifiedClusters.computeIfAbsent(id, key -> new ArrayList<>()).add(clusterDetails.stream()
+                        .map(IClusterDetail::getName)
+                        .collect(Collectors.toList()));
+
+        listeners.put(id, listener);
+        clusterManagerExSpy.addClusterDetailsRefreshedListener(id, listener);
+    }
+
+    @Given("^stop listening to the reconciled clusters as '(.+)'$")
+    public void removeListener(String id) throws Throwable {
+        clusterManagerExSpy.removeClusterDetailsRefreshedListener(id);
+    }
+
+    @Given("^the clusters are reconciled in background$")
+    public void refreshInBackground() throws Throwable {
+        clusterManagerExSpy.refreshClusterDetailsInBackground(null);
+    }
+
+    @Then("^the listener '(.+)' should get the clusters (.+)$")
+    public void checkNotifiedClusters(String id, List<String> expectedClusterNames) throws Throwable {
+        assertEquals(Collections.singletonList(expectedClusterNames), notifiedClusters.get(id));
+    }
+
+    @Then("^the listener '(.+)' should get no clusters$")
+    public void checkNotNotified(String id) throws Throwable {
+        assertNull(notifiedClusters.get(id));
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.sdk.cluster;
+
+import com.google.gson.Gson;
+import com.microsoft.azuretools.authmanage.models.SubscriptionDetail;
+import cucumber.api.java.Before;
+import cucumber.api.java.en.Given;
+import cucumber.api.java.en.Then;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ClusterManagerScenario {
+    private final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+    private final Map<String, List<String>> remoteClusters = new HashMap<>();
+    private IClusterOperation clusterOperationMock;
+    private ClusterManager clusterManager;
+
+    @Before
+    public void setUp() throws Throwable {
+        clusterOperationMock = mock(IClusterOperation.class);
+        when(clusterOperationMock.listCluster(any(SubscriptionDetail.class))).thenAnswer(invocation -> {
+            SubscriptionDetail subscription = invocation.getArgument(0);
+
+            return remoteClusters.getOrDefault(subscription.getSubscriptionId(), Collections.emptyList()).stream()
+                    .map(ClusterManagerScenario::createClusterRawInfo)
+                    .collect(Collectors.toList());
+        });
+
+        clusterManager = new ClusterManager(project -> clusterOperationMock, clock::get);
+    }
+
+    private static ClusterRawInfo createClusterRawInfo(String name) {
+        return new Gson().fromJson(
+                String.format("{\"name\":\"%s\",\"properties\":{\"computeProfile\":{\"roles\":[]}}}", name),
+                ClusterRawInfo.class);
+    }
+
+    private static SubscriptionDetail createSubscription(String subscriptionId) {
+        return new SubscriptionDetail(subscriptionId, subscriptionId, "tenant", true);
+    }
+
+    @Given("^the subscription '(.+)' has clusters (.+)$")
+    public void mockRemoteClusters(String subscriptionId, List<String> clusterNames) throws Throwable {
+        remoteClusters.put(subscriptionId, clusterNames);
+    }
+
+    @Given("^the time is (\\d+) milliseconds later$")
+    public void advanceClock(long millis) throws Throwable {
+        clock.addAndGet(millis);
+    }
+
+    @Given("^the time is the cluster list TTL later$")
+    public void advanceClockByTTL() throws Throwable {
+        clock.addAndGet(ClusterManager.SUBSCRIPTION_CACHE_TTL_MILLIS);
+    }
+
+    @Given("^all cluster lists are invalidated$")
+    public void invalidateAll() throws Throwable {
+        clusterManager.invalidateAll();
+    }
+
+    @Given("^the snapshot of the subscription '(.+)' with clusters (.+) is restored$")
+    public void restoreSnapshot(String subscriptionId, List<String> clusterNames) throws Throwable {
+        List<ClusterRawInfo> clusters = clusterNames.stream()
+                .map(ClusterManagerScenario::createClusterRawInfo)
+                .collect(Collectors.toList());
+
+        clusterManager.restoreSubscriptionClustersSnapshot(Collections.singletonList(
+                new ClusterManager.SubscriptionClusters(createSubscription(subscriptionId), clusters, clock.get())));
+    }
+
+    @Then("^listing the clusters of the subscriptions (.+) should get (.+)$")
+    public void checkListedClusters(List<String> subscriptionIds, List<String> expectedClusterNames) throws Throwable {
+        List<SubscriptionDetail> subscriptions = subscriptionIds.stream()
+                .map(ClusterManagerScenario::createSubscription)
+                .collect(Collectors.toList());
+
+        List<String> clusterNames = clusterManager.getHDInsightClusers(subscriptions, null).stream()
+                .map(IClusterDetail::getName)
+                .collect(Collectors.toList());
+
+        assertEquals(expectedClusterNames, clusterNames);
+    }
+
+    @Then("^the clusters of the subscription '(.+)' should be listed (\\d+) times?$")
+    public void checkListingCount(String subscriptionId, int expectedCount) throws Throwable {
+        verify(clusterOperationMock, times(expectedCount))
+                .listCluster(argThat(subscription -> subscription.getSubscriptionId().equals(subscriptionId)));
+    }
+
+    @Then("^the cached clusters should be (.+)$")
+    public void checkCachedClusters(List<String> expectedClusterNames) throws Throwable {
+        List<String> clusterNames = clusterManager.getSubscriptionClustersSnapshot().stream()
+                .flatMap(cached -> cached.getClusters().stream())
+                .map(ClusterRawInfo::getName)
+                .collect(Collectors.toList());
+
+        assertEquals(expectedClusterNames, clusterNames);
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.sdk.storage.adls;
+
+import com.microsoft.azure.datalake.store.ADLFileOutputStream;
+import com.microsoft.azure.datalake.store.ADLStoreClient;
+import com.microsoft.azure.datalake.store.IfExists;
+import cucumber.api.java.After;
+import cucumber.api.java.en.Given;
+import cucumber.api.java.en.Then;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ADLSChunkedUploaderScenario {
+    /**
+     * An uploaded ADLS file kept in memory
+     */
+    private static class StoredFile {
+        private final byte[] content;
+        private long lastModified;
+
+        StoredFile(byte[] content, long lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final Map<String, StoredFile> store = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> createdCounts = new ConcurrentHashMap<>();
+    private final Set<String> failingSegments = ConcurrentHashMap.newKeySet();
+
+    private File localFolder;
+    private File localFile;
+    private ADLSChunkedUploader uploader;
+
+    @After
+    public void cleanUp() {
+        if (localFolder != null) {
+            FileUtils.deleteQuietly(localFolder);
+            localFolder = null;
+        }
+    }
+
+    @Given("^an ADLS chunked uploader with segment size (\\d+) and concurrency (\\d+)$")
+    public void createUploader(long segmentSize, int concurrency) throws Throwable {
+        ADLStoreClient client = mock(ADLStoreClient.class);
+
+        when(client.createFile(anyString(), any(IfExists.class))).thenAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            createdCounts.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+
+            if (failingSegments.stream().anyMatch(path::endsWith)) {
+                throw new IOException("Failed to create " + path);
+            }
+
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            ADLFileOutputStream stream = mock(ADLFileOutputStream.class);
+            doAnswer(write -> {
+                written.write((byte[]) write.getArgument(0), write.getArgument(1), write.getArgument(2));
+                return null;
+            }).when(stream).write(any(byte[].class), anyInt(), anyInt());
+            doAnswer(close -> {
+                store.put(path, new StoredFile(written.toByteArray(), System.currentTimeMillis()));
+                return null;
+            }).when(stream).close();
+
+            return stream;
+        });
+        when(client.checkExists(anyString())).thenAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            return store.keySet().stream().anyMatch(key -> key.equals(path) || key.startsWith(path + "/"));
+        });
+        when(client.concatenateFiles(anyString(), anyListOf(String.class))).thenAnswer(invocation -> {
+            List<String> sources = invocation.getArgument(1);
+            ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+
+            for (String source : sources) {
+                concatenated.write(store.remove(source).content);
+            }
+
+            store.put(invocation.getArgument(0), new StoredFile(concatenated.toByteArray(), System.currentTimeMillis()));
+            return true;
+        });
+        when(client.delete(anyString())).thenAnswer(invocation -> store.remove(invocation.getArgument(0)) != null);
+        when(client.deleteRecursive(anyString())).thenAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            return store.keySet().removeIf(key -> key.equals(path) || key.startsWith(path + "/"));
+        });
+
+        uploader = spy(new ADLSChunkedUploader(client, segmentSize, concurrency, 1));
+
+        // ADLS entries are got from the in-memory store
+        doAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            StoredFile file = store.get(path);
+
+            return file == null ? null : new ADLSChunkedUploader.RemoteEntry(path, file.content.length, file.lastModified, false);
+        }).when(uploader).getRemoteEntry(anyString());
+        doAnswer(invocation -> {
+            String folder = invocation.getArgument(0) + "/";
+            Map<String, Long> children = new TreeMap<>();
+
+            store.forEach((key, file) -> {
+                if (key.startsWith(folder)) {
+                    String child = folder + key.substring(folder.length()).split("/")[0];
+                    children.merge(child, file.lastModified, Math::max);
+                }
+            });
+
+            List<ADLSChunkedUploader.RemoteEntry> entries = new ArrayList<>();
+            children.forEach((child, lastModified) ->
+                    entries.add(new ADLSChunkedUploader.RemoteEntry(child, 0, lastModified, !store.containsKey(child))));
+
+            return entries;
+        }).when(uploader).listRemoteEntries(anyString());
+    }
+
+    @Given("^a local file of (\\d+) bytes$")
+    public void createLocalFile(int length) throws Throwable {
+        localFolder = Files.createTempDirectory("ADLSChunkedUploader").toFile();
+        localFile = new File(localFolder, "app.jar");
+
+        writeLocalFile(length, 0);
+    }
+
+    @Given("^the local file is rewritten with (\\d+) bytes and modified (\\d+) seconds later$")
+    public void rewriteLocalFile(int length, int seconds) throws Throwable {
+        long lastModified = localFile.lastModified();
+
+        writeLocalFile(length, 1);
+        assertTrue(localFile.setLastModified(lastModified + seconds * 1000L));
+    }
+
+    private void writeLocalFile(int length, int seed) throws IOException {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i + seed);
+        }
+
+        Files.write(localFile.toPath(), content);
+    }
+
+    @Given("^uploading the segment (\\d+) fails$")
+    public void failSegment(String segment) throws Throwable {
+        failingSegments.add("/" + segment);
+    }
+
+    @Given("^uploading the segments doesn't fail$")
+    public void recoverSegments() throws Throwable {
+        failingSegments.clear();
+    }
+
+    @Given("^the uploaded segments in '(.+)' are dated before the local file is modified$")
+    public void backdateSegments(String segmentsRoot) throws Throwable {
+        store.forEach((key, file) -> {
+            if (key.startsWith(segmentsRoot + "/")) {
+                file.lastModified = localFile.lastModified() - TimeUnit.MINUTES.toMillis(1);
+            }
+        });
+    }
+
+    @Given("^a segments folder '(.+)' uploaded (\\d+) hours ago$")
+    public void createSegmentsFolder(String folder, int hours) throws Throwable {
+        store.put(folder + "/000000",
+                new StoredFile(new byte[1], System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours)));
+    }
+
+    @Then("^uploading the local file to '(.+)' with segments in '(.+)' should succeed$")
+    public void checkUpload(String remotePath, String segmentsRoot) throws Throwable {
+        uploader.upload(localFile, remotePath, segmentsRoot, true);
+
+        assertArrayEquals(Files.readAllBytes(localFile.toPath()), store.get(remotePath).content);
+    }
+
+    @Then("^uploading the local file to '(.+)' with segments in '(.+)' should fail$")
+    public void checkFailedUpload(String remotePath, String segmentsRoot) throws Throwable {
+        try {
+            uploader.upload(localFile, remotePath, segmentsRoot, true);
+            fail("The upload should fail");
+        } catch (IOException ignored) {
+        }
+
+        assertFalse(store.containsKey(remotePath));
+    }
+
+    @Then("^the segments (.+) should be left in '(.+)'$")
+    public void checkLeftSegments(List<String> segments, String segmentsRoot) throws Throwable {
+        for (String segment : segments) {
+            assertTrue("The segment " + segment + " isn't left", store.keySet().stream()
+                    .anyMatch(key -> key.startsWith(segmentsRoot + "/") && key.endsWith("/" + segment)));
+        }
+    }
+
+    @Then("^no segments should be left in '(.+)'$")
+    public void checkNoSegments(String segmentsRoot) throws Throwable {
+        assertFalse(store.keySet().stream().anyMatch(key -> key.startsWith(segmentsRoot + "/")));
+    }
+
+    @Then("^the segment (\\d+) should be uploaded (\\d+) times?$")
+    public void checkSegmentUploads(String segment, int expectedCount) throws Throwable {
+        int count = createdCounts.entrySet().stream()
+                .filter(entry -> entry.getKey().endsWith("/" + segment))
+                .mapToInt(entry -> entry.getValue().get())
+                .sum();
+
+        assertEquals(expectedCount, count);
+    }
+
+    @Then("^the segments folder '(.+)' should (be kept|be deleted)$")
+    public void checkSegmentsFolder(String folder, String expected) throws Throwable {
+        boolean exists = store.keySet().stream().anyMatch(key -> key.startsWith(folder + "/"));
+
+        assertEquals(expected.equals("be kept"), exists);
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.spark.common;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import cucumber.api.java.After;
+import cucumber.api.java.Before;
+import cucumber.api.java.en.Given;
+import cucumber.api.java.en.Then;
+import rx.observers.TestSubscriber;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class LivyBatchWatcherScenario {
+    private SparkBatchSubmission submissionMock;
+    private LivyBatchWatcher watcher;
+    private WireMockServer livyServerMock;
+
+    @Before
+    public void setUp() throws Throwable {
+        submissionMock = mock(SparkBatchSubmission.class);
+        when(submissionMock.getBatchSparkJobState(anyString(), anyInt())).thenCallRealMethod();
+        when(submissionMock.getBatchSparkJobStatus(anyString(), anyInt())).thenCallRealMethod();
+        when(submissionMock.getHttpResponseViaGet(anyString())).thenCallRealMethod();
+
+        watcher = new LivyBatchWatcher(() -> submissionMock);
+    }
+
+    @After
+    public void cleanUp() {
+        if (livyServerMock != null) {
+            livyServerMock.stop();
+            livyServerMock = null;
+        }
+    }
+
+    @Given("^mock Livy batch '(.+)' ID (\\d+) to return '(.+)'$")
+    public void mockLivyBatch(String connectUrl, int batchId, String response) throws Throwable {
+        URI mockUri = startLivyServerMock(connectUrl);
+        String state = SparkSubmitResponse.parseJSON(response).getState();
+
+        livyServerMock.stubFor(get(urlPathEqualTo(mockUri.getPath() + "/" + batchId))
+                .willReturn(aResponse().withStatus(200).withBody(response)));
+        livyServerMock.stubFor(get(urlPathEqualTo(mockUri.getPath() + "/" + batchId + "/state"))
+                .willReturn(aResponse().withStatus(200)
+                        .withBody(String.format("{\"id\":%d,\"state\":\"%s\"}", batchId, state))));
+    }
+
+    @Given("^mock Livy batches of '(.+)' to fail with status (\\d+)$")
+    public void mockLivyBatchesFailure(String connectUrl, int statusCode) throws Throwable {
+        URI mockUri = startLivyServerMock(connectUrl);
+
+        livyServerMock.stubFor(get(urlPathMatching(mockUri.getPath() + "/.*"))
+                .willReturn(aResponse().withStatus(statusCode).withBody("Livy is unavailable")));
+    }
+
+    private URI startLivyServerMock(String connectUrl) throws Throwable {
+        URI mockUri = new URI(connectUrl);
+
+        if (livyServerMock == null) {
+            livyServerMock = new WireMockServer(wireMockConfig().bindAddress(mockUri.getHost()).port(mockUri.getPort()));
+            livyServerMock.start();
+        }
+
+        return mockUri;
+    }
+
+    @Then("^watching Livy batches of '(.+)' with IDs (.+) should get the final states (.+)$")
+    public void checkWatchedFinalStates(String connectUrl, List<Integer> batchIds, List<String> expectedStates)
+            throws Throwable {
+        List<TestSubscriber<LivyBatchStateEvent>> subscribers = batchIds.stream()
+                .map(batchId -> {
+                    TestSubscriber<LivyBatchStateEvent> subscriber = new TestSubscriber<>();
+                    watcher.watch(connectUrl, batchId).subscribe(subscriber);
+                    return subscriber;
+                })
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < batchIds.size(); i++) {
+            TestSubscriber<LivyBatchStateEvent> subscriber = subscribers.get(i);
+            subscriber.awaitTerminalEvent(10, TimeUnit.SECONDS);
+            subscriber.assertCompleted();
+
+            List<LivyBatchStateEvent> events = subscriber.getOnNextEvents();
+            assertEquals(expectedStates.get(i), events.get(events.size() - 1).getState());
+            assertEquals(expectedStates.get(i),
+                    watcher.getLatestState(connectUrl, batchIds.get(i)).map(SparkSubmitResponse::getState).orElse(null));
+        }
+    }
+
+    @Then("^unwatching Livy batch '(.+)' ID (\\d+) should drop its state$")
+    public void checkUnwatch(String connectUrl, int batchId) throws Throwable {
+        watcher.unwatch(connectUrl, batchId);
+
+        assertFalse(watcher.getLatestState(connectUrl, batchId).isPresent());
+    }
+
+    @Then("^watching Livy batch '(.+)' ID (\\d+) should get the whole batch once in (\\d+) polls$")
+    public void checkStatePolling(String connectUrl, int batchId, int polls) throws Throwable {
+        String batchPath = new URI(connectUrl).getPath() + "/" + batchId;
+
+        TestSubscriber<LivyBatchStateEvent> subscriber = new TestSubscriber<>();
+        watcher.watch(connectUrl, batchId).subscribe(subscriber);
+
+        // the first poll gets the whole batch, the next ones its state only
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (livyServerMock.findAll(getRequestedFor(urlPathEqualTo(batchPath + "/state"))).size() < polls - 1) {
+            assertTrue("The batch state isn't polled", System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+
+        watcher.unwatch(connectUrl, batchId);
+
+        assertEquals(1, subscriber.getOnNextEvents().size());
+        assertEquals("running", subscriber.getOnNextEvents().get(0).getState());
+        livyServerMock.verify(1, getRequestedFor(urlPathEqualTo(batchPath)));
+    }
+
+    @Then("^watching Livy batch '(.+)' ID (\\d+) should throw the polling error after (\\d+) failures$")
+    public void checkPollFailures(String connectUrl, int batchId, int maxFailures) throws Throwable {
+        watcher = new LivyBatchWatcher(() -> submissionMock, maxFailures);
+        watcher.watch(connectUrl, batchId);
+
+        // the first poll is at once, the next one after the minimum interval
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (true) {
+            try {
+                watcher.checkPollFailures(connectUrl);
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage().contains("500"));
+                break;
+            }
+
+            assertTrue("The polling error isn't thrown", System.currentTimeMillis() < deadline);
+            watcher.awaitStateChange(connectUrl, batchId, 100, TimeUnit.MILLISECONDS);
+        }
+
+        assertFalse(watcher.getLatestState(connectUrl, batchId).isPresent());
+        watcher.unwatch(connectUrl, batchId);
+    }
+
+    @Then("^watching Livy batch '(.+)' ID (\\d+) with its own submission should poll through it$")
+    public void checkJobSubmission(String connectUrl, int batchId) throws Throwable {
+        SparkBatchSubmission jobSubmissionMock = mock(SparkBatchSubmission.class);
+        when(jobSubmissionMock.getBatchSparkJobState(anyString(), anyInt())).thenCallRealMethod();
+        when(jobSubmissionMock.getBatchSparkJobStatus(anyString(), anyInt())).thenCallRealMethod();
+        when(jobSubmissionMock.getHttpResponseViaGet(anyString())).thenCallRealMethod();
+
+        TestSubscriber<LivyBatchStateEvent> subscriber = new TestSubscriber<>();
+        watcher.watch(jobSubmissionMock, connectUrl, batchId).subscribe(subscriber);
+        subscriber.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        subscriber.assertCompleted();
+
+        verify(jobSubmissionMock, atLeastOnce()).getBatchSparkJobStatus(anyString(), anyInt());
+        verify(submissionMock, never()).getBatchSparkJobStatus(anyString(), anyInt());
+    }
+}
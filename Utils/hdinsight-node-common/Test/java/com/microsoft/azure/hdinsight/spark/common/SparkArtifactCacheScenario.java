@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.spark.common;
+
+import cucumber.api.java.After;
+import cucumber.api.java.en.Given;
+import cucumber.api.java.en.Then;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class SparkArtifactCacheScenario {
+    private File cacheFolder;
+    private File manifestFile;
+    private File artifact;
+    private SparkArtifactCache cache;
+
+    private SparkArtifactCache getCache() throws Throwable {
+        if (cache == null) {
+            cacheFolder = Files.createTempDirectory("SparkArtifactCache").toFile();
+            manifestFile = new File(cacheFolder, "manifest.json");
+            cache = new SparkArtifactCache(manifestFile);
+        }
+
+        return cache;
+    }
+
+    @After
+    public void cleanUp() {
+        if (cacheFolder != null) {
+            FileUtils.deleteQuietly(cacheFolder);
+            cacheFolder = null;
+        }
+    }
+
+    @Given("^a local artifact with content '(.*)'$")
+    public void createLocalArtifact(String content) throws Throwable {
+        getCache();
+        artifact = new File(cacheFolder, "artifact.jar");
+        FileUtils.writeStringToFile(artifact, content, StandardCharsets.UTF_8);
+    }
+
+    @Given("^the local artifact is rewritten with content '(.*)' and modified (\\d+) seconds later$")
+    public void rewriteLocalArtifact(String content, int seconds) throws Throwable {
+        long lastModified = artifact.lastModified();
+
+        FileUtils.writeStringToFile(artifact, content, StandardCharsets.UTF_8);
+        assertTrue(artifact.setLastModified(lastModified + seconds * 1000L));
+    }
+
+    @Then("^the artifact content hash should be '(.+)'$")
+    public void checkContentHash(String expectedHash) throws Throwable {
+        assertEquals(expectedHash, getCache().getContentHash(artifact));
+    }
+
+    @Given("^the manifest file content is '(.*)'$")
+    public void writeManifest(String content) throws Throwable {
+        getCache();
+        FileUtils.writeStringToFile(manifestFile, content, StandardCharsets.UTF_8);
+    }
+
+    @Given("^cache the artifact of '(.+)' hash '(.+)' at '(.+)' with length (-?\\d+) and modified time (-?\\d+)$")
+    public void putCachedArtifact(String storageKey,
+                                  String hash,
+                                  String path,
+                                  long length,
+                                  long lastModified) throws Throwable {
+        getCache().putCachedArtifact(storageKey, hash, new SparkArtifactCache.CachedArtifact(path, length, lastModified));
+    }
+
+    @Given("^cache (\\d+) artifacts of '(.+)' with hashes from 'h0'$")
+    public void putCachedArtifacts(int count, String storageKey) throws Throwable {
+        for (int i = 0; i < count; i++) {
+            putCachedArtifact(storageKey, "h" + i, "/SparkSubmission/" + i + ".jar", -1, -1);
+        }
+    }
+
+    @Then("^the artifact of '(.+)' hash '(.+)' should be cached at '(.+)'$")
+    public void checkCachedArtifact(String storageKey, String hash, String expectedPath) throws Throwable {
+        SparkArtifactCache.CachedArtifact cached = getCache().getCachedArtifact(storageKey, hash);
+
+        assertNotNull(cached);
+        assertEquals(expectedPath, cached.getPath());
+    }
+
+    @Then("^the artifact of '(.+)' hash '(.+)' should not be cached$")
+    public void checkNotCachedArtifact(String storageKey, String hash) throws Throwable {
+        assertNull(getCache().getCachedArtifact(storageKey, hash));
+    }
+
+    @Then("^a new cache of the same manifest should get the artifact of '(.+)' hash '(.+)' at '(.+)'$")
+    public void checkReloadedArtifact(String storageKey, String hash, String expectedPath) throws Throwable {
+        SparkArtifactCache.CachedArtifact cached =
+                new SparkArtifactCache(manifestFile).getCachedArtifact(storageKey, hash);
+
+        assertNotNull(cached);
+        assertEquals(expectedPath, cached.getPath());
+    }
+
+    @Then("^no temporary manifest file should be left$")
+    public void checkNoTemporaryManifest() throws Throwable {
+        assertTrue(manifestFile.exists());
+        assertFalse(new File(manifestFile.getPath() + ".tmp").exists());
+    }
+
+    @Then("^the cached stamp with length (-?\\d+) and modified time (-?\\d+) should match the remote file with length (-?\\d+) and modified time (-?\\d+) as (true|false)$")
+    public void checkSameRemoteFile(long length,
+                                    long lastModified,
+                                    long remoteLength,
+                                    long remoteLastModified,
+                                    boolean expected) throws Throwable {
+        SparkArtifactCache.CachedArtifact cached =
+                new SparkArtifactCache.CachedArtifact("/SparkSubmission/a.jar", length, lastModified);
+
+        assertEquals(expected, cached.isSameRemoteFile(remoteLength, remoteLastModified));
+    }
+}
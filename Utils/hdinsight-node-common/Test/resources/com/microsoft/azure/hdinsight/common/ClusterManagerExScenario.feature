@@ -0,0 +1,17 @@
+Feature: Cluster Manager Ex Testing
+
+  Scenario: Clusters reconciled in background are pushed to the listeners
+    Given the clusters reconciled in background are spark1,spark2
+    Given listen to the reconciled clusters as 'tree'
+    Given the clusters are reconciled in background
+    Then the listener 'tree' should get the clusters spark1,spark2
+
+  Scenario: Listeners replaced or removed are not notified
+    Given the clusters reconciled in background are spark1
+    Given listen to the reconciled clusters as 'tree'
+    Given listen to the reconciled clusters as 'tree'
+    Given listen to the reconciled clusters as 'dialog'
+    Given stop listening to the reconciled clusters as 'dialog'
+    Given the clusters are reconciled in background
+    Then the listener 'tree' should get the clusters spark1
+    Then the listener 'dialog' should get no clusters
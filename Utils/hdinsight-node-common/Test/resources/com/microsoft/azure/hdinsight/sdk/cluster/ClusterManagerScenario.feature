@@ -0,0 +1,36 @@
+Feature: Cluster Manager Testing
+
+  Scenario: Cluster lists are cached until they expire
+    Given the subscription 'sub1' has clusters spark1,spark2
+    Then listing the clusters of the subscriptions sub1 should get spark1,spark2
+    Given the subscription 'sub1' has clusters spark1,spark2,spark3
+    Given the time is 1000 milliseconds later
+    Then listing the clusters of the subscriptions sub1 should get spark1,spark2
+    Then the clusters of the subscription 'sub1' should be listed 1 time
+    Given the time is the cluster list TTL later
+    Then listing the clusters of the subscriptions sub1 should get spark1,spark2,spark3
+    Then the clusters of the subscription 'sub1' should be listed 2 times
+
+  Scenario: Invalidated cluster lists are listed again at once
+    Given the subscription 'sub1' has clusters spark1
+    Then listing the clusters of the subscriptions sub1 should get spark1
+    Given the subscription 'sub1' has clusters spark2
+    Given all cluster lists are invalidated
+    Then listing the clusters of the subscriptions sub1 should get spark2
+    Then the clusters of the subscription 'sub1' should be listed 2 times
+
+  Scenario: Only the new subscriptions are listed, the deselected ones are dropped
+    Given the subscription 'sub1' has clusters spark1
+    Given the subscription 'sub2' has clusters spark2
+    Then listing the clusters of the subscriptions sub1 should get spark1
+    Then listing the clusters of the subscriptions sub1,sub2 should get spark1,spark2
+    Then the clusters of the subscription 'sub1' should be listed 1 time
+    Then listing the clusters of the subscriptions sub2 should get spark2
+    Then the cached clusters should be spark2
+
+  Scenario: Clusters restored from the snapshot are reconciled by the next listing
+    Given the snapshot of the subscription 'sub1' with clusters spark1,deleted is restored
+    Then the cached clusters should be spark1,deleted
+    Given the subscription 'sub1' has clusters spark1,created
+    Then listing the clusters of the subscriptions sub1 should get spark1,created
+    Then the cached clusters should be spark1,created
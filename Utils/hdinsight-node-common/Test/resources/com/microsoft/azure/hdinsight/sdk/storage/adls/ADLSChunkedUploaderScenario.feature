@@ -0,0 +1,57 @@
+Feature: ADLS Chunked Uploader Testing
+
+  Scenario: Small files are uploaded without segments
+    Given an ADLS chunked uploader with segment size 40 and concurrency 2
+    Given a local file of 30 bytes
+    Then uploading the local file to '/SparkSubmission/a/app.jar' with segments in '/SparkSubmission/.segments' should succeed
+    Then no segments should be left in '/SparkSubmission/.segments'
+
+  Scenario: Large files are uploaded in segments and concatenated
+    Given an ADLS chunked uploader with segment size 40 and concurrency 2
+    Given a local file of 100 bytes
+    Then uploading the local file to '/SparkSubmission/a/app.jar' with segments in '/SparkSubmission/.segments' should succeed
+    Then no segments should be left in '/SparkSubmission/.segments'
+
+  Scenario: Failed uploads are resumed by the upload to another path
+    Given an ADLS chunked uploader with segment size 40 and concurrency 1
+    Given a local file of 100 bytes
+    Given uploading the segment 000002 fails
+    Then uploading the local file to '/SparkSubmission/a/app.jar' with segments in '/SparkSubmission/.segments' should fail
+    Then the segments 000000,000001 should be left in '/SparkSubmission/.segments'
+    Given uploading the segments doesn't fail
+    Then uploading the local file to '/SparkSubmission/b/app.jar' with segments in '/SparkSubmission/.segments' should succeed
+    Then the segment 000000 should be uploaded 1 time
+    Then the segment 000001 should be uploaded 1 time
+    Then the segment 000002 should be uploaded 2 times
+    Then no segments should be left in '/SparkSubmission/.segments'
+
+  Scenario: Segments of the changed file are not resumed from
+    Given an ADLS chunked uploader with segment size 40 and concurrency 1
+    Given a local file of 100 bytes
+    Given uploading the segment 000002 fails
+    Then uploading the local file to '/SparkSubmission/a/app.jar' with segments in '/SparkSubmission/.segments' should fail
+    Given uploading the segments doesn't fail
+    Given the local file is rewritten with 100 bytes and modified 60 seconds later
+    Then uploading the local file to '/SparkSubmission/b/app.jar' with segments in '/SparkSubmission/.segments' should succeed
+    Then the segment 000000 should be uploaded 2 times
+    Then the segment 000001 should be uploaded 2 times
+
+  Scenario: Segments written before the file is modified are not resumed from
+    Given an ADLS chunked uploader with segment size 40 and concurrency 1
+    Given a local file of 100 bytes
+    Given uploading the segment 000002 fails
+    Then uploading the local file to '/SparkSubmission/a/app.jar' with segments in '/SparkSubmission/.segments' should fail
+    Given uploading the segments doesn't fail
+    Given the uploaded segments in '/SparkSubmission/.segments' are dated before the local file is modified
+    Then uploading the local file to '/SparkSubmission/b/app.jar' with segments in '/SparkSubmission/.segments' should succeed
+    Then the segment 000000 should be uploaded 2 times
+    Then the segment 000001 should be uploaded 2 times
+
+  Scenario: Expired segments folders are cleaned up
+    Given an ADLS chunked uploader with segment size 40 and concurrency 2
+    Given a local file of 100 bytes
+    Given a segments folder '/SparkSubmission/.segments/stale' uploaded 48 hours ago
+    Given a segments folder '/SparkSubmission/.segments/recent' uploaded 1 hours ago
+    Then uploading the local file to '/SparkSubmission/a/app.jar' with segments in '/SparkSubmission/.segments' should succeed
+    Then the segments folder '/SparkSubmission/.segments/stale' should be deleted
+    Then the segments folder '/SparkSubmission/.segments/recent' should be kept
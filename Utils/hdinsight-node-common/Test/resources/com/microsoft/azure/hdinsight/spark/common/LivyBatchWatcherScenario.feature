@@ -0,0 +1,19 @@
+Feature: Livy Batch Watcher Testing
+
+  Scenario: Finished batches are got by their own requests
+    Given mock Livy batch 'http://127.0.0.1:9877/batches' ID 3 to return '{"id":3,"state":"success","appId":"application_1492415936046_0003","appInfo":{},"log":[]}'
+    Given mock Livy batch 'http://127.0.0.1:9877/batches' ID 4 to return '{"id":4,"state":"dead","appId":null,"appInfo":{},"log":[]}'
+    Then watching Livy batches of 'http://127.0.0.1:9877/batches' with IDs 3,4 should get the final states success,dead
+    Then unwatching Livy batch 'http://127.0.0.1:9877/batches' ID 3 should drop its state
+
+  Scenario: Running batches with known applications are polled by their states
+    Given mock Livy batch 'http://127.0.0.1:9877/batches' ID 7 to return '{"id":7,"state":"running","appId":"application_1492415936046_0007","appInfo":{"driverLogUrl":"http://nm:8042/logs"},"log":[]}'
+    Then watching Livy batch 'http://127.0.0.1:9877/batches' ID 7 should get the whole batch once in 2 polls
+
+  Scenario: Polling errors are thrown once they keep failing
+    Given mock Livy batches of 'http://127.0.0.1:9877/batches' to fail with status 500
+    Then watching Livy batch 'http://127.0.0.1:9877/batches' ID 5 should throw the polling error after 2 failures
+
+  Scenario: Batches are polled through the submission of the job
+    Given mock Livy batch 'http://127.0.0.1:9877/batches' ID 6 to return '{"id":6,"state":"success","appId":"application_1492415936046_0006","appInfo":{},"log":[]}'
+    Then watching Livy batch 'http://127.0.0.1:9877/batches' ID 6 with its own submission should poll through it
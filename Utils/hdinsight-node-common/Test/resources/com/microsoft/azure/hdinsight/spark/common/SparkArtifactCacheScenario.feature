@@ -0,0 +1,34 @@
+Feature: Spark Artifact Cache Testing
+
+  Scenario: Content hash is got again only after the file changes
+    Given a local artifact with content 'abc'
+    Then the artifact content hash should be 'ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad'
+    Given the local artifact is rewritten with content 'abd' and modified 60 seconds later
+    Then the artifact content hash should be 'a52d159f262b2c6ddb724a61840befc36eb30c88877a4030b65cbe86298449c9'
+
+  Scenario: Manifest is saved by moving over and loaded by a new cache
+    Given cache the artifact of 'adl://account' hash 'h1' at '/SparkSubmission/a.jar' with length 10 and modified time 1000
+    Then a new cache of the same manifest should get the artifact of 'adl://account' hash 'h1' at '/SparkSubmission/a.jar'
+    Then no temporary manifest file should be left
+
+  Scenario: Corrupt manifest is started over
+    Given the manifest file content is 'not a manifest'
+    Then the artifact of 'adl://account' hash 'h1' should not be cached
+    Given cache the artifact of 'adl://account' hash 'h1' at '/SparkSubmission/a.jar' with length 10 and modified time 1000
+    Then a new cache of the same manifest should get the artifact of 'adl://account' hash 'h1' at '/SparkSubmission/a.jar'
+
+  Scenario: Eldest artifacts are evicted beyond the manifest limit
+    Given cache 257 artifacts of 'wasb://container@account' with hashes from 'h0'
+    Then the artifact of 'wasb://container@account' hash 'h0' should not be cached
+    Then the artifact of 'wasb://container@account' hash 'h256' should be cached at '/SparkSubmission/256.jar'
+
+  Scenario Outline: Remote file is the uploaded one only if both the length and the modified time are the same
+    Then the cached stamp with length <length> and modified time <modified> should match the remote file with length <remoteLength> and modified time <remoteModified> as <same>
+
+    Examples:
+      | length | modified | remoteLength | remoteModified | same  |
+      | 10     | 1000     | 10           | 1000           | true  |
+      | 10     | 1000     | 10           | 2000           | false |
+      | 10     | 1000     | 11           | 1000           | false |
+      | 10     | 1000     | -1           | 1000           | false |
+      | -1     | -1       | -1           | -1             | false |
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.sdk.storage.adls;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of uploading one Spark artifact to ADLS, by the segment concurrency, from scratch and resumed with all
+ * but the last segment left by a failed attempt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 4)
+@Measurement(iterations = 5, time = 4)
+@Fork(1)
+public class ADLSChunkedUploadBenchmark {
+    private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+    private static final long REQUEST_LATENCY_MILLIS = 20;
+    private static final long BYTES_PER_SECOND = 64 * 1024 * 1024;
+    private static final String SEGMENTS_ROOT = "/SparkSubmission/.segments";
+
+    @Param({"1", "4", "8"})
+    public int concurrency;
+
+    private ADLSStoreStandIn store;
+    private ADLSChunkedUploader uploader;
+    private File artifact;
+    private String segmentsFolder;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] content = new byte[FILE_SIZE];
+        new Random(0).nextBytes(content);
+
+        artifact = File.createTempFile("artifact", ".jar");
+        Files.write(artifact.toPath(), content);
+
+        store = new ADLSStoreStandIn(REQUEST_LATENCY_MILLIS, BYTES_PER_SECOND);
+        uploader = store.createUploader(SEGMENT_SIZE, concurrency);
+        segmentsFolder = uploader.getSegmentsFolder(SEGMENTS_ROOT, artifact);
+    }
+
+    @TearDown
+    public void tearDown() {
+        artifact.delete();
+    }
+
+    @Benchmark
+    public void upload() throws Exception {
+        uploader.upload(artifact, "/SparkSubmission/upload/artifact.jar", SEGMENTS_ROOT, true);
+    }
+
+    @Benchmark
+    public void resumeUpload(ResumedSegments segments) throws Exception {
+        uploader.upload(artifact, "/SparkSubmission/resume/artifact.jar", SEGMENTS_ROOT, true);
+    }
+
+    /**
+     * The segments left by a failed attempt, all but the last one
+     */
+    @State(Scope.Thread)
+    public static class ResumedSegments {
+        @Setup(Level.Invocation)
+        public void seed(ADLSChunkedUploadBenchmark benchmark) {
+            long segmentCount = (FILE_SIZE + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+
+            benchmark.store.clear();
+
+            for (int i = 0; i < segmentCount - 1; i++) {
+                benchmark.store.seedFile(String.format("%s/%06d", benchmark.segmentsFolder, i), SEGMENT_SIZE);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.sdk.storage.adls;
+
+import com.microsoft.azure.datalake.store.ADLFileOutputStream;
+import com.microsoft.azure.datalake.store.ADLStoreClient;
+import com.microsoft.azure.datalake.store.IfExists;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * A local stand-in of the Data Lake store, keeping only the lengths of the written files.
+ *
+ * Each file creation waits for the request latency and each write for the transfer time at the bandwidth of one
+ * connection, so the benchmarks measure how the segments are split, read and overlapped by the uploader.
+ */
+public class ADLSStoreStandIn {
+    private static class StoredFile {
+        private final long length;
+        private final long lastModified;
+
+        StoredFile(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final Map<String, StoredFile> store = new ConcurrentHashMap<>();
+    private final long requestLatencyMillis;
+    private final long bytesPerSecond;
+    private final ADLStoreClient client;
+
+    public ADLSStoreStandIn(long requestLatencyMillis, long bytesPerSecond) throws IOException {
+        this.requestLatencyMillis = requestLatencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        this.client = mock(ADLStoreClient.class);
+
+        when(client.createFile(anyString(), any(IfExists.class))).thenAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            AtomicLong written = new AtomicLong();
+            ADLFileOutputStream stream = mock(ADLFileOutputStream.class);
+
+            Thread.sleep(requestLatencyMillis);
+
+            doAnswer(write -> {
+                int length = write.getArgument(2);
+                Thread.sleep(length * 1000L / bytesPerSecond);
+                written.addAndGet(length);
+                return null;
+            }).when(stream).write(any(byte[].class), anyInt(), anyInt());
+            doAnswer(close -> {
+                store.put(path, new StoredFile(written.get(), System.currentTimeMillis()));
+                return null;
+            }).when(stream).close();
+
+            return stream;
+        });
+        when(client.checkExists(anyString())).thenAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            return store.keySet().stream().anyMatch(key -> key.equals(path) || key.startsWith(path + "/"));
+        });
+        when(client.concatenateFiles(anyString(), anyList())).thenAnswer(invocation -> {
+            List<String> sources = invocation.getArgument(1);
+            long length = 0;
+
+            Thread.sleep(requestLatencyMillis);
+            for (String source : sources) {
+                length += store.remove(source).length;
+            }
+
+            store.put(invocation.getArgument(0), new StoredFile(length, System.currentTimeMillis()));
+            return true;
+        });
+        when(client.delete(anyString())).thenAnswer(invocation -> store.remove(invocation.getArgument(0)) != null);
+        when(client.deleteRecursive(anyString())).thenAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            return store.keySet().removeIf(key -> key.equals(path) || key.startsWith(path + "/"));
+        });
+    }
+
+    /**
+     * Store a file as uploaded just now
+     *
+     * @param path the file path
+     * @param length the file length
+     */
+    public void seedFile(@NotNull String path, long length) {
+        store.put(path, new StoredFile(length, System.currentTimeMillis()));
+    }
+
+    public void clear() {
+        store.clear();
+    }
+
+    /**
+     * Create an uploader getting the file entries from the stand-in, each entry request waits for the latency
+     *
+     * @param segmentSize the segment size
+     * @param concurrency the count of the segments uploaded concurrently
+     * @return the uploader to this stand-in
+     */
+    @NotNull
+    public ADLSChunkedUploader createUploader(long segmentSize, int concurrency) {
+        return new ADLSChunkedUploader(client, segmentSize, concurrency, 1) {
+            @Nullable
+            @Override
+            RemoteEntry getRemoteEntry(@NotNull String path) throws IOException {
+                waitForRequest();
+
+                StoredFile file = store.get(path);
+                return file == null ? null : new RemoteEntry(path, file.length, file.lastModified, false);
+            }
+
+            @NotNull
+            @Override
+            List<RemoteEntry> listRemoteEntries(@NotNull String folder) throws IOException {
+                waitForRequest();
+
+                return new ArrayList<>();
+            }
+        };
+    }
+
+    private void waitForRequest() throws IOException {
+        try {
+            Thread.sleep(requestLatencyMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the request", ex);
+        }
+    }
+}
@@ -28,6 +28,7 @@ import com.microsoft.azure.hdinsight.metadata.ClusterMetaDataService;
 import com.microsoft.azure.hdinsight.sdk.cluster.*;
 import com.microsoft.azuretools.authmanage.AdAuthManager;
 import com.microsoft.azuretools.authmanage.AuthMethodManager;
+import com.microsoft.azuretools.authmanage.models.AuthMethodDetails;
 import com.microsoft.azuretools.authmanage.models.SubscriptionDetail;
 import com.microsoft.azuretools.azurecommons.helpers.StringHelper;
 import com.microsoft.tooling.msservices.components.DefaultLoader;
@@ -37,8 +38,14 @@ import com.microsoft.azure.hdinsight.sdk.common.HDIException;
 import com.microsoft.azure.hdinsight.sdk.storage.HDStorageAccount;
 import com.microsoft.tooling.msservices.model.storage.ClientStorageAccount;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class ClusterManagerEx {
 
@@ -46,7 +53,7 @@ public class ClusterManagerEx {
 
     private static ClusterManagerEx instance = null;
 
-    private List<IClusterDetail> cachedClusterDetails = new ArrayList<>();
+    private volatile List<IClusterDetail> cachedClusterDetails = new ArrayList<>();
     private List<IClusterDetail> hdinsightAdditionalClusterDetails = new ArrayList<>();
     private List<IClusterDetail> emulatorClusterDetails = new ArrayList<>();
 
@@ -55,6 +62,13 @@ public class ClusterManagerEx {
     private boolean isListEmulatorClusterSuccess = false;
     private boolean isSelectedSubscriptionExist = false;
 
+    private final AtomicBoolean isBackgroundRefreshing = new AtomicBoolean(false);
+
+    // owner -> listener of the clusters reconciled in background, both held weakly so a closed project or
+    // a dropped explorer node is collected without being removed here
+    private final Map<Object, WeakReference<Consumer<List<IClusterDetail>>>> clusterDetailsRefreshedListeners =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
     private ClusterManagerEx() {
     }
 
@@ -92,7 +106,15 @@ public class ClusterManagerEx {
     public List<IClusterDetail> getClusterDetailsWithoutAsync(boolean isIgnoreErrorCluster, Object projectObject) {
         cachedClusterDetails = ClusterMetaDataService.getInstance().getCachedClusterDetails();
         if(cachedClusterDetails.size() == 0) {
-            cachedClusterDetails = getClusterDetails(projectObject);
+            // Show the clusters of the last session at once, and reconcile them in background
+            List<IClusterDetail> snapshotClusterDetails = getSnapshotClusterDetails(projectObject);
+            if (snapshotClusterDetails.size() > 0) {
+                cachedClusterDetails = snapshotClusterDetails;
+                ClusterMetaDataService.getInstance().addCachedClusters(cachedClusterDetails);
+                refreshClusterDetailsInBackground(projectObject);
+            } else {
+                cachedClusterDetails = getClusterDetails(projectObject);
+            }
         }
 
         if (isIgnoreErrorCluster) {
@@ -109,8 +131,12 @@ public class ClusterManagerEx {
         }
     }
 
+    /**
+     * Get the clusters of the selected subscriptions, additional clusters and emulator clusters.
+     * Only the subscriptions whose cluster lists are new or expired are re-listed, see {@link ClusterManager}.
+     */
     public synchronized List<IClusterDetail> getClusterDetails(Object project) {
-        cachedClusterDetails.clear();
+        List<IClusterDetail> clusterDetails = new ArrayList<>();
 
         if(!isLIstAdditionalClusterSuccess) {
             hdinsightAdditionalClusterDetails = getAdditionalClusters(project);
@@ -129,21 +155,27 @@ public class ClusterManagerEx {
         }
         // not authenticated
         if (manager == null) {
-            cachedClusterDetails.addAll(hdinsightAdditionalClusterDetails);
-            cachedClusterDetails.addAll(emulatorClusterDetails);
-            return cachedClusterDetails;
+            ClusterManager.getInstance().invalidateAll();
+            DefaultLoader.getIdeHelper().unsetApplicationProperty(CommonConst.HDINSIGHT_CLUSTERS_SNAPSHOT);
+
+            clusterDetails.addAll(hdinsightAdditionalClusterDetails);
+            clusterDetails.addAll(emulatorClusterDetails);
+            this.cachedClusterDetails = clusterDetails;
+            return clusterDetails;
         }
         List<SubscriptionDetail> subscriptionList = null;
         try {
             subscriptionList = manager.getSubscriptionManager().getSubscriptionDetails();
-            cachedClusterDetails = ClusterManager.getInstance().getHDInsightCausersWithSpecificType(subscriptionList, ClusterType.spark, OSTYPE, project);
+            clusterDetails = ClusterManager.getInstance().getHDInsightCausersWithSpecificType(subscriptionList, ClusterType.spark, OSTYPE, project);
             // TODO: so far we have not a good way to judge whether it is token expired as we have changed the way to list hdinsight clusters
-            if (cachedClusterDetails.size() == 0) {
+            if (clusterDetails.size() == 0) {
                 //DefaultLoader.getUIHelper().showError("Falied to get HDInsight Cluster, Please make sure there's no login problem first","List HDInsight Cluster Error");
                 isListClusterSuccess = false;
             } else {
                 isListClusterSuccess = true;
             }
+
+            saveClustersSnapshot();
         } catch (AggregatedException aggregateException) {
             if (dealWithAggregatedException(aggregateException)) {
                 DefaultLoader.getUIHelper().showError("Falied to get HDInsight Cluster, Please make sure there's no login problem first","List HDInsight Cluster Error");
@@ -158,10 +190,133 @@ public class ClusterManagerEx {
             isSelectedSubscriptionExist = true;
         }
 
-        cachedClusterDetails.addAll(hdinsightAdditionalClusterDetails);
-        cachedClusterDetails.addAll(emulatorClusterDetails);
-        ClusterMetaDataService.getInstance().addCachedClusters(cachedClusterDetails);
-        return cachedClusterDetails;
+        clusterDetails.addAll(hdinsightAdditionalClusterDetails);
+        clusterDetails.addAll(emulatorClusterDetails);
+        ClusterMetaDataService.getInstance().addCachedClusters(clusterDetails);
+        this.cachedClusterDetails = clusterDetails;
+        return clusterDetails;
+    }
+
+    /**
+     * Drop all cached cluster lists, the next {@link #getClusterDetails(Object)} will re-list every subscription.
+     * Called by the user initiated refresh, which expects the latest clusters rather than the cached ones.
+     */
+    public void invalidateClusterDetails() {
+        ClusterManager.getInstance().invalidateAll();
+    }
+
+    /**
+     * Listen to the clusters reconciled in background after the snapshot of the last session is shown,
+     * a listener of the same owner replaces the previous one. The owner and the listener are only held weakly,
+     * the caller keeps the listener reachable for as long as it listens.
+     *
+     * @param owner the owner of the listener, such as the project of an explorer node
+     * @param listener the consumer of the reconciled clusters, called on a pooled thread
+     */
+    public void addClusterDetailsRefreshedListener(Object owner, Consumer<List<IClusterDetail>> listener) {
+        clusterDetailsRefreshedListeners.put(owner, new WeakReference<>(listener));
+    }
+
+    public void removeClusterDetailsRefreshedListener(Object owner) {
+        clusterDetailsRefreshedListeners.remove(owner);
+    }
+
+    private void notifyClusterDetailsRefreshed(List<IClusterDetail> clusterDetails) {
+        List<WeakReference<Consumer<List<IClusterDetail>>>> listenerRefs;
+        synchronized (clusterDetailsRefreshedListeners) {
+            listenerRefs = new ArrayList<>(clusterDetailsRefreshedListeners.values());
+        }
+
+        for (WeakReference<Consumer<List<IClusterDetail>>> listenerRef : listenerRefs) {
+            Consumer<List<IClusterDetail>> listener = listenerRef.get();
+            if (listener != null) {
+                listener.accept(clusterDetails);
+            }
+        }
+    }
+
+    void refreshClusterDetailsInBackground(final Object project) {
+        if (!isBackgroundRefreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        DefaultLoader.getIdeHelper().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    notifyClusterDetailsRefreshed(getClusterDetails(project));
+                } finally {
+                    isBackgroundRefreshing.set(false);
+                }
+            }
+        });
+    }
+
+    private List<IClusterDetail> getSnapshotClusterDetails(Object project) {
+        List<IClusterDetail> snapshotClusterDetails = new ArrayList<>();
+        String json = DefaultLoader.getIdeHelper().getApplicationProperty(CommonConst.HDINSIGHT_CLUSTERS_SNAPSHOT);
+
+        if (StringHelper.isNullOrWhiteSpace(json)) {
+            return snapshotClusterDetails;
+        }
+
+        ClustersSnapshot snapshot;
+        try {
+            snapshot = new Gson().fromJson(json, ClustersSnapshot.class);
+        } catch (JsonSyntaxException e) {
+            DefaultLoader.getIdeHelper().unsetApplicationProperty(CommonConst.HDINSIGHT_CLUSTERS_SNAPSHOT);
+            return snapshotClusterDetails;
+        }
+
+        // The snapshot belongs to another account, or the user has signed out
+        if (snapshot == null || snapshot.subscriptionClusters == null ||
+                snapshot.account == null || !snapshot.account.equals(getSignedInAccount())) {
+            return snapshotClusterDetails;
+        }
+
+        ClusterManager.getInstance().restoreSubscriptionClustersSnapshot(snapshot.subscriptionClusters);
+
+        if(!isLIstAdditionalClusterSuccess) {
+            hdinsightAdditionalClusterDetails = getAdditionalClusters(project);
+        }
+
+        if(!isListEmulatorClusterSuccess) {
+            emulatorClusterDetails = getEmulatorClusters(project);
+        }
+
+        snapshotClusterDetails.addAll(ClusterManager.getInstance().getCachedHDInsightClustersWithSpecificType(ClusterType.spark, OSTYPE));
+        snapshotClusterDetails.addAll(hdinsightAdditionalClusterDetails);
+        snapshotClusterDetails.addAll(emulatorClusterDetails);
+        return snapshotClusterDetails;
+    }
+
+    private void saveClustersSnapshot() {
+        ClustersSnapshot snapshot = new ClustersSnapshot();
+        snapshot.account = getSignedInAccount();
+        snapshot.subscriptionClusters = ClusterManager.getInstance().getSubscriptionClustersSnapshot();
+
+        DefaultLoader.getIdeHelper().setApplicationProperty(CommonConst.HDINSIGHT_CLUSTERS_SNAPSHOT, new Gson().toJson(snapshot));
+    }
+
+    private String getSignedInAccount() {
+        try {
+            AuthMethodDetails authMethodDetails = AuthMethodManager.getInstance().getAuthMethodDetails();
+            if (authMethodDetails == null || !AuthMethodManager.getInstance().isSignedIn()) {
+                return null;
+            }
+
+            return StringHelper.isNullOrWhiteSpace(authMethodDetails.getAccountEmail()) ?
+                    authMethodDetails.getCredFilePath() :
+                    authMethodDetails.getAccountEmail();
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    // The persisted form of the cluster list, restored at IDE startup
+    private static class ClustersSnapshot {
+        private String account;
+        private List<ClusterManager.SubscriptionClusters> subscriptionClusters;
     }
 
     public synchronized  void addEmulatorCluster(EmulatorClusterDetail emulatorClusterDetail) {
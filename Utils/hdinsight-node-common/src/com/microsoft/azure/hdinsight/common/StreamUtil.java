@@ -23,7 +23,7 @@ package com.microsoft.azure.hdinsight.common;
 
 import com.microsoft.azure.hdinsight.sdk.common.HttpResponse;
 import com.microsoft.azure.hdinsight.sdk.storage.IHDIStorageAccount;
-import com.microsoft.azure.hdinsight.sdk.storage.adls.WebHDFSUtils;
+import com.microsoft.azure.hdinsight.spark.common.SparkArtifactCache;
 import com.microsoft.azuretools.authmanage.AuthMethodManager;
 import com.microsoft.azuretools.azurecommons.helpers.NotNull;
 import org.apache.commons.io.FileUtils;
@@ -117,6 +117,7 @@ public class StreamUtil {
     private static StreamUtil streamUtil = new StreamUtil();
     private static ClassLoader classLoader = streamUtil.getClass().getClassLoader();
     private static final String SPARK_SUBMISSION_FOLDER = "SparkSubmission";
+    private static final String SPARK_SUBMISSION_SEGMENTS_FOLDER = ".segments";
 
     public static String uploadArtifactToADLS(@NotNull File localFile, IHDIStorageAccount storageAccount, @NotNull String uploadFolderPath) throws Exception {
         String rootPath = storageAccount.getDefaultContainerOrRootPath();
@@ -125,7 +126,9 @@ public class StreamUtil {
         }
 
         final String remoteFilePath = String.format("%s%s/%s/%s", rootPath, SPARK_SUBMISSION_FOLDER, uploadFolderPath, localFile.getName());
-        WebHDFSUtils.uploadFileToADLS(storageAccount, localFile, remoteFilePath, true);
-        return String.format("adl://%s.azuredatalakestore.net/%s", storageAccount.getName(), remoteFilePath);
+        // Shared by all submissions, so a failed upload is resumed by the next submission to another folder
+        final String segmentsRoot = String.format("%s%s/%s", rootPath, SPARK_SUBMISSION_FOLDER, SPARK_SUBMISSION_SEGMENTS_FOLDER);
+        final String uploadedFilePath = SparkArtifactCache.getInstance().uploadToADLSIfChanged(localFile, storageAccount, remoteFilePath, segmentsRoot);
+        return String.format("adl://%s.azuredatalakestore.net/%s", storageAccount.getName(), uploadedFilePath);
     }
 }
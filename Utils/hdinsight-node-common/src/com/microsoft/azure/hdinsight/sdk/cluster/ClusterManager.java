@@ -22,22 +22,22 @@
 package com.microsoft.azure.hdinsight.sdk.cluster;
 
 import com.microsoft.azure.hdinsight.sdk.common.AggregatedException;
-import com.microsoft.azure.hdinsight.sdk.common.CommonRunnable;
-import com.microsoft.azure.hdinsight.sdk.common.HDIException;
 import com.microsoft.azuretools.authmanage.models.SubscriptionDetail;
-import com.microsoft.azuretools.azurecommons.helpers.AzureCmdException;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
 
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
 public class ClusterManager {
 
-    private final int MAX_CONCURRENT = 5;
-    private final int TIME_OUT = 5 * 60;
+    private static final int MAX_CONCURRENT = 5;
+    private static final int TIME_OUT = 5 * 60;
+
+    // Cluster lists of a subscription are re-listed only after this period, or when invalidated
+    public static final long SUBSCRIPTION_CACHE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
 
     // Singleton Instance
     private static ClusterManager instance = null;
@@ -54,9 +54,69 @@ public class ClusterManager {
         return instance;
     }
 
+    private final ExecutorService taskExecutor;
+    private final Function<Object, IClusterOperation> clusterOperationFactory;
+    private final LongSupplier clock;
+
+    // subscription ID -> clusters listed for that subscription
+    private final ConcurrentMap<String, SubscriptionClusters> subscriptionClusters = new ConcurrentHashMap<>();
+
+    // subscription ID -> listing in flight, so that concurrent callers share one request per subscription
+    private final ConcurrentMap<String, Future<SubscriptionClusters>> pendingListings = new ConcurrentHashMap<>();
+
     private ClusterManager() {
+        this(ClusterOperationImpl::new, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clusterOperationFactory creates the cluster operation for the project to list clusters with
+     * @param clock the current time in milliseconds, to expire the cluster lists
+     */
+    ClusterManager(@NotNull Function<Object, IClusterOperation> clusterOperationFactory, @NotNull LongSupplier clock) {
+        this.clusterOperationFactory = clusterOperationFactory;
+        this.clock = clock;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.taskExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT, runnable -> {
+            Thread thread = new Thread(runnable, "HDInsight-ClusterManager-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
+    /**
+     * Clusters listed for one subscription, with the time they were listed.
+     * A zero refresh time marks entries restored from a snapshot, which are shown but always re-listed.
+     */
+    public static class SubscriptionClusters {
+        private SubscriptionDetail subscription;
+        private List<ClusterRawInfo> clusters;
+        private long refreshTimeMillis;
+
+        public SubscriptionClusters(@NotNull SubscriptionDetail subscription,
+                                    @NotNull List<ClusterRawInfo> clusters,
+                                    long refreshTimeMillis) {
+            this.subscription = subscription;
+            this.clusters = Collections.unmodifiableList(new ArrayList<>(clusters));
+            this.refreshTimeMillis = refreshTimeMillis;
+        }
+
+        public SubscriptionDetail getSubscription() {
+            return subscription;
+        }
+
+        public List<ClusterRawInfo> getClusters() {
+            return clusters == null ? Collections.emptyList() : clusters;
+        }
+
+        public long getRefreshTimeMillis() {
+            return refreshTimeMillis;
+        }
+
+        public boolean isExpired(long nowMillis) {
+            return nowMillis - refreshTimeMillis >= SUBSCRIPTION_CACHE_TTL_MILLIS;
+        }
+    }
 
     /**
      * get hdinsight detailed cluster info list
@@ -65,7 +125,7 @@ public class ClusterManager {
      * @return detailed cluster info list
      * @throws AggregatedException
      */
-    public synchronized List<IClusterDetail> getHDInsightClusers(
+    public List<IClusterDetail> getHDInsightClusers(
             List<SubscriptionDetail> subscriptions, Object projectObject) throws AggregatedException {
 
         return getClusterDetails(subscriptions, projectObject);
@@ -79,13 +139,66 @@ public class ClusterManager {
      * @return detailed cluster info list with specific cluster type
      * @throws AggregatedException
      */
-    public synchronized List<IClusterDetail> getHDInsightCausersWithSpecificType(
+    public List<IClusterDetail> getHDInsightCausersWithSpecificType(
             List<SubscriptionDetail> subscriptions,
             ClusterType type,
             String osType,
             Object projectObject) throws AggregatedException {
 
-        List<IClusterDetail> clusterDetailList = getClusterDetails(subscriptions, projectObject);
+        return filterClusterDetails(getClusterDetails(subscriptions, projectObject), type, osType);
+    }
+
+    /**
+     * get the cached cluster info list with specific cluster type, without any remote request
+     *
+     * @param type
+     * @return cached detailed cluster info list with specific cluster type
+     */
+    public List<IClusterDetail> getCachedHDInsightClustersWithSpecificType(ClusterType type, String osType) {
+        List<IClusterDetail> clusterDetailList = new ArrayList<>();
+        for (SubscriptionClusters cached : subscriptionClusters.values()) {
+            for (ClusterRawInfo item : cached.getClusters()) {
+                clusterDetailList.add(new ClusterDetail(cached.getSubscription(), item));
+            }
+        }
+
+        return filterClusterDetails(clusterDetailList, type, osType);
+    }
+
+    /**
+     * @return a copy of the per subscription cluster cache, used to persist a snapshot
+     */
+    public List<SubscriptionClusters> getSubscriptionClustersSnapshot() {
+        return new ArrayList<>(subscriptionClusters.values());
+    }
+
+    /**
+     * Seed the cache with clusters from a persisted snapshot. Restored entries are considered expired,
+     * so they are replaced at the next listing; entries already listed in this session are kept.
+     */
+    public void restoreSubscriptionClustersSnapshot(@NotNull List<SubscriptionClusters> snapshot) {
+        for (SubscriptionClusters cached : snapshot) {
+            if (cached.getSubscription() == null) {
+                continue;
+            }
+
+            subscriptionClusters.putIfAbsent(cached.getSubscription().getSubscriptionId(),
+                    new SubscriptionClusters(cached.getSubscription(), cached.getClusters(), 0));
+        }
+    }
+
+    /**
+     * Force the clusters of the subscription to be re-listed at the next request
+     */
+    public void invalidate(@NotNull String subscriptionId) {
+        subscriptionClusters.remove(subscriptionId);
+    }
+
+    public void invalidateAll() {
+        subscriptionClusters.clear();
+    }
+
+    private List<IClusterDetail> filterClusterDetails(List<IClusterDetail> clusterDetailList, ClusterType type, String osType) {
         List<IClusterDetail> filterClusterDetailList = new ArrayList<>();
         for (IClusterDetail clusterDetail : clusterDetailList) {
             if (clusterDetail.getOSType() != null && osType != null) {
@@ -103,40 +216,50 @@ public class ClusterManager {
     }
 
     private List<IClusterDetail> getClusterDetails(List<SubscriptionDetail> subscriptions, final Object project) throws AggregatedException {
-        ExecutorService taskExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT);
         final List<IClusterDetail> cachedClusterList = new ArrayList<>();
         final List<Exception> aggregateExceptions = new ArrayList<>();
+        final long now = clock.getAsLong();
 
+        // Forget subscriptions which are no longer selected
+        Set<String> subscriptionIds = new HashSet<>();
         for (SubscriptionDetail subscription : subscriptions) {
-            taskExecutor.execute(new CommonRunnable<SubscriptionDetail, Exception>(subscription) {
-                @Override
-                public void runSpecificParameter(SubscriptionDetail parameter) throws IOException, HDIException, AzureCmdException {
-                    IClusterOperation clusterOperation = new ClusterOperationImpl(project);
-                    List<ClusterRawInfo> clusterRawInfoList = clusterOperation.listCluster(parameter);
-                    if (clusterRawInfoList != null) {
-                        for (ClusterRawInfo item : clusterRawInfoList) {
-                            IClusterDetail tempClusterDetail = new ClusterDetail(parameter, item);
-                            synchronized (ClusterManager.class) {
-                                cachedClusterList.add(tempClusterDetail);
-                            }
-                        }
-                    }
-                }
+            subscriptionIds.add(subscription.getSubscriptionId());
+        }
+        subscriptionClusters.keySet().retainAll(subscriptionIds);
 
-                @Override
-                public void exceptionHandle(Exception e) {
-                    synchronized (aggregateExceptions) {
-                        aggregateExceptions.add(e);
-                    }
+        // Only re-list the subscriptions which are new or expired
+        Map<SubscriptionDetail, Future<SubscriptionClusters>> listings = new LinkedHashMap<>();
+        for (SubscriptionDetail subscription : subscriptions) {
+            SubscriptionClusters cached = subscriptionClusters.get(subscription.getSubscriptionId());
+
+            if (cached != null && !cached.isExpired(now)) {
+                for (ClusterRawInfo item : cached.getClusters()) {
+                    cachedClusterList.add(new ClusterDetail(subscription, item));
                 }
-            });
+            } else {
+                listings.put(subscription, listClusterAsync(subscription, project));
+            }
         }
 
-        taskExecutor.shutdown();
-        try {
-            taskExecutor.awaitTermination(TIME_OUT, TimeUnit.SECONDS);
-        } catch (InterruptedException exception) {
-            aggregateExceptions.add(exception);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIME_OUT);
+        for (Map.Entry<SubscriptionDetail, Future<SubscriptionClusters>> listing : listings.entrySet()) {
+            try {
+                SubscriptionClusters listed = listing.getValue().get(
+                        Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+
+                for (ClusterRawInfo item : listed.getClusters()) {
+                    cachedClusterList.add(new ClusterDetail(listing.getKey(), item));
+                }
+            } catch (ExecutionException exception) {
+                aggregateExceptions.add(exception.getCause() instanceof Exception ?
+                        (Exception) exception.getCause() : exception);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                aggregateExceptions.add(exception);
+                break;
+            } catch (TimeoutException exception) {
+                aggregateExceptions.add(exception);
+            }
         }
 
         if (aggregateExceptions.size() > 0) {
@@ -145,4 +268,24 @@ public class ClusterManager {
 
         return cachedClusterList;
     }
-}
\ No newline at end of file
+
+    private Future<SubscriptionClusters> listClusterAsync(final SubscriptionDetail subscription, final Object project) {
+        final String subscriptionId = subscription.getSubscriptionId();
+
+        return pendingListings.computeIfAbsent(subscriptionId, id -> taskExecutor.submit(() -> {
+            try {
+                IClusterOperation clusterOperation = clusterOperationFactory.apply(project);
+                List<ClusterRawInfo> clusterRawInfoList = clusterOperation.listCluster(subscription);
+                SubscriptionClusters listed = new SubscriptionClusters(
+                        subscription,
+                        clusterRawInfoList == null ? Collections.emptyList() : clusterRawInfoList,
+                        clock.getAsLong());
+
+                subscriptionClusters.put(subscriptionId, listed);
+                return listed;
+            } finally {
+                pendingListings.remove(subscriptionId);
+            }
+        }));
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.sdk.storage.adls;
+
+import com.google.common.hash.Hashing;
+import com.microsoft.azure.datalake.store.ADLStoreClient;
+import com.microsoft.azure.datalake.store.DirectoryEntry;
+import com.microsoft.azure.datalake.store.DirectoryEntryType;
+import com.microsoft.azure.datalake.store.IfExists;
+import com.microsoft.azure.hdinsight.common.logger.ILogger;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Upload a local file to ADLS in fixed size segments.
+ *
+ * Large files are split into segment files, uploaded concurrently and then concatenated into the target file.
+ * The segments are kept in a folder under the segments root named by the local file path, length and modified
+ * time, so uploading the same file again after a failure resumes from the segments left by the failed attempt,
+ * even to another remote path. A segment is reused only if it has the expected length and was written after the
+ * local file was modified. Segment folders left by the uploads never retried are deleted once expired.
+ */
+public class ADLSChunkedUploader implements ILogger {
+    public static final long DEFAULT_SEGMENT_SIZE = 32 * 1024 * 1024;
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final long SEGMENTS_EXPIRATION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int WRITE_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    @NotNull
+    private final ADLStoreClient client;
+    private final long segmentSize;
+    private final int concurrency;
+    private final int maxRetries;
+
+    public ADLSChunkedUploader(@NotNull ADLStoreClient client) {
+        this(client, DEFAULT_SEGMENT_SIZE, DEFAULT_CONCURRENCY, DEFAULT_MAX_RETRIES);
+    }
+
+    public ADLSChunkedUploader(@NotNull ADLStoreClient client, long segmentSize, int concurrency, int maxRetries) {
+        this.client = client;
+        this.segmentSize = Math.max(1, segmentSize);
+        this.concurrency = Math.max(1, concurrency);
+        this.maxRetries = Math.max(1, maxRetries);
+    }
+
+    /**
+     * The length and modified time of a remote file or folder
+     */
+    static class RemoteEntry {
+        @NotNull
+        final String path;
+        final long length;
+        final long lastModified;
+        final boolean isDirectory;
+
+        RemoteEntry(@NotNull String path, long length, long lastModified, boolean isDirectory) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.isDirectory = isDirectory;
+        }
+    }
+
+    /**
+     * Upload the local file to the remote path
+     *
+     * @param localFile the local file to upload
+     * @param remotePath the ADLS file path
+     * @param segmentsRoot the ADLS folder to keep the segments of the large files in while uploading
+     * @param overWrite overwrite the existing remote file or not
+     * @throws IOException the exceptions in reading the local file or the ADLS operations
+     * @throws InterruptedException the uploading is interrupted
+     */
+    public void upload(@NotNull File localFile, @NotNull String remotePath, @NotNull String segmentsRoot, boolean overWrite)
+            throws IOException, InterruptedException {
+        long length = localFile.length();
+        long lastModified = localFile.lastModified();
+
+        try (FileChannel channel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ)) {
+            if (length <= segmentSize) {
+                uploadSegmentWithRetries(channel, remotePath, 0, length,
+                        overWrite ? IfExists.OVERWRITE : IfExists.FAIL);
+                return;
+            }
+
+            String segmentsFolder = getSegmentsFolder(segmentsRoot, localFile);
+            cleanUpExpiredSegments(segmentsRoot, segmentsFolder);
+
+            List<String> segmentPaths = uploadSegments(channel, segmentsFolder, length, lastModified);
+
+            if (client.checkExists(remotePath)) {
+                if (!overWrite) {
+                    throw new IOException("The file " + remotePath + " already exists");
+                }
+
+                client.delete(remotePath);
+            }
+
+            if (!client.concatenateFiles(remotePath, segmentPaths)) {
+                throw new IOException("Failed to concatenate the segments into " + remotePath);
+            }
+
+            verifyLength(remotePath, length);
+
+            try {
+                client.deleteRecursive(segmentsFolder);
+            } catch (IOException ex) {
+                log().debug("Failed to clean up the ADLS upload segments " + segmentsFolder, ex);
+            }
+        }
+    }
+
+    /**
+     * Get the segments folder of the local file, which changes with the file content length and modified time
+     *
+     * @param segmentsRoot the ADLS folder to keep the segments in
+     * @param localFile the local file to upload
+     * @return the ADLS folder path for the segments of the file
+     */
+    @NotNull
+    String getSegmentsFolder(@NotNull String segmentsRoot, @NotNull File localFile) {
+        String key = String.format("%s|%d|%d|%d",
+                localFile.getAbsolutePath(), localFile.length(), localFile.lastModified(), segmentSize);
+
+        return segmentsRoot + "/" + Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString().substring(0, 32);
+    }
+
+    private void cleanUpExpiredSegments(@NotNull String segmentsRoot, @NotNull String keptFolder) {
+        long expiredBefore = System.currentTimeMillis() - SEGMENTS_EXPIRATION_MILLIS;
+        String keptName = keptFolder.substring(keptFolder.lastIndexOf('/') + 1);
+
+        try {
+            if (!client.checkExists(segmentsRoot)) {
+                return;
+            }
+
+            for (RemoteEntry entry : listRemoteEntries(segmentsRoot)) {
+                if (entry.isDirectory && entry.lastModified < expiredBefore && !entry.path.endsWith("/" + keptName)) {
+                    client.deleteRecursive(entry.path);
+                }
+            }
+        } catch (IOException ex) {
+            log().debug("Failed to clean up the expired ADLS upload segments in " + segmentsRoot, ex);
+        }
+    }
+
+    @NotNull
+    private List<String> uploadSegments(@NotNull FileChannel channel,
+                                        @NotNull String segmentsFolder,
+                                        long length,
+                                        long lastModified) throws IOException, InterruptedException {
+        int segmentCount = (int) ((length + segmentSize - 1) / segmentSize);
+        List<String> segmentPaths = new ArrayList<>(segmentCount);
+        List<Future<Void>> futures = new ArrayList<>(segmentCount);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, segmentCount), runnable -> {
+            Thread thread = new Thread(runnable, "ADLS Upload-" + segmentsFolder);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            for (int i = 0; i < segmentCount; i++) {
+                final String segmentPath = String.format("%s/%06d", segmentsFolder, i);
+                final long offset = i * segmentSize;
+                final long size = Math.min(segmentSize, length - offset);
+
+                segmentPaths.add(segmentPath);
+                futures.add(executor.submit(() -> {
+                    RemoteEntry uploaded = getRemoteEntry(segmentPath);
+                    if (uploaded != null && uploaded.length == size && uploaded.lastModified >= lastModified) {
+                        // Uploaded by the previous attempt from the current file content
+                        return null;
+                    }
+
+                    uploadSegmentWithRetries(channel, segmentPath, offset, size, IfExists.OVERWRITE);
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    futures.forEach(f -> f.cancel(true));
+
+                    throw ex.getCause() instanceof IOException ?
+                            (IOException) ex.getCause() :
+                            new IOException("Failed to upload the segment to " + segmentsFolder, ex.getCause());
+                } catch (InterruptedException ex) {
+                    futures.forEach(f -> f.cancel(true));
+
+                    throw ex;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return segmentPaths;
+    }
+
+    private void uploadSegmentWithRetries(@NotNull FileChannel channel,
+                                          @NotNull String path,
+                                          long offset,
+                                          long size,
+                                          @NotNull IfExists ifExists) throws IOException, InterruptedException {
+        int attempt = 0;
+
+        while (true) {
+            try {
+                uploadSegment(channel, path, offset, size, ifExists);
+                verifyLength(path, size);
+
+                return;
+            } catch (IOException ex) {
+                if (++attempt >= maxRetries || Thread.currentThread().isInterrupted()) {
+                    throw ex;
+                }
+
+                log().debug("Failed to upload " + path + ", retry " + attempt, ex);
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+        }
+    }
+
+    private void uploadSegment(@NotNull FileChannel channel,
+                               @NotNull String path,
+                               long offset,
+                               long size,
+                               @NotNull IfExists ifExists) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(WRITE_BUFFER_SIZE, Math.max(1, size)));
+
+        try (OutputStream stream = client.createFile(path, ifExists)) {
+            long position = offset;
+            long end = offset + size;
+
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException("The file is truncated while uploading at " + (position + buffer.position()));
+                    }
+                }
+
+                stream.write(buffer.array(), 0, buffer.limit());
+                position += buffer.limit();
+            }
+        }
+    }
+
+    @Nullable
+    RemoteEntry getRemoteEntry(@NotNull String path) throws IOException {
+        if (!client.checkExists(path)) {
+            return null;
+        }
+
+        return toRemoteEntry(client.getDirectoryEntry(path));
+    }
+
+    @NotNull
+    List<RemoteEntry> listRemoteEntries(@NotNull String folder) throws IOException {
+        return client.enumerateDirectory(folder).stream()
+                .map(ADLSChunkedUploader::toRemoteEntry)
+                .collect(Collectors.toList());
+    }
+
+    @NotNull
+    private static RemoteEntry toRemoteEntry(@NotNull DirectoryEntry entry) {
+        return new RemoteEntry(
+                entry.fullName,
+                entry.length,
+                entry.lastModifiedTime == null ? -1 : entry.lastModifiedTime.getTime(),
+                entry.type == DirectoryEntryType.DIRECTORY);
+    }
+
+    private void verifyLength(@NotNull String path, long expectedLength) throws IOException {
+        RemoteEntry entry = getRemoteEntry(path);
+        long remoteLength = entry == null ? -1 : entry.length;
+
+        if (remoteLength != expectedLength) {
+            throw new IOException(String.format(
+                    "The uploaded file %s length %d doesn't match the expected %d", path, remoteLength, expectedLength));
+        }
+    }
+}
@@ -23,7 +23,8 @@ package com.microsoft.azure.hdinsight.sdk.storage.adls;
 
 import com.microsoft.azure.datalake.store.ADLException;
 import com.microsoft.azure.datalake.store.ADLStoreClient;
-import com.microsoft.azure.datalake.store.IfExists;
+import com.microsoft.azure.datalake.store.DirectoryEntry;
+import com.microsoft.azure.datalake.store.DirectoryEntryType;
 import com.microsoft.azure.hdinsight.common.HDInsightLoader;
 import com.microsoft.azure.hdinsight.sdk.common.HDIException;
 import com.microsoft.azure.hdinsight.sdk.storage.IHDIStorageAccount;
@@ -31,8 +32,8 @@ import com.microsoft.azure.hdinsight.spark.common.SparkBatchSubmission;
 import com.microsoft.azure.management.dns.HttpStatusCode;
 import com.microsoft.azuretools.authmanage.AuthMethodManager;
 import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
 import com.microsoft.azuretools.sdkmanage.AzureManager;
-import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
@@ -42,9 +43,7 @@ import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.HttpClients;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.charset.Charset;
 
 public class WebHDFSUtils {
@@ -55,20 +54,40 @@ public class WebHDFSUtils {
         return userAgentSource + installID;
     }
 
-    public static void uploadFileToADLS(@NotNull IHDIStorageAccount storageAccount, @NotNull File localFile, @NotNull String remotePath, boolean overWrite) throws Exception {
+    private static ADLStoreClient createClient(@NotNull IHDIStorageAccount storageAccount) throws Exception {
         com.microsoft.azuretools.sdkmanage.AzureManager manager = AuthMethodManager.getInstance().getAzureManager();
         String tid = manager.getSubscriptionManager().getSubscriptionTenant(storageAccount.getSubscriptionId());
         String accessToken = manager.getAccessToken(tid);
 
         // TODO: accountFQDN should work for Mooncake
         String storageName = storageAccount.getName();
-        ADLStoreClient client = ADLStoreClient.createClient(String.format("%s.azuredatalakestore.net", storageName), accessToken);
-        OutputStream stream = null;
+        return ADLStoreClient.createClient(String.format("%s.azuredatalakestore.net", storageName), accessToken);
+    }
+
+    /**
+     * Get the entry of an ADLS file, with its length and last modified time
+     *
+     * @param storageAccount the ADLS account
+     * @param remotePath the file path
+     * @return the file entry, or null if the file doesn't exist or is a directory
+     * @throws Exception the exception of the failed request
+     */
+    @Nullable
+    public static DirectoryEntry getADLSFileEntry(@NotNull IHDIStorageAccount storageAccount, @NotNull String remotePath) throws Exception {
+        ADLStoreClient client = createClient(storageAccount);
+
+        if (!client.checkExists(remotePath)) {
+            return null;
+        }
+
+        DirectoryEntry entry = client.getDirectoryEntry(remotePath);
+        return entry.type == DirectoryEntryType.FILE ? entry : null;
+    }
+
+    public static void uploadFileToADLS(@NotNull IHDIStorageAccount storageAccount, @NotNull File localFile, @NotNull String remotePath, @NotNull String segmentsRoot, boolean overWrite) throws Exception {
+        ADLStoreClient client = createClient(storageAccount);
         try {
-            stream = client.createFile(remotePath, IfExists.OVERWRITE);
-            IOUtils.copy(new FileInputStream(localFile), stream);
-            stream.flush();
-            stream.close();
+            new ADLSChunkedUploader(client).upload(localFile, remotePath, segmentsRoot, overWrite);
         } catch (ADLException e) {
             // ADLS operation may get a 403 when 'user' didn't have access to ADLS under Service Principle model
             // currently we didn't have a good way to solve this problem
@@ -76,8 +95,8 @@ public class WebHDFSUtils {
             if (e.httpResponseCode == 403 || HttpStatusCode.valueOf(e.httpResponseMessage) == HttpStatusCode.FORBIDDEN) {
                 throw new HDIException("Forbidden. Attached Azure DataLake Store is not supported in Automated login model. Please logout first and try Interactive login model", 403);
             }
-        } finally {
-            IOUtils.closeQuietly(stream);
+
+            throw e;
         }
     }
 }
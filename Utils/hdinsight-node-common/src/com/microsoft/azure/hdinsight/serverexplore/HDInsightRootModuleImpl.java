@@ -34,6 +34,7 @@ import com.microsoft.tooling.msservices.serviceexplorer.Node;
 import com.microsoft.tooling.msservices.serviceexplorer.NodeActionEvent;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public class HDInsightRootModuleImpl extends HDInsightRootModule {
 
@@ -43,15 +44,28 @@ public class HDInsightRootModuleImpl extends HDInsightRootModule {
 
     public HDInsightRootModuleImpl(@NotNull Node parent) {
         super(HDInsight_SERVICE_MODULE_ID, BASE_MODULE_NAME, parent, ICON_PATH);
+
+        // One listener per project, the node created again for the same project replaces the previous one.
+        // Only held weakly by the cluster manager, it goes away with this node or the closed project.
+        ClusterManagerEx.getInstance().addClusterDetailsRefreshedListener(
+                getProject(), clusterDetailsRefreshedListener);
     }
 
     private List<IClusterDetail> clusterDetailList;
 
+    private final Consumer<List<IClusterDetail>> clusterDetailsRefreshedListener = this::onClusterDetailsRefreshed;
+
     @Override
     public HDInsightRootModule getNewNode(@NotNull Node node) {
         return new HDInsightRootModuleImpl(node);
     }
 
+    @Override
+    protected void refreshFromAzure() throws Exception {
+        // The user asked to refresh, don't show the cached cluster lists
+        ClusterManagerEx.getInstance().invalidateClusterDetails();
+    }
+
     @Override
     protected void refreshItems() throws AzureCmdException {
         synchronized (this) { //todo???
@@ -82,4 +96,21 @@ public class HDInsightRootModuleImpl extends HDInsightRootModule {
 
     }
 
+    private void onClusterDetailsRefreshed(List<IClusterDetail> clusterDetails) {
+        DefaultLoader.getIdeHelper().invokeLater(() -> {
+            synchronized (this) {
+                // Not expanded yet, the clusters will be got when expanding
+                if (!initialized || isLoading()) {
+                    return;
+                }
+
+                removeAllChildNodes();
+                clusterDetailList = clusterDetails;
+
+                for (IClusterDetail clusterDetail : clusterDetailList) {
+                    addChildNode(new ClusterNode(this, clusterDetail));
+                }
+            }
+        });
+    }
 }
\ No newline at end of file
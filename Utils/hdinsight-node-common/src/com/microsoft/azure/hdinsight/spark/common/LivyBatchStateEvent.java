@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.spark.common;
+
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
+
+/**
+ * The Livy batch state change event published by {@link LivyBatchWatcher}
+ */
+public class LivyBatchStateEvent {
+    /**
+     * The Livy batches connection URL, such as: http://livy:8998/batches
+     */
+    @NotNull
+    private final String connectUrl;
+
+    /**
+     * The state before the change, null for the first state observed
+     */
+    @Nullable
+    private final String previousState;
+
+    /**
+     * The latest batch status got from Livy
+     */
+    @NotNull
+    private final SparkSubmitResponse current;
+
+    public LivyBatchStateEvent(@NotNull String connectUrl,
+                               @Nullable String previousState,
+                               @NotNull SparkSubmitResponse current) {
+        this.connectUrl = connectUrl;
+        this.previousState = previousState;
+        this.current = current;
+    }
+
+    @NotNull
+    public String getConnectUrl() {
+        return connectUrl;
+    }
+
+    public int getBatchId() {
+        return current.getId();
+    }
+
+    @Nullable
+    public String getPreviousState() {
+        return previousState;
+    }
+
+    @NotNull
+    public String getState() {
+        return current.getState();
+    }
+
+    @NotNull
+    public SparkSubmitResponse getCurrent() {
+        return current;
+    }
+
+    /**
+     * Check if the batch reaches the final state, such as success, error or dead
+     *
+     * @return true for the final state
+     */
+    public boolean isFinished() {
+        return !current.isAlive();
+    }
+
+    public boolean isFor(@NotNull String connectUrl, int batchId) {
+        return this.connectUrl.equals(connectUrl) && getBatchId() == batchId;
+    }
+}
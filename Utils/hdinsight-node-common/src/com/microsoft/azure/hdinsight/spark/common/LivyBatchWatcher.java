@@ -0,0 +1,404 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.spark.common;
+
+import com.microsoft.azure.hdinsight.common.logger.ILogger;
+import com.microsoft.azure.hdinsight.sdk.common.HttpResponse;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
+import rx.Observable;
+import rx.Subscription;
+import rx.subjects.PublishSubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.UnknownServiceException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * The shared Livy batch job state watcher.
+ *
+ * All tracked batches of the same Livy service are refreshed together per interval, instead of
+ * one status polling loop per batch. Each batch is polled by the light GET /batches/{id}/state,
+ * the whole batch is only got once its state changes or while its application isn't known yet.
+ * The interval goes back to the minimum once any tracked batch changes its state, and is enlarged
+ * step by step while nothing changes. State changes are published as {@link LivyBatchStateEvent}.
+ */
+public class LivyBatchWatcher implements ILogger {
+    public static final long MIN_INTERVAL_MILLIS = 1000;
+    public static final long MAX_INTERVAL_MILLIS = 10000;
+    private static final double INTERVAL_BACKOFF_FACTOR = 1.5;
+    public static final int DEFAULT_MAX_POLL_FAILURES = 5;
+
+    /**
+     * The watching status of one Livy service
+     */
+    private class ClusterWatch {
+        private final String connectUrl;
+        private final Set<Integer> trackedBatchIds = ConcurrentHashMap.newKeySet();
+        private final Map<Integer, LivyBatchStateEvent> latestEvents = new ConcurrentHashMap<>();
+        private long intervalMillis = MIN_INTERVAL_MILLIS;
+        private ScheduledFuture<?> nextPoll;
+        // the submission of the latest watched job, which carries the credentials of the cluster
+        @Nullable
+        private volatile SparkBatchSubmission submission;
+        private volatile int consecutiveFailures = 0;
+        @Nullable
+        private volatile Exception lastPollError;
+
+        ClusterWatch(String connectUrl) {
+            this.connectUrl = connectUrl;
+        }
+    }
+
+    // Singleton Instance
+    private static LivyBatchWatcher instance = null;
+
+    public static LivyBatchWatcher getInstance() {
+        if (instance == null) {
+            synchronized (LivyBatchWatcher.class) {
+                if (instance == null) {
+                    instance = new LivyBatchWatcher(SparkBatchSubmission::getInstance);
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    private final Supplier<SparkBatchSubmission> submissionSupplier;
+    private final int maxPollFailures;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, ClusterWatch> clusterWatches = new HashMap<>();
+    private final Subject<LivyBatchStateEvent, LivyBatchStateEvent> events =
+            new SerializedSubject<>(PublishSubject.create());
+
+    LivyBatchWatcher(@NotNull Supplier<SparkBatchSubmission> submissionSupplier) {
+        this(submissionSupplier, DEFAULT_MAX_POLL_FAILURES);
+    }
+
+    LivyBatchWatcher(@NotNull Supplier<SparkBatchSubmission> submissionSupplier, int maxPollFailures) {
+        this.submissionSupplier = submissionSupplier;
+        this.maxPollFailures = maxPollFailures;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Livy Batch Watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the state change event stream of all watched batches
+     *
+     * @return the hot event stream, the events are emitted in the watcher thread
+     */
+    @NotNull
+    public Observable<LivyBatchStateEvent> getEvents() {
+        return events.asObservable();
+    }
+
+    /**
+     * Start watching a batch job, the batch stays watched until it finishes or {@link #unwatch} is called
+     *
+     * @param connectUrl the Livy batches connection URL, such as: http://livy:8998/batches
+     * @param batchId the Livy batch job ID
+     * @return the state change event stream of the batch, starting with the latest state got if any,
+     *         and completed after the batch finishes
+     */
+    @NotNull
+    public Observable<LivyBatchStateEvent> watch(@NotNull String connectUrl, int batchId) {
+        return watch(null, connectUrl, batchId);
+    }
+
+    /**
+     * Start watching a batch job, with the Livy service polled through the job's own submission
+     *
+     * @param submission the submission of the job, null for the default one
+     * @param connectUrl the Livy batches connection URL, such as: http://livy:8998/batches
+     * @param batchId the Livy batch job ID
+     * @return the state change event stream of the batch, completed after the batch finishes
+     */
+    @NotNull
+    public Observable<LivyBatchStateEvent> watch(@Nullable SparkBatchSubmission submission,
+                                                 @NotNull String connectUrl,
+                                                 int batchId) {
+        synchronized (clusterWatches) {
+            ClusterWatch watch = clusterWatches.computeIfAbsent(connectUrl, ClusterWatch::new);
+
+            if (submission != null) {
+                watch.submission = submission;
+            }
+
+            if (watch.trackedBatchIds.add(batchId)) {
+                // A new comer, have a quick look
+                schedulePoll(watch, 0);
+            }
+        }
+
+        return Observable.<LivyBatchStateEvent>create(subscriber -> {
+            // Events are published with the lock held, so no change is missed between the replay and the subscription
+            synchronized (clusterWatches) {
+                ClusterWatch watch = clusterWatches.get(connectUrl);
+                LivyBatchStateEvent latest = watch == null ? null : watch.latestEvents.get(batchId);
+
+                if (latest != null) {
+                    subscriber.onNext(latest);
+                }
+
+                subscriber.add(getEvents()
+                        .filter(event -> event.isFor(connectUrl, batchId))
+                        .subscribe(subscriber::onNext, subscriber::onError, subscriber::onCompleted));
+            }
+        }).takeUntil(LivyBatchStateEvent::isFinished);
+    }
+
+    /**
+     * Stop watching a batch job and drop its cached state
+     *
+     * @param connectUrl the Livy batches connection URL
+     * @param batchId the Livy batch job ID
+     */
+    public void unwatch(@NotNull String connectUrl, int batchId) {
+        synchronized (clusterWatches) {
+            ClusterWatch watch = clusterWatches.get(connectUrl);
+            if (watch == null) {
+                return;
+            }
+
+            watch.trackedBatchIds.remove(batchId);
+            watch.latestEvents.remove(batchId);
+
+            if (watch.latestEvents.isEmpty() && watch.trackedBatchIds.isEmpty()) {
+                if (watch.nextPoll != null) {
+                    watch.nextPoll.cancel(false);
+                }
+
+                clusterWatches.remove(connectUrl);
+            }
+        }
+    }
+
+    /**
+     * Get the latest batch status got by the watcher
+     *
+     * @param connectUrl the Livy batches connection URL
+     * @param batchId the Livy batch job ID
+     * @return the latest status, or empty if not watched or not got yet
+     */
+    @NotNull
+    public Optional<SparkSubmitResponse> getLatestState(@NotNull String connectUrl, int batchId) {
+        synchronized (clusterWatches) {
+            ClusterWatch watch = clusterWatches.get(connectUrl);
+
+            return watch == null ?
+                    Optional.empty() :
+                    Optional.ofNullable(watch.latestEvents.get(batchId)).map(LivyBatchStateEvent::getCurrent);
+        }
+    }
+
+    /**
+     * Check whether the watcher still gets the states of a Livy service, the request errors of the polling are
+     * retried at the next interval and thrown here once they keep failing.
+     *
+     * @param connectUrl the Livy batches connection URL
+     * @throws IOException the last polling error, after {@link #DEFAULT_MAX_POLL_FAILURES} polls failed in a row
+     */
+    public void checkPollFailures(@NotNull String connectUrl) throws IOException {
+        ClusterWatch watch;
+
+        synchronized (clusterWatches) {
+            watch = clusterWatches.get(connectUrl);
+        }
+
+        if (watch == null || watch.consecutiveFailures < maxPollFailures) {
+            return;
+        }
+
+        Exception error = watch.lastPollError;
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+
+        throw new IOException("Failed to get the Livy batches states of " + connectUrl + " after " +
+                watch.consecutiveFailures + " attempts", error);
+    }
+
+    /**
+     * Wait for the next state change of the batch, as the replacement of sleeping between status polling
+     *
+     * @param connectUrl the Livy batches connection URL
+     * @param batchId the Livy batch job ID
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the timeout argument
+     * @return true if the state changed, false if timed out
+     * @throws InterruptedException the waiting thread is interrupted
+     */
+    public boolean awaitStateChange(@NotNull String connectUrl, int batchId, long timeout, @NotNull TimeUnit unit)
+            throws InterruptedException {
+        CountDownLatch changed = new CountDownLatch(1);
+        Subscription subscription = getEvents()
+                .filter(event -> event.isFor(connectUrl, batchId))
+                .subscribe(event -> changed.countDown());
+
+        try {
+            return changed.await(timeout, unit);
+        } finally {
+            subscription.unsubscribe();
+        }
+    }
+
+    private void schedulePoll(@NotNull ClusterWatch watch, long delayMillis) {
+        if (watch.nextPoll != null && !watch.nextPoll.isDone()) {
+            if (watch.nextPoll.getDelay(TimeUnit.MILLISECONDS) <= delayMillis) {
+                return;
+            }
+
+            watch.nextPoll.cancel(false);
+        }
+
+        watch.nextPoll = scheduler.schedule(() -> poll(watch), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(@NotNull ClusterWatch watch) {
+        boolean isChanged = false;
+
+        try {
+            if (watch.trackedBatchIds.isEmpty()) {
+                return;
+            }
+
+            SparkBatchSubmission submission = watch.submission != null ? watch.submission : submissionSupplier.get();
+
+            for (Integer batchId : new ArrayList<>(watch.trackedBatchIds)) {
+                SparkSubmitResponse current = getChangedBatch(submission, watch, batchId);
+
+                if (current != null && current.getState() != null) {
+                    isChanged |= update(watch, current);
+                }
+            }
+
+            watch.consecutiveFailures = 0;
+            watch.lastPollError = null;
+        } catch (Exception ex) {
+            watch.lastPollError = ex;
+            watch.consecutiveFailures++;
+            log().debug("Got exception " + ex.toString() + " in watching Livy batches of " + watch.connectUrl +
+                    ", failed " + watch.consecutiveFailures + " times in a row", ex);
+        } finally {
+            synchronized (clusterWatches) {
+                watch.intervalMillis = isChanged ?
+                        MIN_INTERVAL_MILLIS :
+                        Math.min(MAX_INTERVAL_MILLIS, (long) (watch.intervalMillis * INTERVAL_BACKOFF_FACTOR));
+
+                if (!watch.trackedBatchIds.isEmpty() && clusterWatches.get(watch.connectUrl) == watch) {
+                    watch.nextPoll = null;
+                    schedulePoll(watch, watch.intervalMillis);
+                }
+            }
+        }
+    }
+
+    private boolean update(@NotNull ClusterWatch watch, @NotNull SparkSubmitResponse current) {
+        synchronized (clusterWatches) {
+            if (!watch.trackedBatchIds.contains(current.getId())) {
+                // Unwatched during polling
+                return false;
+            }
+
+            if (!current.isAlive()) {
+                // No more changes for the finished job, keep the final state until unwatched
+                watch.trackedBatchIds.remove(current.getId());
+            }
+
+            LivyBatchStateEvent latest = watch.latestEvents.get(current.getId());
+            SparkSubmitResponse previous = latest == null ? null : latest.getCurrent();
+
+            if (previous != null &&
+                    previous.getState().equals(current.getState()) &&
+                    Objects.equals(previous.getAppId(), current.getAppId()) &&
+                    Objects.equals(previous.getAppInfo(), current.getAppInfo())) {
+                return false;
+            }
+
+            LivyBatchStateEvent event = new LivyBatchStateEvent(
+                    watch.connectUrl, previous == null ? null : previous.getState(), current);
+            watch.latestEvents.put(current.getId(), event);
+            events.onNext(event);
+
+            return true;
+        }
+    }
+
+    /**
+     * Get the batch again unless its state request tells it is unchanged
+     *
+     * @return the whole batch, or null if it is unchanged or gone
+     */
+    @Nullable
+    private SparkSubmitResponse getChangedBatch(@NotNull SparkBatchSubmission submission,
+                                                @NotNull ClusterWatch watch,
+                                                int batchId) throws IOException {
+        LivyBatchStateEvent latest = watch.latestEvents.get(batchId);
+        SparkSubmitResponse previous = latest == null ? null : latest.getCurrent();
+
+        // The application info is only in the whole batch, so it's got until the driver log is known
+        if (previous != null && previous.getAppId() != null && previous.getAppInfo() != null &&
+                previous.getAppInfo().get("driverLogUrl") != null) {
+            HttpResponse httpResponse = submission.getBatchSparkJobState(watch.connectUrl, batchId);
+
+            // Otherwise such as an old Livy service without the state API, get the whole batch
+            if (httpResponse.getCode() >= 200 && httpResponse.getCode() < 300) {
+                SparkSubmitResponse state = SparkSubmitResponse.parseJSON(httpResponse.getMessage());
+
+                if (state != null && previous.getState().equals(state.getState())) {
+                    return null;
+                }
+            }
+        }
+
+        return getBatch(submission, watch.connectUrl, batchId);
+    }
+
+    @Nullable
+    private SparkSubmitResponse getBatch(@NotNull SparkBatchSubmission submission,
+                                         @NotNull String connectUrl,
+                                         int batchId) throws IOException {
+        HttpResponse httpResponse = submission.getBatchSparkJobStatus(connectUrl, batchId);
+
+        if (httpResponse.getCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+            // Gone, such as dropped by a restarted Livy service
+            return null;
+        }
+
+        if (httpResponse.getCode() < 200 || httpResponse.getCode() >= 300) {
+            throw new UnknownServiceException(String.format("Failed to get Livy batch %d of %s, error code: %d, " +
+                    "reason: %s.", batchId, connectUrl, httpResponse.getCode(), httpResponse.getMessage()));
+        }
+
+        return SparkSubmitResponse.parseJSON(httpResponse.getMessage());
+    }
+}
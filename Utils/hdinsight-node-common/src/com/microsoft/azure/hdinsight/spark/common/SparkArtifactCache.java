@@ -0,0 +1,358 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.microsoft.azure.hdinsight.spark.common;
+
+import com.google.common.io.BaseEncoding;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.microsoft.azure.datalake.store.DirectoryEntry;
+import com.microsoft.azure.hdinsight.common.HDInsightLoader;
+import com.microsoft.azure.hdinsight.common.logger.ILogger;
+import com.microsoft.azure.hdinsight.sdk.storage.HDStorageAccount;
+import com.microsoft.azure.hdinsight.sdk.storage.IHDIStorageAccount;
+import com.microsoft.azure.hdinsight.sdk.storage.adls.WebHDFSUtils;
+import com.microsoft.azuretools.azurecommons.helpers.NotNull;
+import com.microsoft.azuretools.azurecommons.helpers.Nullable;
+import com.microsoft.azuretools.azurecommons.helpers.StringHelper;
+import com.microsoft.tooling.msservices.helpers.CallableSingleArg;
+import com.microsoft.tooling.msservices.helpers.azure.sdk.StorageClientSDKManager;
+import com.microsoft.tooling.msservices.model.storage.BlobContainer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The content addressed cache of the uploaded Spark job artifacts.
+ *
+ * The local manifest maps the SHA-256 of an artifact to the remote path it was uploaded to. Before reusing
+ * a remote path, its content is checked again by the blob metadata, or by the ADLS file length and modified time
+ * got right after the upload, so an artifact deleted or overwritten remotely is uploaded again.
+ */
+public class SparkArtifactCache implements ILogger {
+    public static final String CONTENT_HASH_METADATA_KEY = "sparkartifactsha256";
+
+    private static final String CACHE_FOLDER_NAME = "SparkArtifactCache";
+    private static final String MANIFEST_FILE_NAME = "manifest.json";
+    private static final int MAX_MANIFEST_ENTRIES = 256;
+
+    /**
+     * The content hash of a local file, valid while the file length and modified time are the same
+     */
+    private static class FileHash {
+        private final long length;
+        private final long lastModified;
+        private final String hash;
+
+        FileHash(long length, long lastModified, String hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * The manifest entry of an uploaded artifact
+     */
+    static class CachedArtifact {
+        private String path;
+        // The remote file stamp got after uploading, to check the storage without user metadata
+        private long length = -1;
+        private long lastModified = -1;
+
+        CachedArtifact(@NotNull String path, long length, long lastModified) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        @NotNull
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * Whether the remote file is still the uploaded one, not deleted nor overwritten since
+         *
+         * @param remoteLength the current remote file length, -1 if it doesn't exist
+         * @param remoteLastModified the current remote file modified time in milliseconds
+         * @return true if both the length and the modified time are the ones got after uploading
+         */
+        boolean isSameRemoteFile(long remoteLength, long remoteLastModified) {
+            return remoteLength >= 0 && lastModified >= 0 &&
+                    remoteLength == length && remoteLastModified == lastModified;
+        }
+    }
+
+    // Singleton Instance
+    private static SparkArtifactCache instance = null;
+
+    public static SparkArtifactCache getInstance() {
+        if (instance == null) {
+            synchronized (SparkArtifactCache.class) {
+                if (instance == null) {
+                    instance = new SparkArtifactCache(new File(StringHelper.concat(
+                            HDInsightLoader.getHDInsightHelper().getPluginRootPath(),
+                            File.separator,
+                            CACHE_FOLDER_NAME,
+                            File.separator,
+                            MANIFEST_FILE_NAME)));
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    private final File manifestFile;
+    private final Map<String, FileHash> fileHashes = new ConcurrentHashMap<>();
+
+    // The uploaded artifacts by storage key and content hash, in the access order for eviction
+    private LinkedHashMap<String, CachedArtifact> manifest;
+
+    SparkArtifactCache(@NotNull File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * Upload the artifact to the Azure Blob storage unless the same content has been uploaded
+     *
+     * @param artifact the local artifact file
+     * @param storageAccount the Azure Blob storage account
+     * @param container the container to upload to
+     * @param path the blob path to upload to if no uploaded one can be reused
+     * @param processBlock the uploading progress callback
+     * @return the blob path of the artifact content, may be a previously uploaded one
+     * @throws Exception the exceptions in uploading
+     */
+    @NotNull
+    public String uploadToBlobIfChanged(@NotNull File artifact,
+                                        @NotNull HDStorageAccount storageAccount,
+                                        @NotNull BlobContainer container,
+                                        @NotNull String path,
+                                        CallableSingleArg<Void, Long> processBlock) throws Exception {
+        String hash = getContentHash(artifact);
+        String storageKey = String.format("wasb://%s@%s", container.getName(), storageAccount.getFullStorageBlobName());
+        CachedArtifact cached = getCachedArtifact(storageKey, hash);
+
+        if (cached != null) {
+            String cachedPath = cached.getPath();
+
+            try {
+                Map<String, String> metadata = StorageClientSDKManager.getManager().getBlobFileMetadata(
+                        storageAccount.getConnectionString(), container, cachedPath);
+
+                if (metadata != null && hash.equals(metadata.get(CONTENT_HASH_METADATA_KEY))) {
+                    return cachedPath;
+                }
+            } catch (Exception ex) {
+                log().debug("Failed to check the cached artifact " + cachedPath + ", upload it again", ex);
+            }
+
+            removeCachedArtifact(storageKey, hash);
+        }
+
+        StorageClientSDKManager.getManager().uploadBlobFileContent(
+                storageAccount.getConnectionString(), container, path, artifact, processBlock, 1024 * 1024);
+        StorageClientSDKManager.getManager().setBlobFileMetadata(
+                storageAccount.getConnectionString(),
+                container,
+                path,
+                Collections.singletonMap(CONTENT_HASH_METADATA_KEY, hash));
+
+        // The blob is checked by the content hash in its metadata, the stamp isn't needed
+        putCachedArtifact(storageKey, hash, new CachedArtifact(path, -1, -1));
+
+        return path;
+    }
+
+    /**
+     * Upload the artifact to the Azure Data Lake store unless the same content has been uploaded
+     *
+     * @param artifact the local artifact file
+     * @param storageAccount the ADLS account
+     * @param remotePath the file path to upload to if no uploaded one can be reused
+     * @param segmentsRoot the folder to keep the segments in while uploading, to resume the failed uploads from
+     * @return the file path of the artifact content, may be a previously uploaded one
+     * @throws Exception the exceptions in uploading
+     */
+    @NotNull
+    public String uploadToADLSIfChanged(@NotNull File artifact,
+                                        @NotNull IHDIStorageAccount storageAccount,
+                                        @NotNull String remotePath,
+                                        @NotNull String segmentsRoot) throws Exception {
+        String hash = getContentHash(artifact);
+        String storageKey = String.format("adl://%s", storageAccount.getName());
+        CachedArtifact cached = getCachedArtifact(storageKey, hash);
+
+        if (cached != null) {
+            try {
+                // ADLS files have no user metadata, an artifact overwritten since the upload has another
+                // modified time even if its length is the same
+                DirectoryEntry entry = WebHDFSUtils.getADLSFileEntry(storageAccount, cached.getPath());
+
+                if (entry != null && entry.length == artifact.length() &&
+                        cached.isSameRemoteFile(entry.length, getTime(entry.lastModifiedTime))) {
+                    return cached.getPath();
+                }
+            } catch (Exception ex) {
+                log().debug("Failed to check the cached artifact " + cached.getPath() + ", upload it again", ex);
+            }
+
+            removeCachedArtifact(storageKey, hash);
+        }
+
+        WebHDFSUtils.uploadFileToADLS(storageAccount, artifact, remotePath, segmentsRoot, true);
+
+        try {
+            DirectoryEntry uploaded = WebHDFSUtils.getADLSFileEntry(storageAccount, remotePath);
+
+            if (uploaded != null) {
+                putCachedArtifact(storageKey, hash,
+                        new CachedArtifact(remotePath, uploaded.length, getTime(uploaded.lastModifiedTime)));
+            }
+        } catch (Exception ex) {
+            log().debug("Failed to get the uploaded artifact " + remotePath + ", it won't be reused", ex);
+        }
+
+        return remotePath;
+    }
+
+    /**
+     * Get the SHA-256 of the file content, the file is read again only if its length or modified time changes
+     *
+     * @param file the local file
+     * @return the hex string of SHA-256
+     * @throws IOException the exceptions in reading the file
+     */
+    @NotNull
+    public String getContentHash(@NotNull File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        FileHash cached = fileHashes.get(key);
+        if (cached != null && cached.length == length && cached.lastModified == lastModified) {
+            return cached.hash;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("SHA-256 is not supported", ex);
+        }
+
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+            while (inputStream.read(buffer) != -1) {
+                // Read through for the digest
+            }
+        }
+
+        String hash = BaseEncoding.base16().lowerCase().encode(digest.digest());
+        fileHashes.put(key, new FileHash(length, lastModified, hash));
+
+        return hash;
+    }
+
+    private static long getTime(@Nullable Date date) {
+        return date == null ? -1 : date.getTime();
+    }
+
+    synchronized CachedArtifact getCachedArtifact(@NotNull String storageKey, @NotNull String hash) {
+        return getManifest().get(storageKey + "|" + hash);
+    }
+
+    synchronized void putCachedArtifact(@NotNull String storageKey,
+                                        @NotNull String hash,
+                                        @NotNull CachedArtifact artifact) {
+        LinkedHashMap<String, CachedArtifact> entries = getManifest();
+        entries.put(storageKey + "|" + hash, artifact);
+
+        Iterator<String> eldest = entries.keySet().iterator();
+        while (entries.size() > MAX_MANIFEST_ENTRIES && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+
+        saveManifest();
+    }
+
+    private synchronized void removeCachedArtifact(@NotNull String storageKey, @NotNull String hash) {
+        if (getManifest().remove(storageKey + "|" + hash) != null) {
+            saveManifest();
+        }
+    }
+
+    @NotNull
+    private LinkedHashMap<String, CachedArtifact> getManifest() {
+        if (manifest == null) {
+            manifest = new LinkedHashMap<>(16, 0.75f, true);
+
+            if (manifestFile.exists()) {
+                try {
+                    Map<String, CachedArtifact> saved = new Gson().fromJson(
+                            FileUtils.readFileToString(manifestFile, StandardCharsets.UTF_8),
+                            new TypeToken<LinkedHashMap<String, CachedArtifact>>() {}.getType());
+
+                    if (saved != null) {
+                        manifest.putAll(saved);
+                    }
+                } catch (Exception ex) {
+                    log().warn("Failed to load the Spark artifact cache manifest " + manifestFile + ", start over", ex);
+                }
+            }
+        }
+
+        return manifest;
+    }
+
+    private void saveManifest() {
+        // Written aside and moved over, so a crash in writing doesn't leave a truncated manifest
+        File tempFile = new File(manifestFile.getPath() + ".tmp");
+
+        try {
+            FileUtils.writeStringToFile(tempFile, new Gson().toJson(manifest), StandardCharsets.UTF_8);
+
+            try {
+                Files.move(tempFile.toPath(), manifestFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            log().warn("Failed to save the Spark artifact cache manifest " + manifestFile, ex);
+        }
+    }
+}
@@ -185,6 +185,16 @@ public class SparkBatchRemoteDebugJob implements ISparkBatchDebugJob, ILogger {
                             "Bad spark job response: " + httpResponse.getMessage()));
 
             this.setBatchId(jobResp.getId());
+
+            // Share the batch state polling with other watchers of the same Livy service, the finished batch is
+            // unwatched once its final state is delivered so the watcher doesn't keep it
+            String connectUrl = this.getConnectUri().toString();
+            int batchId = this.getBatchId();
+            LivyBatchWatcher watcher = LivyBatchWatcher.getInstance();
+            watcher.watch(this.getSubmission(), connectUrl, batchId)
+                    .subscribe(event -> { },
+                               err -> watcher.unwatch(connectUrl, batchId),
+                               () -> watcher.unwatch(connectUrl, batchId));
         }
 
         return this;
@@ -198,6 +208,8 @@ public class SparkBatchRemoteDebugJob implements ISparkBatchDebugJob, ILogger {
      */
     @Override
     public SparkBatchRemoteDebugJob killBatchJob() throws IOException {
+        LivyBatchWatcher.getInstance().unwatch(this.getConnectUri().toString(), this.getBatchId());
+
         HttpResponse deleteResponse = this.getSubmission().killBatchJob(
                 this.getConnectUri().toString(), this.getBatchId());
 
@@ -328,6 +340,14 @@ public class SparkBatchRemoteDebugJob implements ISparkBatchDebugJob, ILogger {
         int retries = 0;
 
         do {
+            Optional<String> watchedAppId = LivyBatchWatcher.getInstance()
+                    .getLatestState(batchBaseUri.toString(), batchId)
+                    .map(SparkSubmitResponse::getAppId);
+
+            if (watchedAppId.isPresent()) {
+                return watchedAppId.get();
+            }
+
             try {
                 HttpResponse httpResponse = this.getSubmission().getBatchSparkJobStatus(
                         batchBaseUri.toString(), batchId);
@@ -348,8 +368,9 @@ public class SparkBatchRemoteDebugJob implements ISparkBatchDebugJob, ILogger {
             }
 
             try {
-                // Retry interval
-                sleep(TimeUnit.SECONDS.toMillis(this.getDelaySeconds()));
+                // Retry interval, or earlier once the watcher gets the batch state changed
+                LivyBatchWatcher.getInstance().awaitStateChange(
+                        batchBaseUri.toString(), batchId, this.getDelaySeconds(), TimeUnit.SECONDS);
             } catch (InterruptedException ex) {
                 throw new IOException("Interrupted in retry attempting", ex);
             }
@@ -414,6 +435,16 @@ public class SparkBatchRemoteDebugJob implements ISparkBatchDebugJob, ILogger {
         int retries = 0;
 
         do {
+            Optional<String> watchedDriverLogUrl = LivyBatchWatcher.getInstance()
+                    .getLatestState(batchBaseUri.toString(), batchId)
+                    .filter(state -> state.getAppId() != null && state.getAppInfo() != null)
+                    .map(state -> state.getAppInfo().get("driverLogUrl"))
+                    .map(Object::toString);
+
+            if (watchedDriverLogUrl.isPresent()) {
+                return watchedDriverLogUrl.get();
+            }
+
             HttpResponse httpResponse = this.getSubmission().getBatchSparkJobStatus(
                     batchBaseUri.toString(), batchId);
 
@@ -435,8 +466,9 @@ public class SparkBatchRemoteDebugJob implements ISparkBatchDebugJob, ILogger {
 
 
             try {
-                // Retry interval
-                sleep(TimeUnit.SECONDS.toMillis(this.getDelaySeconds()));
+                // Retry interval, or earlier once the watcher gets the batch state changed
+                LivyBatchWatcher.getInstance().awaitStateChange(
+                        batchBaseUri.toString(), batchId, this.getDelaySeconds(), TimeUnit.SECONDS);
             } catch (InterruptedException ex) {
                 throw new IOException("Interrupted in retry attempting", ex);
             }
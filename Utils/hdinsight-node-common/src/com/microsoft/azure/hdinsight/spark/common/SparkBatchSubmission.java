@@ -66,6 +66,26 @@ public class SparkBatchSubmission {
 
     private CredentialsProvider credentialsProvider =  new BasicCredentialsProvider();
 
+    /**
+     * The shared HTTP client with connections pooled, since the Livy service is polled frequently
+     */
+    private CloseableHttpClient httpClient;
+
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 10;
+    private static final int MAX_CONNECTIONS_TOTAL = 50;
+
+    private synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = HttpClients.custom()
+                    .setDefaultCredentialsProvider(credentialsProvider)
+                    .setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+                    .setMaxConnTotal(MAX_CONNECTIONS_TOTAL)
+                    .build();
+        }
+
+        return httpClient;
+    }
+
     /**
      * Set http request credential using username and password
      * @param username : username
@@ -76,7 +96,7 @@ public class SparkBatchSubmission {
     }
 
     public HttpResponse getHttpResponseViaGet(String connectUrl) throws IOException {
-        CloseableHttpClient httpclient = HttpClients.custom().setDefaultCredentialsProvider(credentialsProvider).build();
+        CloseableHttpClient httpclient = getHttpClient();
 
         HttpGet httpGet = new HttpGet(connectUrl);
         httpGet.addHeader("Content-Type", "application/json");
@@ -104,7 +124,7 @@ public class SparkBatchSubmission {
      * @return response result
      */
     public HttpResponse createBatchSparkJob(String connectUrl, SparkSubmissionParameter submissionParameter)throws IOException{
-        CloseableHttpClient httpclient = HttpClients.custom().setDefaultCredentialsProvider(credentialsProvider).build();
+        CloseableHttpClient httpclient = getHttpClient();
         HttpPost httpPost = new HttpPost(connectUrl);
         httpPost.addHeader("Content-Type", "application/json");
         httpPost.addHeader("User-Agent", userAgentName);
@@ -126,6 +146,17 @@ public class SparkBatchSubmission {
         return getHttpResponseViaGet(connectUrl + "/" + batchId);
     }
 
+    /**
+     * get batch spark job state only, without the application info and the log
+     * @param connectUrl : eg http://localhost:8998/batches
+     * @param batchId : batch Id
+     * @return response result, such as {"id":1,"state":"running"}
+     * @throws IOException
+     */
+    public HttpResponse getBatchSparkJobState(String connectUrl, int batchId)throws IOException{
+        return getHttpResponseViaGet(connectUrl + "/" + batchId + "/state");
+    }
+
     /**
      * kill batch job
      * @param connectUrl : eg http://localhost:8998/batches
@@ -134,7 +165,7 @@ public class SparkBatchSubmission {
      * @throws IOException
      */
     public HttpResponse killBatchJob(String connectUrl, int batchId)throws IOException {
-        CloseableHttpClient httpclient = HttpClients.custom().setDefaultCredentialsProvider(credentialsProvider).build();
+        CloseableHttpClient httpclient = getHttpClient();
         HttpDelete httpDelete = new HttpDelete(connectUrl +  "/" + batchId);
         httpDelete.addHeader("User-Agent", userAgentName);
         httpDelete.addHeader("Content-Type", "application/json");